@@ -26,9 +26,10 @@ import pl.traderate.core.exception.InternalLogicError;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * A real brokerage account with an individual trade history and holdings.
@@ -67,9 +68,14 @@ class Account implements Identifiable {
 	private String name;
 
 	/**
-	 * List of referenced entries for this account.
+	 * Chronological list of referenced entries for this account.
 	 */
-	private final ArrayList<JournalEntry> entries;
+	private final ChronologicalEntryList<JournalEntry> entries;
+
+	/**
+	 * Periodic snapshots of account state used for partial history replays.
+	 */
+	private final CheckpointList<Snapshot> checkpoints;
 
 	/**
 	 * List of all holdings of this account.
@@ -107,10 +113,20 @@ class Account implements Identifiable {
 	private HashMap<Integer, BigDecimal> cashAllocations;
 
 	/**
-	 * A Data Transfer Object version of this account.
+	 * A cached Data Transfer Object version of this account.
 	 */
 	private AccountDTO DTO;
 
+	/**
+	 * Model version the cached DTO was created at.
+	 */
+	private long DTOVersion;
+
+	/**
+	 * Model version of the latest quote change in account holdings.
+	 */
+	private long quoteVersion;
+
 	/**
 	 * Creates a new account given its name.
 	 *
@@ -119,7 +135,8 @@ class Account implements Identifiable {
 	Account(String name) {
 		ID = numberOfAccountsCreated++;
 		setName(name);
-		entries = new ArrayList<>();
+		entries = new ChronologicalEntryList<>();
+		checkpoints = new CheckpointList<>();
 		initVolatile();
 	}
 
@@ -135,7 +152,8 @@ class Account implements Identifiable {
 		this.ID = ID;
 		numberOfAccountsCreated++;
 		setName(name);
-		entries = new ArrayList<>();
+		entries = new ChronologicalEntryList<>();
+		checkpoints = new CheckpointList<>();
 		initVolatile();
 	}
 
@@ -158,44 +176,64 @@ class Account implements Identifiable {
 	}
 
 	/**
-	 * Recalculates account history from scratch.
+	 * Recalculates account history starting at a given date.
 	 *
-	 * If deferred computation is not enabled, a recalculation will trigger an
-	 * {@link update()}.
+	 * The replay starts from the nearest checkpoint taken on or before the
+	 * given date, or from scratch if no such checkpoint exists. If deferred
+	 * computation is not enabled, a recalculation will trigger an {@link
+	 * update()}.
 	 *
+	 * @param date Date of the earliest changed entry
 	 * @throws AccountRecalcException Thrown when current account history
 	 *                                represents an invalid state.
 	 */
-	private void recalc() throws AccountRecalcException {
-		wipeCalculations();
+	private void recalc(Date date) throws AccountRecalcException {
+		Map.Entry<Date, Snapshot> checkpoint = checkpoints.rewind(date, entries.size());
 
-		ArrayList<JournalEntry> sortedEntries = new ArrayList<>(entries);
-		Collections.sort(sortedEntries, new JournalEntry.DateComparator());
+		if (checkpoint == null) {
+			wipeCalculations();
+		} else {
+			checkpoint.getValue().restore(this);
+		}
 
-		for (JournalEntry entry : sortedEntries) {
+		for (JournalEntry entry : entries.getReplayedEntries(checkpoint == null ? null : checkpoint.getKey())) {
 			try {
-				entry.apply(this);
+				replayEntry(entry);
 			} catch (EntryInsertionException e) {
 				throw new AccountRecalcException();
 			}
 		}
 
-		if (!sortedEntries.isEmpty()) {
-			JournalEntry latestEntry = sortedEntries.get(sortedEntries.size() - 1);
-			latestEntryDate = latestEntry.getDate();
-		}
-
 		// Do not update when batch loading
 		if (!TradeRateConfig.isDeferredComputationMode()) {
 			update();
 		}
 	}
 
+	/**
+	 * Applies a single entry on top of the current state.
+	 *
+	 * Takes a new checkpoint beforehand if one is due.
+	 *
+	 * @param entry Entry to be applied
+	 * @throws EntryInsertionException Thrown when entry cannot be applied.
+	 */
+	private void replayEntry(JournalEntry entry) throws EntryInsertionException {
+		if (checkpoints.isDue(entry.date, latestEntryDate)) {
+			checkpoints.add(entry.date, new Snapshot(this));
+		}
+
+		entry.apply(this);
+		checkpoints.entryApplied();
+		latestEntryDate = entry.getDate();
+	}
+
 	/**
 	 * Adds a new entry to this account's history.
 	 *
 	 * Specific handling of the entry is performed by designated {@link
-	 * applyEntry()} methods (visitor pattern).
+	 * applyEntry()} methods (visitor pattern). Entries older than the latest
+	 * entry trigger a partial replay of the account history.
 	 *
 	 * @param entry An entry to be added
 	 * @throws EntryInsertionException Thrown when entry insertion fails.
@@ -203,20 +241,19 @@ class Account implements Identifiable {
 	public void addEntry(JournalEntry entry) throws EntryInsertionException {
 		// Checks if entry date is newer or equal to latestEntryDate
 		if (entry.getDate().compareTo(latestEntryDate) >= 0) {
-			entry.apply(this);
+			replayEntry(entry);
 			entries.add(entry);
-			latestEntryDate = entry.getDate();
 			if (!TradeRateConfig.isDeferredComputationMode()) {
 				update();
 			}
 		} else {
 			try {
-				entries.add(entry);
-				recalc();
+				entries.insert(entry);
+				recalc(entry.date);
 			} catch (AccountRecalcException e) {
-				entries.remove(entry);
+				entries.delete(entry);
 				try {
-					recalc();
+					recalc(entry.date);
 				} catch (AccountRecalcException e2) {
 					throw new InternalLogicError();
 				}
@@ -233,12 +270,12 @@ class Account implements Identifiable {
 	 */
 	public void removeEntry(JournalEntry entry) throws EntryInsertionException {
 		try {
-			entries.remove(entry);
-			recalc();
+			entries.delete(entry);
+			recalc(entry.date);
 		} catch (AccountRecalcException e) {
-			entries.add(entry);
+			entries.insert(entry);
 			try {
-				recalc();
+				recalc(entry.date);
 			} catch (AccountRecalcException e2) {
 				throw new InternalLogicError();
 			}
@@ -253,6 +290,15 @@ class Account implements Identifiable {
 		holdings.update();
 	}
 
+	/**
+	 * Adds tickers of all holdings to a given collection.
+	 *
+	 * @param tickers Destination collection
+	 */
+	void collectTickers(Collection<String> tickers) {
+		holdings.collectTickers(tickers);
+	}
+
 	/**
 	 * Updates prices of all holdings.
 	 */
@@ -503,13 +549,35 @@ class Account implements Identifiable {
 	}
 
 	/**
-	 * Returns a cached Data Transfer Object version of this account.
+	 * Returns the cached Data Transfer Object version of this account.
+	 *
+	 * @param validSince Model version of the latest change affecting all nodes
+	 * @return An {@link AccountDTO} object, <tt>null</tt> if it has to be created again
+	 */
+	AccountDTO getCachedDTO(long validSince) {
+		return DTO != null && DTOVersion >= validSince && DTOVersion >= quoteVersion ? DTO : null;
+	}
+
+	/**
+	 * Creates and caches a new Data Transfer Object version of this account.
 	 *
 	 * @param portfolios A list of all portfolios
+	 * @param version    Current model version
 	 * @return An {@link AccountDTO} object
 	 */
-	public AccountDTO getDTO(ArrayList<Portfolio> portfolios) {
-		return DTO == null ? new AccountDTO(this, new AccountCashAllocationsDTO(this, portfolios)) : DTO;
+	AccountDTO createDTO(ArrayList<Portfolio> portfolios, long version) {
+		DTO = new AccountDTO(this, new AccountCashAllocationsDTO(this, portfolios));
+		DTOVersion = version;
+		return DTO;
+	}
+
+	/**
+	 * Registers a quote change in account holdings.
+	 *
+	 * @param version Model version of the change
+	 */
+	void setQuoteVersion(long version) {
+		quoteVersion = version;
 	}
 
 	/**
@@ -520,4 +588,43 @@ class Account implements Identifiable {
 	public ArrayList<JournalEntry> getEntries() {
 		return entries;
 	}
+
+	/**
+	 * A snapshot of all volatile account fields.
+	 */
+	private static final class Snapshot {
+
+		private final HoldingList holdings;
+
+		private final Date latestEntryDate;
+
+		private final BigDecimal cashBalance;
+
+		private final BigDecimal unallocatedCash;
+
+		private final HashMap<Integer, BigDecimal> cashAllocations;
+
+		Snapshot(Account account) {
+			holdings = account.holdings.snapshot();
+			latestEntryDate = account.latestEntryDate;
+			cashBalance = account.cashBalance;
+			unallocatedCash = account.unallocatedCash;
+			cashAllocations = new HashMap<>(account.cashAllocations);
+		}
+
+		/**
+		 * Restores account state from this snapshot.
+		 *
+		 * The snapshot itself is left intact, so it can be restored again.
+		 *
+		 * @param account Account to be restored
+		 */
+		void restore(Account account) {
+			account.holdings = holdings.restore();
+			account.latestEntryDate = latestEntryDate;
+			account.cashBalance = cashBalance;
+			account.unallocatedCash = unallocatedCash;
+			account.cashAllocations = new HashMap<>(cashAllocations);
+		}
+	}
 }
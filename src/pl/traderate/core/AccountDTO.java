@@ -25,6 +25,8 @@ import java.util.ArrayList;
 
 /**
  * An account Data Transfer Object.
+ *
+ * Instances are cached and shared between callers, so they must not be modified.
  */
 public class AccountDTO {
 
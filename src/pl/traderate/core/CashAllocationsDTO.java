@@ -31,7 +31,7 @@ public abstract class CashAllocationsDTO {
 	/**
 	 * List of individual cash allocations.
 	 */
-	public ArrayList<Allocation> allocations;
+	public final ArrayList<Allocation> allocations;
 
 	protected CashAllocationsDTO() {
 		allocations = new ArrayList<>();
@@ -47,12 +47,12 @@ public abstract class CashAllocationsDTO {
 		/**
 		 * Portfolio name.
 		 */
-		public String name;
+		public final String name;
 
 		/**
 		 * Allocated amount.
 		 */
-		public BigDecimal amount;
+		public final BigDecimal amount;
 
 		public Allocation(BigDecimal amount, String name) {
 			this.amount = amount.setScale(2);
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A bounded list of state snapshots taken periodically during a chronological
+ * replay of journal entries.
+ *
+ * <p>A checkpoint stored under a given date represents the state of its owner
+ * after applying all entries dated strictly before that date. An entry
+ * inserted or removed at date <em>D</em> leaves all checkpoints dated on or
+ * before <em>D</em> intact, so the history only has to be replayed from the
+ * nearest of them.</p>
+ *
+ * <p>The number of stored checkpoints is bounded. Whenever the bound is
+ * exceeded, every other checkpoint is dropped and the checkpoint interval is
+ * doubled, which keeps memory usage logarithmic in the history length.</p>
+ *
+ * @param <T> Snapshot type
+ */
+final class CheckpointList<T> {
+
+	/**
+	 * Initial number of entries applied between consecutive checkpoints.
+	 */
+	private static final int INITIAL_INTERVAL = 4096;
+
+	/**
+	 * Maximum number of checkpoints stored at any time.
+	 */
+	private static final int MAX_CHECKPOINTS = 4;
+
+	/**
+	 * Snapshots keyed by the date of the first entry not included.
+	 */
+	private final TreeMap<Date, T> checkpoints;
+
+	/**
+	 * Current number of entries applied between consecutive checkpoints.
+	 */
+	private int interval;
+
+	/**
+	 * Number of entries applied since the most recent checkpoint.
+	 */
+	private int entriesSinceCheckpoint;
+
+	CheckpointList() {
+		checkpoints = new TreeMap<>();
+		clear();
+	}
+
+	/**
+	 * Removes all checkpoints.
+	 */
+	void clear() {
+		checkpoints.clear();
+		interval = INITIAL_INTERVAL;
+		entriesSinceCheckpoint = 0;
+	}
+
+	/**
+	 * Checks if a new checkpoint should be taken before applying an entry.
+	 *
+	 * Checkpoints are only taken on date boundaries, so that no entries of a
+	 * single day are split between a checkpoint and the replayed tail. No
+	 * checkpoints are taken when batch loading, the first replay afterwards
+	 * rebuilds them instead.
+	 *
+	 * @param nextEntryDate   Date of the entry about to be applied
+	 * @param latestEntryDate Date of the most recently applied entry
+	 * @return True if a snapshot should be added now
+	 */
+	boolean isDue(Date nextEntryDate, Date latestEntryDate) {
+		if (TradeRateConfig.isDeferredComputationMode()) {
+			return false;
+		}
+
+		return entriesSinceCheckpoint >= interval && nextEntryDate.after(latestEntryDate);
+	}
+
+	/**
+	 * Stores a new checkpoint.
+	 *
+	 * @param date     Date of the first entry not included in the snapshot
+	 * @param snapshot State snapshot
+	 */
+	void add(Date date, T snapshot) {
+		checkpoints.put(new Date(date.getTime()), snapshot);
+		entriesSinceCheckpoint = 0;
+
+		if (checkpoints.size() > MAX_CHECKPOINTS) {
+			thin();
+		}
+	}
+
+	/**
+	 * Registers an entry application.
+	 */
+	void entryApplied() {
+		entriesSinceCheckpoint++;
+	}
+
+	/**
+	 * Finds the latest checkpoint still valid after a change at a given date.
+	 *
+	 * All checkpoints following the returned one are discarded, as they will be
+	 * rebuilt during the replay. When the whole history has to be replayed, the
+	 * interval is chosen so that the replay takes at most {@link
+	 * #MAX_CHECKPOINTS} snapshots.
+	 *
+	 * @param date        Date of the inserted or removed entry
+	 * @param historySize Total number of entries in the history
+	 * @return The nearest checkpoint on or before the given date, <tt>null</tt>
+	 *         if the whole history has to be replayed
+	 */
+	Map.Entry<Date, T> rewind(Date date, int historySize) {
+		Map.Entry<Date, T> checkpoint = checkpoints.floorEntry(date);
+
+		if (checkpoint == null) {
+			clear();
+			while (interval * MAX_CHECKPOINTS < historySize) {
+				interval *= 2;
+			}
+		} else {
+			checkpoints.tailMap(checkpoint.getKey(), false).clear();
+			entriesSinceCheckpoint = 0;
+		}
+
+		return checkpoint;
+	}
+
+	/**
+	 * Returns the number of stored checkpoints.
+	 *
+	 * @return Number of checkpoints
+	 */
+	int size() {
+		return checkpoints.size();
+	}
+
+	/**
+	 * Drops every other checkpoint and doubles the checkpoint interval.
+	 *
+	 * Both the earliest and the most recent checkpoints are always kept.
+	 */
+	private void thin() {
+		Iterator<Date> dateIterator = checkpoints.keySet().iterator();
+
+		for (int i = 0; dateIterator.hasNext(); ++i) {
+			dateIterator.next();
+			if (i % 2 == 1) {
+				dateIterator.remove();
+			}
+		}
+
+		interval *= 2;
+	}
+}
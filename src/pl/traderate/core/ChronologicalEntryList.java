@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * A list of journal entries kept in chronological order.
+ *
+ * Entries with equal dates are stored in insertion order. Their final order is
+ * established by {@link JournalEntry.DateComparator} when a part of the
+ * history is replayed.
+ *
+ * @param <T> Entry type
+ */
+final class ChronologicalEntryList<T extends JournalEntry> extends ArrayList<T> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Inserts an entry after all entries dated on or before its date.
+	 *
+	 * @param entry Entry to be inserted
+	 */
+	void insert(T entry) {
+		add(findFirstIndex(new Date(entry.date.getTime() + 1)), entry);
+	}
+
+	/**
+	 * Removes a given entry object.
+	 *
+	 * @param entry Entry to be removed
+	 */
+	void delete(T entry) {
+		for (int i = findFirstIndex(entry.date); i < size(); ++i) {
+			if (get(i) == entry) {
+				remove(i);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns all entries dated on or after a given date in replay order.
+	 *
+	 * @param date Starting date, <tt>null</tt> for the whole history
+	 * @return A new list of entries sorted with {@link JournalEntry.DateComparator}
+	 */
+	ArrayList<T> getReplayedEntries(Date date) {
+		int fromIndex = (date == null) ? 0 : findFirstIndex(date);
+		ArrayList<T> replayedEntries = new ArrayList<>(subList(fromIndex, size()));
+		Collections.sort(replayedEntries, new JournalEntry.DateComparator());
+		return replayedEntries;
+	}
+
+	/**
+	 * Finds the position of the first entry dated on or after a given date.
+	 *
+	 * @param date Searched date
+	 * @return Index of the entry
+	 */
+	private int findFirstIndex(Date date) {
+		int low = 0;
+		int high = size();
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (get(middle).date.before(date)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+import java.util.ArrayList;
+
+/**
+ * A DTO with journal entries added and removed since a given model version.
+ *
+ * Rows refer to the display order of entries. Removing the rows in the given
+ * order and then inserting the added entries in the given order turns the
+ * entry list as of the earlier version into the current one.
+ */
+public class EntryChangesDTO {
+
+	/**
+	 * Model version the changes lead to.
+	 */
+	public final long version;
+
+	/**
+	 * Added entries, in ascending order of their rows.
+	 */
+	public final ArrayList<JournalEntryDTO> addedEntries;
+
+	/**
+	 * Rows of the added entries.
+	 */
+	public final int[] addedRows;
+
+	/**
+	 * Removed entries, in descending order of their former rows.
+	 */
+	public final ArrayList<JournalEntryDTO> removedEntries;
+
+	/**
+	 * Former rows of the removed entries.
+	 */
+	public final int[] removedRows;
+
+	EntryChangesDTO(long version, ArrayList<JournalEntryDTO> addedEntries, int[] addedRows, ArrayList<JournalEntryDTO> removedEntries, int[] removedRows) {
+		this.version = version;
+		this.addedEntries = addedEntries;
+		this.addedRows = addedRows;
+		this.removedEntries = removedEntries;
+		this.removedRows = removedRows;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+import pl.traderate.core.exception.*;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * A single journal entry mutation, applied as a part of a batch.
+ *
+ * Instances are created with the static factory methods, which take the same
+ * arguments as the corresponding {@link TradeRate} methods.
+ *
+ * @see TradeRate#applyBatch(java.util.List)
+ */
+public abstract class EntryCommand {
+
+	/**
+	 * Restricted constructor.
+	 *
+	 * Only commands defined in this class are supported.
+	 */
+	private EntryCommand() {
+
+	}
+
+	/**
+	 * Performs the mutation.
+	 *
+	 * @param journal Modified journal
+	 */
+	abstract void apply(Journal journal) throws ObjectNotFoundException, EntryInsertionException, ObjectConstraintsException, InvalidInputException;
+
+	/**
+	 * Records the mutation in a journal log.
+	 *
+	 * @param log Mutation log
+	 */
+	abstract void log(JournalLog log);
+
+	public static EntryCommand buyEquity(final int accountID, final int portfolioID, final String tags, final Date date, final String comment, final String ticker, final BigDecimal quantity, final BigDecimal price, final BigDecimal commission) {
+		return new EntryCommand() {
+			@Override
+			void apply(Journal journal) throws ObjectNotFoundException, EntryInsertionException, ObjectConstraintsException, InvalidInputException {
+				journal.addBuyEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
+			}
+
+			@Override
+			void log(JournalLog log) {
+				log.addBuyEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
+			}
+		};
+	}
+
+	public static EntryCommand sellEquity(final int accountID, final int portfolioID, final String tags, final Date date, final String comment, final String ticker, final BigDecimal quantity, final BigDecimal price, final BigDecimal commission) {
+		return new EntryCommand() {
+			@Override
+			void apply(Journal journal) throws ObjectNotFoundException, EntryInsertionException, ObjectConstraintsException, InvalidInputException {
+				journal.addSellEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
+			}
+
+			@Override
+			void log(JournalLog log) {
+				log.addSellEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
+			}
+		};
+	}
+
+	public static EntryCommand allocateCash(final int accountID, final int portfolioID, final String tags, final Date date, final String comment, final BigDecimal amount) {
+		return new EntryCommand() {
+			@Override
+			void apply(Journal journal) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+				journal.addCashAllocationEntry(accountID, portfolioID, tags, date, comment, amount);
+			}
+
+			@Override
+			void log(JournalLog log) {
+				log.addCashAllocationEntry(accountID, portfolioID, tags, date, comment, amount);
+			}
+		};
+	}
+
+	public static EntryCommand deallocateCash(final int accountID, final int portfolioID, final String tags, final Date date, final String comment, final BigDecimal amount) {
+		return new EntryCommand() {
+			@Override
+			void apply(Journal journal) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+				journal.addCashDeallocationEntry(accountID, portfolioID, tags, date, comment, amount);
+			}
+
+			@Override
+			void log(JournalLog log) {
+				log.addCashDeallocationEntry(accountID, portfolioID, tags, date, comment, amount);
+			}
+		};
+	}
+
+	public static EntryCommand depositCash(final int accountID, final String tags, final Date date, final String comment, final BigDecimal amount) {
+		return new EntryCommand() {
+			@Override
+			void apply(Journal journal) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+				journal.addCashDepositEntry(accountID, tags, date, comment, amount);
+			}
+
+			@Override
+			void log(JournalLog log) {
+				log.addCashDepositEntry(accountID, tags, date, comment, amount);
+			}
+		};
+	}
+
+	public static EntryCommand withdrawCash(final int accountID, final String tags, final Date date, final String comment, final BigDecimal amount) {
+		return new EntryCommand() {
+			@Override
+			void apply(Journal journal) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+				journal.addCashWithdrawalEntry(accountID, tags, date, comment, amount);
+			}
+
+			@Override
+			void log(JournalLog log) {
+				log.addCashWithdrawalEntry(accountID, tags, date, comment, amount);
+			}
+		};
+	}
+
+	public static EntryCommand removeEntry(final int entryID) {
+		return new EntryCommand() {
+			@Override
+			void apply(Journal journal) throws ObjectNotFoundException, EntryInsertionException {
+				journal.removeEntry(entryID);
+			}
+
+			@Override
+			void log(JournalLog log) {
+				log.removeEntry(entryID);
+			}
+		};
+	}
+}
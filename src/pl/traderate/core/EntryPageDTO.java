@@ -20,38 +20,37 @@
 
 package pl.traderate.core;
 
-import pl.traderate.core.exception.ObjectNotFoundException;
-
-import java.util.TreeSet;
+import java.util.ArrayList;
 
 /**
- * A helper object with a template function to find objects by name.
+ * A DTO with a range of journal entries in display order.
  */
-public class ObjectFinder {
+public class EntryPageDTO {
+
+	/**
+	 * Model version the page was read at.
+	 */
+	public final long version;
 
 	/**
-	 * Finds an object by its name.
-	 *
-	 * @param objectName Searched name
-	 * @param sortedSet Object set
-	 * @param <T> Object type
-	 * @return First object found
-	 * @throws ObjectNotFoundException Thrown when no object was found.
+	 * Total number of entries in the journal.
 	 */
-	static <T extends IdentifiableByName> T findByName(String objectName, TreeSet<T> sortedSet) throws ObjectNotFoundException {
-		T object = null;
+	public final int entryCount;
 
-		for (T checkedObject : sortedSet) {
-			if (checkedObject.getName().equals(objectName)) {
-				object = checkedObject;
-				break;
-			}
-		}
+	/**
+	 * Position of the first entry of the page.
+	 */
+	public final int firstRow;
 
-		if (object == null) {
-			throw new ObjectNotFoundException();
-		}
+	/**
+	 * Entries of the page, the most recent first.
+	 */
+	public final ArrayList<JournalEntryDTO> entries;
 
-		return object;
+	EntryPageDTO(long version, int entryCount, int firstRow, ArrayList<JournalEntryDTO> entries) {
+		this.version = version;
+		this.entryCount = entryCount;
+		this.firstRow = firstRow;
+		this.entries = entries;
 	}
 }
@@ -20,12 +20,11 @@
 
 package pl.traderate.core;
 
-import pl.traderate.core.exception.ObjectNotFoundException;
+import pl.traderate.data.Quote;
+import pl.traderate.data.QuoteEngine;
 
-import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Collections;
 
 /**
  * A holding in equities.
@@ -35,12 +34,37 @@ class EquityHolding extends Holding {
 	/**
 	 * Position of this holding.
 	 */
-	protected TreeSet<EquityPosition> positions;
+	protected NamedObjectSet<EquityPosition> positions;
+
+	/**
+	 * Positions indexed by their index in the trade table.
+	 *
+	 * Indices of detached positions hold <tt>null</tt>.
+	 */
+	private ArrayList<EquityPosition> positionIndex;
 
 	/**
 	 * All trades of this holding.
 	 */
-	protected TreeSet<EquityTrade> trades;
+	protected EquityTradeTable trades;
+
+	/**
+	 * Holdings aggregated by this holding, <tt>null</tt> for a plain holding.
+	 *
+	 * Trades of the components are not copied. Totals are summed from their
+	 * positions and trades are read from their tables when requested.
+	 */
+	private ArrayList<EquityHolding> components;
+
+	/**
+	 * Unscaled last market price.
+	 */
+	private long unscaledLastMarketPrice;
+
+	/**
+	 * Scale of the last market price.
+	 */
+	private int lastMarketPriceScale;
 
 	/**
 	 * Creates a new equities holding.
@@ -50,46 +74,66 @@ class EquityHolding extends Holding {
 	 */
 	EquityHolding(String ticker, boolean closed) {
 		super(ticker, closed);
-		positions = new TreeSet<>();
-		trades = new TreeSet<>();
+		positions = new NamedObjectSet<>();
+		positionIndex = new ArrayList<>();
+		trades = new EquityTradeTable();
 	}
 
 	/**
 	 * Creates a copy of a holding object.
 	 *
+	 * The trade table is shared with the original holding until either of
+	 * them is modified.
+	 *
 	 * @param holding Holding object to copy
 	 */
 	EquityHolding(EquityHolding holding) {
-		this(holding.ticker, holding.closed);
-		
-		for (EquityPosition position : holding.positions) {
-			this.positions.add(new EquityPosition(position));
+		super(holding.ticker, holding.closed);
+		copyPerformanceData(holding);
+		unscaledLastMarketPrice = holding.unscaledLastMarketPrice;
+		lastMarketPriceScale = holding.lastMarketPriceScale;
+
+		positions = new NamedObjectSet<>();
+		positionIndex = new ArrayList<>(holding.positionIndex.size());
+		trades = holding.trades.share();
+
+		if (holding.components != null) {
+			components = new ArrayList<>(holding.components);
 		}
 
-		for (EquityTrade trade : holding.trades) {
-			this.trades.add(new EquityTrade(trade));
+		for (EquityPosition position : holding.positionIndex) {
+			EquityPosition positionCopy = null;
+
+			if (position != null) {
+				positionCopy = new EquityPosition(position);
+				positionCopy.index = position.index;
+				positionCopy.setParent(this);
+				positions.add(positionCopy);
+			}
+
+			positionIndex.add(positionCopy);
 		}
 	}
 
 	/**
-	 * Merges the given holding object with this holding.
+	 * Adds the given holding to the aggregate of this holding.
+	 *
+	 * The other holding is referenced, not copied, so it has to be updated
+	 * before this one and must not be modified until this holding is
+	 * aggregated again.
 	 *
 	 * @param otherHolding A holding object to be merged with
 	 */
 	void merge(EquityHolding otherHolding) {
 		for (EquityPosition otherPosition : otherHolding.positions) {
-			EquityPosition thisPosition;
-			try {
-				thisPosition = ObjectFinder.findByName(otherPosition.name, this.positions);
-				thisPosition.merge(otherPosition);
-			} catch (ObjectNotFoundException e) {
-				this.positions.add(new EquityPosition(otherPosition));
-			}
+			findOrAttachPosition(otherPosition.name);
 		}
-		
-		for (EquityTrade otherTrade: otherHolding.trades) {
-			this.trades.add(new EquityTrade(otherTrade));
+
+		if (components == null) {
+			components = new ArrayList<>();
 		}
+
+		components.add(otherHolding);
 	}
 
 	/**
@@ -97,73 +141,95 @@ class EquityHolding extends Holding {
 	 */
 	@Override
 	void update() {
+		for (EquityPosition position : positions) {
+			position.clearTotals();
+		}
+
+		for (int row = 0; row < trades.size(); row++) {
+			positionIndex.get(trades.getPosition(row)).addTrade(trades.getQuantity(row), trades.getOpenPrice(row), trades.getCommission(row), trades.getClosePrice(row));
+		}
+
+		if (components != null) {
+			for (EquityHolding component : components) {
+				for (EquityPosition componentPosition : component.positions) {
+					findOrAttachPosition(componentPosition.name).addTotals(componentPosition);
+				}
+			}
+		}
+
 		for (EquityPosition position : positions) {
 			position.update();
 		}
 
-		quantity = BigDecimal.ZERO;
-		openPrice = BigDecimal.ZERO;
-		openValue = BigDecimal.ZERO;
-		commission = BigDecimal.ZERO;
+		quantity = 0;
+		openPrice = 0;
+		openValue = 0;
+		commission = 0;
 
 		if (isClosed()) {
-			closePrice = BigDecimal.ZERO;
-			closeValue = BigDecimal.ZERO;
-			realizedGain = BigDecimal.ZERO;
-			realizedGainPercentage = BigDecimal.ZERO;
+			closePrice = 0;
+			closeValue = 0;
+			realizedGain = 0;
+			realizedGainPercentage = 0;
+			closeValuesKnown = true;
 		}
 
 		for (EquityPosition position : positions) {
-			quantity = quantity.add(position.quantity);
-			openValue = openValue.add(position.openValue);
-			commission = commission.add(position.commission);
+			quantity += position.quantity;
+			openValue += position.openValue;
+			commission += position.commission;
 			if (isClosed()) {
-				closeValue = closeValue.add(position.closeValue);
+				closeValue += position.closeValue;
 			}
 		}
 
-		if (quantity.signum() == 0) {
-			openPrice = BigDecimal.ZERO;
-			closePrice = BigDecimal.ZERO;
-			commission = BigDecimal.ZERO;
-			realizedGain = BigDecimal.ZERO;
-			realizedGainPercentage = BigDecimal.ZERO;
+		if (quantity == 0) {
+			openPrice = 0;
+			closePrice = 0;
+			commission = 0;
+			realizedGain = 0;
+			realizedGainPercentage = 0;
+			closeValuesKnown = true;
 		} else {
-			openPrice = openValue.divide(quantity, 2, RoundingMode.HALF_EVEN);
+			openPrice = FixedPoint.divide(openValue, quantity);
 			if (isClosed()) {
-				closePrice = closeValue.divide(quantity, 2, RoundingMode.HALF_EVEN);
-				realizedGain = closeValue.subtract(openValue).subtract(commission);;
-				realizedGainPercentage = realizedGain.divide(openValue, 4, RoundingMode.HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, RoundingMode.HALF_EVEN);
+				closePrice = FixedPoint.divide(closeValue, quantity);
+				updateRealizedGain();
 			}
 		}
 	}
 
 	/**
 	 * {@inheritDoc}
+	 *
+	 * All trades of a holding share the same quote, so market values are
+	 * computed from position and holding quantities.
 	 */
 	@Override
 	void updateQuotes() {
-		for (EquityPosition position : positions) {
-			position.updateQuotes();
+		Quote quote = QuoteEngine.getInstance().peekQuote(ticker);
+
+		// Quotes are shared, so a price is only converted when it changes
+		if (quote.lastPrice != lastMarketPrice && quote.lastPrice != null) {
+			lastMarketPriceScale = FixedPoint.getMarketScale(quote.lastPrice);
+			unscaledLastMarketPrice = FixedPoint.toUnscaled(quote.lastPrice, lastMarketPriceScale);
 		}
 
-		marketValue = BigDecimal.ZERO;
+		lastMarketPrice = quote.lastPrice;
+		lastMarketPriceTime = (quote.lastPrice != null) ? quote.time : null;
 
 		for (EquityPosition position : positions) {
-			lastMarketPrice = position.lastMarketPrice;
-			if (lastMarketPrice != null) {
-				marketValue = marketValue.add(position.marketValue);
-			}
+			position.updateQuotes();
 		}
 
-		if (marketValue.equals(BigDecimal.ZERO)) {
-			lastMarketPrice = null;
-			marketValue = null;
-			paperGain = null;
-			paperGainPercentage = null;
+		if (lastMarketPrice != null) {
+			marketScale = lastMarketPriceScale;
+			marketValue = FixedPoint.multiply(unscaledLastMarketPrice, quantity);
+			marketValueKnown = true;
+			updatePaperGain();
 		} else {
-			paperGain = marketValue.subtract(openValue).subtract(commission);
-			paperGainPercentage = paperGain.divide(openValue, 4, RoundingMode.HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, RoundingMode.HALF_EVEN);
+			marketValueKnown = false;
+			paperGainKnown = false;
 		}
 	}
 
@@ -174,6 +240,8 @@ class EquityHolding extends Holding {
 	 */
 	void attach(EquityPosition position) {
 		position.setParent(this);
+		position.index = positionIndex.size();
+		positionIndex.add(position);
 		positions.add(position);
 	}
 
@@ -184,25 +252,46 @@ class EquityHolding extends Holding {
 	 */
 	void detach(EquityPosition position) {
 		position.setParent(null);
+		positionIndex.set(position.index, null);
 		positions.remove(position);
 	}
 
 	/**
-	 * Adds an equity trade to the list of trades.
+	 * Finds a position by name, attaching a new one if there is none.
 	 *
-	 * @param trade Trade to be added
+	 * @param name Position name
+	 * @return Equity position
 	 */
-	void attach(EquityTrade trade) {
-		trades.add(trade);
+	private EquityPosition findOrAttachPosition(String name) {
+		EquityPosition position = positions.getByName(name);
+
+		if (position == null) {
+			position = new EquityPosition(name, closed);
+			attach(position);
+		}
+
+		return position;
 	}
 
 	/**
-	 * Removes an equity trade from the list of trades.
+	 * Removes trades and detaches positions left without trades.
 	 *
-	 * @param trade Trade to be removed
+	 * @param rows  Removed rows of the trade table in ascending order
+	 * @param count Number of removed rows
 	 */
-	void detach(EquityTrade trade) {
-		trades.remove(trade);
+	void removeTrades(int[] rows, int count) {
+		int[] removedPositions = new int[count];
+		for (int i = 0; i < count; i++) {
+			removedPositions[i] = trades.getPosition(rows[i]);
+		}
+
+		trades.remove(rows, count);
+
+		for (int position : removedPositions) {
+			if (trades.getTradeCount(position) == 0 && positionIndex.get(position) != null) {
+				detach(positionIndex.get(position));
+			}
+		}
 	}
 
 	/**
@@ -210,17 +299,72 @@ class EquityHolding extends Holding {
 	 *
 	 * @return Equity position of this holding
 	 */
-	TreeSet<EquityPosition> getPositions() {
+	NamedObjectSet<EquityPosition> getPositions() {
 		return positions;
 	}
 
 	/**
-	 * Returns all trades of this holding.
+	 * Returns a position by its index in the trade table.
+	 *
+	 * @param index Position index
+	 * @return Equity position
+	 */
+	EquityPosition getPosition(int index) {
+		return positionIndex.get(index);
+	}
+
+	/**
+	 * Returns trades of a position.
+	 *
+	 * Trades of aggregated holdings are collected from the component tables.
+	 *
+	 * @param position Position of this holding
+	 * @return Views of equity trades in date order
+	 */
+	ArrayList<EquityTrade> getTrades(EquityPosition position) {
+		ArrayList<EquityTrade> positionTrades = new ArrayList<>();
+		collectTrades(position.name, this, positionTrades);
+
+		if (components != null) {
+			Collections.sort(positionTrades);
+		}
+
+		return positionTrades;
+	}
+
+	/**
+	 * Adds views of position trades of this holding and its components to a list.
 	 *
-	 * @return Equity trades of this holding
+	 * @param positionName   Name of the position
+	 * @param valuingHolding Holding providing the market price
+	 * @param positionTrades Destination list
 	 */
-	TreeSet<EquityTrade> getTrades() {
-		return trades;
+	private void collectTrades(String positionName, EquityHolding valuingHolding, ArrayList<EquityTrade> positionTrades) {
+		EquityPosition position = positions.getByName(positionName);
+
+		if (position == null) {
+			return;
+		}
+
+		for (int row = 0; row < trades.size(); row++) {
+			if (trades.getPosition(row) == position.index) {
+				positionTrades.add(new EquityTrade(valuingHolding, trades, row));
+			}
+		}
+
+		if (components != null) {
+			for (EquityHolding component : components) {
+				component.collectTrades(positionName, valuingHolding, positionTrades);
+			}
+		}
+	}
+
+	long getUnscaledLastMarketPrice() {
+		return unscaledLastMarketPrice;
+	}
+
+	int getLastMarketPriceScale() {
+		return lastMarketPriceScale;
 	}
 
 	/**
@@ -20,20 +20,26 @@
 
 package pl.traderate.core;
 
-import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
-import java.util.TreeSet;
+import java.util.ArrayList;
 
 /**
  * A position in equities.
+ *
+ * Trades of a position are kept in the trade table of its holding, marked
+ * with the position index. Totals are accumulated by the holding in a single
+ * pass over the table.
  */
 class EquityPosition extends Position {
 
 	/**
-	 * Trades forming this position.
+	 * Index of this position in the trade table of its holding.
 	 */
-	protected TreeSet<EquityTrade> trades;
+	protected int index;
+
+	/**
+	 * Sum of trade commissions, kept when the quantity is zero.
+	 */
+	private long tradeCommission;
 
 	/**
 	 * Creates a new equity position.
@@ -43,72 +49,86 @@ class EquityPosition extends Position {
 	 */
 	EquityPosition(String name, boolean closed) {
 		super(name, closed);
-		trades = new TreeSet<>();
 	}
 
 	/**
 	 * Creates a copy of an equity position.
 	 *
+	 * The copy has to be attached to a copy of the holding sharing its trade table.
+	 *
 	 * @param position Position to copy
 	 */
 	EquityPosition(EquityPosition position) {
 		this(position.name, position.closed);
-		
-		for (EquityTrade trade : position.trades) {
-			this.trades.add(new EquityTrade(trade));
-		}
+		copyPerformanceData(position);
 	}
 
 	/**
-	 * Merges this object with another equity position.
-	 *
-	 * @param otherPosition Position to be merged.
+	 * Clears totals before trades are accumulated.
 	 */
-	void merge(EquityPosition otherPosition) {
-		for (EquityTrade otherTrade: otherPosition.trades) {
-			this.trades.add(new EquityTrade(otherTrade));
-		}
+	void clearTotals() {
+		quantity = 0;
+		openValue = 0;
+		commission = 0;
+		tradeCommission = 0;
+		closeValue = 0;
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Adds a trade to position totals.
+	 *
+	 * @param quantity   Number of shares
+	 * @param openPrice  Open price in cents
+	 * @param commission Commission in cents
+	 * @param closePrice Close price in cents, ignored for open positions
 	 */
-	@Override
-	void update() {
-		quantity = BigDecimal.ZERO;
-		openPrice = BigDecimal.ZERO;
-		openValue = BigDecimal.ZERO;
-		commission = BigDecimal.ZERO;
-
+	void addTrade(long quantity, long openPrice, long commission, long closePrice) {
+		this.quantity += quantity;
+		this.openValue += FixedPoint.multiply(openPrice, quantity);
+		this.commission += commission;
+		this.tradeCommission += commission;
 		if (isClosed()) {
-			closePrice = BigDecimal.ZERO;
-			closeValue = BigDecimal.ZERO;
-			realizedGain = BigDecimal.ZERO;
-			realizedGainPercentage = BigDecimal.ZERO;
+			this.closeValue += FixedPoint.multiply(closePrice, quantity);
 		}
+	}
 
-		for (EquityTrade trade : trades) {
-			quantity = quantity.add(trade.quantity);
-			openValue = openValue.add(trade.openValue);
-			commission = commission.add(trade.commission);
-			if (isClosed()) {
-				closeValue = closeValue.add(trade.closeValue);
-			}
+	/**
+	 * Adds totals of a position of an aggregated holding.
+	 *
+	 * @param position Position with the same name and up to date totals
+	 */
+	void addTotals(EquityPosition position) {
+		quantity += position.quantity;
+		openValue += position.openValue;
+		commission += position.tradeCommission;
+		tradeCommission += position.tradeCommission;
+		if (isClosed()) {
+			closeValue += position.closeValue;
 		}
+	}
 
-		if (quantity.signum() == 0) {
+	/**
+	 * Computes prices and gains from the accumulated totals.
+	 *
+	 * @see #clearTotals()
+	 * @see #addTrade(long, long, long, long)
+	 * @see #addTotals(EquityPosition)
+	 */
+	@Override
+	void update() {
+		if (quantity == 0) {
 			// TODO: This should probably never happen?
-			openPrice = BigDecimal.ZERO;
-			closePrice = BigDecimal.ZERO;
-			commission = BigDecimal.ZERO;
-			realizedGain = BigDecimal.ZERO;
-			realizedGainPercentage = BigDecimal.ZERO;
+			openPrice = 0;
+			closePrice = 0;
+			commission = 0;
+			realizedGain = 0;
+			realizedGainPercentage = 0;
+			closeValuesKnown = true;
 		} else {
-			openPrice = openValue.divide(quantity, 2, RoundingMode.HALF_EVEN);
+			openPrice = FixedPoint.divide(openValue, quantity);
 			if (isClosed()) {
-				closePrice = closeValue.divide(quantity, 2, RoundingMode.HALF_EVEN);
-				realizedGain = closeValue.subtract(openValue).subtract(commission);;
-				realizedGainPercentage = realizedGain.divide(openValue, 4, RoundingMode.HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, RoundingMode.HALF_EVEN);
+				closePrice = FixedPoint.divide(closeValue, quantity);
+				updateRealizedGain();
 			}
 		}
 	}
@@ -118,58 +138,28 @@ class EquityPosition extends Position {
 	 */
 	@Override
 	void updateQuotes() {
-		for (EquityTrade trade : trades) {
-			trade.updateQuotes();
-		}
-		
-		marketValue = BigDecimal.ZERO;
-		
-		for (EquityTrade trade : trades) {
-			lastMarketPrice = trade.lastMarketPrice;
-			if (lastMarketPrice != null) {
-				marketValue = marketValue.add(trade.marketValue);
-			}
-		}
-
-		if (marketValue.equals(BigDecimal.ZERO)) {
-			lastMarketPrice = null;
-			marketValue = null;
-			paperGain = null;
-			paperGainPercentage = null;
-		} else {
-			paperGain = marketValue.subtract(openValue).subtract(commission);
-			paperGainPercentage = paperGain.divide(openValue, 4, RoundingMode.HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, RoundingMode.HALF_EVEN);
-		}
-	}
+		EquityHolding holding = (EquityHolding) parent;
 
-	/**
-	 * Adds a trade to this position's trade list.
-	 *
-	 * @param trade
-	 */
-	void attach(EquityTrade trade) {
-		trade.setParent(this);
-		trades.add(trade);
-	}
+		lastMarketPrice = holding.lastMarketPrice;
+		lastMarketPriceTime = holding.lastMarketPriceTime;
 
-	/**
-	 * Removes a trade from the list of trades.
-	 * @param trade
-	 */
-	void detach(EquityTrade trade) {
-		trade.setParent(null);
-		trades.remove(trade);
-		if (trades.isEmpty()) {
-			((EquityHolding) parent).detach(this);
+		if (lastMarketPrice != null) {
+			marketScale = holding.getLastMarketPriceScale();
+			marketValue = FixedPoint.multiply(holding.getUnscaledLastMarketPrice(), quantity);
+			marketValueKnown = true;
+			updatePaperGain();
+		} else {
+			marketValueKnown = false;
+			paperGainKnown = false;
 		}
 	}
 
 	/**
 	 * Returns all trades of this position.
 	 *
-	 * @return Equity trades
+	 * @return Views of equity trades in date order
 	 */
-	TreeSet<EquityTrade> getTrades() {
-		return trades;
+	ArrayList<EquityTrade> getTrades() {
+		return ((EquityHolding) parent).getTrades(this);
 	}
 }
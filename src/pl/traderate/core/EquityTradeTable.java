@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package pl.traderate.core;
+
+import java.util.Arrays;
+
+/**
+ * Trades of a single equity holding, stored column by column.
+ *
+ * <p>Each trade is a row of parallel primitive arrays, ordered by its date and
+ * ID. Quantities are kept at scale 0, prices and commissions at {@link
+ * FixedPoint#MONEY_SCALE}. The position column holds indices assigned by the
+ * owning {@link EquityHolding}. The ticker is not stored, as all trades of a
+ * table share the ticker of their holding.</p>
+ *
+ * <p>Tables are copied on write. {@link #share()} returns a table backed by
+ * the same arrays, and whichever of them is modified first copies the arrays
+ * before the modification. This makes copies of holdings for checkpoints and
+ * aggregation proportional to the number of holdings, not trades.</p>
+ */
+final class EquityTradeTable {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private int[] IDs;
+
+	private int[] epochDays;
+
+	private int[] accountIDs;
+
+	private int[] portfolioIDs;
+
+	private int[] positions;
+
+	private long[] quantities;
+
+	private long[] openPrices;
+
+	private long[] commissions;
+
+	private long[] closePrices;
+
+	private boolean[] closed;
+
+	/**
+	 * Number of trades of each position.
+	 */
+	private int[] positionTradeCounts;
+
+	/**
+	 * Array index of the first row.
+	 *
+	 * Trades are closed in FIFO order, so rows are mostly removed from the
+	 * beginning of the table. Such removals only advance the head.
+	 */
+	private int head;
+
+	private int size;
+
+	/**
+	 * True if the arrays may be referenced by another table.
+	 */
+	private boolean shared;
+
+	EquityTradeTable() {
+		this(INITIAL_CAPACITY);
+	}
+
+	private EquityTradeTable(int capacity) {
+		IDs = new int[capacity];
+		epochDays = new int[capacity];
+		accountIDs = new int[capacity];
+		portfolioIDs = new int[capacity];
+		positions = new int[capacity];
+		quantities = new long[capacity];
+		openPrices = new long[capacity];
+		commissions = new long[capacity];
+		closePrices = new long[capacity];
+		closed = new boolean[capacity];
+		positionTradeCounts = new int[0];
+	}
+
+	/**
+	 * Creates a copy of this table sharing its arrays until either is modified.
+	 *
+	 * @return A copy of this table
+	 */
+	EquityTradeTable share() {
+		EquityTradeTable table = new EquityTradeTable(0);
+		table.IDs = IDs;
+		table.epochDays = epochDays;
+		table.accountIDs = accountIDs;
+		table.portfolioIDs = portfolioIDs;
+		table.positions = positions;
+		table.quantities = quantities;
+		table.openPrices = openPrices;
+		table.commissions = commissions;
+		table.closePrices = closePrices;
+		table.closed = closed;
+		table.positionTradeCounts = positionTradeCounts;
+		table.head = head;
+		table.size = size;
+		table.shared = true;
+		shared = true;
+		return table;
+	}
+
+	/**
+	 * Merges two tables in date and ID order.
+	 *
+	 * Trades with equal keys are taken from the first table first.
+	 *
+	 * @param first         Table keeping its position indices
+	 * @param second        Table merged into the first one
+	 * @param positionIndex Indices of the second table positions in the result
+	 * @return A new table with trades of both tables
+	 */
+	static EquityTradeTable merge(EquityTradeTable first, EquityTradeTable second, int[] positionIndex) {
+		EquityTradeTable table = new EquityTradeTable(Math.max(first.size + second.size, INITIAL_CAPACITY));
+		int i = first.head;
+		int j = second.head;
+		int firstEnd = first.head + first.size;
+		int secondEnd = second.head + second.size;
+
+		while (i < firstEnd || j < secondEnd) {
+			if (j == secondEnd || (i < firstEnd && first.compareTo(i, second.epochDays[j], second.IDs[j]) <= 0)) {
+				table.append(first, i, first.positions[i]);
+				i++;
+			} else {
+				table.append(second, j, positionIndex[second.positions[j]]);
+				j++;
+			}
+		}
+
+		return table;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int getID(int row) {
+		return IDs[head + row];
+	}
+
+	int getEpochDay(int row) {
+		return epochDays[head + row];
+	}
+
+	int getAccountID(int row) {
+		return accountIDs[head + row];
+	}
+
+	int getPortfolioID(int row) {
+		return portfolioIDs[head + row];
+	}
+
+	int getPosition(int row) {
+		return positions[head + row];
+	}
+
+	long getQuantity(int row) {
+		return quantities[head + row];
+	}
+
+	long getOpenPrice(int row) {
+		return openPrices[head + row];
+	}
+
+	long getCommission(int row) {
+		return commissions[head + row];
+	}
+
+	long getClosePrice(int row) {
+		return closePrices[head + row];
+	}
+
+	boolean isClosed(int row) {
+		return closed[head + row];
+	}
+
+	/**
+	 * Returns the number of trades of a position.
+	 *
+	 * @param position Position index
+	 * @return Number of trades
+	 */
+	int getTradeCount(int position) {
+		return position < positionTradeCounts.length ? positionTradeCounts[position] : 0;
+	}
+
+	/**
+	 * Inserts an open trade after all trades with the same or an earlier date and ID.
+	 *
+	 * Trades are mostly added in chronological order, so the common case is an
+	 * append.
+	 *
+	 * @return Row of the new trade
+	 */
+	int add(int ID, int epochDay, int accountID, int portfolioID, int position, long quantity, long openPrice, long commission) {
+		makeWritable(size + 1);
+
+		int index = head + size;
+		if (size > 0 && compareTo(index - 1, epochDay, ID) > 0) {
+			index = findInsertionIndex(epochDay, ID);
+			shift(index, index + 1, head + size - index);
+		}
+
+		IDs[index] = ID;
+		epochDays[index] = epochDay;
+		accountIDs[index] = accountID;
+		portfolioIDs[index] = portfolioID;
+		positions[index] = position;
+		quantities[index] = quantity;
+		openPrices[index] = openPrice;
+		commissions[index] = commission;
+		closePrices[index] = 0;
+		closed[index] = false;
+		size++;
+		countTrade(position);
+
+		return index - head;
+	}
+
+	/**
+	 * Marks a trade as closed.
+	 *
+	 * @param row        Row of the trade
+	 * @param closePrice Close price in cents
+	 */
+	void close(int row, long closePrice) {
+		makeWritable(size);
+		closePrices[head + row] = closePrice;
+		closed[head + row] = true;
+	}
+
+	void setQuantity(int row, long quantity) {
+		makeWritable(size);
+		quantities[head + row] = quantity;
+	}
+
+	void setCommission(int row, long commission) {
+		makeWritable(size);
+		commissions[head + row] = commission;
+	}
+
+	/**
+	 * Removes trades from this table.
+	 *
+	 * Rows preceding the last removed one are moved towards the end of the
+	 * table, so the cost depends on the position of the removed rows, not on
+	 * the table size.
+	 *
+	 * @param rows  Removed rows in ascending order
+	 * @param count Number of removed rows
+	 */
+	void remove(int[] rows, int count) {
+		if (count == 0) {
+			return;
+		}
+
+		makeWritable(size);
+
+		int destination = head + rows[count - 1] + 1;
+		for (int i = count - 1; i >= 0; i--) {
+			int index = head + rows[i];
+			int start = (i > 0) ? head + rows[i - 1] + 1 : head;
+			positionTradeCounts[positions[index]]--;
+			destination -= index - start;
+			shift(start, destination, index - start);
+		}
+
+		head += count;
+		size -= count;
+	}
+
+	private int compareTo(int index, int epochDay, int ID) {
+		if (epochDays[index] != epochDay) {
+			return epochDays[index] < epochDay ? -1 : 1;
+		}
+
+		return IDs[index] < ID ? -1 : (IDs[index] == ID ? 0 : 1);
+	}
+
+	/**
+	 * Finds the array index of the first row ordered after a given date and ID.
+	 */
+	private int findInsertionIndex(int epochDay, int ID) {
+		int low = head;
+		int high = head + size;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compareTo(middle, epochDay, ID) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Appends a row of another table, used when building a new table only.
+	 */
+	private void append(EquityTradeTable source, int sourceIndex, int position) {
+		int index = head + size;
+		IDs[index] = source.IDs[sourceIndex];
+		epochDays[index] = source.epochDays[sourceIndex];
+		accountIDs[index] = source.accountIDs[sourceIndex];
+		portfolioIDs[index] = source.portfolioIDs[sourceIndex];
+		positions[index] = position;
+		quantities[index] = source.quantities[sourceIndex];
+		openPrices[index] = source.openPrices[sourceIndex];
+		commissions[index] = source.commissions[sourceIndex];
+		closePrices[index] = source.closePrices[sourceIndex];
+		closed[index] = source.closed[sourceIndex];
+		size++;
+		countTrade(position);
+	}
+
+	private void countTrade(int position) {
+		if (position >= positionTradeCounts.length) {
+			positionTradeCounts = Arrays.copyOf(positionTradeCounts, Math.max(position + 1, positionTradeCounts.length * 2));
+		}
+
+		positionTradeCounts[position]++;
+	}
+
+	private void shift(int from, int to, int length) {
+		System.arraycopy(IDs, from, IDs, to, length);
+		System.arraycopy(epochDays, from, epochDays, to, length);
+		System.arraycopy(accountIDs, from, accountIDs, to, length);
+		System.arraycopy(portfolioIDs, from, portfolioIDs, to, length);
+		System.arraycopy(positions, from, positions, to, length);
+		System.arraycopy(quantities, from, quantities, to, length);
+		System.arraycopy(openPrices, from, openPrices, to, length);
+		System.arraycopy(commissions, from, commissions, to, length);
+		System.arraycopy(closePrices, from, closePrices, to, length);
+		System.arraycopy(closed, from, closed, to, length);
+	}
+
+	/**
+	 * Makes sure the arrays are owned by this table and fit a given number of rows.
+	 *
+	 * Rows are moved to the beginning of the arrays when there is no room left
+	 * after them. New arrays are allocated when the arrays are shared or more
+	 * than half full.
+	 *
+	 * @param capacity Required number of rows
+	 */
+	private void makeWritable(int capacity) {
+		if (!shared && head + capacity <= IDs.length) {
+			return;
+		}
+
+		if (!shared && capacity <= IDs.length / 2) {
+			shift(head, 0, size);
+			head = 0;
+			return;
+		}
+
+		int newCapacity = Math.max(IDs.length, INITIAL_CAPACITY);
+		while (newCapacity < capacity) {
+			newCapacity *= 2;
+		}
+
+		IDs = copy(IDs, newCapacity);
+		epochDays = copy(epochDays, newCapacity);
+		accountIDs = copy(accountIDs, newCapacity);
+		portfolioIDs = copy(portfolioIDs, newCapacity);
+		positions = copy(positions, newCapacity);
+		quantities = copy(quantities, newCapacity);
+		openPrices = copy(openPrices, newCapacity);
+		commissions = copy(commissions, newCapacity);
+		closePrices = copy(closePrices, newCapacity);
+		closed = copy(closed, newCapacity);
+		positionTradeCounts = positionTradeCounts.clone();
+		head = 0;
+		shared = false;
+	}
+
+	private int[] copy(int[] array, int capacity) {
+		int[] newArray = new int[capacity];
+		System.arraycopy(array, head, newArray, 0, size);
+		return newArray;
+	}
+
+	private long[] copy(long[] array, int capacity) {
+		long[] newArray = new long[capacity];
+		System.arraycopy(array, head, newArray, 0, size);
+		return newArray;
+	}
+
+	private boolean[] copy(boolean[] array, int capacity) {
+		boolean[] newArray = new boolean[capacity];
+		System.arraycopy(array, head, newArray, 0, size);
+		return newArray;
+	}
+}
@@ -30,15 +30,7 @@ import java.util.Date;
  */
 class FixedIncomeTrade extends Trade {
 
-	FixedIncomeTrade(Account account, Portfolio portfolio, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission) {
-		super(account, portfolio, date, comment, ticker, quantity, price, commission);
-	}
-
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override
-	void updateQuotes() {
-
+	FixedIncomeTrade(Account account, Portfolio portfolio, Date date, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission) {
+		super(account, portfolio, date, ticker, quantity, price, commission);
 	}
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package pl.traderate.core;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Scaled long arithmetic used by the performance model.
+ *
+ * <p>A decimal number is held as an unscaled long together with a scale
+ * known from the context: quantities have scale 0, money amounts and
+ * percentages scale {@link #MONEY_SCALE}. Market values take the scale of the
+ * market price they were computed from, capped at {@link #MAX_SCALE}.</p>
+ *
+ * <p>All operations round exactly like the corresponding {@link BigDecimal}
+ * operations with {@link RoundingMode#HALF_EVEN}, so results stay identical
+ * while no objects are allocated. Numbers are converted to {@link BigDecimal}
+ * only when handed out.</p>
+ *
+ * <p>Conversions, products and scale changes throw an {@link
+ * ArithmeticException} instead of silently wrapping around when a result
+ * does not fit a long.</p>
+ */
+final class FixedPoint {
+
+	/**
+	 * Scale of money amounts and percentages.
+	 */
+	static final int MONEY_SCALE = 2;
+
+	/**
+	 * Maximum scale of market prices and values.
+	 */
+	static final int MAX_SCALE = 6;
+
+	/**
+	 * Scale of gain ratios from which percentages are computed.
+	 */
+	private static final int RATIO_SCALE = 4;
+
+	private static final long[] POWERS_OF_TEN = {
+			1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+			10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+			1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+	};
+
+	private FixedPoint() {
+
+	}
+
+	/**
+	 * Converts a money amount to cents.
+	 *
+	 * @param value Amount
+	 * @return Unscaled amount
+	 */
+	static long toMoney(BigDecimal value) {
+		return toUnscaled(value, MONEY_SCALE);
+	}
+
+	/**
+	 * Converts a whole number of units.
+	 *
+	 * @param value Quantity
+	 * @return Quantity as a long
+	 */
+	static long toQuantity(BigDecimal value) {
+		return toUnscaled(value, 0);
+	}
+
+	/**
+	 * Returns the scale a market price is kept at.
+	 *
+	 * @param price Market price
+	 * @return Scale between 0 and {@link #MAX_SCALE}
+	 */
+	static int getMarketScale(BigDecimal price) {
+		return Math.min(Math.max(price.scale(), 0), MAX_SCALE);
+	}
+
+	/**
+	 * Converts a number to an unscaled long.
+	 *
+	 * @param value Converted number
+	 * @param scale Requested scale
+	 * @return Unscaled value
+	 * @throws ArithmeticException Thrown when the unscaled value does not fit a long.
+	 */
+	static long toUnscaled(BigDecimal value, int scale) {
+		return value.setScale(scale, RoundingMode.HALF_EVEN).scaleByPowerOfTen(scale).longValueExact();
+	}
+
+	/**
+	 * Converts an unscaled long to a decimal number.
+	 *
+	 * @param unscaledValue Unscaled value
+	 * @param scale         Scale of the value
+	 * @return Decimal number
+	 */
+	static BigDecimal toBigDecimal(long unscaledValue, int scale) {
+		return BigDecimal.valueOf(unscaledValue, scale);
+	}
+
+	/**
+	 * Increases the scale of an unscaled value.
+	 *
+	 * @param unscaledValue Unscaled value
+	 * @param scale         Current scale
+	 * @param newScale      New scale, not lower than the current one
+	 * @return Unscaled value at the new scale
+	 * @throws ArithmeticException Thrown when the result does not fit a long.
+	 */
+	static long rescale(long unscaledValue, int scale, int newScale) {
+		return multiply(unscaledValue, POWERS_OF_TEN[newScale - scale]);
+	}
+
+	/**
+	 * Lowers the scale of an unscaled value, rounding half to even.
+	 *
+	 * @param unscaledValue Unscaled value
+	 * @param scale         Current scale
+	 * @param newScale      New scale, not higher than the current one
+	 * @return Unscaled value at the new scale
+	 */
+	static long round(long unscaledValue, int scale, int newScale) {
+		if (scale - newScale < POWERS_OF_TEN.length) {
+			return divide(unscaledValue, POWERS_OF_TEN[scale - newScale]);
+		}
+
+		return toUnscaled(toBigDecimal(unscaledValue, scale), newScale);
+	}
+
+	/**
+	 * Multiplies two longs, failing on overflow.
+	 *
+	 * Equivalent to <tt>Math.multiplyExact</tt>, which is not available in
+	 * Java 7.
+	 *
+	 * @param x First factor
+	 * @param y Second factor
+	 * @return Product
+	 * @throws ArithmeticException Thrown when the product does not fit a long.
+	 */
+	static long multiply(long x, long y) {
+		long product = x * y;
+
+		if (((Math.abs(x) | Math.abs(y)) >>> 31) != 0) {
+			if ((y != 0 && product / y != x) || (x == Long.MIN_VALUE && y == -1)) {
+				throw new ArithmeticException("long overflow");
+			}
+		}
+
+		return product;
+	}
+
+	/**
+	 * Divides two longs, rounding half to even.
+	 *
+	 * @param dividend Dividend
+	 * @param divisor  Divisor
+	 * @return Rounded quotient
+	 * @throws ArithmeticException Thrown when the divisor is zero.
+	 */
+	static long divide(long dividend, long divisor) {
+		long quotient = dividend / divisor;
+		long remainder = dividend % divisor;
+
+		if (remainder == 0) {
+			return quotient;
+		}
+
+		long twiceRemainder = Math.abs(remainder) * 2;
+		long absoluteDivisor = Math.abs(divisor);
+		int sign = (dividend < 0) == (divisor < 0) ? 1 : -1;
+
+		if (twiceRemainder > absoluteDivisor || (twiceRemainder == absoluteDivisor && (quotient & 1) != 0)) {
+			quotient += sign;
+		}
+
+		return quotient;
+	}
+
+	/**
+	 * Computes a gain as a percentage of a base value.
+	 *
+	 * The ratio is rounded to four decimal places first, as in
+	 * <tt>gain.divide(base, 4, HALF_EVEN).multiply(100).setScale(2)</tt>.
+	 *
+	 * @param gain      Unscaled gain
+	 * @param gainScale Scale of the gain
+	 * @param base      Base value in cents
+	 * @return Percentage at {@link #MONEY_SCALE}
+	 * @throws ArithmeticException Thrown when the base is zero or the gain is too large.
+	 */
+	static long percentage(long gain, int gainScale, long base) {
+		return divide(multiply(gain, POWERS_OF_TEN[RATIO_SCALE + MONEY_SCALE - gainScale]), base);
+	}
+}
@@ -26,8 +26,8 @@ import pl.traderate.core.exception.ObjectNotFoundException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * A list of financial holdings for a given account or portfolio.
@@ -37,56 +37,74 @@ final class HoldingList {
 	/**
 	 * Open holdings in equities.
 	 */
-	private TreeSet<EquityHolding> equityHoldings;
+	private NamedObjectSet<EquityHolding> equityHoldings;
 
 	/**
 	 * Closed holdings in equities.
 	 */
-	private TreeSet<EquityHolding> closedEquityHoldings;
+	private NamedObjectSet<EquityHolding> closedEquityHoldings;
 
 	HoldingList() {
-		equityHoldings = new TreeSet<>();
-		closedEquityHoldings = new TreeSet<>();
+		equityHoldings = new NamedObjectSet<>();
+		closedEquityHoldings = new NamedObjectSet<>();
 	}
 
-	HoldingList(HoldingList holdingList) {
-		this();
-		
-		for (EquityHolding holding : holdingList.equityHoldings) {
-			this.equityHoldings.add(new EquityHolding(holding));
-		}
+	/**
+	 * Creates a copy of this list for state checkpoints.
+	 *
+	 * Holdings and positions are copied with their performance data. Trade
+	 * tables are copied on write, so further entries applied to this list do
+	 * not affect the snapshot.
+	 *
+	 * @return A structural copy of this list
+	 */
+	HoldingList snapshot() {
+		HoldingList holdingList = new HoldingList();
+		copyHoldings(equityHoldings, holdingList.equityHoldings);
+		copyHoldings(closedEquityHoldings, holdingList.closedEquityHoldings);
+		return holdingList;
+	}
+
+	/**
+	 * Creates a working copy of a list returned by {@link #snapshot()}.
+	 *
+	 * The snapshot itself is left intact, so it can be restored again.
+	 *
+	 * @return A structural copy of this list
+	 */
+	HoldingList restore() {
+		return snapshot();
+	}
 
-		for (EquityHolding holding : holdingList.closedEquityHoldings) {
-			this.closedEquityHoldings.add(new EquityHolding(holding));
+	private static void copyHoldings(NamedObjectSet<EquityHolding> source, NamedObjectSet<EquityHolding> destination) {
+		for (EquityHolding holding : source) {
+			destination.add(new EquityHolding(holding));
 		}
-		
-		update();
 	}
 
 	/**
 	 * Merges this list with another holding list.
 	 *
+	 * Holdings of the other list are referenced rather than copied, see
+	 * {@link EquityHolding#merge(EquityHolding)}.
+	 *
 	 * @param holdingList Holdings to be merged with
 	 */
 	void merge(HoldingList holdingList) {
-		for (EquityHolding otherHolding : holdingList.equityHoldings) {
-			EquityHolding thisHolding;
-			try {
-				thisHolding = ObjectFinder.findByName(otherHolding.ticker, this.equityHoldings);
-				thisHolding.merge(otherHolding);
-			} catch (ObjectNotFoundException e) {
-				this.equityHoldings.add(new EquityHolding(otherHolding));
-			}
-		}
+		mergeHoldings(holdingList.equityHoldings, this.equityHoldings);
+		mergeHoldings(holdingList.closedEquityHoldings, this.closedEquityHoldings);
+	}
 
-		for (EquityHolding otherHolding : holdingList.closedEquityHoldings) {
+	private static void mergeHoldings(NamedObjectSet<EquityHolding> source, NamedObjectSet<EquityHolding> destination) {
+		for (EquityHolding otherHolding : source) {
 			EquityHolding thisHolding;
 			try {
-				thisHolding = ObjectFinder.findByName(otherHolding.ticker, this.closedEquityHoldings);
-				thisHolding.merge(otherHolding);
+				thisHolding = destination.findByName(otherHolding.ticker);
 			} catch (ObjectNotFoundException e) {
-				this.closedEquityHoldings.add(new EquityHolding(otherHolding));
+				thisHolding = new EquityHolding(otherHolding.ticker, otherHolding.closed);
+				destination.add(thisHolding);
 			}
+			thisHolding.merge(otherHolding);
 		}
 	}
 
@@ -97,12 +115,10 @@ final class HoldingList {
 	 * @throws EntryInsertionException Thrown when entry processing fails.
 	 */
 	void open(BuyEquityTransactionEntry entry) throws EntryInsertionException {
-		EquityTrade trade = new EquityTrade(entry.account, entry.portfolio, entry.date, entry.comment, entry.ticker, entry.quantity, entry.price, entry.commission);
-
 		EquityHolding holding;
 
 		try {
-			holding = ObjectFinder.findByName(entry.ticker, equityHoldings);
+			holding = equityHoldings.findByName(entry.ticker);
 		} catch (ObjectNotFoundException e) {
 			holding = new EquityHolding(entry.ticker, false);
 			equityHoldings.add(holding);
@@ -111,19 +127,22 @@ final class HoldingList {
 		EquityPosition position;
 
 		try {
-			position = ObjectFinder.findByName(entry.position, holding.getPositions());
+			position = holding.getPositions().findByName(entry.position);
 		} catch (ObjectNotFoundException e) {
 			position = new EquityPosition(entry.position, false);
 			holding.attach(position);
 		}
 
-		position.attach(trade);
-		holding.attach(trade);
+		holding.trades.add(Trade.nextID(), JournalBinaryFormat.toEpochDay(entry.date), entry.account.getID(), entry.portfolio.getID(), position.index, FixedPoint.toQuantity(entry.quantity), FixedPoint.toMoney(entry.price), FixedPoint.toMoney(entry.commission));
 	}
 
 	/**
 	 * Processes a new sell transaction.
 	 *
+	 * Trades of the selling account are closed in FIFO order. A trade larger
+	 * than the remaining number of shares is split, its open part keeps its
+	 * place in the trade order.
+	 *
 	 * @param entry An equity sell journal entry
 	 * @throws EntryInsertionException Thrown when processing fails.
 	 */
@@ -131,51 +150,92 @@ final class HoldingList {
 		EquityHolding holding;
 
 		try {
-			holding = ObjectFinder.findByName(entry.ticker, equityHoldings);
+			holding = equityHoldings.findByName(entry.ticker);
 		} catch (ObjectNotFoundException e) {
 			throw new EntryInsertionException();
 		}
 
-		TreeSet<EquityTrade> trades = holding.getTrades();
-		Iterator<EquityTrade> tradeIterator = trades.iterator();
-		ArrayList<EquityTrade> tradesToClose = new ArrayList<>();
+		EquityTradeTable trades = holding.trades;
+		int accountID = entry.account.getID();
+		long sharesToClose = FixedPoint.toQuantity(entry.quantity);
+		long sharesFound = 0;
+		int tradeCount = 0;
+		int lastRow = -1;
 
-		BigDecimal sharesFound = BigDecimal.ZERO;
-
-		while (sharesFound.compareTo(entry.quantity) < 0) {
-			if (tradeIterator.hasNext()) {
-				EquityTrade trade = tradeIterator.next();
-				if (trade.getAccount() == entry.account) {
-					sharesFound = sharesFound.add(trade.getQuantity());
-					tradesToClose.add(trade);
-				}
-			} else {
+		while (sharesFound < sharesToClose) {
+			if (++lastRow == trades.size()) {
 				throw new EntryInsertionException();
 			}
+			if (trades.getAccountID(lastRow) == accountID) {
+				sharesFound += trades.getQuantity(lastRow);
+				tradeCount++;
+			}
 		}
 
-		BigDecimal sharesLeftToClose = entry.quantity;
-		BigDecimal unallocatedCommission = entry.commission;
+		if (tradeCount == 0) {
+			return;
+		}
 
-		for (EquityTrade trade : tradesToClose) {
-			BigDecimal partialCommission = trade.getQuantity().divide(entry.quantity, 10, RoundingMode.HALF_EVEN).multiply(entry.commission).setScale(2, RoundingMode.HALF_EVEN);
+		EquityHolding closedHolding;
 
-			if (unallocatedCommission.compareTo(partialCommission) > 0) {
-				unallocatedCommission = unallocatedCommission.subtract(partialCommission);
+		try {
+			closedHolding = closedEquityHoldings.findByName(entry.ticker);
+		} catch (ObjectNotFoundException e) {
+			closedHolding = new EquityHolding(entry.ticker, true);
+			closedEquityHoldings.add(closedHolding);
+		}
+
+		long closePrice = FixedPoint.toMoney(entry.price);
+		long sharesLeftToClose = sharesToClose;
+		long unallocatedCommission = FixedPoint.toMoney(entry.commission);
+		int[] closedRows = new int[tradeCount];
+		int closedRowCount = 0;
+
+		for (int row = 0; row <= lastRow; row++) {
+			if (trades.getAccountID(row) != accountID) {
+				continue;
+			}
+
+			long quantity = trades.getQuantity(row);
+			long commission = trades.getCommission(row);
+			long partialCommission = FixedPoint.toMoney(BigDecimal.valueOf(quantity).divide(entry.quantity, 10, RoundingMode.HALF_EVEN).multiply(entry.commission));
+
+			if (unallocatedCommission > partialCommission) {
+				unallocatedCommission -= partialCommission;
 			} else {
 				partialCommission = unallocatedCommission;
-				unallocatedCommission = BigDecimal.ZERO;
+				unallocatedCommission = 0;
 			}
 
-			if (sharesLeftToClose.compareTo(trade.getQuantity()) >= 0) {
-				trade.close(entry, partialCommission);
-				moveToClosed(trade);
-				sharesLeftToClose = sharesLeftToClose.subtract(trade.getQuantity());
+			if (sharesLeftToClose >= quantity) {
+				closedRows[closedRowCount++] = row;
+				sharesLeftToClose -= quantity;
 			} else {
-				EquityTrade partialTrade = trade.divide(sharesLeftToClose);
-				partialTrade.close(entry, partialCommission);
-				moveToClosed(partialTrade);
+				long openCommission = FixedPoint.toMoney(BigDecimal.valueOf(sharesLeftToClose).divide(BigDecimal.valueOf(quantity), 10, RoundingMode.HALF_EVEN).multiply(FixedPoint.toBigDecimal(commission, FixedPoint.MONEY_SCALE)));
+				trades.setQuantity(row, quantity - sharesLeftToClose);
+				trades.setCommission(row, commission - openCommission);
+				quantity = sharesLeftToClose;
+				commission = openCommission;
+			}
+
+			EquityPosition openPosition = holding.getPosition(trades.getPosition(row));
+			EquityPosition closedPosition;
+
+			try {
+				closedPosition = closedHolding.getPositions().findByName(openPosition.getName());
+			} catch (ObjectNotFoundException e) {
+				closedPosition = new EquityPosition(openPosition.getName(), true);
+				closedHolding.attach(closedPosition);
 			}
+
+			int closedRow = closedHolding.trades.add(trades.getID(row), trades.getEpochDay(row), accountID, trades.getPortfolioID(row), closedPosition.index, quantity, trades.getOpenPrice(row), commission + partialCommission);
+			closedHolding.trades.close(closedRow, closePrice);
+		}
+
+		holding.removeTrades(closedRows, closedRowCount);
+
+		if (holding.isEmpty()) {
+			equityHoldings.remove(holding);
 		}
 	}
 
@@ -193,136 +253,160 @@ final class HoldingList {
 	}
 
 	/**
-	 * Updates prices of all holdings.
+	 * Adds tickers of all holdings to a given collection.
+	 *
+	 * @param tickers Destination collection
 	 */
-	void updateQuotes() {
+	void collectTickers(Collection<String> tickers) {
 		for (EquityHolding holding : equityHoldings) {
-			holding.updateQuotes();
+			tickers.add(holding.getName());
 		}
 
 		for (EquityHolding holding : closedEquityHoldings) {
-			holding.updateQuotes();
+			tickers.add(holding.getName());
 		}
 	}
 
-	private void moveToClosed(EquityTrade trade) {
-		EquityHolding closedHolding;
+	/**
+	 * Adds all holdings to an index of holdings by ticker.
+	 *
+	 * @param holdingsByTicker Destination index
+	 */
+	void indexHoldings(Map<String, ArrayList<EquityHolding>> holdingsByTicker) {
+		indexHoldings(equityHoldings, holdingsByTicker);
+		indexHoldings(closedEquityHoldings, holdingsByTicker);
+	}
 
-		try {
-			closedHolding = ObjectFinder.findByName(trade.getTicker(), closedEquityHoldings);
-		} catch (ObjectNotFoundException e) {
-			closedHolding = new EquityHolding(trade.getTicker(), true);
-			closedEquityHoldings.add(closedHolding);
-		}
+	private static void indexHoldings(NamedObjectSet<EquityHolding> holdings, Map<String, ArrayList<EquityHolding>> holdingsByTicker) {
+		for (EquityHolding holding : holdings) {
+			ArrayList<EquityHolding> tickerHoldings = holdingsByTicker.get(holding.getName());
 
-		EquityPosition closedPosition;
+			if (tickerHoldings == null) {
+				tickerHoldings = new ArrayList<>();
+				holdingsByTicker.put(holding.getName(), tickerHoldings);
+			}
 
-		try {
-			closedPosition = ObjectFinder.findByName(trade.getParent().getName(), closedHolding.getPositions());
-		} catch (ObjectNotFoundException e) {
-			closedPosition = new EquityPosition(trade.getParent().getName(), true);
-			closedHolding.attach(closedPosition);
+			tickerHoldings.add(holding);
+		}
+	}
+
+	/**
+	 * Checks if any of the given instruments is held, currently or in the past.
+	 *
+	 * @param tickers Checked tickers
+	 * @return True if there is a holding in at least one of the instruments
+	 */
+	boolean holdsAny(Collection<String> tickers) {
+		for (String ticker : tickers) {
+			if (equityHoldings.getByName(ticker) != null || closedEquityHoldings.getByName(ticker) != null) {
+				return true;
+			}
 		}
 
-		EquityHolding openHolding = (EquityHolding) trade.getParent().getParent();
-		EquityPosition openPosition = (EquityPosition) trade.getParent();
-		
-		openHolding.detach(trade);
-		openPosition.detach(trade);
-		
-		if (openHolding.isEmpty()) {
-			equityHoldings.remove(openHolding);
+		return false;
+	}
+
+	/**
+	 * Updates prices of all holdings.
+	 */
+	void updateQuotes() {
+		for (EquityHolding holding : equityHoldings) {
+			holding.updateQuotes();
 		}
 
-		closedPosition.attach(trade);
-		closedHolding.attach(trade);
+		for (EquityHolding holding : closedEquityHoldings) {
+			holding.updateQuotes();
+		}
 	}
 
-	TreeSet<EquityHolding> getEquityHoldings() {
+	NamedObjectSet<EquityHolding> getEquityHoldings() {
 		return equityHoldings;
 	}
 
-	TreeSet<EquityHolding> getClosedEquityHoldings() {
+	NamedObjectSet<EquityHolding> getClosedEquityHoldings() {
 		return closedEquityHoldings;
 	}
 
 	public BigDecimal getCurrentValue() {
-		BigDecimal value = BigDecimal.ZERO;
-		try {
-			for (EquityHolding holding : equityHoldings) {
-				value = value.add(holding.getMarketValue());
+		long value = 0;
+		int scale = 0;
+
+		for (EquityHolding holding : equityHoldings) {
+			if (!holding.marketValueKnown) {
+				return null;
 			}
-		} catch (NullPointerException e) {
-			return null;
+
+			int sumScale = Math.max(scale, holding.marketScale);
+			value = FixedPoint.rescale(value, scale, sumScale) + FixedPoint.rescale(holding.marketValue, holding.marketScale, sumScale);
+			scale = sumScale;
 		}
 
-		return value.setScale(2);
+		return FixedPoint.toBigDecimal(value, scale).setScale(2);
 	}
 
 	public BigDecimal getOpenValue() {
-		BigDecimal value = BigDecimal.ZERO;
-		try {
-			for (EquityHolding holding : equityHoldings) {
-				value = value.add(holding.getOpenValue());
-			}
-		} catch (NullPointerException e) {
-			return null;
+		long value = 0;
+
+		for (EquityHolding holding : equityHoldings) {
+			value += holding.openValue;
 		}
 
-		return value.setScale(2);
+		return FixedPoint.toBigDecimal(value, FixedPoint.MONEY_SCALE);
 	}
 
 	public BigDecimal getPaperGain() {
-		BigDecimal value = BigDecimal.ZERO;
-		try {
-			for (EquityHolding holding : equityHoldings) {
-				value = value.add(holding.getPaperGain());
+		long value = 0;
+		int scale = 0;
+
+		for (EquityHolding holding : equityHoldings) {
+			if (!holding.paperGainKnown) {
+				return null;
 			}
-		} catch (NullPointerException e) {
-			return null;
+
+			int paperGainScale = holding.getPaperGainScale();
+			int sumScale = Math.max(scale, paperGainScale);
+			value = FixedPoint.rescale(value, scale, sumScale) + FixedPoint.rescale(holding.paperGain, paperGainScale, sumScale);
+			scale = sumScale;
 		}
 
-		return value.setScale(2);
+		return FixedPoint.toBigDecimal(value, scale).setScale(2);
 	}
 
 	public BigDecimal getRealizedGain() {
-		BigDecimal value = BigDecimal.ZERO;
-		try {
-			for (EquityHolding holding : closedEquityHoldings) {
-				value = value.add(holding.getRealizedGain());
+		long value = 0;
+
+		for (EquityHolding holding : closedEquityHoldings) {
+			if (!holding.closeValuesKnown) {
+				return null;
 			}
-		} catch (NullPointerException e) {
-			return null;
+
+			value += holding.realizedGain;
 		}
 
-		return value.setScale(2);
+		return FixedPoint.toBigDecimal(value, FixedPoint.MONEY_SCALE);
 	}
 
 	public BigDecimal getRealizedIncome() {
-		BigDecimal value = BigDecimal.ZERO;
-		try {
-			for (EquityHolding holding : closedEquityHoldings) {
-				value = value.add(holding.getCloseValue());
+		long value = 0;
+
+		for (EquityHolding holding : closedEquityHoldings) {
+			if (!holding.closeValuesKnown) {
+				return null;
 			}
-		} catch (NullPointerException e) {
-			return null;
+
+			value += holding.closeValue;
 		}
 
-		return value.setScale(2);
+		return FixedPoint.toBigDecimal(value, FixedPoint.MONEY_SCALE);
 	}
 
 	public BigDecimal getRealizedCost() {
-		BigDecimal value = BigDecimal.ZERO;
-		try {
-			for (EquityHolding holding : closedEquityHoldings) {
-				value = value.add(holding.getOpenValue());
-			}
-		} catch (NullPointerException e) {
-			return null;
+		long value = 0;
+
+		for (EquityHolding holding : closedEquityHoldings) {
+			value += holding.openValue;
 		}
 
-		return value.setScale(2);
+		return FixedPoint.toBigDecimal(value, FixedPoint.MONEY_SCALE);
 	}
-
-
 }
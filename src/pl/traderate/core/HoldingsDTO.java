@@ -22,6 +22,7 @@ package pl.traderate.core;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Date;
 
 /**
  * A DTO version of a HoldingList.
@@ -92,8 +93,8 @@ public class HoldingsDTO {
 		public EquityTradeDTO(EquityTrade trade) {
 			super(trade);
 			this.ticker = trade.ticker;
-			this.accountID = trade.account.getID();
-			this.portfolioID = trade.portfolio.getID();
+			this.accountID = trade.accountID;
+			this.portfolioID = trade.portfolioID;
 		}
 
 		@Override
@@ -117,6 +118,8 @@ public class HoldingsDTO {
 
 		public final BigDecimal lastMarketPrice;
 
+		public final Date lastMarketPriceTime;
+
 		public final BigDecimal marketValue;
 
 		public final BigDecimal paperGain;
@@ -128,18 +131,19 @@ public class HoldingsDTO {
 		public final BigDecimal realizedGainPercentage;
 
 		public PerformanceDataDTO(PerformanceData objectWithPerformance) {
-			this.quantity = objectWithPerformance.quantity;
-			this.openPrice = objectWithPerformance.openPrice;
-			this.commission = objectWithPerformance.commission;
-			this.openValue = objectWithPerformance.openValue;
-			this.closePrice = objectWithPerformance.closePrice;
-			this.closeValue = objectWithPerformance.closeValue;
-			this.lastMarketPrice = objectWithPerformance.lastMarketPrice;
-			this.marketValue = objectWithPerformance.marketValue;
-			this.paperGain = objectWithPerformance.paperGain;
-			this.paperGainPercentage = objectWithPerformance.paperGainPercentage;
-			this.realizedGain = objectWithPerformance.realizedGain;
-			this.realizedGainPercentage = objectWithPerformance.realizedGainPercentage;
+			this.quantity = objectWithPerformance.getQuantity();
+			this.openPrice = objectWithPerformance.getOpenPrice();
+			this.commission = objectWithPerformance.getCommission();
+			this.openValue = objectWithPerformance.getOpenValue();
+			this.closePrice = objectWithPerformance.getClosePrice();
+			this.closeValue = objectWithPerformance.getCloseValue();
+			this.lastMarketPrice = objectWithPerformance.getLastMarketPrice();
+			this.lastMarketPriceTime = objectWithPerformance.getLastMarketPriceTime();
+			this.marketValue = objectWithPerformance.getMarketValue();
+			this.paperGain = objectWithPerformance.getPaperGain();
+			this.paperGainPercentage = objectWithPerformance.getPaperGainPercentage();
+			this.realizedGain = objectWithPerformance.getRealizedGain();
+			this.realizedGainPercentage = objectWithPerformance.getRealizedGainPercentage();
 		}
 	}
 }
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+import pl.traderate.core.exception.InternalLogicError;
+import pl.traderate.core.exception.ObjectNotFoundException;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list of identifiable objects with constant time lookups and removals by ID.
+ *
+ * Objects are kept in insertion order. Removed objects leave holes which are
+ * compacted lazily, either before the next positional access or when holes
+ * outnumber the stored objects, so a series of removals costs linear time in
+ * total.
+ *
+ * IDs are mapped to positions with an open addressing hash table using linear
+ * probing, which avoids boxing of keys. IDs must stay constant while an object
+ * is registered.
+ *
+ * @param <T> Object type
+ */
+final class IdentifiableRegistry<T extends Identifiable> extends AbstractList<T> implements RandomAccess {
+
+	/**
+	 * Marker of an empty hash table slot.
+	 */
+	private static final int FREE = -1;
+
+	/**
+	 * Object IDs stored in hash table slots.
+	 */
+	private int[] keys;
+
+	/**
+	 * Positions in the object array stored in hash table slots.
+	 */
+	private int[] positions;
+
+	/**
+	 * Objects in insertion order, <tt>null</tt> for removed objects.
+	 */
+	private Object[] objects;
+
+	/**
+	 * Number of used positions in the object array, including holes.
+	 */
+	private int end;
+
+	/**
+	 * Number of registered objects.
+	 */
+	private int size;
+
+	/**
+	 * Creates an empty registry.
+	 *
+	 * @param initialCapacity Expected number of objects
+	 */
+	IdentifiableRegistry(int initialCapacity) {
+		objects = new Object[Math.max(initialCapacity, 4)];
+		allocateTable(objects.length);
+	}
+
+	/**
+	 * Finds an object by its ID.
+	 *
+	 * @param objectID Searched ID
+	 * @return Object with the given ID
+	 * @throws ObjectNotFoundException Thrown when no object was found.
+	 */
+	T find(int objectID) throws ObjectNotFoundException {
+		int slot = findSlot(objectID);
+
+		if (positions[slot] == FREE) {
+			throw new ObjectNotFoundException();
+		}
+
+		return getObject(positions[slot]);
+	}
+
+	/**
+	 * Checks if an object with a given ID is registered.
+	 *
+	 * @param objectID Searched ID
+	 * @return True if an object was found
+	 */
+	boolean containsID(int objectID) {
+		return positions[findSlot(objectID)] != FREE;
+	}
+
+	/**
+	 * Appends an object to the registry.
+	 *
+	 * @param object Object with an ID not yet registered
+	 * @return Always true
+	 */
+	@Override
+	public boolean add(T object) {
+		int slot = findSlot(object.getID());
+
+		if (positions[slot] != FREE) {
+			throw new InternalLogicError();
+		}
+
+		if (end == objects.length) {
+			if (end - size > size / 2) {
+				compact();
+			} else {
+				objects = Arrays.copyOf(objects, objects.length * 2);
+			}
+		}
+
+		objects[end] = object;
+		keys[slot] = object.getID();
+		positions[slot] = end;
+		end++;
+		size++;
+		modCount++;
+
+		if (size * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes a registered object.
+	 *
+	 * @param object Object to be removed
+	 * @return True if the object was found
+	 */
+	@Override
+	public boolean remove(Object object) {
+		if (!(object instanceof Identifiable)) {
+			return false;
+		}
+
+		int slot = findSlot(((Identifiable) object).getID());
+
+		if (positions[slot] == FREE || !objects[positions[slot]].equals(object)) {
+			return false;
+		}
+
+		objects[positions[slot]] = null;
+		freeSlot(slot);
+		size--;
+		modCount++;
+
+		if (end - size > size) {
+			compact();
+		}
+
+		return true;
+	}
+
+	@Override
+	public T remove(int index) {
+		T object = get(index);
+		remove(object);
+		return object;
+	}
+
+	@Override
+	public boolean contains(Object object) {
+		if (!(object instanceof Identifiable)) {
+			return false;
+		}
+
+		int slot = findSlot(((Identifiable) object).getID());
+
+		return positions[slot] != FREE && objects[positions[slot]].equals(object);
+	}
+
+	@Override
+	public T get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		if (end != size) {
+			compact();
+		}
+
+		return getObject(index);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(objects, 0, end, null);
+		Arrays.fill(positions, FREE);
+		end = 0;
+		size = 0;
+		modCount++;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T getObject(int position) {
+		return (T) objects[position];
+	}
+
+	private void allocateTable(int expectedSize) {
+		int capacity = 8;
+
+		while (capacity < expectedSize * 2) {
+			capacity *= 2;
+		}
+
+		keys = new int[capacity];
+		positions = new int[capacity];
+		Arrays.fill(positions, FREE);
+	}
+
+	private int getHomeSlot(int objectID) {
+		int hash = objectID * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & (keys.length - 1);
+	}
+
+	/**
+	 * Finds the slot holding a given ID or the free slot where it belongs.
+	 */
+	private int findSlot(int objectID) {
+		int mask = keys.length - 1;
+		int slot = getHomeSlot(objectID);
+
+		while (positions[slot] != FREE && keys[slot] != objectID) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Empties a slot, moving back any following keys of the same probe chain.
+	 */
+	private void freeSlot(int slot) {
+		int mask = keys.length - 1;
+		int gap = slot;
+
+		for (int i = (slot + 1) & mask; positions[i] != FREE; i = (i + 1) & mask) {
+			int home = getHomeSlot(keys[i]);
+
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				keys[gap] = keys[i];
+				positions[gap] = positions[i];
+				gap = i;
+			}
+		}
+
+		positions[gap] = FREE;
+	}
+
+	private void rehash(int capacity) {
+		allocateTable(capacity / 2);
+
+		for (int position = 0; position < end; ++position) {
+			if (objects[position] != null) {
+				int slot = findSlot(getObject(position).getID());
+				keys[slot] = getObject(position).getID();
+				positions[slot] = position;
+			}
+		}
+	}
+
+	/**
+	 * Closes holes left by removed objects, preserving the insertion order.
+	 */
+	private void compact() {
+		int position = 0;
+
+		for (int i = 0; i < end; ++i) {
+			if (objects[i] != null) {
+				objects[position] = objects[i];
+				positions[findSlot(getObject(position).getID())] = position;
+				position++;
+			}
+		}
+
+		Arrays.fill(objects, position, end, null);
+		end = position;
+	}
+}
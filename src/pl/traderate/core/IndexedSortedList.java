@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A sorted list of distinct elements with logarithmic time insertions,
+ * removals and positional lookups.
+ *
+ * <p>Elements are kept in a weight-balanced binary search tree, in which
+ * every node tracks the size of its subtree. The weight of a subtree is its
+ * size plus one and the weights of siblings never differ more than {@link
+ * #DELTA} times.</p>
+ *
+ * @param <T> Element type
+ */
+final class IndexedSortedList<T> {
+
+	/**
+	 * Maximum weight ratio of sibling subtrees.
+	 */
+	private static final int DELTA = 3;
+
+	/**
+	 * Weight ratio of inner subtrees deciding between a single and a double rotation.
+	 */
+	private static final int RATIO = 2;
+
+	private final Comparator<? super T> comparator;
+
+	private Node<T> root;
+
+	/**
+	 * Creates a list of sorted elements.
+	 *
+	 * @param comparator Element order
+	 * @param elements   Distinct elements sorted with the comparator
+	 */
+	IndexedSortedList(Comparator<? super T> comparator, List<T> elements) {
+		this.comparator = comparator;
+		root = build(elements, 0, elements.size());
+	}
+
+	int size() {
+		return size(root);
+	}
+
+	/**
+	 * Returns an element at a given position.
+	 *
+	 * @param index Element position
+	 * @return Element
+	 * @throws IndexOutOfBoundsException Thrown when the position is out of bounds.
+	 */
+	T get(int index) {
+		if (index < 0 || index >= size()) throw new IndexOutOfBoundsException();
+
+		Node<T> node = root;
+
+		while (true) {
+			int leftSize = size(node.left);
+
+			if (index < leftSize) {
+				node = node.left;
+			} else if (index > leftSize) {
+				index -= leftSize + 1;
+				node = node.right;
+			} else {
+				return node.element;
+			}
+		}
+	}
+
+	/**
+	 * Finds the position of an element equal to a given one.
+	 *
+	 * @param element Searched element
+	 * @return Element position if there is such an element, otherwise
+	 *         <tt>(-(insertion point) - 1)</tt>, as in {@link java.util.Collections#binarySearch(List, Object)}
+	 */
+	int indexOf(T element) {
+		Node<T> node = root;
+		int index = 0;
+
+		while (node != null) {
+			int comparison = comparator.compare(element, node.element);
+
+			if (comparison < 0) {
+				node = node.left;
+			} else if (comparison > 0) {
+				index += size(node.left) + 1;
+				node = node.right;
+			} else {
+				return index + size(node.left);
+			}
+		}
+
+		return -index - 1;
+	}
+
+	/**
+	 * Inserts an element unless an equal one is already present.
+	 *
+	 * @param element Inserted element
+	 * @return Position of the inserted element, -1 if it was already present
+	 */
+	int add(T element) {
+		int index = indexOf(element);
+
+		if (index >= 0) {
+			return -1;
+		}
+
+		root = insert(root, element);
+		return -index - 1;
+	}
+
+	/**
+	 * Removes an element equal to a given one.
+	 *
+	 * @param element Removed element
+	 * @return Former position of the element, -1 if there was no such element
+	 */
+	int remove(T element) {
+		int index = indexOf(element);
+
+		if (index < 0) {
+			return -1;
+		}
+
+		root = delete(root, element);
+		return index;
+	}
+
+	private static <T> Node<T> build(List<T> elements, int from, int to) {
+		if (from >= to) {
+			return null;
+		}
+
+		int middle = (from + to) >>> 1;
+		Node<T> node = new Node<>(elements.get(middle));
+		node.left = build(elements, from, middle);
+		node.right = build(elements, middle + 1, to);
+		node.size = to - from;
+		return node;
+	}
+
+	private Node<T> insert(Node<T> node, T element) {
+		if (node == null) {
+			return new Node<>(element);
+		}
+
+		if (comparator.compare(element, node.element) < 0) {
+			node.left = insert(node.left, element);
+		} else {
+			node.right = insert(node.right, element);
+		}
+
+		return balance(node);
+	}
+
+	private Node<T> delete(Node<T> node, T element) {
+		int comparison = comparator.compare(element, node.element);
+
+		if (comparison < 0) {
+			node.left = delete(node.left, element);
+		} else if (comparison > 0) {
+			node.right = delete(node.right, element);
+		} else {
+			if (node.left == null) {
+				return node.right;
+			}
+
+			if (node.right == null) {
+				return node.left;
+			}
+
+			Node<T> successor = node.right;
+			while (successor.left != null) {
+				successor = successor.left;
+			}
+
+			node.element = successor.element;
+			node.right = deleteFirst(node.right);
+		}
+
+		return balance(node);
+	}
+
+	private static <T> Node<T> deleteFirst(Node<T> node) {
+		if (node.left == null) {
+			return node.right;
+		}
+
+		node.left = deleteFirst(node.left);
+		return balance(node);
+	}
+
+	/**
+	 * Restores the balance of a node after a single insertion or removal in one of its subtrees.
+	 *
+	 * @param node Node with balanced subtrees
+	 * @return Balanced subtree root
+	 */
+	private static <T> Node<T> balance(Node<T> node) {
+		int leftWeight = weight(node.left);
+		int rightWeight = weight(node.right);
+
+		if (rightWeight > DELTA * leftWeight) {
+			if (weight(node.right.left) >= RATIO * weight(node.right.right)) {
+				node.right = rotateRight(node.right);
+			}
+
+			return rotateLeft(node);
+		}
+
+		if (leftWeight > DELTA * rightWeight) {
+			if (weight(node.left.right) >= RATIO * weight(node.left.left)) {
+				node.left = rotateLeft(node.left);
+			}
+
+			return rotateRight(node);
+		}
+
+		node.size = leftWeight + rightWeight - 1;
+		return node;
+	}
+
+	private static <T> Node<T> rotateLeft(Node<T> node) {
+		Node<T> right = node.right;
+		node.right = right.left;
+		node.size = size(node.left) + size(node.right) + 1;
+		right.left = node;
+		right.size = node.size + size(right.right) + 1;
+		return right;
+	}
+
+	private static <T> Node<T> rotateRight(Node<T> node) {
+		Node<T> left = node.left;
+		node.left = left.right;
+		node.size = size(node.left) + size(node.right) + 1;
+		left.right = node;
+		left.size = node.size + size(left.left) + 1;
+		return left;
+	}
+
+	private static int size(Node<?> node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static int weight(Node<?> node) {
+		return size(node) + 1;
+	}
+
+	private static final class Node<T> {
+
+		T element;
+
+		Node<T> left;
+
+		Node<T> right;
+
+		/**
+		 * Number of elements in the subtree rooted at this node.
+		 */
+		int size;
+
+		Node(T element) {
+			this.element = element;
+			this.size = 1;
+		}
+	}
+}
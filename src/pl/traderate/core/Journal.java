@@ -20,32 +20,51 @@
 
 package pl.traderate.core;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 import pl.traderate.core.exception.*;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import pl.traderate.data.PriceHistory;
+import pl.traderate.data.QuoteEngine;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Main journal class.
@@ -55,14 +74,43 @@ import java.util.HashMap;
  * public methods of this class. Further internal calls to other classes in this
  * package assume that no additional checking is needed and passed values adhere to
  * expected standards (e.g. cash amounts are not negative etc.).
+ *
+ * All mutations and all readers of the whole journal are synchronized on the
+ * journal instance, as DTOs are built on the event dispatch thread and quotes
+ * are pushed from the quote engine threads.
  */
 class Journal {
 
-	private final ArrayList<JournalEntry> entries;
+	/**
+	 * Size of the input buffer used when loading journal files.
+	 */
+	private static final int LOAD_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Size of the output buffer used when saving journal files.
+	 */
+	private static final int SAVE_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * A line break followed by enough spaces for the deepest indentation level.
+	 */
+	private static final char[] SAVE_INDENTATION = "\n        ".toCharArray();
+
+	/**
+	 * Maximum number of entry changes kept for incremental views.
+	 */
+	private static final int MAX_ENTRY_CHANGES = 4096;
+
+	/**
+	 * Order of displayed entries, the most recent first.
+	 */
+	private static final Comparator<JournalEntry> DISPLAY_ORDER = Collections.reverseOrder(new JournalEntry.DateComparator());
+
+	private final IdentifiableRegistry<JournalEntry> entries;
 
-	private final ArrayList<Account> accounts;
+	private final IdentifiableRegistry<Account> accounts;
 
-	private final ArrayList<Portfolio> portfolios;
+	private final IdentifiableRegistry<Portfolio> portfolios;
 
 	private final ArrayList<Tag> tags;
 
@@ -74,11 +122,76 @@ class Journal {
 
 	private Date lastUpdateDate;
 
+	private long loadDuration;
+
+	/**
+	 * Snapshot generation, matched against the mutation log when the journal is opened.
+	 *
+	 * @see JournalLog
+	 */
+	private long generation;
+
+	/**
+	 * Entries added and removed by the batch being applied, <tt>null</tt> outside of batches.
+	 */
+	private ArrayList<BatchChange> batchChanges;
+
+	/**
+	 * Equity holdings of all accounts and portfolios by ticker, including
+	 * aggregated portfolio holdings.
+	 *
+	 * Built on demand for price updates of selected instruments and dropped
+	 * whenever holdings may have been rebuilt.
+	 */
+	private volatile HashMap<String, ArrayList<EquityHolding>> holdingsByTicker;
+
+	/**
+	 * Model version, incremented on every change of accounts, portfolios,
+	 * entries or quotes.
+	 *
+	 * Cached node DTOs are stamped with the version they were created at.
+	 */
+	private long version;
+
+	/**
+	 * Model version of the latest change which may have affected all nodes.
+	 *
+	 * Quote updates of selected instruments only invalidate DTOs of the nodes
+	 * holding these instruments.
+	 */
+	private long structureVersion;
+
+	/**
+	 * Most recent entry additions and removals in model version order.
+	 */
+	private final ArrayDeque<EntryChange> entryChanges;
+
+	/**
+	 * Model version of the latest entry change no longer logged.
+	 */
+	private long entryChangesSince;
+
+	/**
+	 * All entries in display order, built on demand.
+	 */
+	private IndexedSortedList<JournalEntry> orderedEntries;
+
+	/**
+	 * Number of DTO lookups answered from the cache.
+	 */
+	private long snapshotHits;
+
+	/**
+	 * Number of DTO lookups which required a new DTO.
+	 */
+	private long snapshotMisses;
+
 	Journal(String name, String owner) {
-		entries = new ArrayList<JournalEntry>(1000);
-		accounts = new ArrayList<Account>(10);
-		portfolios = new ArrayList<Portfolio>(25);
+		entries = new IdentifiableRegistry<JournalEntry>(1000);
+		accounts = new IdentifiableRegistry<Account>(10);
+		portfolios = new IdentifiableRegistry<Portfolio>(25);
 		tags = new ArrayList<Tag>(25);
+		entryChanges = new ArrayDeque<>();
 
 		JournalEntry.resetIDIncrement();
 		Account.resetIDIncrement();
@@ -92,34 +205,39 @@ class Journal {
 		portfolios.add(new Portfolio(this, "Portfel globalny"));
 	}
 
-	void addAccount(String name) {
+	synchronized void addAccount(String name) {
 		accounts.add(new Account(name));
+		modelChanged();
 	}
 	
 	private void addAccount(String name, int accountID) {
 		accounts.add(new Account(name, accountID));
+		modelChanged();
 	}
 
-	void removeAccount(int accountID) throws ObjectNotFoundException, NodeNotEmptyException {
-		Account account = findObjectByID(accountID, accounts);
+	synchronized void removeAccount(int accountID) throws ObjectNotFoundException, NodeNotEmptyException {
+		Account account = accounts.find(accountID);
 		
 		if (account.getEntries().size() == 0) {
 			accounts.remove(account);
+			modelChanged();
 		} else {
 			throw new NodeNotEmptyException();
 		}
 	}
 
-	void addPortfolio(String name, int parentID) throws ObjectNotFoundException {
-		portfolios.add(new Portfolio(this, name, findObjectByID(parentID, portfolios)));
+	synchronized void addPortfolio(String name, int parentID) throws ObjectNotFoundException {
+		portfolios.add(new Portfolio(this, name, portfolios.find(parentID)));
+		modelChanged();
 	}
 	
 	private void addPortfolio(String name, int portfolioID, int parentID) throws ObjectNotFoundException {
-		portfolios.add(new Portfolio(this, name, portfolioID, findObjectByID(parentID, portfolios)));
+		portfolios.add(new Portfolio(this, name, portfolioID, portfolios.find(parentID)));
+		modelChanged();
 	}
 
-	void removePortfolio(int portfolioID) throws ObjectNotFoundException, NodeNotEmptyException, GlobalPortfolioRemovalException {
-		Portfolio portfolio = findObjectByID(portfolioID, portfolios);
+	synchronized void removePortfolio(int portfolioID) throws ObjectNotFoundException, NodeNotEmptyException, GlobalPortfolioRemovalException {
+		Portfolio portfolio = portfolios.find(portfolioID);
 
 		if (portfolio.getEntries().size() == 0 && portfolio.getChildren().size() == 0) {
 			if (portfolio.getParent() == null) {
@@ -128,12 +246,18 @@ class Journal {
 			
 			portfolio.getParent().removeChild(portfolio);
 			portfolios.remove(portfolio);
+			modelChanged();
 		} else {
 			throw new NodeNotEmptyException();
 		}
 	}
 
-	void addBuyEquityTransactionEntry(int accountID, int portfolioID, String tags, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission) throws ObjectNotFoundException, EntryInsertionException, ObjectConstraintsException, InvalidInputException {
+	synchronized void addBuyEquityTransactionEntry(int accountID, int portfolioID, String tags, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission) throws ObjectNotFoundException, EntryInsertionException, ObjectConstraintsException, InvalidInputException {
+		date = sanitizeDate(date);
+		addEntry(createBuyEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission, getPositionName(date)));
+	}
+
+	private BuyEquityTransactionEntry createBuyEquityTransactionEntry(int accountID, int portfolioID, String tags, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission, String position) throws ObjectNotFoundException, ObjectConstraintsException, InvalidInputException {
 		assertNumberIsPositive(quantity);
 		assertNumberIsInteger(quantity);
 		assertNumberIsNotNegative(price);
@@ -142,19 +266,23 @@ class Journal {
 		quantity = sanitizeQuantity(quantity);
 		price = sanitizePrice(price);
 		commission = sanitizeCommission(commission);
-		date = sanitizeDate(date);
 
-		Account account = findObjectByID(accountID, accounts);
-		Portfolio portfolio = findObjectByID(portfolioID, portfolios);
+		Account account = accounts.find(accountID);
+		Portfolio portfolio = portfolios.find(portfolioID);
 
 		// TODO: Proper BuyEquityTransaction tag handling
 		// TODO: Proper BuyEquityTransaction position handling
-		BuyEquityTransactionEntry entry = new BuyEquityTransactionEntry(account, portfolio, null, date, comment, ticker, quantity, price, commission, new StringBuilder(new SimpleDateFormat("yyyy-MM").format(date)).toString());
+		BuyEquityTransactionEntry entry = new BuyEquityTransactionEntry(account, portfolio, null, date, comment, ticker, quantity, price, commission, position);
+
+		return entry;
+	}
 
-		addEntry(entry);
+	synchronized void addSellEquityTransactionEntry(int accountID, int portfolioID, String tags, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission) throws ObjectNotFoundException, EntryInsertionException, ObjectConstraintsException, InvalidInputException {
+		date = sanitizeDate(date);
+		addEntry(createSellEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission, getPositionName(date)));
 	}
 
-	void addSellEquityTransactionEntry(int accountID, int portfolioID, String tags, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission) throws ObjectNotFoundException, EntryInsertionException, ObjectConstraintsException, InvalidInputException {
+	private SellEquityTransactionEntry createSellEquityTransactionEntry(int accountID, int portfolioID, String tags, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission, String position) throws ObjectNotFoundException, ObjectConstraintsException, InvalidInputException {
 		assertNumberIsPositive(quantity);
 		assertNumberIsInteger(quantity);
 		assertNumberIsNotNegative(price);
@@ -163,89 +291,177 @@ class Journal {
 		quantity = sanitizeQuantity(quantity);
 		price = sanitizePrice(price);
 		commission = sanitizeCommission(commission);
-		date = sanitizeDate(date);
 
-		Account account = findObjectByID(accountID, accounts);
-		Portfolio portfolio = findObjectByID(portfolioID, portfolios);
+		Account account = accounts.find(accountID);
+		Portfolio portfolio = portfolios.find(portfolioID);
 
 		// TODO: Proper SellEquityTransaction tag handling
 		// TODO: Proper SellEquityTransaction position handling
-		SellEquityTransactionEntry entry = new SellEquityTransactionEntry(account, portfolio, null, date, comment, ticker, quantity, price, commission, new StringBuilder(new SimpleDateFormat("yyyy-MM").format(date)).toString());
+		SellEquityTransactionEntry entry = new SellEquityTransactionEntry(account, portfolio, null, date, comment, ticker, quantity, price, commission, position);
 
-		addEntry(entry);
+		return entry;
 	}
 
-	void addCashAllocationEntry(int accountID, int portfolioID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+	synchronized void addCashAllocationEntry(int accountID, int portfolioID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+		addEntry(createCashAllocationEntry(accountID, portfolioID, tags, sanitizeDate(date), comment, amount));
+	}
+
+	private CashAllocationEntry createCashAllocationEntry(int accountID, int portfolioID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, InvalidInputException {
 		assertNumberIsPositive(amount);
 
 		amount = sanitizeCashAmount(amount);
-		date = sanitizeDate(date);
 
-		Account account = findObjectByID(accountID, accounts);
-		Portfolio portfolio = findObjectByID(portfolioID, portfolios);
+		Account account = accounts.find(accountID);
+		Portfolio portfolio = portfolios.find(portfolioID);
 
 		// TODO: Proper tag handling
 		CashAllocationEntry entry = new CashAllocationEntry(account, portfolio, null, date, comment, amount);
 
-		addEntry(entry);
+		return entry;
 	}
 
-	void addCashDeallocationEntry(int accountID, int portfolioID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+	synchronized void addCashDeallocationEntry(int accountID, int portfolioID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+		addEntry(createCashDeallocationEntry(accountID, portfolioID, tags, sanitizeDate(date), comment, amount));
+	}
+
+	private CashDeallocationEntry createCashDeallocationEntry(int accountID, int portfolioID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, InvalidInputException {
 		assertNumberIsPositive(amount);
 
 		amount = sanitizeCashAmount(amount);
-		date = sanitizeDate(date);
 
-		Account account = findObjectByID(accountID, accounts);
-		Portfolio portfolio = findObjectByID(portfolioID, portfolios);
+		Account account = accounts.find(accountID);
+		Portfolio portfolio = portfolios.find(portfolioID);
 
 		// TODO: Proper tag handling
 		CashDeallocationEntry entry = new CashDeallocationEntry(account, portfolio, null, date, comment, amount);
 
-		addEntry(entry);
+		return entry;
+	}
+
+	synchronized void addCashDepositEntry(int accountID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+		addEntry(createCashDepositEntry(accountID, tags, sanitizeDate(date), comment, amount));
 	}
 
-	void addCashDepositEntry(int accountID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+	private CashDepositEntry createCashDepositEntry(int accountID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, InvalidInputException {
 		assertNumberIsPositive(amount);
 
 		amount = sanitizeCashAmount(amount);
-		date = sanitizeDate(date);
 
-		Account account = findObjectByID(accountID, accounts);
+		Account account = accounts.find(accountID);
 
 		// TODO: Proper tag handling
 		CashDepositEntry entry = new CashDepositEntry(account, null, date, comment, amount);
 
-		addEntry(entry);
+		return entry;
 	}
 
-	void addCashWithdrawalEntry(int accountID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+	synchronized void addCashWithdrawalEntry(int accountID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, EntryInsertionException, InvalidInputException {
+		addEntry(createCashWithdrawalEntry(accountID, tags, sanitizeDate(date), comment, amount));
+	}
+
+	private CashWithdrawalEntry createCashWithdrawalEntry(int accountID, String tags, Date date, String comment, BigDecimal amount) throws ObjectNotFoundException, InvalidInputException {
 		assertNumberIsPositive(amount);
 
 		amount = sanitizeCashAmount(amount);
-		date = sanitizeDate(date);
 
-		Account account = findObjectByID(accountID, accounts);
+		Account account = accounts.find(accountID);
 
 		// TODO: Proper tag handling
 		CashWithdrawalEntry entry = new CashWithdrawalEntry(account, null, date, comment, amount);
 
-		addEntry(entry);
+		return entry;
 	}
 
-	void removeEntry(int entryID) throws ObjectNotFoundException, EntryInsertionException {
-		JournalEntry entry = findObjectByID(entryID, entries);
+	synchronized void removeEntry(int entryID) throws ObjectNotFoundException, EntryInsertionException {
+		JournalEntry entry = entries.find(entryID);
 		removeEntry(entry);
 	}
 
 	private void addEntry(JournalEntry entry) throws EntryInsertionException {
-		entry.attach();
+		try {
+			entry.attach();
+		} catch (EntryInsertionException e) {
+			// Rejected entries must not consume IDs, the mutation log is replayed without them
+			if (entry.getID() == JournalEntry.getNumberOfJournalEntriesCreated() - 1) {
+				JournalEntry.setNumberOfJournalEntriesCreated(entry.getID());
+			}
+
+			throw e;
+		}
+
 		entries.add(entry);
+		holdingsByTicker = null;
+		entryChanged(entry, true);
+
+		if (batchChanges != null) {
+			batchChanges.add(new BatchChange(entry, true));
+		}
 	}
 
 	private void removeEntry(JournalEntry entry) throws EntryInsertionException {
 		entry.detach();
 		entries.remove(entry);
+		holdingsByTicker = null;
+		entryChanged(entry, false);
+
+		if (batchChanges != null) {
+			batchChanges.add(new BatchChange(entry, false));
+		}
+	}
+
+	/**
+	 * Applies a list of entry mutations as a single transaction.
+	 *
+	 * The commands are applied in deferred computation mode and holdings are
+	 * recalculated once afterwards. If any command fails, all changes made by
+	 * the preceding ones are reverted in reverse order and the exception is
+	 * rethrown, leaving the journal in its original state.
+	 *
+	 * @param commands Mutations to be applied in order
+	 */
+	synchronized void applyBatch(List<EntryCommand> commands) throws ObjectNotFoundException, EntryInsertionException, ObjectConstraintsException, InvalidInputException {
+		boolean deferredComputationMode = TradeRateConfig.isDeferredComputationMode();
+		int numberOfJournalEntriesCreated = JournalEntry.getNumberOfJournalEntriesCreated();
+
+		batchChanges = new ArrayList<>(commands.size());
+		TradeRateConfig.setDeferredComputationMode(true);
+
+		try {
+			for (EntryCommand command : commands) {
+				command.apply(this);
+			}
+		} catch (Exception e) {
+			revertBatch();
+			JournalEntry.setNumberOfJournalEntriesCreated(numberOfJournalEntriesCreated);
+			throw e;
+		} finally {
+			batchChanges = null;
+			TradeRateConfig.setDeferredComputationMode(deferredComputationMode);
+
+			if (!deferredComputationMode) {
+				update();
+			}
+		}
+	}
+
+	private void revertBatch() {
+		ArrayList<BatchChange> changes = batchChanges;
+		batchChanges = null;
+
+		// Every reverted change restores a state which has already been valid
+		try {
+			for (int i = changes.size() - 1; i >= 0; --i) {
+				BatchChange change = changes.get(i);
+
+				if (change.added) {
+					removeEntry(change.entry);
+				} else {
+					addEntry(change.entry);
+				}
+			}
+		} catch (EntryInsertionException e) {
+			throw new InternalLogicError();
+		}
 	}
 
 	String getName() {
@@ -264,6 +480,14 @@ class Journal {
 		this.owner = owner;
 	}
 
+	long getGeneration() {
+		return generation;
+	}
+
+	void setGeneration(long generation) {
+		this.generation = generation;
+	}
+
 	Date getCreationDate() {
 		return new Date(creationDate.getTime());
 	}
@@ -276,15 +500,15 @@ class Journal {
 		this.lastUpdateDate = new Date(lastUpdateDate.getTime());
 	}
 
-	ArrayList<Account> getAccounts() {
+	IdentifiableRegistry<Account> getAccounts() {
 		return accounts;
 	}
 
 	Account getAccount(int accountID) throws ObjectNotFoundException {
-		return findObjectByID(accountID, accounts);
+		return accounts.find(accountID);
 	}
 
-	ArrayList<JournalEntry> getEntries() {
+	IdentifiableRegistry<JournalEntry> getEntries() {
 		return entries;
 	}
 	
@@ -293,7 +517,7 @@ class Journal {
 	}
 
 	Portfolio getPortfolio(int portfolioID) throws ObjectNotFoundException {
-		return findObjectByID(portfolioID, portfolios);
+		return portfolios.find(portfolioID);
 	}
 
 	public ArrayList<Portfolio> getOrderedPortfolios() {
@@ -309,17 +533,49 @@ class Journal {
 		}
 	}
 
-	void update() {
+	synchronized void update() {
+		holdingsByTicker = null;
+		modelChanged();
+
 		for (Account account : accounts) {
 			account.update();
 		}
 
 		for (Portfolio portfolio : portfolios) {
-			portfolio.update();
+			portfolio.updateOwnValues();
 		}
+
+		getGlobalPortfolio().updateAggregates();
 	}
 
+	/**
+	 * Updates prices of all holdings.
+	 *
+	 * Quotes of all held instruments are requested in a single bulk call first,
+	 * so that the holdings are then updated from the quote cache. The journal
+	 * is not locked while the quotes are requested, so readers are not blocked
+	 * by a slow quote provider. Quotes received too late are applied as they
+	 * arrive, through {@link #updateQuotes(Collection)}.
+	 */
 	void updateQuotes() {
+		QuoteEngine.getInstance().getLast(collectTickers());
+		applyQuotes();
+	}
+
+	private synchronized HashSet<String> collectTickers() {
+		HashSet<String> tickers = new HashSet<>();
+
+		for (Account account : accounts) {
+			account.collectTickers(tickers);
+		}
+
+		return tickers;
+	}
+
+	/**
+	 * Updates prices of all holdings from the quote cache.
+	 */
+	private synchronized void applyQuotes() {
 		for (Account account : accounts) {
 			account.updateQuotes();
 		}
@@ -327,23 +583,458 @@ class Journal {
 		for (Portfolio portfolio : portfolios) {
 			portfolio.updateQuotes();
 		}
+
+		modelChanged();
+	}
+
+	/**
+	 * Updates prices of holdings in selected instruments only.
+	 *
+	 * Holdings are found with an index by ticker, so only the affected
+	 * holdings, together with their positions and trades, are updated. This
+	 * includes aggregated holdings of all portfolios.
+	 *
+	 * @param tickers Tickers with changed prices
+	 * @return Tickers of instruments held in this journal
+	 */
+	synchronized Set<String> updateQuotes(Collection<String> tickers) {
+		HashMap<String, ArrayList<EquityHolding>> index = holdingsByTicker;
+
+		if (index == null) {
+			index = new HashMap<>();
+
+			for (Account account : accounts) {
+				account.getHoldings().indexHoldings(index);
+			}
+
+			for (Portfolio portfolio : portfolios) {
+				portfolio.getHoldings().indexHoldings(index);
+				portfolio.getAggregatedHoldings().indexHoldings(index);
+			}
+
+			holdingsByTicker = index;
+		}
+
+		HashSet<String> updatedTickers = new HashSet<>();
+
+		for (String ticker : tickers) {
+			ArrayList<EquityHolding> tickerHoldings = index.get(ticker);
+
+			if (tickerHoldings == null) {
+				continue;
+			}
+
+			for (EquityHolding holding : tickerHoldings) {
+				holding.updateQuotes();
+			}
+
+			updatedTickers.add(ticker);
+		}
+
+		if (!updatedTickers.isEmpty()) {
+			quotesChanged(updatedTickers);
+		}
+
+		return updatedTickers;
 	}
 
-	private <T extends Identifiable> T findObjectByID(int objectID, ArrayList<T> arrayList) throws ObjectNotFoundException {
-		T object = null;
+	/**
+	 * Registers a change which may have affected all nodes.
+	 */
+	private synchronized void modelChanged() {
+		structureVersion = ++version;
+	}
+
+	/**
+	 * Registers an entry addition or removal.
+	 *
+	 * @param entry Changed entry
+	 * @param added True if the entry was added, false if removed
+	 */
+	private synchronized void entryChanged(JournalEntry entry, boolean added) {
+		modelChanged();
+		entryChanges.addLast(new EntryChange(version, entry, added));
+
+		if (orderedEntries != null) {
+			if (added) {
+				orderedEntries.add(entry);
+			} else {
+				orderedEntries.remove(entry);
+			}
+		}
+
+		if (entryChanges.size() > MAX_ENTRY_CHANGES) {
+			entryChangesSince = entryChanges.removeFirst().version;
+		}
+	}
+
+	synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns entries added and removed since a given model version.
+	 *
+	 * Only the net effect is reported, an entry added and removed again, or
+	 * removed and added back, is left out. Each change comes with its row in
+	 * display order, so that removals in the given order followed by
+	 * insertions in the given order turn the entry list as of the given
+	 * version into the current one.
+	 *
+	 * @param sinceVersion Model version of the caller's current view
+	 * @return Entry changes, <tt>null</tt> if they are no longer logged
+	 */
+	synchronized EntryChangesDTO getEntryChanges(long sinceVersion) {
+		if (sinceVersion < entryChangesSince) {
+			return null;
+		}
+
+		LinkedHashMap<JournalEntry, Boolean> netChanges = new LinkedHashMap<>();
+		Iterator<EntryChange> changeIterator = entryChanges.descendingIterator();
+
+		while (changeIterator.hasNext()) {
+			EntryChange change = changeIterator.next();
 
-		for (T checkedObject : arrayList) {
-			if (checkedObject.getID() == objectID) {
-				object = checkedObject;
+			if (change.version <= sinceVersion) {
 				break;
 			}
+
+			// Changes of an entry alternate, so the earliest one decides
+			if (netChanges.remove(change.entry) == null) {
+				netChanges.put(change.entry, change.added);
+			}
+		}
+
+		ArrayList<JournalEntry> addedEntries = new ArrayList<>();
+		ArrayList<JournalEntry> removedEntries = new ArrayList<>();
+
+		for (Map.Entry<JournalEntry, Boolean> change : netChanges.entrySet()) {
+			if (change.getValue()) {
+				addedEntries.add(change.getKey());
+			} else {
+				removedEntries.add(change.getKey());
+			}
+		}
+
+		Collections.sort(addedEntries, DISPLAY_ORDER);
+		Collections.sort(removedEntries, DISPLAY_ORDER);
+
+		IndexedSortedList<JournalEntry> currentEntries = getOrderedEntries();
+		ArrayList<JournalEntryDTO> addedEntryDTOs = new ArrayList<>(addedEntries.size());
+		int[] addedRows = new int[addedEntries.size()];
+
+		for (int i = 0; i < addedEntries.size(); ++i) {
+			addedEntryDTOs.add(new JournalEntryDTO(addedEntries.get(i)));
+			addedRows[i] = currentEntries.indexOf(addedEntries.get(i));
+		}
+
+		// The former row of a removed entry counts the preceding current
+		// entries, except for added ones, and the preceding removed entries
+		int[] formerRows = new int[removedEntries.size()];
+		int precedingAddedEntries = 0;
+
+		for (int i = 0; i < removedEntries.size(); ++i) {
+			JournalEntry removedEntry = removedEntries.get(i);
+
+			while (precedingAddedEntries < addedEntries.size() && DISPLAY_ORDER.compare(addedEntries.get(precedingAddedEntries), removedEntry) < 0) {
+				precedingAddedEntries++;
+			}
+
+			formerRows[i] = -currentEntries.indexOf(removedEntry) - 1 - precedingAddedEntries + i;
+		}
+
+		// Removals are reported from the bottom, so that rows of the remaining ones stay valid
+		ArrayList<JournalEntryDTO> removedEntryDTOs = new ArrayList<>(removedEntries.size());
+		int[] removedRows = new int[removedEntries.size()];
+
+		for (int i = 0; i < removedEntries.size(); ++i) {
+			int j = removedEntries.size() - 1 - i;
+			removedEntryDTOs.add(new JournalEntryDTO(removedEntries.get(j)));
+			removedRows[i] = formerRows[j];
+		}
+
+		return new EntryChangesDTO(version, addedEntryDTOs, addedRows, removedEntryDTOs, removedRows);
+	}
+
+	/**
+	 * Returns a range of entries in display order, the most recent first.
+	 *
+	 * @param firstRow Position of the first returned entry
+	 * @param count    Maximum number of returned entries
+	 * @return Page of entries
+	 */
+	synchronized EntryPageDTO getEntryPage(int firstRow, int count) {
+		IndexedSortedList<JournalEntry> currentEntries = getOrderedEntries();
+		int lastRow = Math.min(firstRow + count, currentEntries.size());
+		ArrayList<JournalEntryDTO> entryDTOs = new ArrayList<>(Math.max(lastRow - firstRow, 0));
+
+		for (int row = firstRow; row < lastRow; ++row) {
+			entryDTOs.add(new JournalEntryDTO(currentEntries.get(row)));
+		}
+
+		return new EntryPageDTO(version, currentEntries.size(), firstRow, entryDTOs);
+	}
+
+	private IndexedSortedList<JournalEntry> getOrderedEntries() {
+		if (orderedEntries == null) {
+			ArrayList<JournalEntry> sortedEntries = new ArrayList<>(entries);
+			Collections.sort(sortedEntries, DISPLAY_ORDER);
+			orderedEntries = new IndexedSortedList<>(DISPLAY_ORDER, sortedEntries);
+		}
+
+		return orderedEntries;
+	}
+
+	/**
+	 * Registers a quote change of selected instruments in nodes holding them.
+	 *
+	 * @param tickers Tickers with changed prices
+	 */
+	private void quotesChanged(Collection<String> tickers) {
+		++version;
+
+		for (Account account : accounts) {
+			if (account.getHoldings().holdsAny(tickers)) {
+				account.setQuoteVersion(version);
+			}
+		}
+
+		for (Portfolio portfolio : portfolios) {
+			if (portfolio.getHoldings().holdsAny(tickers) || portfolio.getAggregatedHoldings().holdsAny(tickers)) {
+				portfolio.setQuoteVersion(version);
+			}
+		}
+	}
+
+	/**
+	 * Returns DTOs of all accounts.
+	 *
+	 * DTOs of nodes unchanged since the previous call are returned from the
+	 * cache, so the portfolio list needed for cash allocations is only built
+	 * if any of them has to be created again.
+	 *
+	 * @return List of account DTOs
+	 */
+	synchronized ArrayList<AccountDTO> getAccountDTOs() {
+		ArrayList<AccountDTO> accountDTOs = new ArrayList<>(accounts.size());
+		ArrayList<Portfolio> orderedPortfolios = null;
+
+		for (Account account : accounts) {
+			AccountDTO accountDTO = account.getCachedDTO(structureVersion);
+
+			if (accountDTO == null) {
+				if (orderedPortfolios == null) {
+					orderedPortfolios = getOrderedPortfolios();
+				}
+
+				accountDTO = account.createDTO(orderedPortfolios, version);
+				snapshotMisses++;
+			} else {
+				snapshotHits++;
+			}
+
+			accountDTOs.add(accountDTO);
+		}
+
+		return accountDTOs;
+	}
+
+	synchronized AccountDTO getAccountDTO(int accountID) throws ObjectNotFoundException {
+		Account account = accounts.find(accountID);
+		AccountDTO accountDTO = account.getCachedDTO(structureVersion);
+
+		if (accountDTO == null) {
+			snapshotMisses++;
+			return account.createDTO(getOrderedPortfolios(), version);
+		}
+
+		snapshotHits++;
+		return accountDTO;
+	}
+
+	synchronized PortfolioDetailsDTO getPortfolioDetailsDTO(int portfolioID) throws ObjectNotFoundException {
+		Portfolio portfolio = portfolios.find(portfolioID);
+		PortfolioDetailsDTO detailsDTO = portfolio.getCachedDetailsDTO(structureVersion);
+
+		if (detailsDTO == null) {
+			snapshotMisses++;
+			return portfolio.createDetailsDTO(accounts, version);
+		}
+
+		snapshotHits++;
+		return detailsDTO;
+	}
+
+	synchronized PortfolioNodeDTO getPortfolioNodeDTO(Portfolio portfolio) {
+		PortfolioNodeDTO nodeDTO = portfolio.getCachedNodeDTO(structureVersion);
+
+		if (nodeDTO == null) {
+			snapshotMisses++;
+			return portfolio.createNodeDTO(version);
+		}
+
+		snapshotHits++;
+		return nodeDTO;
+	}
+
+	synchronized SnapshotCacheStatistics getSnapshotStatistics() {
+		return new SnapshotCacheStatistics(version, snapshotHits, snapshotMisses);
+	}
+
+	/**
+	 * Computes the market value of account holdings as of a given date.
+	 *
+	 * Holdings are derived directly from the equity transactions of the
+	 * account, without replaying its history. They are valued like in
+	 * {@link ValueSeriesCalculator}, at the latest close known on or before
+	 * the date, or at the latest transaction price if there is none.
+	 *
+	 * @param accountID    ID of the account
+	 * @param date         Valuation date
+	 * @param priceHistory Source of closing prices, <tt>null</tt> to use transaction prices only
+	 * @return Market value
+	 * @throws ObjectNotFoundException Thrown when the account does not exist.
+	 */
+	synchronized BigDecimal getAccountMarketValue(int accountID, Date date, PriceHistory priceHistory) throws ObjectNotFoundException {
+		Date valuationDate = sanitizeDate(date);
+		HashMap<String, BigDecimal> quantities = new HashMap<>();
+
+		addEquityQuantities(quantities, getAccount(accountID).getEntries(), valuationDate);
+
+		return getMarketValue(quantities, valuationDate, priceHistory);
+	}
+
+	/**
+	 * Computes the market value of portfolio holdings as of a given date.
+	 *
+	 * Holdings of all descendant portfolios are included.
+	 *
+	 * @param portfolioID  ID of the portfolio
+	 * @param date         Valuation date
+	 * @param priceHistory Source of closing prices, <tt>null</tt> to use transaction prices only
+	 * @return Market value
+	 * @throws ObjectNotFoundException Thrown when the portfolio does not exist.
+	 * @see #getAccountMarketValue(int, Date, PriceHistory)
+	 */
+	synchronized BigDecimal getPortfolioMarketValue(int portfolioID, Date date, PriceHistory priceHistory) throws ObjectNotFoundException {
+		Date valuationDate = sanitizeDate(date);
+		HashMap<String, BigDecimal> quantities = new HashMap<>();
+
+		ArrayList<Portfolio> portfolios = new ArrayList<>();
+		populatePortfolioList(portfolios, getPortfolio(portfolioID));
+
+		for (Portfolio portfolio : portfolios) {
+			addEquityQuantities(quantities, portfolio.getEntries(), valuationDate);
 		}
 
-		if (object == null) {
-			throw new ObjectNotFoundException();
+		return getMarketValue(quantities, valuationDate, priceHistory);
+	}
+
+	/**
+	 * Computes daily value series of all accounts and portfolios.
+	 *
+	 * @param from         First day of the series
+	 * @param to           Last day of the series
+	 * @param priceHistory Source of closing prices, <tt>null</tt> to use transaction prices only
+	 * @return Series of all accounts and portfolios
+	 * @throws InvalidInputException Thrown when the range is empty.
+	 * @see ValueSeriesCalculator
+	 */
+	synchronized ValueSeriesDTO getValueSeries(Date from, Date to, PriceHistory priceHistory) throws InvalidInputException {
+		int fromEpochDay = JournalBinaryFormat.toEpochDay(sanitizeDate(from));
+		int toEpochDay = JournalBinaryFormat.toEpochDay(sanitizeDate(to));
+
+		if (toEpochDay < fromEpochDay) {
+			throw new InvalidInputException();
+		}
+
+		ArrayList<JournalEntry> chronologicalEntries = new ArrayList<>(entries);
+		Collections.sort(chronologicalEntries, new JournalEntry.DateComparator());
+
+		return new ValueSeriesCalculator(accounts, getOrderedPortfolios(), chronologicalEntries, priceHistory).calculate(fromEpochDay, toEpochDay);
+	}
+
+	/**
+	 * Sums up quantities of equities bought and sold on or before a given date.
+	 *
+	 * @param quantities Quantities held, keyed by ticker
+	 * @param entries    Entries in chronological order
+	 * @param date       Sanitized valuation date
+	 */
+	private static void addEquityQuantities(HashMap<String, BigDecimal> quantities, List<? extends JournalEntry> entries, Date date) {
+		for (JournalEntry entry : entries) {
+			if (entry.date.after(date)) {
+				break;
+			}
+
+			BigDecimal quantity;
+
+			if (entry instanceof BuyEquityTransactionEntry) {
+				quantity = ((BuyEquityTransactionEntry) entry).quantity;
+			} else if (entry instanceof SellEquityTransactionEntry) {
+				quantity = ((SellEquityTransactionEntry) entry).quantity.negate();
+			} else {
+				continue;
+			}
+
+			String ticker = ((TransactionEntry) entry).ticker;
+			BigDecimal heldQuantity = quantities.get(ticker);
+			quantities.put(ticker, heldQuantity == null ? quantity : heldQuantity.add(quantity));
+		}
+	}
+
+	private BigDecimal getMarketValue(HashMap<String, BigDecimal> quantities, Date date, PriceHistory priceHistory) {
+		int epochDay = JournalBinaryFormat.toEpochDay(date);
+		BigDecimal marketValue = BigDecimal.ZERO;
+		HashMap<String, TransactionEntry> transactions = null;
+
+		for (Map.Entry<String, BigDecimal> quantity : quantities.entrySet()) {
+			if (quantity.getValue().signum() == 0) {
+				continue;
+			}
+
+			BigDecimal price = priceHistory == null ? null : priceHistory.getClose(quantity.getKey(), epochDay);
+
+			if (price == null) {
+				if (transactions == null) {
+					transactions = getLatestTransactions(date);
+				}
+
+				price = transactions.get(quantity.getKey()).price;
+			}
+
+			marketValue = marketValue.add(price.multiply(quantity.getValue()));
 		}
 
-		return object;
+		return marketValue;
+	}
+
+	/**
+	 * Finds the latest equity transaction of each ticker in the whole journal.
+	 *
+	 * Of transactions made at the same time, the one listed last is taken,
+	 * as when value series are computed.
+	 *
+	 * @param date Sanitized valuation date
+	 * @return Latest transactions made on or before the date, keyed by ticker
+	 */
+	private HashMap<String, TransactionEntry> getLatestTransactions(Date date) {
+		HashMap<String, TransactionEntry> transactions = new HashMap<>();
+
+		for (JournalEntry entry : entries) {
+			if (!(entry instanceof TransactionEntry) || entry.date.after(date)) {
+				continue;
+			}
+
+			TransactionEntry transaction = (TransactionEntry) entry;
+			TransactionEntry latestTransaction = transactions.get(transaction.ticker);
+
+			if (latestTransaction == null || !transaction.date.before(latestTransaction.date)) {
+				transactions.put(transaction.ticker, transaction);
+			}
+		}
+
+		return transactions;
 	}
 
 	private void assertNumberIsPositive(BigDecimal number) throws InvalidInputException {
@@ -386,6 +1077,10 @@ class Journal {
 		return number;
 	}
 
+	private String getPositionName(Date date) {
+		return new SimpleDateFormat("yyyy-MM").format(date);
+	}
+
 	private Date sanitizeDate(Date date) {
 		SimpleDateFormat dateResolution = new SimpleDateFormat("dd.MM.yyyy");
 		String dateString = dateResolution.format(date);
@@ -403,281 +1098,715 @@ class Journal {
 		return calendar.getTime();
 	}
 
-	public void saveToFile(File file) throws JournalSaveException {
+	/**
+	 * Saves journal contents to a file.
+	 *
+	 * Files with the {@link JournalBinaryFormat#EXTENSION} extension are saved
+	 * in the binary format, all other files as XML. The document is streamed
+	 * to a temporary file in the destination directory, which then atomically
+	 * replaces the destination. Memory usage does not depend on the journal
+	 * size and an interrupted save never leaves a truncated journal behind.
+	 *
+	 * @param file Destination file
+	 * @throws JournalSaveException
+	 */
+	public synchronized void saveToFile(File file) throws JournalSaveException {
+		Path destination = file.getAbsoluteFile().toPath();
+		Path temporaryFile = null;
+
 		try {
-			DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder documentBuilder = documentFactory.newDocumentBuilder();
+			// Unlike Files.createTempFile, this keeps the default permissions for new files
+			temporaryFile = File.createTempFile("." + destination.getFileName() + ".", ".tmp", destination.getParent().toFile()).toPath();
 
-			Document document = documentBuilder.newDocument();
+			try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), SAVE_BUFFER_SIZE);
 
-			Element journal = document.createElement("Journal");
-			journal.setAttribute("name", name);
-			journal.setAttribute("owner", owner);
-			document.appendChild(journal);
+				if (JournalBinaryFormat.hasBinaryExtension(file)) {
+					writeBinaryJournal(new DataOutputStream(output));
+				} else {
+					XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+					writeJournal(writer);
+					writer.close();
+				}
 
-			//:--- Save accounts
+				output.flush();
+				channel.force(true);
+			}
 
-			Element accounts = document.createElement("Accounts");
-			accounts.setAttribute("accountsCreated", ((Integer) Account.getNumberOfAccountsCreated()).toString());
-			journal.appendChild(accounts);
-			
-			for (Account account : this.accounts) {
-				Element accountNode = document.createElement("Account");
-				accountNode.setAttribute("ID", ((Integer) account.getID()).toString());
-				accountNode.setAttribute("name", account.getName());
-				accounts.appendChild(accountNode);
+			try {
+				Files.move(temporaryFile, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile, destination, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException | XMLStreamException | JournalSaveException e) {
+			if (temporaryFile != null) {
+				try {
+					Files.deleteIfExists(temporaryFile);
+				} catch (IOException ignored) {
+				}
 			}
 
-			//:--- Save portfolios
+			throw new JournalSaveException();
+		}
+	}
+
+	private void writeJournal(XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeStartDocument("UTF-8", "1.0");
+		writer.writeCharacters("\n");
 
-			Element portfolios = document.createElement("Portfolios");
-			portfolios.setAttribute("portfoliosCreated", ((Integer) Portfolio.getNumberOfPortfoliosCreated()).toString());
-			journal.appendChild(portfolios);
+		writer.writeStartElement("Journal");
+		writer.writeAttribute("name", name);
+		writer.writeAttribute("owner", owner);
+		writer.writeAttribute("generation", Long.toString(generation));
 
-			for (Portfolio portfolio : this.portfolios) {
-				Element portfolioNode = document.createElement("Portfolio");
-				portfolioNode.setAttribute("ID", ((Integer) portfolio.getID()).toString());
-				portfolioNode.setAttribute("name", portfolio.getName());
-				if (portfolio.getParent() != null) {
-					portfolioNode.setAttribute("parentID", ((Integer) portfolio.getParent().getID()).toString());
-				}
-				portfolios.appendChild(portfolioNode);
+		//:--- Save accounts
+
+		writeIndentation(writer, 1);
+		writer.writeStartElement("Accounts");
+		writer.writeAttribute("accountsCreated", Integer.toString(Account.getNumberOfAccountsCreated()));
+
+		for (Account account : accounts) {
+			writeIndentation(writer, 2);
+			writer.writeEmptyElement("Account");
+			writer.writeAttribute("ID", Integer.toString(account.getID()));
+			writer.writeAttribute("name", account.getName());
+		}
+
+		writeIndentation(writer, 1);
+		writer.writeEndElement();
+
+		//:--- Save portfolios
+
+		writeIndentation(writer, 1);
+		writer.writeStartElement("Portfolios");
+		writer.writeAttribute("portfoliosCreated", Integer.toString(Portfolio.getNumberOfPortfoliosCreated()));
+
+		for (Portfolio portfolio : portfolios) {
+			writeIndentation(writer, 2);
+			writer.writeEmptyElement("Portfolio");
+			writer.writeAttribute("ID", Integer.toString(portfolio.getID()));
+			writer.writeAttribute("name", portfolio.getName());
+			if (portfolio.getParent() != null) {
+				writer.writeAttribute("parentID", Integer.toString(portfolio.getParent().getID()));
 			}
+		}
 
-			//:--- Save entries
+		writeIndentation(writer, 1);
+		writer.writeEndElement();
 
-			Element entries = document.createElement("Entries");
-			entries.setAttribute("entriesCreated", ((Integer) JournalEntry.getNumberOfJournalEntriesCreated()).toString());
-			journal.appendChild(entries);
+		//:--- Save entries
 
-			for (JournalEntry entry : this.entries) {
-				Element entryNode = document.createElement("Entry");
+		writeIndentation(writer, 1);
+		writer.writeStartElement("Entries");
+		writer.writeAttribute("entriesCreated", Integer.toString(JournalEntry.getNumberOfJournalEntriesCreated()));
 
-				entryNode.setAttribute("ID", ((Integer) entry.getID()).toString());
-				entryNode.setAttribute("date", new SimpleDateFormat("yyyy-MM-dd").format(entry.getDate()));
-				entryNode.setAttribute("comment", entry.getComment());
-				entryNode.setAttribute("accountID", ((Integer) entry.getAccount().getID()).toString());
-				
-				if (entry instanceof CashDepositEntry) {
-					entryNode.setAttribute("type", "CashDeposit");
-					entryNode.setAttribute("amount", ((CashDepositEntry) entry).getAmount().toPlainString());
-				}
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		Date previousDate = null;
+		String dateString = null;
 
-				if (entry instanceof CashWithdrawalEntry) {
-					entryNode.setAttribute("type", "CashWithdrawal");
-					entryNode.setAttribute("amount", ((CashWithdrawalEntry) entry).getAmount().toPlainString());
-				}
+		for (JournalEntry entry : entries) {
+			// Consecutive entries usually share their dates
+			if (!entry.getDate().equals(previousDate)) {
+				previousDate = entry.getDate();
+				dateString = dateFormat.format(previousDate);
+			}
+
+			writeIndentation(writer, 2);
+			writer.writeEmptyElement("Entry");
+			writer.writeAttribute("ID", Integer.toString(entry.getID()));
+			writer.writeAttribute("date", dateString);
+			writer.writeAttribute("comment", entry.getComment());
+			writer.writeAttribute("accountID", Integer.toString(entry.getAccount().getID()));
+
+			if (entry instanceof CashDepositEntry) {
+				writer.writeAttribute("type", "CashDeposit");
+				writer.writeAttribute("amount", ((CashDepositEntry) entry).getAmount().toPlainString());
+			} else if (entry instanceof CashWithdrawalEntry) {
+				writer.writeAttribute("type", "CashWithdrawal");
+				writer.writeAttribute("amount", ((CashWithdrawalEntry) entry).getAmount().toPlainString());
+			} else if (entry instanceof CashAllocationEntry) {
+				writer.writeAttribute("type", "CashAllocation");
+				writer.writeAttribute("amount", ((CashAllocationEntry) entry).getAmount().toPlainString());
+				writer.writeAttribute("portfolioID", Integer.toString(((CashAllocationEntry) entry).getPortfolioID()));
+			} else if (entry instanceof CashDeallocationEntry) {
+				writer.writeAttribute("type", "CashDeallocation");
+				writer.writeAttribute("amount", ((CashDeallocationEntry) entry).getAmount().toPlainString());
+				writer.writeAttribute("portfolioID", Integer.toString(((CashDeallocationEntry) entry).getPortfolioID()));
+			} else if (entry instanceof BuyEquityTransactionEntry) {
+				BuyEquityTransactionEntry buyEntry = (BuyEquityTransactionEntry) entry;
+				writer.writeAttribute("type", "BuyEquity");
+				writer.writeAttribute("portfolioID", Integer.toString(buyEntry.getPortfolioID()));
+				writer.writeAttribute("ticker", buyEntry.getTicker());
+				writer.writeAttribute("quantity", buyEntry.getQuantity().toPlainString());
+				writer.writeAttribute("price", buyEntry.getPrice().toPlainString());
+				writer.writeAttribute("commission", buyEntry.getCommission().toPlainString());
+			} else if (entry instanceof SellEquityTransactionEntry) {
+				SellEquityTransactionEntry sellEntry = (SellEquityTransactionEntry) entry;
+				writer.writeAttribute("type", "SellEquity");
+				writer.writeAttribute("portfolioID", Integer.toString(sellEntry.getPortfolioID()));
+				writer.writeAttribute("ticker", sellEntry.getTicker());
+				writer.writeAttribute("quantity", sellEntry.getQuantity().toPlainString());
+				writer.writeAttribute("price", sellEntry.getPrice().toPlainString());
+				writer.writeAttribute("commission", sellEntry.getCommission().toPlainString());
+			}
+		}
 
-				if (entry instanceof CashAllocationEntry) {
-					entryNode.setAttribute("type", "CashAllocation");
-					entryNode.setAttribute("amount", ((CashAllocationEntry) entry).getAmount().toPlainString());
-					entryNode.setAttribute("portfolioID", ((Integer) ((CashAllocationEntry) entry).getPortfolioID()).toString());
+		writeIndentation(writer, 1);
+		writer.writeEndElement();
+
+		writer.writeCharacters("\n");
+		writer.writeEndElement();
+		writer.writeCharacters("\n");
+		writer.writeEndDocument();
+	}
+
+	private static void writeIndentation(XMLStreamWriter writer, int level) throws XMLStreamException {
+		writer.writeCharacters(SAVE_INDENTATION, 0, 1 + 4 * level);
+	}
+
+	/**
+	 * Loads journal contents from an XML or binary file.
+	 *
+	 * The format is recognized by the file signature. XML files are read with a
+	 * streaming parser, so memory usage does not depend on the size of the
+	 * document tree, binary files are memory-mapped. All entries are loaded in
+	 * deferred computation mode and attached in chronological order, so that
+	 * the history is replayed only once and holdings are recalculated in a
+	 * single pass at the end.
+	 *
+	 * @param file Source file
+	 * @throws JournalLoadException
+	 */
+	public void loadFromFile(File file) throws JournalLoadException {
+		long startTime = System.nanoTime();
+		boolean deferredComputationMode = TradeRateConfig.isDeferredComputationMode();
+
+		try {
+			TradeRateConfig.setDeferredComputationMode(true);
+
+			if (JournalBinaryFormat.isBinaryJournal(file)) {
+				readBinaryJournal(file);
+			} else {
+				try (InputStream input = new BufferedInputStream(new FileInputStream(file), LOAD_BUFFER_SIZE)) {
+					XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+					inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+					inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+					XMLStreamReader reader = inputFactory.createXMLStreamReader(input);
+
+					try {
+						readJournal(reader);
+					} finally {
+						reader.close();
+					}
 				}
+			}
+		} catch (Exception e) {
+			throw new JournalLoadException();
+		} finally {
+			TradeRateConfig.setDeferredComputationMode(deferredComputationMode);
+		}
+
+		if (!deferredComputationMode) {
+			update();
+		}
+
+		loadDuration = System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Returns the time spent in the most recent {@link #loadFromFile(File)} call.
+	 *
+	 * @return Load duration in nanoseconds, 0 if the journal was not loaded from a file
+	 */
+	public long getLoadDuration() {
+		return loadDuration;
+	}
+
+	private void readJournal(XMLStreamReader reader) throws Exception {
+		reader.nextTag();
+		if (!reader.getLocalName().equals("Journal")) throw new JournalLoadException();
+
+		this.name = getRequiredAttribute(reader, "name");
+		this.owner = getRequiredAttribute(reader, "owner");
+
+		// Files written before the mutation log was introduced have no generation
+		String generationString = reader.getAttributeValue(null, "generation");
+		this.generation = (generationString != null) ? Long.parseLong(generationString) : 0;
+
+		boolean accountsLoaded = false;
+		boolean portfoliosLoaded = false;
+		boolean entriesLoaded = false;
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			switch (reader.getLocalName()) {
+				case "Accounts":
+					readAccounts(reader);
+					accountsLoaded = true;
+					break;
+				case "Portfolios":
+					if (!accountsLoaded) throw new JournalLoadException();
+					readPortfolios(reader);
+					portfoliosLoaded = true;
+					break;
+				case "Entries":
+					if (!portfoliosLoaded) throw new JournalLoadException();
+					readEntries(reader);
+					entriesLoaded = true;
+					break;
+				default:
+					skipElement(reader);
+			}
+		}
+
+		if (!entriesLoaded) throw new JournalLoadException();
+	}
+
+	private void readAccounts(XMLStreamReader reader) throws Exception {
+		int accountsCreated = Integer.parseInt(getRequiredAttribute(reader, "accountsCreated"));
 
-				if (entry instanceof CashDeallocationEntry) {
-					entryNode.setAttribute("type", "CashDeallocation");
-					entryNode.setAttribute("amount", ((CashDeallocationEntry) entry).getAmount().toPlainString());
-					entryNode.setAttribute("portfolioID", ((Integer) ((CashDeallocationEntry) entry).getPortfolioID()).toString());
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (reader.getLocalName().equals("Account")) {
+				String accountName = getRequiredAttribute(reader, "name");
+				int accountID = Integer.parseInt(getRequiredAttribute(reader, "ID"));
+
+				loadAccount(accountName, accountID);
+			}
+
+			skipElement(reader);
+		}
+
+		loadNumberOfAccountsCreated(accountsCreated);
+	}
+
+	private void readPortfolios(XMLStreamReader reader) throws Exception {
+		int portfoliosCreated = Integer.parseInt(getRequiredAttribute(reader, "portfoliosCreated"));
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (reader.getLocalName().equals("Portfolio")) {
+				String portfolioName = getRequiredAttribute(reader, "name");
+				int portfolioID = Integer.parseInt(getRequiredAttribute(reader, "ID"));
+
+				if (portfolioID < 0) throw new JournalLoadException();
+
+				if (portfolioID > 0) {
+					int portfolioParentID = Integer.parseInt(getRequiredAttribute(reader, "parentID"));
+					loadPortfolio(portfolioName, portfolioID, portfolioParentID);
 				}
+			}
+
+			skipElement(reader);
+		}
 
-				if (entry instanceof BuyEquityTransactionEntry) {
-					entryNode.setAttribute("type", "BuyEquity");
-					entryNode.setAttribute("portfolioID", ((Integer) ((BuyEquityTransactionEntry) entry).getPortfolioID()).toString());
-					entryNode.setAttribute("ticker", ((BuyEquityTransactionEntry) entry).getTicker());
-					entryNode.setAttribute("quantity", ((BuyEquityTransactionEntry) entry).getQuantity().toPlainString());
-					entryNode.setAttribute("price", ((BuyEquityTransactionEntry) entry).getPrice().toPlainString());
-					entryNode.setAttribute("commission", ((BuyEquityTransactionEntry) entry).getCommission().toPlainString());
+		loadNumberOfPortfoliosCreated(portfoliosCreated);
+	}
+
+	private void readEntries(XMLStreamReader reader) throws Exception {
+		int entriesCreated = Integer.parseInt(getRequiredAttribute(reader, "entriesCreated"));
+
+		// Most entries share their dates with others, parse each day only once
+		HashMap<String, Date> dates = new HashMap<>();
+		HashMap<String, String> positionNames = new HashMap<>();
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (reader.getLocalName().equals("Entry")) {
+				int entryID = Integer.parseInt(getRequiredAttribute(reader, "ID"));
+				String entryDateString = getRequiredAttribute(reader, "date");
+				String entryComment = getRequiredAttribute(reader, "comment");
+				int entryAccountID = Integer.parseInt(getRequiredAttribute(reader, "accountID"));
+				String entryType = getRequiredAttribute(reader, "type");
+
+				Date entryDate = dates.get(entryDateString);
+				if (entryDate == null) {
+					entryDate = sanitizeDate(new SimpleDateFormat("yyyy-MM-dd").parse(entryDateString));
+					dates.put(entryDateString, entryDate);
+					positionNames.put(entryDateString, getPositionName(entryDate));
 				}
 
-				if (entry instanceof SellEquityTransactionEntry) {
-					entryNode.setAttribute("type", "SellEquity");
-					entryNode.setAttribute("portfolioID", ((Integer) ((SellEquityTransactionEntry) entry).getPortfolioID()).toString());
-					entryNode.setAttribute("ticker", ((SellEquityTransactionEntry) entry).getTicker());
-					entryNode.setAttribute("quantity", ((SellEquityTransactionEntry) entry).getQuantity().toPlainString());
-					entryNode.setAttribute("price", ((SellEquityTransactionEntry) entry).getPrice().toPlainString());
-					entryNode.setAttribute("commission", ((SellEquityTransactionEntry) entry).getCommission().toPlainString());
+				JournalEntry loadedEntry = readEntry(reader, entryType, entryAccountID, entryDate, entryComment, positionNames.get(entryDateString));
+
+				if (loadedEntry != null) {
+					loadEntry(loadedEntry, entryID);
 				}
-				
-				entries.appendChild(entryNode);
 			}
 
-			//:--- Write file
-			
-			TransformerFactory transformerFactory = TransformerFactory.newInstance();
-			Transformer transformer = transformerFactory.newTransformer();
-			transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-			transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-			DOMSource source = new DOMSource(document);
-			StreamResult result = new StreamResult(file);
-
-			transformer.transform(source, result);
-		} catch (ParserConfigurationException | TransformerException e) {
-			throw new JournalSaveException();
+			skipElement(reader);
 		}
+
+		attachLoadedEntries(entriesCreated);
 	}
 
-	public void loadFromFile(File file) throws JournalLoadException {
-		try {
-			DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder documentBuilder = documentFactory.newDocumentBuilder();
-			
-			Document document = documentBuilder.parse(file);
-			document.getDocumentElement().normalize();
-
-			Element journal = document.getDocumentElement();
-			if (!journal.getNodeName().equals("Journal")) throw new JournalLoadException();
-
-			if (!journal.hasAttribute("name")) throw new JournalLoadException();
-			if (!journal.hasAttribute("owner")) throw new JournalLoadException();
-			String name = journal.getAttribute("name");
-			String owner = journal.getAttribute("owner");
-			this.name = name;
-			this.owner = owner;
-			
+	private JournalEntry readEntry(XMLStreamReader reader, String type, int accountID, Date date, String comment, String position) throws Exception {
+		switch (type) {
+			case "CashDeposit": {
+				BigDecimal amount = new BigDecimal(getRequiredAttribute(reader, "amount"));
+				return createCashDepositEntry(accountID, "", date, comment, amount);
+			}
+			case "CashWithdrawal": {
+				BigDecimal amount = new BigDecimal(getRequiredAttribute(reader, "amount"));
+				return createCashWithdrawalEntry(accountID, "", date, comment, amount);
+			}
+			case "CashAllocation": {
+				BigDecimal amount = new BigDecimal(getRequiredAttribute(reader, "amount"));
+				int portfolioID = Integer.parseInt(getRequiredAttribute(reader, "portfolioID"));
+				return createCashAllocationEntry(accountID, portfolioID, "", date, comment, amount);
+			}
+			case "CashDeallocation": {
+				BigDecimal amount = new BigDecimal(getRequiredAttribute(reader, "amount"));
+				int portfolioID = Integer.parseInt(getRequiredAttribute(reader, "portfolioID"));
+				return createCashDeallocationEntry(accountID, portfolioID, "", date, comment, amount);
+			}
+			case "BuyEquity": {
+				int portfolioID = Integer.parseInt(getRequiredAttribute(reader, "portfolioID"));
+				String ticker = getRequiredAttribute(reader, "ticker");
+				BigDecimal quantity = new BigDecimal(getRequiredAttribute(reader, "quantity"));
+				BigDecimal price = new BigDecimal(getRequiredAttribute(reader, "price"));
+				BigDecimal commission = new BigDecimal(getRequiredAttribute(reader, "commission"));
+				return createBuyEquityTransactionEntry(accountID, portfolioID, "", date, comment, ticker, quantity, price, commission, position);
+			}
+			case "SellEquity": {
+				int portfolioID = Integer.parseInt(getRequiredAttribute(reader, "portfolioID"));
+				String ticker = getRequiredAttribute(reader, "ticker");
+				BigDecimal quantity = new BigDecimal(getRequiredAttribute(reader, "quantity"));
+				BigDecimal price = new BigDecimal(getRequiredAttribute(reader, "price"));
+				BigDecimal commission = new BigDecimal(getRequiredAttribute(reader, "commission"));
+				return createSellEquityTransactionEntry(accountID, portfolioID, "", date, comment, ticker, quantity, price, commission, position);
+			}
+			default:
+				return null;
+		}
+	}
+
+	private void writeBinaryJournal(DataOutputStream output) throws IOException, JournalSaveException {
+		output.writeInt(JournalBinaryFormat.MAGIC);
+		output.writeShort(JournalBinaryFormat.VERSION);
+		output.writeLong(generation);
+		JournalBinaryFormat.writeString(output, name);
+		JournalBinaryFormat.writeString(output, owner);
+
+		//:--- Save accounts
+
+		output.writeInt(Account.getNumberOfAccountsCreated());
+		output.writeInt(accounts.size());
+
+		for (Account account : accounts) {
+			output.writeInt(account.getID());
+			JournalBinaryFormat.writeString(output, account.getName());
+		}
+
+		//:--- Save portfolios
+
+		output.writeInt(Portfolio.getNumberOfPortfoliosCreated());
+		output.writeInt(portfolios.size());
+
+		for (Portfolio portfolio : portfolios) {
+			output.writeInt(portfolio.getID());
+			output.writeInt(portfolio.getParent() != null ? portfolio.getParent().getID() : JournalBinaryFormat.NO_PARENT);
+			JournalBinaryFormat.writeString(output, portfolio.getName());
+		}
+
+		//:--- Save string dictionary
+
+		LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+
+		for (JournalEntry entry : entries) {
+			internString(strings, entry.getComment());
+			if (entry instanceof TransactionEntry) {
+				internString(strings, ((TransactionEntry) entry).getTicker());
+			}
+		}
+
+		output.writeInt(strings.size());
+
+		for (String string : strings.keySet()) {
+			JournalBinaryFormat.writeString(output, string);
+		}
+
+		//:--- Save entries
+
+		output.writeInt(JournalEntry.getNumberOfJournalEntriesCreated());
+		output.writeInt(entries.size());
+
+		Date previousDate = null;
+		int epochDay = 0;
+
+		for (JournalEntry entry : entries) {
+			if (!entry.getDate().equals(previousDate)) {
+				previousDate = entry.getDate();
+				epochDay = JournalBinaryFormat.toEpochDay(previousDate);
+			}
+
+			output.writeByte(getBinaryEntryType(entry));
+			output.writeInt(entry.getID());
+			output.writeInt(epochDay);
+			output.writeInt(entry.getAccount().getID());
+			output.writeInt(strings.get(entry.getComment()));
+
+			if (entry instanceof CashOperationEntry) {
+				JournalBinaryFormat.writeDecimal(output, ((CashOperationEntry) entry).getAmount());
+			} else if (entry instanceof CashReallocationEntry) {
+				output.writeInt(((CashReallocationEntry) entry).getPortfolioID());
+				JournalBinaryFormat.writeDecimal(output, ((CashReallocationEntry) entry).getAmount());
+			} else {
+				TransactionEntry transactionEntry = (TransactionEntry) entry;
+				output.writeInt(transactionEntry.getPortfolioID());
+				output.writeInt(strings.get(transactionEntry.getTicker()));
+				JournalBinaryFormat.writeDecimal(output, transactionEntry.getQuantity());
+				JournalBinaryFormat.writeDecimal(output, transactionEntry.getPrice());
+				JournalBinaryFormat.writeDecimal(output, transactionEntry.getCommission());
+			}
+		}
+	}
+
+	private static void internString(LinkedHashMap<String, Integer> strings, String string) {
+		if (!strings.containsKey(string)) {
+			strings.put(string, strings.size());
+		}
+	}
+
+	private static byte getBinaryEntryType(JournalEntry entry) throws JournalSaveException {
+		if (entry instanceof CashDepositEntry) return JournalBinaryFormat.CASH_DEPOSIT;
+		if (entry instanceof CashWithdrawalEntry) return JournalBinaryFormat.CASH_WITHDRAWAL;
+		if (entry instanceof CashAllocationEntry) return JournalBinaryFormat.CASH_ALLOCATION;
+		if (entry instanceof CashDeallocationEntry) return JournalBinaryFormat.CASH_DEALLOCATION;
+		if (entry instanceof BuyEquityTransactionEntry) return JournalBinaryFormat.BUY_EQUITY;
+		if (entry instanceof SellEquityTransactionEntry) return JournalBinaryFormat.SELL_EQUITY;
+
+		throw new JournalSaveException();
+	}
+
+	private void readBinaryJournal(File file) throws Exception {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new JournalLoadException();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt() != JournalBinaryFormat.MAGIC) throw new JournalLoadException();
+			short version = buffer.getShort();
+			if (version < 1 || version > JournalBinaryFormat.VERSION) throw new JournalLoadException();
+
+			// Version 1 files have no generation
+			this.generation = (version >= 2) ? buffer.getLong() : 0;
+
+			this.name = JournalBinaryFormat.readString(buffer);
+			this.owner = JournalBinaryFormat.readString(buffer);
+
 			//:--- Load accounts
 
-			Element accounts = (Element) journal.getElementsByTagName("Accounts").item(0);			
-			if (accounts == null) throw new JournalLoadException();
+			int accountsCreated = buffer.getInt();
+			int accountCount = buffer.getInt();
 
-			if (!accounts.hasAttribute("accountsCreated")) throw new JournalLoadException();
-			Integer accountsCreated = Integer.parseInt(accounts.getAttribute("accountsCreated"));
+			for (int i = 0; i < accountCount; ++i) {
+				int accountID = buffer.getInt();
+				String accountName = JournalBinaryFormat.readString(buffer);
 
-			NodeList accountNodes = accounts.getElementsByTagName("Account");
-			for (int i = 0; i < accountNodes.getLength(); ++i) {
-				Element account = (Element) accountNodes.item(i);
-				if (!account.hasAttribute("name")) throw new JournalLoadException();
-				if (!account.hasAttribute("ID")) throw new JournalLoadException();
-				String accountName = account.getAttribute("name");
-				Integer accountID = Integer.parseInt(account.getAttribute("ID"));
-				
-				if (accountID < 0) throw new JournalLoadException();
-				
-				addAccount(accountName, accountID);
+				loadAccount(accountName, accountID);
 			}
-			
-			if (accountsCreated < Account.getNumberOfAccountsCreated()) throw new JournalLoadException();
-			Account.setNumberOfAccountsCreated(accountsCreated);
 
-			//:--- Load portfolios
+			loadNumberOfAccountsCreated(accountsCreated);
 
-			Element portfolios = (Element) journal.getElementsByTagName("Portfolios").item(0);
-			if (portfolios == null) throw new JournalLoadException();
+			//:--- Load portfolios
 
-			if (!portfolios.hasAttribute("portfoliosCreated")) throw new JournalLoadException();
-			Integer portfoliosCreated = Integer.parseInt(portfolios.getAttribute("portfoliosCreated"));
+			int portfoliosCreated = buffer.getInt();
+			int portfolioCount = buffer.getInt();
 
-			NodeList portfolioNodes = portfolios.getElementsByTagName("Portfolio");
-			for (int i = 0; i < portfolioNodes.getLength(); ++i) {
-				Element portfolio = (Element) portfolioNodes.item(i);
-				if (!portfolio.hasAttribute("name")) throw new JournalLoadException();
-				if (!portfolio.hasAttribute("ID")) throw new JournalLoadException();
-				String portfolioName = portfolio.getAttribute("name");
-				Integer portfolioID = Integer.parseInt(portfolio.getAttribute("ID"));
+			for (int i = 0; i < portfolioCount; ++i) {
+				int portfolioID = buffer.getInt();
+				int portfolioParentID = buffer.getInt();
+				String portfolioName = JournalBinaryFormat.readString(buffer);
 
 				if (portfolioID < 0) throw new JournalLoadException();
 
 				if (portfolioID > 0) {
-					if (!portfolio.hasAttribute("parentID")) throw new JournalLoadException();
-					Integer portfolioParentID = Integer.parseInt(portfolio.getAttribute("parentID"));
-
-					addPortfolio(portfolioName, portfolioID, portfolioParentID);
+					if (portfolioParentID == JournalBinaryFormat.NO_PARENT) throw new JournalLoadException();
+					loadPortfolio(portfolioName, portfolioID, portfolioParentID);
 				}
 			}
 
-			if (portfoliosCreated < Portfolio.getNumberOfPortfoliosCreated()) throw new JournalLoadException();
-			Portfolio.setNumberOfPortfoliosCreated(portfoliosCreated);
+			loadNumberOfPortfoliosCreated(portfoliosCreated);
+
+			//:--- Load string dictionary
+
+			String[] strings = new String[buffer.getInt()];
+
+			for (int i = 0; i < strings.length; ++i) {
+				strings[i] = JournalBinaryFormat.readString(buffer);
+			}
 
 			//:--- Load entries
 
-			Element entries = (Element) journal.getElementsByTagName("Entries").item(0);
-			if (entries == null) throw new JournalLoadException();
-
-			if (!entries.hasAttribute("entriesCreated")) throw new JournalLoadException();
-			Integer entriesCreated = Integer.parseInt(entries.getAttribute("entriesCreated"));
-
-			NodeList entryNodes = entries.getElementsByTagName("Entry");
-			for (int i = 0; i < entryNodes.getLength(); ++i) {
-				Element entry = (Element) entryNodes.item(i);
-
-				if (!entry.hasAttribute("ID")) throw new JournalLoadException();
-				if (!entry.hasAttribute("date")) throw new JournalLoadException();
-				if (!entry.hasAttribute("comment")) throw new JournalLoadException();
-				if (!entry.hasAttribute("accountID")) throw new JournalLoadException();
-				
-				Integer entryID = Integer.parseInt(entry.getAttribute("ID"));
-				Date entryDate = new SimpleDateFormat("yyyy-MM-dd").parse(entry.getAttribute("date"));
-				String entryComment = entry.getAttribute("comment");
-				Integer entryAccountID = Integer.parseInt(entry.getAttribute("accountID"));
-
-				if (entryID < 0) throw new JournalLoadException();
-				
-				if (!entry.hasAttribute("type")) throw new JournalLoadException();
-
-				String entryType = entry.getAttribute("type");
-
-				switch (entryType) {
-					case "CashDeposit": {
-						BigDecimal amount = new BigDecimal(entry.getAttribute("amount"));
-						addCashDepositEntry(entryAccountID, "", entryDate, entryComment, amount);
-						break;
-					}
-					case "CashWithdrawal": {
-						BigDecimal amount = new BigDecimal(entry.getAttribute("amount"));
-						addCashWithdrawalEntry(entryAccountID, "", entryDate, entryComment, amount);
-						break;
-					}
-					case "CashAllocation": {
-						BigDecimal amount = new BigDecimal(entry.getAttribute("amount"));
-						Integer entryPortfolioID = Integer.parseInt(entry.getAttribute("portfolioID"));
-						addCashAllocationEntry(entryAccountID, entryPortfolioID, "", entryDate, entryComment, amount);
-						break;
-					}
-					case "CashDeallocation": {
-						BigDecimal amount = new BigDecimal(entry.getAttribute("amount"));
-						Integer entryPortfolioID = Integer.parseInt(entry.getAttribute("portfolioID"));
-						addCashDeallocationEntry(entryAccountID, entryPortfolioID, "", entryDate, entryComment, amount);
-						break;
-					}
-					case "BuyEquity": {
-						Integer entryPortfolioID = Integer.parseInt(entry.getAttribute("portfolioID"));
-						String ticker = entry.getAttribute("ticker");
-						BigDecimal quantity = new BigDecimal(entry.getAttribute("quantity"));
-						BigDecimal price = new BigDecimal(entry.getAttribute("price"));
-						BigDecimal commission = new BigDecimal(entry.getAttribute("commission"));
-						addBuyEquityTransactionEntry(entryAccountID, entryPortfolioID, "", entryDate, entryComment, ticker, quantity, price, commission);
-						break;
-					}
-					case "SellEquity": {
-						Integer entryPortfolioID = Integer.parseInt(entry.getAttribute("portfolioID"));
-						String ticker = entry.getAttribute("ticker");
-						BigDecimal quantity = new BigDecimal(entry.getAttribute("quantity"));
-						BigDecimal price = new BigDecimal(entry.getAttribute("price"));
-						BigDecimal commission = new BigDecimal(entry.getAttribute("commission"));
-						addSellEquityTransactionEntry(entryAccountID, entryPortfolioID, "", entryDate, entryComment, ticker, quantity, price, commission);
-						break;
-					}
+			int entriesCreated = buffer.getInt();
+			int entryCount = buffer.getInt();
+
+			HashMap<Integer, Date> dates = new HashMap<>();
+			HashMap<Integer, String> positionNames = new HashMap<>();
+
+			for (int i = 0; i < entryCount; ++i) {
+				byte entryType = buffer.get();
+				int entryID = buffer.getInt();
+				int entryEpochDay = buffer.getInt();
+				int entryAccountID = buffer.getInt();
+				String entryComment = strings[buffer.getInt()];
+
+				Date entryDate = dates.get(entryEpochDay);
+				if (entryDate == null) {
+					entryDate = JournalBinaryFormat.fromEpochDay(entryEpochDay);
+					dates.put(entryEpochDay, entryDate);
+					positionNames.put(entryEpochDay, getPositionName(entryDate));
 				}
 
-				// Force sync ID
-				this.entries.get(this.entries.size() - 1).setID(entryID);
+				loadEntry(readBinaryEntry(buffer, strings, entryType, entryAccountID, entryDate, entryComment, positionNames.get(entryEpochDay)), entryID);
 			}
 
-			// Check ID consistency
-			HashMap<Integer, Boolean> entryIDs = new HashMap<>();
-			
-			for (JournalEntry entry : this.entries) {
-				if (entryIDs.get(entry.getID()) == null) {
-					entryIDs.put(entry.getID(), true);
-				} else {
-					// Duplicate ID found
-					throw new JournalLoadException();
-				}
+			if (buffer.hasRemaining()) throw new JournalLoadException();
+
+			attachLoadedEntries(entriesCreated);
+		}
+	}
+
+	private JournalEntry readBinaryEntry(ByteBuffer buffer, String[] strings, byte type, int accountID, Date date, String comment, String position) throws Exception {
+		switch (type) {
+			case JournalBinaryFormat.CASH_DEPOSIT:
+				return createCashDepositEntry(accountID, "", date, comment, JournalBinaryFormat.readDecimal(buffer));
+			case JournalBinaryFormat.CASH_WITHDRAWAL:
+				return createCashWithdrawalEntry(accountID, "", date, comment, JournalBinaryFormat.readDecimal(buffer));
+			case JournalBinaryFormat.CASH_ALLOCATION: {
+				int portfolioID = buffer.getInt();
+				return createCashAllocationEntry(accountID, portfolioID, "", date, comment, JournalBinaryFormat.readDecimal(buffer));
+			}
+			case JournalBinaryFormat.CASH_DEALLOCATION: {
+				int portfolioID = buffer.getInt();
+				return createCashDeallocationEntry(accountID, portfolioID, "", date, comment, JournalBinaryFormat.readDecimal(buffer));
 			}
+			case JournalBinaryFormat.BUY_EQUITY: {
+				int portfolioID = buffer.getInt();
+				String ticker = strings[buffer.getInt()];
+				BigDecimal quantity = JournalBinaryFormat.readDecimal(buffer);
+				BigDecimal price = JournalBinaryFormat.readDecimal(buffer);
+				BigDecimal commission = JournalBinaryFormat.readDecimal(buffer);
+				return createBuyEquityTransactionEntry(accountID, portfolioID, "", date, comment, ticker, quantity, price, commission, position);
+			}
+			case JournalBinaryFormat.SELL_EQUITY: {
+				int portfolioID = buffer.getInt();
+				String ticker = strings[buffer.getInt()];
+				BigDecimal quantity = JournalBinaryFormat.readDecimal(buffer);
+				BigDecimal price = JournalBinaryFormat.readDecimal(buffer);
+				BigDecimal commission = JournalBinaryFormat.readDecimal(buffer);
+				return createSellEquityTransactionEntry(accountID, portfolioID, "", date, comment, ticker, quantity, price, commission, position);
+			}
+			default:
+				// Record widths depend on the type, an unknown record cannot be skipped
+				throw new JournalLoadException();
+		}
+	}
 
-			if (entriesCreated < JournalEntry.getNumberOfJournalEntriesCreated()) throw new JournalLoadException();
-			JournalEntry.setNumberOfJournalEntriesCreated(entriesCreated);
-		} catch (Exception e) {
-			throw new JournalLoadException();
+	private void loadAccount(String accountName, int accountID) throws JournalLoadException {
+		if (accountID < 0) throw new JournalLoadException();
+		if (accounts.containsID(accountID)) throw new JournalLoadException();
+
+		addAccount(accountName, accountID);
+	}
+
+	private void loadPortfolio(String portfolioName, int portfolioID, int parentID) throws JournalLoadException, ObjectNotFoundException {
+		if (portfolios.containsID(portfolioID)) throw new JournalLoadException();
+
+		addPortfolio(portfolioName, portfolioID, parentID);
+	}
+
+	/**
+	 * Registers a loaded entry under its original ID.
+	 *
+	 * The entry is attached to its account and portfolio only by {@link #attachLoadedEntries(int)}.
+	 *
+	 * @param entry   Loaded entry
+	 * @param entryID Original entry ID
+	 * @throws JournalLoadException
+	 */
+	private void loadEntry(JournalEntry entry, int entryID) throws JournalLoadException {
+		if (entryID < 0) throw new JournalLoadException();
+		if (entries.containsID(entryID)) throw new JournalLoadException();
+
+		// Force sync ID before the entry is registered
+		entry.setID(entryID);
+		entries.add(entry);
+	}
+
+	private void attachLoadedEntries(int entriesCreated) throws JournalLoadException, EntryInsertionException {
+		// Attaching in chronological order never triggers a replay of the history
+		ArrayList<JournalEntry> chronologicalEntries = new ArrayList<>(entries);
+		Collections.sort(chronologicalEntries, new JournalEntry.DateComparator());
+
+		for (JournalEntry entry : chronologicalEntries) {
+			entry.attach();
+		}
+
+		if (entriesCreated < JournalEntry.getNumberOfJournalEntriesCreated()) throw new JournalLoadException();
+		JournalEntry.setNumberOfJournalEntriesCreated(entriesCreated);
+	}
+
+	private static void loadNumberOfAccountsCreated(int accountsCreated) throws JournalLoadException {
+		if (accountsCreated < Account.getNumberOfAccountsCreated()) throw new JournalLoadException();
+		Account.setNumberOfAccountsCreated(accountsCreated);
+	}
+
+	private static void loadNumberOfPortfoliosCreated(int portfoliosCreated) throws JournalLoadException {
+		if (portfoliosCreated < Portfolio.getNumberOfPortfoliosCreated()) throw new JournalLoadException();
+		Portfolio.setNumberOfPortfoliosCreated(portfoliosCreated);
+	}
+
+	private static String getRequiredAttribute(XMLStreamReader reader, String attributeName) throws JournalLoadException {
+		String value = reader.getAttributeValue(null, attributeName);
+		if (value == null) throw new JournalLoadException();
+		return value;
+	}
+
+	/**
+	 * Advances the reader past the end of the current element.
+	 *
+	 * @param reader Reader positioned on a start element
+	 * @throws XMLStreamException
+	 */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		for (int depth = 1; depth > 0; ) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * An entry addition or removal logged for table models, together with the
+	 * model version it produced.
+	 */
+	private static class EntryChange {
+
+		final long version;
+
+		final JournalEntry entry;
+
+		final boolean added;
+
+		EntryChange(long version, JournalEntry entry, boolean added) {
+			this.version = version;
+			this.entry = entry;
+			this.added = added;
+		}
+	}
+
+	/**
+	 * A single entry addition or removal made within a batch, reverted if
+	 * the batch fails.
+	 */
+	private static class BatchChange {
+
+		final JournalEntry entry;
+
+		final boolean added;
+
+		BatchChange(JournalEntry entry, boolean added) {
+			this.entry = entry;
+			this.added = added;
 		}
 	}
 }
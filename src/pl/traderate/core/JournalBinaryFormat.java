@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+import pl.traderate.core.exception.JournalLoadException;
+import pl.traderate.core.exception.JournalSaveException;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Encoding primitives of the binary journal format.
+ *
+ * <p>A binary journal holds exactly the same information as the XML one. All
+ * values are stored big-endian in the following order:</p>
+ *
+ * <ul>
+ *     <li>header: magic number, format version, snapshot generation, journal
+ *     name and owner,</li>
+ *     <li>accounts: number of accounts created, account count, then ID and name
+ *     of each account,</li>
+ *     <li>portfolios: number of portfolios created, portfolio count, then ID,
+ *     parent ID ({@link #NO_PARENT} for the global portfolio) and name of each
+ *     portfolio,</li>
+ *     <li>string dictionary: string count followed by the strings, referenced
+ *     by their indices from entry comments and tickers,</li>
+ *     <li>entries: number of entries created, entry count and a fixed-width
+ *     record per entry.</li>
+ * </ul>
+ *
+ * <p>Every entry record starts with its type, ID, epoch day, account ID and
+ * comment index. Cash operations add an amount, cash reallocations a
+ * portfolio ID and an amount, equity transactions a portfolio ID, a ticker
+ * index, quantity, price and commission. Decimal numbers are stored as an
+ * unscaled long followed by a scale byte. Strings are stored as their UTF-8
+ * length ({@link #NULL_STRING} for a missing one) followed by the bytes.</p>
+ */
+final class JournalBinaryFormat {
+
+	/**
+	 * File extension of binary journals.
+	 */
+	static final String EXTENSION = "trj";
+
+	/**
+	 * File signature, "TRJB" in ASCII.
+	 */
+	static final int MAGIC = 0x54524A42;
+
+	/**
+	 * Current format version.
+	 *
+	 * Version 2 added the snapshot generation to the header.
+	 */
+	static final short VERSION = 2;
+
+	/**
+	 * Parent ID stored for the global portfolio.
+	 */
+	static final int NO_PARENT = -1;
+
+	/**
+	 * Length stored for a missing string.
+	 */
+	static final int NULL_STRING = -1;
+
+	static final byte CASH_DEPOSIT = 1;
+
+	static final byte CASH_WITHDRAWAL = 2;
+
+	static final byte CASH_ALLOCATION = 3;
+
+	static final byte CASH_DEALLOCATION = 4;
+
+	static final byte BUY_EQUITY = 5;
+
+	static final byte SELL_EQUITY = 6;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final long MILLISECONDS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private JournalBinaryFormat() {
+
+	}
+
+	/**
+	 * Checks if a file name carries the binary journal extension.
+	 *
+	 * @param file Checked file
+	 * @return True if the journal should be saved in binary format
+	 */
+	static boolean hasBinaryExtension(File file) {
+		return file.getName().toLowerCase().endsWith("." + EXTENSION);
+	}
+
+	/**
+	 * Checks if a file starts with the binary journal signature.
+	 *
+	 * @param file Checked file
+	 * @return True if the file is a binary journal
+	 */
+	static boolean isBinaryJournal(File file) {
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			return input.length() >= 4 && input.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes a string as its byte length followed by the encoded bytes.
+	 *
+	 * @param output Destination
+	 * @param value  Written string, <tt>null</tt> is stored as {@link #NULL_STRING} length
+	 * @throws IOException Thrown when the string could not be written.
+	 */
+	static void writeString(DataOutput output, String value) throws IOException {
+		if (value == null) {
+			output.writeInt(NULL_STRING);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(CHARSET);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	static String readString(ByteBuffer buffer) throws JournalLoadException {
+		int length = buffer.getInt();
+		if (length == NULL_STRING) return null;
+		if (length < 0 || length > buffer.remaining()) throw new JournalLoadException();
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, CHARSET);
+	}
+
+	/**
+	 * Writes a decimal number as an unscaled long and a scale byte.
+	 *
+	 * @param output Destination
+	 * @param value  Written number
+	 * @throws IOException
+	 * @throws JournalSaveException Thrown when the number does not fit the format.
+	 */
+	static void writeDecimal(DataOutput output, BigDecimal value) throws IOException, JournalSaveException {
+		BigInteger unscaledValue = value.unscaledValue();
+		if (unscaledValue.bitLength() > 63) throw new JournalSaveException();
+		if (value.scale() < Byte.MIN_VALUE || value.scale() > Byte.MAX_VALUE) throw new JournalSaveException();
+
+		output.writeLong(unscaledValue.longValue());
+		output.writeByte(value.scale());
+	}
+
+	static BigDecimal readDecimal(ByteBuffer buffer) {
+		long unscaledValue = buffer.getLong();
+		return BigDecimal.valueOf(unscaledValue, buffer.get());
+	}
+
+	/**
+	 * Converts a date to the number of days since 1970-01-01 in the default time zone.
+	 *
+	 * @param date Converted date
+	 * @return Epoch day
+	 */
+	static int toEpochDay(Date date) {
+		long localTime = date.getTime() + TimeZone.getDefault().getOffset(date.getTime());
+		long epochDay = localTime / MILLISECONDS_PER_DAY;
+
+		if (localTime % MILLISECONDS_PER_DAY < 0) {
+			epochDay--;
+		}
+
+		return (int) epochDay;
+	}
+
+	/**
+	 * Converts an epoch day to a journal date, i.e. noon of that day in the default time zone.
+	 *
+	 * @param epochDay Number of days since 1970-01-01
+	 * @return Sanitized journal date
+	 */
+	static Date fromEpochDay(int epochDay) {
+		Calendar utcCalendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		utcCalendar.setTimeInMillis(epochDay * MILLISECONDS_PER_DAY);
+
+		Calendar calendar = new GregorianCalendar(utcCalendar.get(Calendar.YEAR), utcCalendar.get(Calendar.MONTH), utcCalendar.get(Calendar.DAY_OF_MONTH), 12, 0);
+		calendar.set(Calendar.ERA, utcCalendar.get(Calendar.ERA));
+		return calendar.getTime();
+	}
+}
@@ -50,14 +50,11 @@ public class JournalEntryDTO implements Comparable<JournalEntryDTO> {
 
 	public BigDecimal commission;
 
-	public Boolean deleteFlag;
-
 	JournalEntryDTO(JournalEntry entry) {
 		this.ID = entry.ID;
 		this.date = new Date(entry.date.getTime());
 		this.comment = entry.comment;
 		this.accountName = entry.account.getName();
-		this.deleteFlag = Boolean.FALSE;
 
 		entry.apply(this);
 	}
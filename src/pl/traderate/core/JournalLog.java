@@ -0,0 +1,631 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+import pl.traderate.core.exception.JournalLoadException;
+import pl.traderate.core.exception.JournalSaveException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of journal mutations stored next to the journal file.
+ *
+ * <p>The journal file acts as a snapshot, the log holds all changes made since
+ * it was written. Both carry a generation number, a log is only replayed on
+ * top of the snapshot of the same generation. Compacting the journal writes
+ * a new snapshot with the next generation and starts a new log, so a crash
+ * between these two steps leaves a stale log which is discarded on opening.</p>
+ *
+ * <p>Each record is framed with its length and a CRC32 checksum. Records are
+ * written to the file immediately, so they survive a crash of the application,
+ * but they are forced to the storage device in batches, at the latest
+ * {@link #SYNC_INTERVAL} after being written. A torn record at the end of the
+ * log is dropped when the log is opened.</p>
+ */
+final class JournalLog {
+
+	/**
+	 * Suffix appended to the journal file name.
+	 */
+	static final String EXTENSION = "log";
+
+	/**
+	 * File signature, "TRJL" in ASCII.
+	 */
+	private static final int MAGIC = 0x54524A4C;
+
+	private static final short VERSION = 1;
+
+	private static final int HEADER_SIZE = 4 + 2 + 8;
+
+	/**
+	 * Maximum number of records written between two forced syncs.
+	 */
+	private static final int SYNC_BATCH_SIZE = 32;
+
+	/**
+	 * Maximum time in nanoseconds for which a written record is left unsynced.
+	 */
+	private static final long SYNC_INTERVAL = 250L * 1000 * 1000;
+
+	/**
+	 * Log size below which the journal is never compacted.
+	 */
+	private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+	private static final byte ADD_ACCOUNT = 1;
+
+	private static final byte REMOVE_ACCOUNT = 2;
+
+	private static final byte ADD_PORTFOLIO = 3;
+
+	private static final byte REMOVE_PORTFOLIO = 4;
+
+	private static final byte ADD_ENTRY = 5;
+
+	private static final byte REMOVE_ENTRY = 6;
+
+	/**
+	 * Thread syncing records which did not fill a batch.
+	 */
+	private static final ScheduledExecutorService syncScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Journal log sync");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final FileChannel channel;
+
+	private final long generation;
+
+	private int unsyncedRecords;
+
+	private boolean syncScheduled;
+
+	private boolean closed;
+
+	/**
+	 * Set when a record could not be written, the journal has to be compacted then.
+	 */
+	private boolean failed;
+
+	private JournalLog(FileChannel channel, long generation) {
+		this.channel = channel;
+		this.generation = generation;
+	}
+
+	/**
+	 * Returns the log file belonging to a journal file.
+	 *
+	 * @param journalFile Journal file
+	 * @return Log file
+	 */
+	static File getLogFile(File journalFile) {
+		return new File(journalFile.getPath() + "." + EXTENSION);
+	}
+
+	/**
+	 * Starts a new, empty log for a freshly written snapshot.
+	 *
+	 * @param file       Log file
+	 * @param generation Generation of the snapshot
+	 * @return Opened log
+	 * @throws IOException
+	 */
+	static JournalLog create(File file, long generation) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putShort(VERSION).putLong(generation).flip();
+
+			channel.truncate(0);
+			channel.write(header, 0);
+			channel.position(HEADER_SIZE);
+			channel.force(true);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		return new JournalLog(channel, generation);
+	}
+
+	/**
+	 * Opens the log of a loaded journal and replays its records.
+	 *
+	 * A missing log or a log left from another generation is replaced with an
+	 * empty one.
+	 *
+	 * @param file    Log file
+	 * @param journal Journal loaded from the snapshot
+	 * @return Opened log, <tt>null</tt> if no log can be written next to the journal
+	 * @throws JournalLoadException Thrown when an existing log cannot be read or replayed.
+	 */
+	static JournalLog open(File file, Journal journal) throws JournalLoadException {
+		if (file.exists()) {
+			FileChannel channel;
+
+			try {
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			} catch (IOException e) {
+				throw new JournalLoadException();
+			}
+
+			try {
+				if (readGeneration(channel) == journal.getGeneration()) {
+					long validLength = replay(channel, journal);
+
+					channel.truncate(validLength);
+					channel.position(validLength);
+					return new JournalLog(channel, journal.getGeneration());
+				}
+
+				channel.close();
+			} catch (IOException e) {
+				closeQuietly(channel);
+				throw new JournalLoadException();
+			} catch (JournalLoadException e) {
+				closeQuietly(channel);
+				throw e;
+			}
+		}
+
+		try {
+			return create(file, journal.getGeneration());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the generation from the log header.
+	 *
+	 * @return Log generation, -1 if the header is not valid
+	 */
+	private static long readGeneration(FileChannel channel) throws IOException {
+		if (channel.size() < HEADER_SIZE) {
+			return -1;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		header.flip();
+
+		if (header.getInt() != MAGIC || header.getShort() != VERSION) {
+			return -1;
+		}
+
+		return header.getLong();
+	}
+
+	/**
+	 * Applies all complete records of the log to a journal.
+	 *
+	 * @return Length of the valid part of the log
+	 */
+	private static long replay(FileChannel channel, Journal journal) throws IOException, JournalLoadException {
+		if (channel.size() > Integer.MAX_VALUE) throw new JournalLoadException();
+
+		// The log is truncated right after the replay, so it is read rather than mapped
+		ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, buffer.position()) < 0) break;
+		}
+		buffer.flip();
+		buffer.position(HEADER_SIZE);
+
+		boolean deferredComputationMode = TradeRateConfig.isDeferredComputationMode();
+		TradeRateConfig.setDeferredComputationMode(true);
+
+		try {
+			while (buffer.remaining() >= 8) {
+				int start = buffer.position();
+				int length = buffer.getInt();
+
+				if (length <= 0 || length > buffer.remaining() - 4) {
+					buffer.position(start);
+					break;
+				}
+
+				byte[] payload = new byte[length];
+				buffer.get(payload);
+
+				CRC32 checksum = new CRC32();
+				checksum.update(payload);
+				if ((int) checksum.getValue() != buffer.getInt()) {
+					buffer.position(start);
+					break;
+				}
+
+				applyRecord(ByteBuffer.wrap(payload), journal);
+			}
+		} catch (JournalLoadException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new JournalLoadException();
+		} finally {
+			TradeRateConfig.setDeferredComputationMode(deferredComputationMode);
+		}
+
+		if (!deferredComputationMode) {
+			journal.update();
+		}
+
+		return buffer.position();
+	}
+
+	private static void applyRecord(ByteBuffer record, Journal journal) throws Exception {
+		switch (record.get()) {
+			case ADD_ACCOUNT:
+				journal.addAccount(JournalBinaryFormat.readString(record));
+				break;
+			case REMOVE_ACCOUNT:
+				journal.removeAccount(record.getInt());
+				break;
+			case ADD_PORTFOLIO: {
+				String name = JournalBinaryFormat.readString(record);
+				journal.addPortfolio(name, record.getInt());
+				break;
+			}
+			case REMOVE_PORTFOLIO:
+				journal.removePortfolio(record.getInt());
+				break;
+			case ADD_ENTRY:
+				applyAddEntryRecord(record, journal);
+				break;
+			case REMOVE_ENTRY:
+				journal.removeEntry(record.getInt());
+				break;
+			default:
+				throw new JournalLoadException();
+		}
+	}
+
+	private static void applyAddEntryRecord(ByteBuffer record, Journal journal) throws Exception {
+		byte type = record.get();
+		int accountID = record.getInt();
+		String tags = JournalBinaryFormat.readString(record);
+		Date date = JournalBinaryFormat.fromEpochDay(record.getInt());
+		String comment = JournalBinaryFormat.readString(record);
+
+		switch (type) {
+			case JournalBinaryFormat.CASH_DEPOSIT:
+				journal.addCashDepositEntry(accountID, tags, date, comment, JournalBinaryFormat.readDecimal(record));
+				break;
+			case JournalBinaryFormat.CASH_WITHDRAWAL:
+				journal.addCashWithdrawalEntry(accountID, tags, date, comment, JournalBinaryFormat.readDecimal(record));
+				break;
+			case JournalBinaryFormat.CASH_ALLOCATION: {
+				int portfolioID = record.getInt();
+				journal.addCashAllocationEntry(accountID, portfolioID, tags, date, comment, JournalBinaryFormat.readDecimal(record));
+				break;
+			}
+			case JournalBinaryFormat.CASH_DEALLOCATION: {
+				int portfolioID = record.getInt();
+				journal.addCashDeallocationEntry(accountID, portfolioID, tags, date, comment, JournalBinaryFormat.readDecimal(record));
+				break;
+			}
+			case JournalBinaryFormat.BUY_EQUITY: {
+				int portfolioID = record.getInt();
+				String ticker = JournalBinaryFormat.readString(record);
+				BigDecimal quantity = JournalBinaryFormat.readDecimal(record);
+				BigDecimal price = JournalBinaryFormat.readDecimal(record);
+				BigDecimal commission = JournalBinaryFormat.readDecimal(record);
+				journal.addBuyEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
+				break;
+			}
+			case JournalBinaryFormat.SELL_EQUITY: {
+				int portfolioID = record.getInt();
+				String ticker = JournalBinaryFormat.readString(record);
+				BigDecimal quantity = JournalBinaryFormat.readDecimal(record);
+				BigDecimal price = JournalBinaryFormat.readDecimal(record);
+				BigDecimal commission = JournalBinaryFormat.readDecimal(record);
+				journal.addSellEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
+				break;
+			}
+			default:
+				throw new JournalLoadException();
+		}
+	}
+
+	long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Checks if the journal should be rewritten instead of relying on the log.
+	 *
+	 * @param journalFile Snapshot the log belongs to
+	 * @return True if the log is large compared to the snapshot or a record could not be written
+	 */
+	synchronized boolean isCompactionDue(File journalFile) {
+		if (failed) {
+			return true;
+		}
+
+		try {
+			return channel.size() > Math.max(MIN_COMPACTION_SIZE, journalFile.length() / 2);
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	void addAccount(String name) {
+		RecordWriter record = new RecordWriter(ADD_ACCOUNT);
+		record.writeString(name);
+		append(record);
+	}
+
+	void removeAccount(int accountID) {
+		RecordWriter record = new RecordWriter(REMOVE_ACCOUNT);
+		record.writeInt(accountID);
+		append(record);
+	}
+
+	void addPortfolio(String name, int parentID) {
+		RecordWriter record = new RecordWriter(ADD_PORTFOLIO);
+		record.writeString(name);
+		record.writeInt(parentID);
+		append(record);
+	}
+
+	void removePortfolio(int portfolioID) {
+		RecordWriter record = new RecordWriter(REMOVE_PORTFOLIO);
+		record.writeInt(portfolioID);
+		append(record);
+	}
+
+	void addBuyEquityTransactionEntry(int accountID, int portfolioID, String tags, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission) {
+		RecordWriter record = new EntryRecordWriter(JournalBinaryFormat.BUY_EQUITY, accountID, tags, date, comment);
+		record.writeInt(portfolioID);
+		record.writeString(ticker);
+		record.writeDecimal(quantity);
+		record.writeDecimal(price);
+		record.writeDecimal(commission);
+		append(record);
+	}
+
+	void addSellEquityTransactionEntry(int accountID, int portfolioID, String tags, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission) {
+		RecordWriter record = new EntryRecordWriter(JournalBinaryFormat.SELL_EQUITY, accountID, tags, date, comment);
+		record.writeInt(portfolioID);
+		record.writeString(ticker);
+		record.writeDecimal(quantity);
+		record.writeDecimal(price);
+		record.writeDecimal(commission);
+		append(record);
+	}
+
+	void addCashAllocationEntry(int accountID, int portfolioID, String tags, Date date, String comment, BigDecimal amount) {
+		RecordWriter record = new EntryRecordWriter(JournalBinaryFormat.CASH_ALLOCATION, accountID, tags, date, comment);
+		record.writeInt(portfolioID);
+		record.writeDecimal(amount);
+		append(record);
+	}
+
+	void addCashDeallocationEntry(int accountID, int portfolioID, String tags, Date date, String comment, BigDecimal amount) {
+		RecordWriter record = new EntryRecordWriter(JournalBinaryFormat.CASH_DEALLOCATION, accountID, tags, date, comment);
+		record.writeInt(portfolioID);
+		record.writeDecimal(amount);
+		append(record);
+	}
+
+	void addCashDepositEntry(int accountID, String tags, Date date, String comment, BigDecimal amount) {
+		RecordWriter record = new EntryRecordWriter(JournalBinaryFormat.CASH_DEPOSIT, accountID, tags, date, comment);
+		record.writeDecimal(amount);
+		append(record);
+	}
+
+	void addCashWithdrawalEntry(int accountID, String tags, Date date, String comment, BigDecimal amount) {
+		RecordWriter record = new EntryRecordWriter(JournalBinaryFormat.CASH_WITHDRAWAL, accountID, tags, date, comment);
+		record.writeDecimal(amount);
+		append(record);
+	}
+
+	void removeEntry(int entryID) {
+		RecordWriter record = new RecordWriter(REMOVE_ENTRY);
+		record.writeInt(entryID);
+		append(record);
+	}
+
+	/**
+	 * Forces all written records to the storage device.
+	 *
+	 * @throws IOException
+	 */
+	synchronized void sync() throws IOException {
+		if (failed) throw new IOException();
+
+		if (unsyncedRecords > 0) {
+			channel.force(false);
+			unsyncedRecords = 0;
+		}
+	}
+
+	/**
+	 * Syncs and closes the log.
+	 */
+	synchronized void close() {
+		closed = true;
+
+		try {
+			if (!failed) {
+				sync();
+			}
+		} catch (IOException ignored) {
+
+		} finally {
+			closeQuietly(channel);
+		}
+	}
+
+	private synchronized void append(RecordWriter record) {
+		if (failed) {
+			return;
+		}
+
+		try {
+			channel.write(record.toByteBuffer());
+			unsyncedRecords++;
+
+			if (unsyncedRecords >= SYNC_BATCH_SIZE) {
+				sync();
+			} else if (!syncScheduled) {
+				syncScheduled = true;
+				syncScheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						syncPendingRecords();
+					}
+				}, SYNC_INTERVAL, TimeUnit.NANOSECONDS);
+			}
+		} catch (IOException | JournalSaveException e) {
+			failed = true;
+		}
+	}
+
+	/**
+	 * Syncs records left unsynced since the sync was scheduled.
+	 */
+	private synchronized void syncPendingRecords() {
+		syncScheduled = false;
+
+		if (closed || failed) {
+			return;
+		}
+
+		try {
+			sync();
+		} catch (IOException e) {
+			failed = true;
+		}
+	}
+
+	private static void closeQuietly(FileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+
+		}
+	}
+
+	/**
+	 * Serializes a single record.
+	 *
+	 * Write errors are deferred until the record is framed, so that the
+	 * mutation methods do not have to handle them one by one.
+	 */
+	private static class RecordWriter {
+
+		private final ByteArrayOutputStream bytes;
+
+		private final DataOutputStream output;
+
+		private boolean failed;
+
+		RecordWriter(byte operation) {
+			bytes = new ByteArrayOutputStream(64);
+			output = new DataOutputStream(bytes);
+			writeByte(operation);
+		}
+
+		void writeByte(byte value) {
+			try {
+				output.writeByte(value);
+			} catch (IOException e) {
+				failed = true;
+			}
+		}
+
+		void writeInt(int value) {
+			try {
+				output.writeInt(value);
+			} catch (IOException e) {
+				failed = true;
+			}
+		}
+
+		void writeString(String value) {
+			try {
+				JournalBinaryFormat.writeString(output, value);
+			} catch (IOException e) {
+				failed = true;
+			}
+		}
+
+		void writeDecimal(BigDecimal value) {
+			try {
+				JournalBinaryFormat.writeDecimal(output, value);
+			} catch (IOException | JournalSaveException e) {
+				failed = true;
+			}
+		}
+
+		/**
+		 * Frames the record with its length and checksum.
+		 *
+		 * @return Buffer ready to be written
+		 * @throws JournalSaveException Thrown when the record could not be serialized.
+		 */
+		ByteBuffer toByteBuffer() throws JournalSaveException {
+			if (failed) throw new JournalSaveException();
+
+			byte[] payload = bytes.toByteArray();
+			CRC32 checksum = new CRC32();
+			checksum.update(payload);
+
+			ByteBuffer buffer = ByteBuffer.allocate(4 + payload.length + 4);
+			buffer.putInt(payload.length).put(payload).putInt((int) checksum.getValue()).flip();
+			return buffer;
+		}
+	}
+
+	/**
+	 * Serializes an entry record, starting with the fields common to all entry types.
+	 */
+	private static class EntryRecordWriter extends RecordWriter {
+
+		EntryRecordWriter(byte type, int accountID, String tags, Date date, String comment) {
+			super(ADD_ENTRY);
+			writeByte(type);
+			writeInt(accountID);
+			writeString(tags);
+			writeInt(JournalBinaryFormat.toEpochDay(date));
+			writeString(comment);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+import pl.traderate.core.exception.ObjectNotFoundException;
+
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * A sorted set of named objects with constant time lookups by name.
+ *
+ * Objects are iterated in their natural order, which has to be consistent with
+ * their names. A name index is kept in sync with the ordered view on every
+ * modification, including removals through the iterator.
+ *
+ * @param <T> Object type
+ */
+final class NamedObjectSet<T extends IdentifiableByName & Comparable<? super T>> extends AbstractSet<T> {
+
+	/**
+	 * Objects in their natural order.
+	 */
+	private final TreeSet<T> objects;
+
+	/**
+	 * Objects indexed by name.
+	 */
+	private final HashMap<String, T> index;
+
+	NamedObjectSet() {
+		objects = new TreeSet<>();
+		index = new HashMap<>();
+	}
+
+	/**
+	 * Finds an object by its name.
+	 *
+	 * @param objectName Searched name
+	 * @return Object with the given name
+	 * @throws ObjectNotFoundException Thrown when no object was found.
+	 */
+	T findByName(String objectName) throws ObjectNotFoundException {
+		T object = index.get(objectName);
+
+		if (object == null) {
+			throw new ObjectNotFoundException();
+		}
+
+		return object;
+	}
+
+	/**
+	 * Finds an object by its name, for lookups which are expected to fail.
+	 *
+	 * @param objectName Searched name
+	 * @return Object with the given name, <tt>null</tt> if there is none
+	 */
+	T getByName(String objectName) {
+		return index.get(objectName);
+	}
+
+	@Override
+	public boolean add(T object) {
+		if (objects.add(object)) {
+			index.put(object.getName(), object);
+			return true;
+		}
+
+		return false;
+	}
+
+	@Override
+	public boolean remove(Object object) {
+		if (objects.remove(object)) {
+			index.remove(((IdentifiableByName) object).getName());
+			return true;
+		}
+
+		return false;
+	}
+
+	@Override
+	public boolean contains(Object object) {
+		return objects.contains(object);
+	}
+
+	@Override
+	public void clear() {
+		objects.clear();
+		index.clear();
+	}
+
+	@Override
+	public int size() {
+		return objects.size();
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		final Iterator<T> iterator = objects.iterator();
+
+		return new Iterator<T>() {
+
+			private T current;
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public T next() {
+				current = iterator.next();
+				return current;
+			}
+
+			@Override
+			public void remove() {
+				iterator.remove();
+				index.remove(current.getName());
+			}
+		};
+	}
+}
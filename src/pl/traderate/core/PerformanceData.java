@@ -21,83 +21,180 @@
 package pl.traderate.core;
 
 import java.math.BigDecimal;
+import java.util.Date;
 
 /**
  * Common performance related data.
  *
  * Should be encapsulated inside higher level objects.
+ *
+ * Values are kept as scaled longs, see {@link FixedPoint}. Quantities have
+ * scale 0, money amounts and percentages scale {@link FixedPoint#MONEY_SCALE},
+ * market values scale {@link #marketScale} and paper gains the larger of both.
+ * Getters convert values to {@link BigDecimal}, returning <tt>null</tt> for
+ * values not computed yet.
  */
 class PerformanceData {
 
-	protected BigDecimal quantity;
+	protected long quantity;
 
-	protected BigDecimal openPrice;
+	protected long openPrice;
 
-	protected BigDecimal commission;
+	protected long commission;
 
-	protected BigDecimal openValue;
+	protected long openValue;
 
-	protected BigDecimal closePrice;
+	protected long closePrice;
 
-	protected BigDecimal closeValue;
+	protected long closeValue;
 
 	protected BigDecimal lastMarketPrice;
 
-	protected BigDecimal marketValue;
+	/**
+	 * Time the last market price was received.
+	 */
+	protected Date lastMarketPriceTime;
+
+	protected long marketValue;
+
+	protected long paperGain;
+
+	protected long paperGainPercentage;
+
+	protected long realizedGain;
+
+	protected long realizedGainPercentage;
+
+	/**
+	 * Scale of the market value.
+	 */
+	protected int marketScale;
+
+	/**
+	 * True if close price, close value and realized gain are computed.
+	 */
+	protected boolean closeValuesKnown;
+
+	protected boolean marketValueKnown;
+
+	protected boolean paperGainKnown;
+
+	/**
+	 * Copies all performance values from another object.
+	 *
+	 * @param other Source of performance data
+	 */
+	void copyPerformanceData(PerformanceData other) {
+		quantity = other.quantity;
+		openPrice = other.openPrice;
+		commission = other.commission;
+		openValue = other.openValue;
+		closePrice = other.closePrice;
+		closeValue = other.closeValue;
+		lastMarketPrice = other.lastMarketPrice;
+		lastMarketPriceTime = other.lastMarketPriceTime;
+		marketValue = other.marketValue;
+		paperGain = other.paperGain;
+		paperGainPercentage = other.paperGainPercentage;
+		realizedGain = other.realizedGain;
+		realizedGainPercentage = other.realizedGainPercentage;
+		marketScale = other.marketScale;
+		closeValuesKnown = other.closeValuesKnown;
+		marketValueKnown = other.marketValueKnown;
+		paperGainKnown = other.paperGainKnown;
+	}
 
-	protected BigDecimal paperGain;
+	/**
+	 * Computes the realized gain from open and close values.
+	 */
+	void updateRealizedGain() {
+		realizedGain = closeValue - openValue - commission;
+		realizedGainPercentage = FixedPoint.percentage(realizedGain, FixedPoint.MONEY_SCALE, openValue);
+		closeValuesKnown = true;
+	}
 
-	protected BigDecimal paperGainPercentage;
+	/**
+	 * Adds the market value of a component to this market value.
+	 *
+	 * The sum takes the larger of both scales.
+	 *
+	 * @param other Component with a known market value
+	 */
+	void addMarketValue(PerformanceData other) {
+		int scale = Math.max(marketScale, other.marketScale);
+		marketValue = FixedPoint.rescale(marketValue, marketScale, scale) + FixedPoint.rescale(other.marketValue, other.marketScale, scale);
+		marketScale = scale;
+		marketValueKnown = true;
+	}
 
-	protected BigDecimal realizedGain;
+	/**
+	 * Computes the paper gain from the market value.
+	 */
+	void updatePaperGain() {
+		int paperGainScale = getPaperGainScale();
+		paperGain = FixedPoint.rescale(marketValue, marketScale, paperGainScale) - FixedPoint.rescale(openValue + commission, FixedPoint.MONEY_SCALE, paperGainScale);
+		paperGainPercentage = FixedPoint.percentage(paperGain, paperGainScale, openValue);
+		paperGainKnown = true;
+	}
 
-	protected BigDecimal realizedGainPercentage;
+	/**
+	 * Returns the scale of the paper gain.
+	 *
+	 * @return Larger of the market value and money scales
+	 */
+	int getPaperGainScale() {
+		return Math.max(marketScale, FixedPoint.MONEY_SCALE);
+	}
 
 	BigDecimal getQuantity() {
-		return quantity;
+		return BigDecimal.valueOf(quantity);
 	}
 
 	BigDecimal getOpenPrice() {
-		return openPrice;
+		return FixedPoint.toBigDecimal(openPrice, FixedPoint.MONEY_SCALE);
 	}
 
 	BigDecimal getCommission() {
-		return commission;
+		return FixedPoint.toBigDecimal(commission, FixedPoint.MONEY_SCALE);
 	}
 
 	BigDecimal getOpenValue() {
-		return openValue;
+		return FixedPoint.toBigDecimal(openValue, FixedPoint.MONEY_SCALE);
 	}
 
 	BigDecimal getClosePrice() {
-		return closePrice;
+		return closeValuesKnown ? FixedPoint.toBigDecimal(closePrice, FixedPoint.MONEY_SCALE) : null;
 	}
 
 	BigDecimal getCloseValue() {
-		return closeValue;
+		return closeValuesKnown ? FixedPoint.toBigDecimal(closeValue, FixedPoint.MONEY_SCALE) : null;
 	}
 
 	BigDecimal getLastMarketPrice() {
 		return lastMarketPrice;
 	}
 
+	Date getLastMarketPriceTime() {
+		return lastMarketPriceTime;
+	}
+
 	BigDecimal getMarketValue() {
-		return marketValue;
+		return marketValueKnown ? FixedPoint.toBigDecimal(marketValue, marketScale) : null;
 	}
 
 	BigDecimal getPaperGain() {
-		return paperGain;
+		return paperGainKnown ? FixedPoint.toBigDecimal(paperGain, getPaperGainScale()) : null;
 	}
 
 	BigDecimal getPaperGainPercentage() {
-		return paperGainPercentage;
+		return paperGainKnown ? FixedPoint.toBigDecimal(paperGainPercentage, FixedPoint.MONEY_SCALE) : null;
 	}
 
 	BigDecimal getRealizedGain() {
-		return realizedGain;
+		return closeValuesKnown ? FixedPoint.toBigDecimal(realizedGain, FixedPoint.MONEY_SCALE) : null;
 	}
 
 	BigDecimal getRealizedGainPercentage() {
-		return realizedGainPercentage;
+		return closeValuesKnown ? FixedPoint.toBigDecimal(realizedGainPercentage, FixedPoint.MONEY_SCALE) : null;
 	}
 }
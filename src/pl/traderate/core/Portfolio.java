@@ -26,8 +26,9 @@ import pl.traderate.core.exception.PortfolioRecalcException;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 /**
  * An analytical portfolio of financial instruments.
@@ -58,9 +59,14 @@ class Portfolio implements Identifiable {
 	private String name;
 
 	/**
-	 * List of journal entries related to this portfolio.
+	 * Chronological list of journal entries related to this portfolio.
 	 */
-	private final ArrayList<PortfolioEntry> entries;
+	private final ChronologicalEntryList<PortfolioEntry> entries;
+
+	/**
+	 * Periodic snapshots of portfolio holdings used for partial history replays.
+	 */
+	private final CheckpointList<Snapshot> checkpoints;
 
 	/**
 	 * Reference to the parent portfolio.
@@ -101,15 +107,45 @@ class Portfolio implements Identifiable {
 	private Date latestEntryDate;
 
 	/**
-	 * A streamlined DTO version of this portfolio.
+	 * True if aggregates of this portfolio have to be recalculated.
+	 *
+	 * A dirty portfolio always has all of its ancestors marked as dirty.
+	 */
+	private boolean aggregatesDirty;
+
+	/**
+	 * True while the entry history is being replayed.
+	 *
+	 * Cash balances depend only on the final state of accounts, so they are
+	 * calculated once after the replay instead of after each entry.
+	 */
+	private boolean replaying;
+
+	/**
+	 * A cached streamlined DTO version of this portfolio.
 	 */
 	private PortfolioNodeDTO nodeDTO;
 
 	/**
-	 * A full DTO version of this portfolio.
+	 * Model version the cached streamlined DTO was created at.
+	 */
+	private long nodeDTOVersion;
+
+	/**
+	 * A cached full DTO version of this portfolio.
 	 */
 	private PortfolioDetailsDTO detailsDTO;
 
+	/**
+	 * Model version the cached full DTO was created at.
+	 */
+	private long detailsDTOVersion;
+
+	/**
+	 * Model version of the latest quote change in own or aggregated holdings.
+	 */
+	private long quoteVersion;
+
 	/**
 	 * Creates a new global portfolio.
 	 *
@@ -120,7 +156,8 @@ class Portfolio implements Identifiable {
 		this.journal = journal;
 		ID = numberOfPortfoliosCreated++;
 		setName(name);
-		entries = new ArrayList<PortfolioEntry>();
+		entries = new ChronologicalEntryList<>();
+		checkpoints = new CheckpointList<>();
 		children = new ArrayList<Portfolio>();
 
 		initVolatile();
@@ -155,7 +192,8 @@ class Portfolio implements Identifiable {
 		this.ID = ID;
 		numberOfPortfoliosCreated++;
 		setName(name);
-		entries = new ArrayList<PortfolioEntry>();
+		entries = new ChronologicalEntryList<>();
+		checkpoints = new CheckpointList<>();
 		children = new ArrayList<Portfolio>();
 
 		initVolatile();
@@ -171,6 +209,7 @@ class Portfolio implements Identifiable {
 	 */
 	void removeChild(Portfolio portfolio) {
 		children.remove(portfolio);
+		invalidateAggregates();
 	}
 
 	/**
@@ -191,47 +230,92 @@ class Portfolio implements Identifiable {
 		initVolatile();
 	}
 
-	private void recalc() throws PortfolioRecalcException {
-		wipeCalculations();
+	/**
+	 * Recalculates portfolio history starting at a given date.
+	 *
+	 * The replay starts from the nearest checkpoint taken on or before the
+	 * given date, or from scratch if no such checkpoint exists. If deferred
+	 * computation is not enabled, a recalculation will trigger an {@link
+	 * update()}.
+	 *
+	 * @param date Date of the earliest changed entry
+	 * @throws PortfolioRecalcException Thrown when current portfolio history
+	 *                                  represents an invalid state.
+	 */
+	private void recalc(Date date) throws PortfolioRecalcException {
+		Map.Entry<Date, Snapshot> checkpoint = checkpoints.rewind(date, entries.size());
 
-		ArrayList<PortfolioEntry> sortedEntries = new ArrayList<PortfolioEntry>(entries);
-		Collections.sort(sortedEntries, new JournalEntry.DateComparator());
+		if (checkpoint == null) {
+			wipeCalculations();
+		} else {
+			checkpoint.getValue().restore(this);
+		}
 
-		for (PortfolioEntry entry : sortedEntries) {
-			try {
-				entry.apply(this);
-			} catch (EntryInsertionException e) {
-				throw new PortfolioRecalcException();
+		replaying = true;
+
+		try {
+			for (PortfolioEntry entry : entries.getReplayedEntries(checkpoint == null ? null : checkpoint.getKey())) {
+				try {
+					replayEntry(entry);
+				} catch (EntryInsertionException e) {
+					throw new PortfolioRecalcException();
+				}
 			}
+		} finally {
+			replaying = false;
 		}
 
-		if (!sortedEntries.isEmpty()) {
-			JournalEntry latestEntry = sortedEntries.get(sortedEntries.size() - 1);
-			latestEntryDate = latestEntry.getDate();
-		}
+		updateCashBalance();
+		invalidateAggregates();
 
 		if (!TradeRateConfig.isDeferredComputationMode()) {
 			update();
 		}
 	}
 
+	/**
+	 * Applies a single entry on top of the current state.
+	 *
+	 * Takes a new checkpoint beforehand if one is due.
+	 *
+	 * @param entry Entry to be applied
+	 * @throws EntryInsertionException Thrown when entry cannot be applied.
+	 */
+	private void replayEntry(PortfolioEntry entry) throws EntryInsertionException {
+		if (checkpoints.isDue(entry.date, latestEntryDate)) {
+			checkpoints.add(entry.date, new Snapshot(this));
+		}
+
+		entry.apply(this);
+		checkpoints.entryApplied();
+		latestEntryDate = entry.getDate();
+	}
+
+	/**
+	 * Adds a new entry to this portfolio's history.
+	 *
+	 * Entries older than the latest entry trigger a partial replay of the
+	 * portfolio history.
+	 *
+	 * @param entry An entry to be added
+	 * @throws EntryInsertionException Thrown when entry insertion fails.
+	 */
 	public void addEntry(PortfolioEntry entry) throws EntryInsertionException {
 		// Checks if entry date is newer or equal to latestEntryDate
 		if (entry.getDate().compareTo(latestEntryDate) >= 0) {
-			entry.apply(this);
+			replayEntry(entry);
 			entries.add(entry);
-			latestEntryDate = entry.getDate();
 			if (!TradeRateConfig.isDeferredComputationMode()) {
 				update();
 			}
 		} else {
 			try {
-				entries.add(entry);
-				recalc();
+				entries.insert(entry);
+				recalc(entry.date);
 			} catch (PortfolioRecalcException e) {
-				entries.remove(entry);
+				entries.delete(entry);
 				try {
-					recalc();
+					recalc(entry.date);
 				} catch (PortfolioRecalcException e2) {
 					throw new InternalLogicError();
 				}
@@ -240,14 +324,20 @@ class Portfolio implements Identifiable {
 		}
 	}
 
+	/**
+	 * Removes an entry from this portfolio's history.
+	 *
+	 * @param entry Entry to be removed
+	 * @throws EntryInsertionException Thrown when entry removal is not possible.
+	 */
 	public void removeEntry(PortfolioEntry entry) throws EntryInsertionException {
 		try {
-			entries.remove(entry);
-			recalc();
+			entries.delete(entry);
+			recalc(entry.date);
 		} catch (PortfolioRecalcException e) {
-			entries.add(entry);
+			entries.insert(entry);
 			try {
-				recalc();
+				recalc(entry.date);
 			} catch (PortfolioRecalcException e2) {
 				throw new InternalLogicError();
 			}
@@ -255,11 +345,49 @@ class Portfolio implements Identifiable {
 		}
 	}
 
+	/**
+	 * Updates this portfolio and re-aggregates all of its dirty ancestors.
+	 */
 	void update() {
+		updateOwnValues();
+		getRoot().updateAggregates();
+	}
+
+	/**
+	 * Updates holdings and cash balance of this portfolio only.
+	 *
+	 * Aggregates of this portfolio and its ancestors are marked as dirty and
+	 * have to be recalculated with {@link #updateAggregates()} afterwards.
+	 */
+	void updateOwnValues() {
 		holdings.update();
-		updateHoldingsAggregates();
 		updateCashBalance();
-		updateCashAggregates();
+		invalidateAggregates();
+	}
+
+	/**
+	 * Recalculates aggregates of all dirty portfolios in this subtree.
+	 *
+	 * Children are aggregated before their parents, so each dirty portfolio is
+	 * processed exactly once. Clean subtrees are skipped entirely.
+	 */
+	void updateAggregates() {
+		if (!aggregatesDirty) {
+			return;
+		}
+
+		aggregatedHoldings = new HoldingList();
+		aggregatedHoldings.merge(holdings);
+		aggregatedCashBalance = cashBalance;
+
+		for (Portfolio child : children) {
+			child.updateAggregates();
+			aggregatedHoldings.merge(child.getHoldings());
+			aggregatedCashBalance = aggregatedCashBalance.add(child.getAggregatedCashBalance());
+		}
+
+		aggregatedHoldings.update();
+		aggregatesDirty = false;
 	}
 
 	void updateQuotes() {
@@ -269,22 +397,30 @@ class Portfolio implements Identifiable {
 
 	public void applyEntry(BuyEquityTransactionEntry entry) throws EntryInsertionException {
 		holdings.open(entry);
-		updateCashBalance();
+		if (!replaying) {
+			updateCashBalance();
+		}
 	}
 
 	public void applyEntry(SellEquityTransactionEntry entry) throws EntryInsertionException {
 		holdings.close(entry);
-		updateCashBalance();
+		if (!replaying) {
+			updateCashBalance();
+		}
 	}
 
 	public void applyEntry(CashAllocationEntry entry) {
-		updateCashBalance();
-		updateCashAggregates();
+		if (!replaying) {
+			updateCashBalance();
+			invalidateAggregates();
+		}
 	}
 
 	public void applyEntry(CashDeallocationEntry entry) {
-		updateCashBalance();
-		updateCashAggregates();
+		if (!replaying) {
+			updateCashBalance();
+			invalidateAggregates();
+		}
 	}
 
 	private void updateCashBalance() {
@@ -295,30 +431,31 @@ class Portfolio implements Identifiable {
 		}
 	}
 
-	private void updateCashAggregates() {
-		aggregatedCashBalance = cashBalance;
-
-		for (Portfolio child : children) {
-			aggregatedCashBalance = aggregatedCashBalance.add(child.getAggregatedCashBalance());
-		}
+	/**
+	 * Marks aggregates of this portfolio and all of its ancestors as dirty.
+	 */
+	private void invalidateAggregates() {
+		Portfolio portfolio = this;
 
-		if (parent != null) {
-			parent.updateCashAggregates();
+		while (portfolio != null && !portfolio.aggregatesDirty) {
+			portfolio.aggregatesDirty = true;
+			portfolio = portfolio.parent;
 		}
 	}
 
-	private void updateHoldingsAggregates() {
-		aggregatedHoldings = new HoldingList(holdings);
+	/**
+	 * Returns the root of the portfolio tree.
+	 *
+	 * @return Global portfolio
+	 */
+	private Portfolio getRoot() {
+		Portfolio portfolio = this;
 
-		for (Portfolio child : children) {
-			aggregatedHoldings.merge(child.getHoldings());
+		while (portfolio.parent != null) {
+			portfolio = portfolio.parent;
 		}
-		
-		aggregatedHoldings.update();
 
-		if (parent != null) {
-			parent.update();
-		}
+		return portfolio;
 	}
 
 	public int getID() {
@@ -366,11 +503,50 @@ class Portfolio implements Identifiable {
 	}
 
 	public PortfolioNodeDTO getNodeDTO() {
-		return nodeDTO == null ? new PortfolioNodeDTO(this) : nodeDTO;
+		return journal.getPortfolioNodeDTO(this);
+	}
+
+	/**
+	 * Returns the cached streamlined DTO version of this portfolio.
+	 *
+	 * Cash balances do not depend on quotes, so quote changes do not affect it.
+	 *
+	 * @param validSince Model version of the latest change affecting all nodes
+	 * @return A {@link PortfolioNodeDTO} object, <tt>null</tt> if it has to be created again
+	 */
+	PortfolioNodeDTO getCachedNodeDTO(long validSince) {
+		return nodeDTO != null && nodeDTOVersion >= validSince ? nodeDTO : null;
 	}
 
-	public PortfolioDetailsDTO getDetailsDTO(ArrayList<Account> accounts) {
-		return detailsDTO == null ? new PortfolioDetailsDTO(this, new PortfolioCashAllocationsDTO(this, accounts)) : detailsDTO;
+	PortfolioNodeDTO createNodeDTO(long version) {
+		nodeDTO = new PortfolioNodeDTO(this);
+		nodeDTOVersion = version;
+		return nodeDTO;
+	}
+
+	/**
+	 * Returns the cached full DTO version of this portfolio.
+	 *
+	 * @param validSince Model version of the latest change affecting all nodes
+	 * @return A {@link PortfolioDetailsDTO} object, <tt>null</tt> if it has to be created again
+	 */
+	PortfolioDetailsDTO getCachedDetailsDTO(long validSince) {
+		return detailsDTO != null && detailsDTOVersion >= validSince && detailsDTOVersion >= quoteVersion ? detailsDTO : null;
+	}
+
+	PortfolioDetailsDTO createDetailsDTO(List<Account> accounts, long version) {
+		detailsDTO = new PortfolioDetailsDTO(this, new PortfolioCashAllocationsDTO(this, accounts));
+		detailsDTOVersion = version;
+		return detailsDTO;
+	}
+
+	/**
+	 * Registers a quote change in own or aggregated holdings.
+	 *
+	 * @param version Model version of the change
+	 */
+	void setQuoteVersion(long version) {
+		quoteVersion = version;
 	}
 
 	public ArrayList<PortfolioEntry> getEntries() {
@@ -380,4 +556,34 @@ class Portfolio implements Identifiable {
 	public Portfolio getParent() {
 		return parent;
 	}
+
+	/**
+	 * A snapshot of portfolio holdings.
+	 *
+	 * Cash balances are not included, as they are derived from account cash
+	 * allocations.
+	 */
+	private static final class Snapshot {
+
+		private final HoldingList holdings;
+
+		private final Date latestEntryDate;
+
+		Snapshot(Portfolio portfolio) {
+			holdings = portfolio.holdings.snapshot();
+			latestEntryDate = portfolio.latestEntryDate;
+		}
+
+		/**
+		 * Restores portfolio holdings from this snapshot.
+		 *
+		 * The snapshot itself is left intact, so it can be restored again.
+		 *
+		 * @param portfolio Portfolio to be restored
+		 */
+		void restore(Portfolio portfolio) {
+			portfolio.holdings = holdings.restore();
+			portfolio.latestEntryDate = latestEntryDate;
+		}
+	}
 }
@@ -20,14 +20,14 @@
 
 package pl.traderate.core;
 
-import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Sources of cash allocations for a given portfolio.
  */
 public class PortfolioCashAllocationsDTO extends CashAllocationsDTO {
 
-	PortfolioCashAllocationsDTO(Portfolio portfolio, ArrayList<Account> accounts) {
+	PortfolioCashAllocationsDTO(Portfolio portfolio, List<Account> accounts) {
 		super();
 		for (Account account : accounts) {
 			Allocation allocation = new Allocation(account.getCashAllocation(portfolio.getID()), account.getName());
@@ -25,6 +25,8 @@ import java.util.ArrayList;
 
 /**
  * A comprehensive version of a Portfolio DTO.
+ *
+ * Instances are cached and shared between callers, so they must not be modified.
  */
 public class PortfolioDetailsDTO {
 
@@ -25,6 +25,8 @@ import java.util.ArrayList;
 
 /**
  * A stripped down portfolio Data Transfer Object for use in tree navigation.
+ *
+ * Instances are cached and shared between callers, so they must not be modified.
  */
 public class PortfolioNodeDTO {
 
@@ -46,7 +48,7 @@ public class PortfolioNodeDTO {
 
 		this.children = new ArrayList<>();
 		for (Portfolio child : portfolio.getChildren()) {
-			this.children.add(new PortfolioNodeDTO(child));
+			this.children.add(child.getNodeDTO());
 		}
 	}
 
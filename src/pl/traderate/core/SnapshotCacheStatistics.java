@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+/**
+ * A snapshot of DTO cache usage statistics.
+ *
+ * Account and portfolio DTOs are cached per node and reused until a change of
+ * the model, or a quote change in node holdings, invalidates them.
+ */
+public class SnapshotCacheStatistics {
+
+	/**
+	 * Current model version.
+	 */
+	public final long version;
+
+	/**
+	 * Number of lookups answered with a cached DTO.
+	 */
+	public final long hits;
+
+	/**
+	 * Number of lookups which required a new DTO to be created.
+	 */
+	public final long misses;
+
+	SnapshotCacheStatistics(long version, long hits, long misses) {
+		this.version = version;
+		this.hits = hits;
+		this.misses = misses;
+	}
+
+	/**
+	 * Returns the fraction of lookups answered with a cached DTO.
+	 *
+	 * @return Hit rate between 0 and 1, 0 if there were no lookups
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+}
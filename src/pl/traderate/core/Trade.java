@@ -21,8 +21,6 @@
 package pl.traderate.core;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
 import java.util.Date;
 
 /**
@@ -33,33 +31,46 @@ abstract class Trade extends PerformanceData implements Comparable<Trade>, Ident
 	protected static int numberOfTradesCreated;
 
 	protected final int ID;
-	
-	protected Position parent;
-	
-	protected Account account;
 
-	protected Portfolio portfolio;
+	protected int accountID;
 
-	protected Date date;
+	protected int portfolioID;
 
-	protected String comment;
+	protected Date date;
 
 	protected String ticker;
 
 	protected boolean closed;
 
-	Trade(Account account, Portfolio portfolio, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal openPrice, BigDecimal commission) {
-		this.ID = numberOfTradesCreated++;
-		this.account = account;
-		this.portfolio = portfolio;
-		this.date = new Date(date.getTime());
-		this.comment = comment;
+	Trade(Account account, Portfolio portfolio, Date date, String ticker, BigDecimal quantity, BigDecimal openPrice, BigDecimal commission) {
+		this(numberOfTradesCreated++, account.getID(), portfolio.getID(), date, ticker, FixedPoint.toQuantity(quantity), FixedPoint.toMoney(openPrice), FixedPoint.toMoney(commission));
+	}
+
+	/**
+	 * Creates a trade with a predefined ID.
+	 *
+	 * <b>Only for internal use.</b>
+	 */
+	Trade(int ID, int accountID, int portfolioID, Date date, String ticker, long quantity, long openPrice, long commission) {
+		this.ID = ID;
+		this.accountID = accountID;
+		this.portfolioID = portfolioID;
+		this.date = date;
 		this.ticker = ticker;
 		this.quantity = quantity;
 		this.openPrice = openPrice;
 		this.commission = commission;
 
-		this.openValue = openPrice.multiply(quantity);
+		this.openValue = FixedPoint.multiply(openPrice, quantity);
+	}
+
+	/**
+	 * Reserves an ID for a trade stored outside of a trade object.
+	 *
+	 * @return Next trade ID
+	 */
+	static int nextID() {
+		return numberOfTradesCreated++;
 	}
 
 	@Override
@@ -84,33 +95,31 @@ abstract class Trade extends PerformanceData implements Comparable<Trade>, Ident
 		numberOfTradesCreated = 0;
 	}
 
-	Position getParent() {
-		return parent;
-	}
-
-	void setParent(Position position) {
-		parent = position;
+	int getAccountID() {
+		return accountID;
 	}
 
-	Account getAccount() {
-		return account;
+	int getPortfolioID() {
+		return portfolioID;
 	}
 
 	String getTicker() {
 		return ticker;
 	}
 
-	void close(BigDecimal price) {
-		closePrice = price;
-		closeValue = closePrice.multiply(quantity);
-		realizedGain = closeValue.subtract(openValue).subtract(commission);
-		realizedGainPercentage = realizedGain.divide(openValue, 4, RoundingMode.HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, RoundingMode.HALF_EVEN);
+	/**
+	 * Closes this trade.
+	 *
+	 * @param closePrice Close price in cents
+	 */
+	void close(long closePrice) {
+		this.closePrice = closePrice;
+		closeValue = FixedPoint.multiply(closePrice, quantity);
+		updateRealizedGain();
 		closed = true;
 	}
 
 	boolean isClosed() {
 		return closed;
 	}
-
-	abstract void updateQuotes();
 }
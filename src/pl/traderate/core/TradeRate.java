@@ -22,12 +22,18 @@ package pl.traderate.core;
 
 import pl.traderate.core.event.*;
 import pl.traderate.core.exception.*;
+import pl.traderate.data.PriceHistory;
+import pl.traderate.data.QuoteEngine;
+import pl.traderate.data.QuoteListener;
 
 import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Main application class.
@@ -44,22 +50,40 @@ public final class TradeRate extends GenericModelEventSource {
 	/**
 	 * Currently open journal.
 	 *
-	 * Per design only one journal can be opened at a time.
+	 * Per design only one journal can be opened at a time. Read by quote
+	 * engine threads, hence volatile.
 	 */
-	private Journal journal;
+	private volatile Journal journal;
 
 	/**
 	 * Name of the opened journal.
 	 */
 	private String journalName;
 
+	/**
+	 * File the current journal was opened from or last saved to.
+	 */
+	private File journalFile;
+
+	/**
+	 * Mutation log of the current journal, <tt>null</tt> if changes are kept in memory only.
+	 *
+	 * Only accessed with the current journal locked.
+	 */
+	private JournalLog journalLog;
+
 	/**
 	 * Restricted constructor.
 	 *
 	 * Prevents direct instantiation.
 	 */
 	private TradeRate() {
-
+		QuoteEngine.getInstance().addQuoteListener(new QuoteListener() {
+			@Override
+			public void quotesChanged(Set<String> tickers) {
+				updateQuotes(tickers);
+			}
+		});
 	}
 
 	/**
@@ -76,44 +100,142 @@ public final class TradeRate extends GenericModelEventSource {
 	 * @param owner Name of the owner
 	 */
 	public void createJournal(String name, String owner) {
-		journal = new Journal(name, owner);
+		setJournal(new Journal(name, owner), null, null);
 		fireEvent(new JournalCreatedModelEvent(this));
 	}
 
 	/**
 	 * Opens a new journal from file.
 	 *
+	 * Changes recorded in the mutation log since the file was written are
+	 * replayed on top of it.
+	 *
 	 * @param file Journal file
 	 * @throws JournalLoadException Thrown when loading fails.
 	 */
 	public void openJournal(File file) throws JournalLoadException {
 		Journal openedJournal = new Journal("", "");
 		openedJournal.loadFromFile(file);
-		journal = openedJournal;
-		fireEvent(new JournalOpenedModelEvent(this));
+		JournalLog openedJournalLog = JournalLog.open(JournalLog.getLogFile(file), openedJournal);
+
+		setJournal(openedJournal, file, openedJournalLog);
+		fireEvent(new JournalOpenedModelEvent(this, openedJournal.getEntries().size(), openedJournal.getLoadDuration()));
 	}
 
 	/**
 	 * Saves the current journal to a destination file.
 	 *
+	 * All changes are already recorded in the mutation log of the journal file,
+	 * so saving to the same file only has to sync the log. The whole journal is
+	 * rewritten when saving to another file or when the log has grown large.
+	 *
 	 * @param file Destination
 	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
 	 * @throws JournalSaveException Thrown when journal could not be saved.
 	 */
 	public void saveJournal(File file) throws JournalNotLoadedException, JournalSaveException {
-		assertJournalIsLoaded();
-		journal.saveToFile(file);
+		Journal currentJournal = getJournal();
+
+		// Mutations made meanwhile would be missing from both the snapshot and the new log
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+
+			if (!syncJournalLog(file)) {
+				compactJournal(currentJournal, file);
+			}
+		}
+
 		fireEvent(new JournalSavedModelEvent(this));
 	}
 
+	/**
+	 * Syncs the mutation log if it is up to date with a given destination.
+	 *
+	 * Must be called with the journal locked.
+	 *
+	 * @param file Destination
+	 * @return True if the journal was saved by syncing the log
+	 */
+	private boolean syncJournalLog(File file) {
+		if (journalLog == null || !file.equals(journalFile) || journalLog.isCompactionDue(file)) {
+			return false;
+		}
+
+		try {
+			journalLog.sync();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the whole journal as a new snapshot and starts an empty mutation log.
+	 *
+	 * Must be called with the journal locked.
+	 *
+	 * @param currentJournal Current journal
+	 * @param file           Destination
+	 * @throws JournalSaveException Thrown when journal could not be saved.
+	 */
+	private void compactJournal(Journal currentJournal, File file) throws JournalSaveException {
+		long generation = currentJournal.getGeneration();
+		currentJournal.setGeneration(generation + 1);
+
+		try {
+			currentJournal.saveToFile(file);
+		} catch (JournalSaveException e) {
+			currentJournal.setGeneration(generation);
+			throw e;
+		}
+
+		closeJournalLog();
+		journalFile = file;
+
+		try {
+			journalLog = JournalLog.create(JournalLog.getLogFile(file), generation + 1);
+		} catch (IOException e) {
+			// The snapshot is complete, later changes will be written by the next save
+			journalLog = null;
+		}
+	}
+
+	private void closeJournalLog() {
+		if (journalLog != null) {
+			journalLog.close();
+			journalLog = null;
+		}
+	}
+
+	/**
+	 * Replaces the current journal together with its file and mutation log.
+	 *
+	 * The previous journal is locked meanwhile, so that mutations in progress
+	 * finish writing to its log before the log is closed.
+	 *
+	 * @param newJournal     New journal, <tt>null</tt> if none is loaded
+	 * @param newJournalFile File of the new journal
+	 * @param newJournalLog  Mutation log of the new journal
+	 */
+	private void setJournal(Journal newJournal, File newJournalFile, JournalLog newJournalLog) {
+		Journal previousJournal = journal;
+
+		synchronized (previousJournal != null ? previousJournal : this) {
+			closeJournalLog();
+			journal = newJournal;
+			journalFile = newJournalFile;
+			journalLog = newJournalLog;
+		}
+	}
+
 	/**
 	 * Closes current journal.
 	 *
 	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
 	 */
 	public void closeJournal() throws JournalNotLoadedException {
-		assertJournalIsLoaded();
-		journal = null;
+		getJournal();
+		setJournal(null, null, null);
 		fireEvent(new JournalClosedModelEvent(this));
 	}
 
@@ -124,8 +246,13 @@ public final class TradeRate extends GenericModelEventSource {
 	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
 	 */
 	public void addAccount(String name) throws JournalNotLoadedException {
-		assertJournalIsLoaded();
-		journal.addAccount(name);
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.addAccount(name);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.addAccount(name);
+		}
 
 		fireEvent(new NodesUpdatedModelEvent(this));
 	}
@@ -139,8 +266,13 @@ public final class TradeRate extends GenericModelEventSource {
 	 * @throws ObjectNotFoundException Thrown when no account with a given ID was found.
 	 */
 	public void removeAccount(int accountID) throws JournalNotLoadedException, ObjectNotFoundException, NodeNotEmptyException {
-		assertJournalIsLoaded();
-		journal.removeAccount(accountID);
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.removeAccount(accountID);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.removeAccount(accountID);
+		}
 
 		fireEvent(new NodesUpdatedModelEvent(this));
 	}
@@ -154,8 +286,13 @@ public final class TradeRate extends GenericModelEventSource {
 	 * @throws ObjectNotFoundException Thrown when parent portfolio could not be found.
 	 */
 	public void addPortfolio(String name, int parentID) throws JournalNotLoadedException, ObjectNotFoundException {
-		assertJournalIsLoaded();
-		journal.addPortfolio(name, parentID);
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.addPortfolio(name, parentID);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.addPortfolio(name, parentID);
+		}
 
 		fireEvent(new NodesUpdatedModelEvent(this));
 	}
@@ -167,102 +304,244 @@ public final class TradeRate extends GenericModelEventSource {
 	 * @throws JournalNotLoadedException
 	 */
 	public void removePortfolio(int portfolioID) throws JournalNotLoadedException, ObjectNotFoundException, NodeNotEmptyException, GlobalPortfolioRemovalException {
-		assertJournalIsLoaded();
-		journal.removePortfolio(portfolioID);
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.removePortfolio(portfolioID);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.removePortfolio(portfolioID);
+		}
 
 		fireEvent(new NodesUpdatedModelEvent(this));
 	}
 
 	public void addBuyEquityTransactionEntry(int accountID, int portfolioID, String tags, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission) throws JournalNotLoadedException, EntryInsertionException, ObjectNotFoundException, ObjectConstraintsException, InvalidInputException {
-		assertJournalIsLoaded();
-		journal.addBuyEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
-		journal.update();
-		updateQuotes();
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.addBuyEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.addBuyEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
+			currentJournal.update();
+		}
 
+		currentJournal.updateQuotes();
 		fireEvent(new JournalUpdatedModelEvent(this));
 	}
 
 	public void addSellEquityTransactionEntry(int accountID, int portfolioID, String tags, Date date, String comment, String ticker, BigDecimal quantity, BigDecimal price, BigDecimal commission) throws JournalNotLoadedException, EntryInsertionException, ObjectNotFoundException, ObjectConstraintsException, InvalidInputException {
-		assertJournalIsLoaded();
-		journal.addSellEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
-		journal.update();
-		updateQuotes();
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.addSellEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.addSellEquityTransactionEntry(accountID, portfolioID, tags, date, comment, ticker, quantity, price, commission);
+			currentJournal.update();
+		}
 
+		currentJournal.updateQuotes();
 		fireEvent(new JournalUpdatedModelEvent(this));
 	}
 
 	public void addCashAllocationEntry(int accountID, int portfolioID, String tags, Date date, String comment, BigDecimal amount) throws JournalNotLoadedException, ObjectNotFoundException, EntryInsertionException, InvalidInputException {
-		assertJournalIsLoaded();
-		journal.addCashAllocationEntry(accountID, portfolioID, tags, date, comment, amount);
-		journal.update();
-		updateQuotes();
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.addCashAllocationEntry(accountID, portfolioID, tags, date, comment, amount);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.addCashAllocationEntry(accountID, portfolioID, tags, date, comment, amount);
+			currentJournal.update();
+		}
 
+		currentJournal.updateQuotes();
 		fireEvent(new JournalUpdatedModelEvent(this));
 	}
 
 	public void addCashDeallocationEntry(int accountID, int portfolioID, String tags, Date date, String comment, BigDecimal amount) throws JournalNotLoadedException, ObjectNotFoundException, EntryInsertionException, InvalidInputException {
-		assertJournalIsLoaded();
-		journal.addCashDeallocationEntry(accountID, portfolioID, tags, date, comment, amount);
-		journal.update();
-		updateQuotes();
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.addCashDeallocationEntry(accountID, portfolioID, tags, date, comment, amount);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.addCashDeallocationEntry(accountID, portfolioID, tags, date, comment, amount);
+			currentJournal.update();
+		}
 
+		currentJournal.updateQuotes();
 		fireEvent(new JournalUpdatedModelEvent(this));
 	}
 
 	public void addCashDepositEntry(int accountID, String tags, Date date, String comment, BigDecimal amount) throws JournalNotLoadedException, ObjectNotFoundException, EntryInsertionException, InvalidInputException {
-		assertJournalIsLoaded();
-		journal.addCashDepositEntry(accountID, tags, date, comment, amount);
-		journal.update();
-		updateQuotes();
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.addCashDepositEntry(accountID, tags, date, comment, amount);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.addCashDepositEntry(accountID, tags, date, comment, amount);
+			currentJournal.update();
+		}
 
+		currentJournal.updateQuotes();
 		fireEvent(new JournalUpdatedModelEvent(this));
 	}
 
 	public void addCashWithdrawalEntry(int accountID, String tags, Date date, String comment, BigDecimal amount) throws JournalNotLoadedException, ObjectNotFoundException, EntryInsertionException, InvalidInputException {
-		assertJournalIsLoaded();
-		journal.addCashWithdrawalEntry(accountID, tags, date, comment, amount);
-		journal.update();
-		updateQuotes();
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.addCashWithdrawalEntry(accountID, tags, date, comment, amount);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.addCashWithdrawalEntry(accountID, tags, date, comment, amount);
+			currentJournal.update();
+		}
 
+		currentJournal.updateQuotes();
 		fireEvent(new JournalUpdatedModelEvent(this));
 	}
 
 	public void removeEntry(int entryID) throws JournalNotLoadedException, ObjectNotFoundException, EntryInsertionException {
-		assertJournalIsLoaded();
-		journal.removeEntry(entryID);
-		journal.update();
-		updateQuotes();
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.removeEntry(entryID);
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) currentJournalLog.removeEntry(entryID);
+			currentJournal.update();
+		}
 
+		currentJournal.updateQuotes();
 		fireEvent(new JournalUpdatedModelEvent(this));
 	}
 
+	/**
+	 * Applies a list of entry mutations as a single transaction.
+	 *
+	 * Either all commands are applied or, if any of them fails, none. Holdings
+	 * are recalculated and quotes are updated once for the whole batch and a
+	 * single {@link JournalUpdatedModelEvent} is fired.
+	 *
+	 * @param commands Mutations to be applied in order
+	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
+	 * @throws ObjectNotFoundException Thrown when a command refers to a missing account, portfolio or entry.
+	 * @throws EntryInsertionException Thrown when a command is not valid in the journal history.
+	 * @throws ObjectConstraintsException Thrown when a command violates entry constraints.
+	 * @throws InvalidInputException Thrown when a command has invalid arguments.
+	 */
+	public void applyBatch(List<EntryCommand> commands) throws JournalNotLoadedException, ObjectNotFoundException, EntryInsertionException, ObjectConstraintsException, InvalidInputException {
+		Journal currentJournal = getJournal();
+		synchronized (currentJournal) {
+			assertJournalIsCurrent(currentJournal);
+			currentJournal.applyBatch(commands);
+
+			JournalLog currentJournalLog = journalLog;
+			if (currentJournalLog != null) {
+				for (EntryCommand command : commands) {
+					command.log(currentJournalLog);
+				}
+			}
+		}
+
+		currentJournal.updateQuotes();
+		fireEvent(new JournalUpdatedModelEvent(this));
+	}
+
+	/**
+	 * Updates prices of all holdings.
+	 *
+	 * Expired quotes are served while new ones are requested in the
+	 * background. Holdings are then updated as new prices arrive, each time
+	 * followed by a {@link QuoteUpdatedModelEvent} carrying the changed
+	 * tickers.
+	 *
+	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
+	 */
 	public void updateQuotes() throws JournalNotLoadedException {
-		assertJournalIsLoaded();
-		journal.updateQuotes();
+		getJournal().updateQuotes();
 
 		fireEvent(new QuoteUpdatedModelEvent(this));
 	}
-	
-	public ArrayList<AccountDTO> getAccounts() throws JournalNotLoadedException {
-		assertJournalIsLoaded();
-		ArrayList<AccountDTO> accountDTOs = new ArrayList<>();
-		for (Account account : journal.getAccounts()) {
-			accountDTOs.add(account.getDTO(journal.getOrderedPortfolios()));
+
+	/**
+	 * Updates holdings in instruments with changed prices.
+	 *
+	 * @param tickers Tickers with changed prices
+	 */
+	private void updateQuotes(Set<String> tickers) {
+		Journal currentJournal = journal;
+
+		if (currentJournal == null) {
+			return;
 		}
 
-		return accountDTOs;
+		Set<String> updatedTickers = currentJournal.updateQuotes(tickers);
+
+		if (!updatedTickers.isEmpty()) {
+			fireEvent(new QuoteUpdatedModelEvent(this, updatedTickers));
+		}
+	}
+	
+	/**
+	 * Computes the market value of account holdings as of a given date.
+	 *
+	 * Holdings are valued at the latest close known on or before the date, or
+	 * at the latest transaction price if there is none.
+	 *
+	 * @param accountID    ID of the account
+	 * @param date         Valuation date
+	 * @param priceHistory Source of closing prices, <tt>null</tt> to use transaction prices only
+	 * @return Market value
+	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
+	 * @throws ObjectNotFoundException Thrown when the account does not exist.
+	 */
+	public BigDecimal getAccountMarketValue(int accountID, Date date, PriceHistory priceHistory) throws JournalNotLoadedException, ObjectNotFoundException {
+		return getJournal().getAccountMarketValue(accountID, date, priceHistory);
+	}
+
+	/**
+	 * Computes the market value of portfolio holdings, including all
+	 * descendant portfolios, as of a given date.
+	 *
+	 * @param portfolioID  ID of the portfolio
+	 * @param date         Valuation date
+	 * @param priceHistory Source of closing prices, <tt>null</tt> to use transaction prices only
+	 * @return Market value
+	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
+	 * @throws ObjectNotFoundException Thrown when the portfolio does not exist.
+	 */
+	public BigDecimal getPortfolioMarketValue(int portfolioID, Date date, PriceHistory priceHistory) throws JournalNotLoadedException, ObjectNotFoundException {
+		return getJournal().getPortfolioMarketValue(portfolioID, date, priceHistory);
+	}
+
+	/**
+	 * Computes daily value, cash and flow series of all accounts and
+	 * portfolios, together with their time- and money-weighted returns.
+	 *
+	 * @param from         First day of the series
+	 * @param to           Last day of the series
+	 * @param priceHistory Source of closing prices, <tt>null</tt> to use transaction prices only
+	 * @return Series of all accounts and portfolios
+	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
+	 * @throws InvalidInputException Thrown when the last day precedes the first one.
+	 */
+	public ValueSeriesDTO getValueSeries(Date from, Date to, PriceHistory priceHistory) throws JournalNotLoadedException, InvalidInputException {
+		return getJournal().getValueSeries(from, to, priceHistory);
+	}
+
+	public ArrayList<AccountDTO> getAccounts() throws JournalNotLoadedException {
+		return getJournal().getAccountDTOs();
 	}
 
 	public AccountDTO getAccount(int accountID) throws ObjectNotFoundException, JournalNotLoadedException {
-		assertJournalIsLoaded();
-		return journal.getAccount(accountID).getDTO(journal.getOrderedPortfolios());
+		return getJournal().getAccountDTO(accountID);
 	}
 
 	public ArrayList<JournalEntryDTO> getEntries() throws JournalNotLoadedException {
-		assertJournalIsLoaded();
+		Journal currentJournal = getJournal();
 		ArrayList<JournalEntryDTO> entryDTOs = new ArrayList<>();
-		for (JournalEntry entry : journal.getEntries()) {
-			entryDTOs.add(new JournalEntryDTO(entry));
+		synchronized (currentJournal) {
+			for (JournalEntry entry : currentJournal.getEntries()) {
+				entryDTOs.add(new JournalEntryDTO(entry));
+			}
 		}
 
 		Collections.sort(entryDTOs);
@@ -270,15 +549,51 @@ public final class TradeRate extends GenericModelEventSource {
 		return entryDTOs;
 	}
 
+	/**
+	 * Returns the current model version.
+	 *
+	 * Entries added or removed later are reported by {@link #getEntryChanges(long)}.
+	 *
+	 * @return Model version
+	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
+	 */
+	public long getModelVersion() throws JournalNotLoadedException {
+		return getJournal().getVersion();
+	}
+
+	/**
+	 * Returns journal entries added and removed since a given model version.
+	 *
+	 * @param sinceVersion Model version of the caller's current view
+	 * @return Entry changes, <tt>null</tt> if they are no longer known and all entries have to be reloaded
+	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
+	 */
+	public EntryChangesDTO getEntryChanges(long sinceVersion) throws JournalNotLoadedException {
+		return getJournal().getEntryChanges(sinceVersion);
+	}
+
+	/**
+	 * Returns a range of journal entries, the most recent first.
+	 *
+	 * The page carries the model version it was read at, to be matched with
+	 * later {@link #getEntryChanges(long)} calls.
+	 *
+	 * @param firstRow Position of the first returned entry
+	 * @param count    Maximum number of returned entries
+	 * @return Page of entries
+	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
+	 */
+	public EntryPageDTO getEntryPage(int firstRow, int count) throws JournalNotLoadedException {
+		return getJournal().getEntryPage(firstRow, count);
+	}
+
 	public PortfolioNodeDTO getPortfolioNodes() throws JournalNotLoadedException {
-		assertJournalIsLoaded();
-		return journal.getGlobalPortfolio().getNodeDTO();
+		return getJournal().getGlobalPortfolio().getNodeDTO();
 	}
 
 	public ArrayList<PortfolioNodeDTO> getAllPortfolioNodes() throws JournalNotLoadedException {
-		assertJournalIsLoaded();
 		ArrayList<PortfolioNodeDTO> portfolios = new ArrayList<>();
-		PortfolioNodeDTO root = journal.getGlobalPortfolio().getNodeDTO();
+		PortfolioNodeDTO root = getJournal().getGlobalPortfolio().getNodeDTO();
 		portfolios.add(root);
 
 		populateChildNodes(root, portfolios);
@@ -294,21 +609,49 @@ public final class TradeRate extends GenericModelEventSource {
 	}
 
 	public PortfolioDetailsDTO getPortfolio(int portfolioID) throws ObjectNotFoundException, JournalNotLoadedException {
-		assertJournalIsLoaded();
-		return journal.getPortfolio(portfolioID).getDetailsDTO(journal.getAccounts());
+		return getJournal().getPortfolioDetailsDTO(portfolioID);
 	}
 
-	private void assertJournalIsLoaded() throws JournalNotLoadedException {
-		if (journal == null) throw new JournalNotLoadedException();
+	/**
+	 * Returns usage statistics of the account and portfolio DTO cache.
+	 *
+	 * @return Statistics snapshot
+	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
+	 */
+	public SnapshotCacheStatistics getSnapshotStatistics() throws JournalNotLoadedException {
+		return getJournal().getSnapshotStatistics();
+	}
+
+	/**
+	 * Returns the current journal.
+	 *
+	 * The field is read once, as the journal may be closed at any time.
+	 *
+	 * @return Current journal
+	 * @throws JournalNotLoadedException Thrown when no journal is currently loaded.
+	 */
+	private Journal getJournal() throws JournalNotLoadedException {
+		Journal currentJournal = journal;
+		if (currentJournal == null) throw new JournalNotLoadedException();
+		return currentJournal;
+	}
+
+	/**
+	 * Checks that a locked journal has not been closed or replaced before the
+	 * lock was acquired.
+	 *
+	 * @param lockedJournal Journal locked by the caller
+	 * @throws JournalNotLoadedException Thrown when the journal is no longer current.
+	 */
+	private void assertJournalIsCurrent(Journal lockedJournal) throws JournalNotLoadedException {
+		if (journal != lockedJournal) throw new JournalNotLoadedException();
 	}
 
 	public String getJournalName() throws JournalNotLoadedException {
-		assertJournalIsLoaded();
-		return journal.getName();
+		return getJournal().getName();
 	}
 	
 	public String getJournalOwner() throws JournalNotLoadedException {
-		assertJournalIsLoaded();
-		return journal.getOwner();
+		return getJournal().getOwner();
 	}
 }
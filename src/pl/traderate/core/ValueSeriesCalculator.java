@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.core;
+
+import pl.traderate.data.PriceHistory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes daily value series of all accounts and portfolios.
+ *
+ * <p>The series are computed in a single chronological sweep over the journal
+ * entries. Instead of replaying holdings, every account and portfolio keeps
+ * only its cash balance and equity quantities as primitive accumulators, so
+ * the cost is linear in the number of entries plus the number of days times
+ * the number of held tickers.</p>
+ *
+ * <p>Entries of a portfolio are also accumulated by all of its ancestors.
+ * Holdings are valued at the latest close known on or before each day, or at
+ * the latest transaction price if the price history has none.</p>
+ *
+ * <p>Returns are cumulative from the first day of the series, with flows
+ * assumed to happen at the end of each day. Time-weighted returns are chained
+ * from daily returns, money-weighted returns are approximated with the
+ * Modified Dietz method.</p>
+ */
+final class ValueSeriesCalculator {
+
+	/**
+	 * Number of decimal places of prices used internally, the same as of
+	 * market prices in holdings.
+	 */
+	private static final int PRICE_SCALE = FixedPoint.MAX_SCALE;
+
+	private final List<JournalEntry> entries;
+
+	/**
+	 * Epoch days of the entries.
+	 */
+	private final int[] entryDays;
+
+	private final HashMap<String, Integer> tickerIndices;
+
+	/**
+	 * Price history cursors by ticker index, <tt>null</tt> for tickers without history.
+	 */
+	private final PriceHistory.Cursor[] cursors;
+
+	/**
+	 * Prices used for the day being valued, by ticker index.
+	 */
+	private final long[] prices;
+
+	/**
+	 * Latest transaction prices by ticker index.
+	 */
+	private final long[] transactionPrices;
+
+	private final List<Account> accounts;
+
+	private final List<Portfolio> portfolios;
+
+	private final HashMap<Integer, Integer> accountIndices;
+
+	private final HashMap<Integer, Integer> portfolioIndices;
+
+	/**
+	 * Indices of each portfolio followed by indices of all of its ancestors.
+	 */
+	private final int[][] portfolioChains;
+
+	private Node[] accountNodes;
+
+	private Node[] portfolioNodes;
+
+	/**
+	 * Creates a calculator.
+	 *
+	 * @param accounts     All accounts
+	 * @param portfolios   All portfolios, parents before their children
+	 * @param entries      All entries in chronological order
+	 * @param priceHistory Source of closing prices, <tt>null</tt> to use transaction prices only
+	 */
+	ValueSeriesCalculator(List<Account> accounts, List<Portfolio> portfolios, List<JournalEntry> entries, PriceHistory priceHistory) {
+		this.accounts = accounts;
+		this.portfolios = portfolios;
+		this.entries = entries;
+
+		entryDays = new int[entries.size()];
+		tickerIndices = new HashMap<>();
+
+		for (int i = 0; i < entries.size(); ++i) {
+			JournalEntry entry = entries.get(i);
+			entryDays[i] = JournalBinaryFormat.toEpochDay(entry.date);
+
+			if (entry instanceof TransactionEntry && !tickerIndices.containsKey(((TransactionEntry) entry).ticker)) {
+				tickerIndices.put(((TransactionEntry) entry).ticker, tickerIndices.size());
+			}
+		}
+
+		cursors = new PriceHistory.Cursor[tickerIndices.size()];
+		prices = new long[tickerIndices.size()];
+		transactionPrices = new long[tickerIndices.size()];
+
+		if (priceHistory != null) {
+			for (Map.Entry<String, Integer> ticker : tickerIndices.entrySet()) {
+				cursors[ticker.getValue()] = priceHistory.getCursor(ticker.getKey());
+			}
+		}
+
+		accountIndices = new HashMap<>();
+		for (int i = 0; i < accounts.size(); ++i) {
+			accountIndices.put(accounts.get(i).getID(), i);
+		}
+
+		portfolioIndices = new HashMap<>();
+		portfolioChains = new int[portfolios.size()][];
+		for (int i = 0; i < portfolios.size(); ++i) {
+			Portfolio portfolio = portfolios.get(i);
+			portfolioIndices.put(portfolio.getID(), i);
+
+			int[] parentChain = portfolio.getParent() == null ? new int[0] : portfolioChains[portfolioIndices.get(portfolio.getParent().getID())];
+			int[] chain = new int[parentChain.length + 1];
+			chain[0] = i;
+			System.arraycopy(parentChain, 0, chain, 1, parentChain.length);
+			portfolioChains[i] = chain;
+		}
+	}
+
+	/**
+	 * Computes the series for a range of days.
+	 *
+	 * Entries dated before the first day only build up the initial state, they
+	 * are not reported as flows.
+	 *
+	 * @param fromEpochDay First day of the series
+	 * @param toEpochDay   Last day of the series
+	 * @return Series of all accounts and portfolios
+	 */
+	ValueSeriesDTO calculate(int fromEpochDay, int toEpochDay) {
+		int days = toEpochDay - fromEpochDay + 1;
+		ValueSeriesDTO valueSeries = new ValueSeriesDTO(fromEpochDay, days);
+
+		accountNodes = new Node[accounts.size()];
+		for (int i = 0; i < accountNodes.length; ++i) {
+			Account account = accounts.get(i);
+			accountNodes[i] = new Node(new ValueSeriesDTO.Series(account.getID(), account.getName(), days), prices.length);
+			valueSeries.accounts.put(account.getID(), accountNodes[i].series);
+		}
+
+		portfolioNodes = new Node[portfolios.size()];
+		for (int i = 0; i < portfolioNodes.length; ++i) {
+			Portfolio portfolio = portfolios.get(i);
+			portfolioNodes[i] = new Node(new ValueSeriesDTO.Series(portfolio.getID(), portfolio.getName(), days), prices.length);
+			valueSeries.portfolios.put(portfolio.getID(), portfolioNodes[i].series);
+		}
+
+		int nextEntry = 0;
+
+		for (int day = 0; day < days; ++day) {
+			int epochDay = fromEpochDay + day;
+
+			while (nextEntry < entries.size() && entryDays[nextEntry] <= epochDay) {
+				apply(entries.get(nextEntry), entryDays[nextEntry] >= fromEpochDay);
+				nextEntry++;
+			}
+
+			updatePrices(epochDay);
+
+			for (Node node : accountNodes) {
+				node.record(day, prices);
+			}
+
+			for (Node node : portfolioNodes) {
+				node.record(day, prices);
+			}
+		}
+
+		return valueSeries;
+	}
+
+	private void apply(JournalEntry entry, boolean isFlow) {
+		Node account = accountNodes[accountIndices.get(entry.account.getID())];
+
+		if (entry instanceof CashDepositEntry) {
+			account.addCash(FixedPoint.toMoney(((CashOperationEntry) entry).amount), isFlow);
+		} else if (entry instanceof CashWithdrawalEntry) {
+			account.addCash(-FixedPoint.toMoney(((CashOperationEntry) entry).amount), isFlow);
+		} else if (entry instanceof CashAllocationEntry) {
+			long amount = FixedPoint.toMoney(((CashReallocationEntry) entry).amount);
+			for (int portfolio : getPortfolioChain((PortfolioEntry) entry)) {
+				portfolioNodes[portfolio].addCash(amount, isFlow);
+			}
+		} else if (entry instanceof CashDeallocationEntry) {
+			long amount = FixedPoint.toMoney(((CashReallocationEntry) entry).amount);
+			for (int portfolio : getPortfolioChain((PortfolioEntry) entry)) {
+				portfolioNodes[portfolio].addCash(-amount, isFlow);
+			}
+		} else if (entry instanceof BuyEquityTransactionEntry) {
+			BuyEquityTransactionEntry buyEntry = (BuyEquityTransactionEntry) entry;
+			applyTransaction(account, buyEntry, buyEntry.quantity.longValue(), -FixedPoint.toMoney(buyEntry.getCashValue()));
+		} else if (entry instanceof SellEquityTransactionEntry) {
+			SellEquityTransactionEntry sellEntry = (SellEquityTransactionEntry) entry;
+			applyTransaction(account, sellEntry, -sellEntry.quantity.longValue(), FixedPoint.toMoney(sellEntry.getCashValue()));
+		}
+	}
+
+	private void applyTransaction(Node account, TransactionEntry entry, long quantity, long cash) {
+		int ticker = tickerIndices.get(entry.ticker);
+		transactionPrices[ticker] = FixedPoint.toUnscaled(entry.price, PRICE_SCALE);
+
+		account.addCash(cash, false);
+		account.addQuantity(ticker, quantity);
+
+		for (int portfolio : getPortfolioChain(entry)) {
+			portfolioNodes[portfolio].addCash(cash, false);
+			portfolioNodes[portfolio].addQuantity(ticker, quantity);
+		}
+	}
+
+	private int[] getPortfolioChain(PortfolioEntry entry) {
+		return portfolioChains[portfolioIndices.get(entry.portfolio.getID())];
+	}
+
+	private void updatePrices(int epochDay) {
+		for (int ticker = 0; ticker < prices.length; ++ticker) {
+			PriceHistory.Cursor cursor = cursors[ticker];
+
+			if (cursor != null && cursor.seek(epochDay)) {
+				int scale = cursor.getScale();
+				prices[ticker] = scale <= PRICE_SCALE ? FixedPoint.rescale(cursor.getUnscaledClose(), scale, PRICE_SCALE) : FixedPoint.round(cursor.getUnscaledClose(), scale, PRICE_SCALE);
+			} else {
+				prices[ticker] = transactionPrices[ticker];
+			}
+		}
+	}
+
+	/**
+	 * Incremental state of a single account or portfolio.
+	 */
+	private static final class Node {
+
+		final ValueSeriesDTO.Series series;
+
+		/**
+		 * Held quantities by ticker index.
+		 */
+		private final long[] quantities;
+
+		/**
+		 * Indices of all tickers ever held, so that valuation skips the rest.
+		 */
+		private int[] heldTickers;
+
+		private int heldTickerCount;
+
+		private final boolean[] isHeld;
+
+		private long cash;
+
+		/**
+		 * Net flow of the day being computed.
+		 */
+		private long flow;
+
+		private long previousValue;
+
+		private long startValue;
+
+		/**
+		 * Time-weighted growth factor since the first day.
+		 */
+		private double growth = 1;
+
+		/**
+		 * Sum of flows since the first day, excluding the first day.
+		 */
+		private long flowSum;
+
+		/**
+		 * Sum of flows weighted by their day indices.
+		 */
+		private long weightedFlowSum;
+
+		Node(ValueSeriesDTO.Series series, int tickerCount) {
+			this.series = series;
+			quantities = new long[tickerCount];
+			isHeld = new boolean[tickerCount];
+			heldTickers = new int[16];
+		}
+
+		void addCash(long amount, boolean isFlow) {
+			cash += amount;
+
+			if (isFlow) {
+				flow += amount;
+			}
+		}
+
+		void addQuantity(int ticker, long quantity) {
+			quantities[ticker] += quantity;
+
+			if (!isHeld[ticker]) {
+				isHeld[ticker] = true;
+
+				if (heldTickerCount == heldTickers.length) {
+					int[] newHeldTickers = new int[heldTickers.length * 2];
+					System.arraycopy(heldTickers, 0, newHeldTickers, 0, heldTickerCount);
+					heldTickers = newHeldTickers;
+				}
+
+				heldTickers[heldTickerCount++] = ticker;
+			}
+		}
+
+		/**
+		 * Values the node and stores the results of a day.
+		 *
+		 * @param day    Day index
+		 * @param prices Prices by ticker index
+		 */
+		void record(int day, long[] prices) {
+			long holdingsValue = 0;
+
+			for (int i = 0; i < heldTickerCount; ++i) {
+				int ticker = heldTickers[i];
+				holdingsValue += FixedPoint.multiply(quantities[ticker], prices[ticker]);
+			}
+
+			long value = cash + FixedPoint.round(holdingsValue, PRICE_SCALE, FixedPoint.MONEY_SCALE);
+
+			series.values[day] = value;
+			series.cash[day] = cash;
+			series.flows[day] = flow;
+
+			if (day == 0) {
+				startValue = value;
+			} else {
+				if (previousValue > 0) {
+					growth *= (double) (value - flow) / previousValue;
+				}
+
+				flowSum += flow;
+				weightedFlowSum += flow * day;
+
+				double averageCapital = startValue + (double) (day * flowSum - weightedFlowSum) / day;
+
+				series.timeWeightedReturns[day] = growth - 1;
+				series.moneyWeightedReturns[day] = averageCapital > 0 ? (value - startValue - flowSum) / averageCapital : 0;
+			}
+
+			previousValue = value;
+			flow = 0;
+		}
+	}
+}
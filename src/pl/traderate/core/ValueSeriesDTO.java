@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package pl.traderate.core;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.LinkedHashMap;
+
+/**
+ * A DTO with daily value series of all accounts and portfolios.
+ *
+ * Amounts are stored in cents. Both values and cash balances are taken at the
+ * end of each day, flows are net external cash flows of the day, i.e.
+ * deposits less withdrawals for accounts and allocations less deallocations
+ * for portfolios.
+ */
+public class ValueSeriesDTO {
+
+	/**
+	 * Date of the first day in the series.
+	 */
+	public final Date startDate;
+
+	/**
+	 * Number of days in each series.
+	 */
+	public final int days;
+
+	/**
+	 * Account series keyed by account ID.
+	 */
+	public final LinkedHashMap<Integer, Series> accounts = new LinkedHashMap<>();
+
+	/**
+	 * Portfolio series keyed by portfolio ID, descendant holdings included.
+	 */
+	public final LinkedHashMap<Integer, Series> portfolios = new LinkedHashMap<>();
+
+	private final int startEpochDay;
+
+	ValueSeriesDTO(int startEpochDay, int days) {
+		this.startEpochDay = startEpochDay;
+		this.startDate = JournalBinaryFormat.fromEpochDay(startEpochDay);
+		this.days = days;
+	}
+
+	/**
+	 * Returns the date of a day in the series.
+	 *
+	 * @param day Day index
+	 * @return Sanitized journal date
+	 */
+	public Date getDate(int day) {
+		return JournalBinaryFormat.fromEpochDay(startEpochDay + day);
+	}
+
+	/**
+	 * Daily series of a single account or portfolio.
+	 */
+	public static class Series {
+
+		public final int ID;
+
+		public final String name;
+
+		final long[] values;
+
+		final long[] cash;
+
+		final long[] flows;
+
+		final double[] timeWeightedReturns;
+
+		final double[] moneyWeightedReturns;
+
+		Series(int ID, String name, int days) {
+			this.ID = ID;
+			this.name = name;
+			values = new long[days];
+			cash = new long[days];
+			flows = new long[days];
+			timeWeightedReturns = new double[days];
+			moneyWeightedReturns = new double[days];
+		}
+
+		/**
+		 * Returns the value of cash and holdings at the end of a day.
+		 *
+		 * @param day Day index
+		 * @return Total value
+		 */
+		public BigDecimal getValue(int day) {
+			return BigDecimal.valueOf(values[day], 2);
+		}
+
+		public BigDecimal getCash(int day) {
+			return BigDecimal.valueOf(cash[day], 2);
+		}
+
+		public BigDecimal getFlow(int day) {
+			return BigDecimal.valueOf(flows[day], 2);
+		}
+
+		/**
+		 * Returns the time-weighted return from the start of the series.
+		 *
+		 * @param day Day index
+		 * @return Cumulative return, e.g. 0.05 for 5%
+		 */
+		public double getTimeWeightedReturn(int day) {
+			return timeWeightedReturns[day];
+		}
+
+		/**
+		 * Returns the money-weighted return from the start of the series.
+		 *
+		 * The return is approximated with the Modified Dietz method.
+		 *
+		 * @param day Day index
+		 * @return Cumulative return, e.g. 0.05 for 5%
+		 */
+		public double getMoneyWeightedReturn(int day) {
+			return moneyWeightedReturns[day];
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
@@ -40,4 +40,23 @@ public class GenericModelEvent extends EventObject {
 		listener.handleModelEvent(this);
 	}
 
+	/**
+	 * Combines this event with an earlier one still waiting for delivery.
+	 *
+	 * @param pendingEvent Earlier undelivered event
+	 * @return Event delivered in place of both, <tt>null</tt> if both have to be delivered
+	 */
+	public GenericModelEvent coalesce(GenericModelEvent pendingEvent) {
+		return null;
+	}
+
+	/**
+	 * Checks if later events may be coalesced with events pending before this one.
+	 *
+	 * @return True if later events must not be coalesced across this one
+	 */
+	public boolean isCoalescingBarrier() {
+		return true;
+	}
+
 }
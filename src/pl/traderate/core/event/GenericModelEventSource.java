@@ -21,26 +21,196 @@
 package pl.traderate.core.event;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An abstract model event generating object.
+ *
+ * <p>Events are queued separately for each listener and delivered
+ * asynchronously, so publishers never wait for listeners. Delivery is
+ * postponed by {@link #COALESCING_WINDOW} after the first undelivered event,
+ * and redundant events of a burst are coalesced, see {@link
+ * GenericModelEvent#coalesce(GenericModelEvent)}.</p>
+ *
+ * <p>A listener may be registered with an executor, e.g. one running tasks on
+ * the Swing event dispatch thread, which has to run tasks in submission
+ * order. Other listeners are notified on a shared dispatcher thread.</p>
  */
 public abstract class GenericModelEventSource {
 
-	private List<GenericModelEventListener> eventListeners = new ArrayList<GenericModelEventListener>();
+	/**
+	 * Time in milliseconds for which delivery is postponed to gather a burst of events.
+	 */
+	public static final long COALESCING_WINDOW = 16;
+
+	/**
+	 * Thread scheduling deliveries and notifying listeners without an executor.
+	 */
+	private static final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Model event dispatcher");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final CopyOnWriteArrayList<ListenerQueue> listenerQueues = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Registers a listener notified on the shared dispatcher thread.
+	 *
+	 * @param listener Event listener
+	 */
+	public void addEventListener(GenericModelEventListener listener) {
+		addEventListener(listener, null);
+	}
+
+	/**
+	 * Registers a listener notified with a given executor.
+	 *
+	 * @param listener Event listener
+	 * @param executor Executor running deliveries in submission order, <tt>null</tt> for the dispatcher thread
+	 */
+	public void addEventListener(GenericModelEventListener listener, Executor executor) {
+		listenerQueues.add(new ListenerQueue(listener, executor));
+	}
 
-	public synchronized void addEventListener(GenericModelEventListener listener) {
-		eventListeners.add(listener);
+	/**
+	 * Unregisters a listener.
+	 *
+	 * Events not yet delivered to the listener are discarded.
+	 *
+	 * @param listener Event listener
+	 */
+	public void removeEventListener(GenericModelEventListener listener) {
+		for (ListenerQueue listenerQueue : listenerQueues) {
+			if (listenerQueue.listener.equals(listener)) {
+				listenerQueue.close();
+				listenerQueues.remove(listenerQueue);
+				break;
+			}
+		}
 	}
 
-	public synchronized void removeEventListener(GenericModelEventListener listener) {
-		eventListeners.remove(listener);
+	protected void fireEvent(GenericModelEvent event) {
+		for (ListenerQueue listenerQueue : listenerQueues) {
+			listenerQueue.add(event);
+		}
 	}
 
-	protected synchronized void fireEvent(GenericModelEvent event) {
-		for (GenericModelEventListener eventListener : eventListeners) {
-			eventListener.visitModelEvent(event);
+	/**
+	 * Undelivered events of a single listener.
+	 */
+	private static final class ListenerQueue {
+
+		private final GenericModelEventListener listener;
+
+		private final Executor executor;
+
+		/**
+		 * Coalesced events in delivery order.
+		 */
+		private final ArrayList<GenericModelEvent> pendingEvents = new ArrayList<>();
+
+		/**
+		 * True if a delivery of pending events has been scheduled, but not started yet.
+		 */
+		private boolean deliveryScheduled;
+
+		/**
+		 * True once the listener has been removed.
+		 */
+		private boolean closed;
+
+		private final Runnable delivery = new Runnable() {
+			@Override
+			public void run() {
+				deliver();
+			}
+		};
+
+		private final Runnable dispatch = new Runnable() {
+			@Override
+			public void run() {
+				if (executor == null) {
+					deliver();
+				} else {
+					executor.execute(delivery);
+				}
+			}
+		};
+
+		ListenerQueue(GenericModelEventListener listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
+		}
+
+		/**
+		 * Queues an event, coalescing it with pending ones.
+		 *
+		 * Pending events are scanned backwards up to the first barrier which
+		 * could not be coalesced.
+		 *
+		 * @param event Published event
+		 */
+		synchronized void add(GenericModelEvent event) {
+			if (closed) {
+				return;
+			}
+
+			for (int i = pendingEvents.size() - 1; i >= 0; --i) {
+				GenericModelEvent pendingEvent = pendingEvents.get(i);
+				GenericModelEvent coalescedEvent = event.coalesce(pendingEvent);
+
+				if (coalescedEvent != null) {
+					pendingEvents.remove(i);
+					event = coalescedEvent;
+				} else if (pendingEvent.isCoalescingBarrier()) {
+					break;
+				}
+			}
+
+			pendingEvents.add(event);
+
+			if (!deliveryScheduled) {
+				deliveryScheduled = true;
+				dispatcher.schedule(dispatch, COALESCING_WINDOW, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		synchronized void close() {
+			closed = true;
+			pendingEvents.clear();
+		}
+
+		/**
+		 * Notifies the listener of all pending events.
+		 *
+		 * Events published meanwhile are coalesced up to the moment the delivery
+		 * actually starts, e.g. while the event dispatch thread is busy.
+		 */
+		private void deliver() {
+			ArrayList<GenericModelEvent> events;
+
+			synchronized (this) {
+				deliveryScheduled = false;
+				events = new ArrayList<>(pendingEvents);
+				pendingEvents.clear();
+			}
+
+			for (GenericModelEvent event : events) {
+				try {
+					listener.visitModelEvent(event);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
 		}
 	}
 }
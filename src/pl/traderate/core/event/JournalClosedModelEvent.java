@@ -36,4 +36,14 @@ public class JournalClosedModelEvent extends GenericModelEvent {
 	public void accept(GenericModelEventListener listener) {
 		listener.handleModelEvent(this);
 	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * A closed journal replaces the model, so pending updates are dropped.
+	 */
+	@Override
+	public GenericModelEvent coalesce(GenericModelEvent pendingEvent) {
+		return pendingEvent.isCoalescingBarrier() ? null : this;
+	}
 }
@@ -25,8 +25,45 @@ package pl.traderate.core.event;
  */
 public class JournalOpenedModelEvent extends GenericModelEvent {
 
+	/**
+	 * Number of entries loaded from the journal file.
+	 */
+	private final int loadedEntries;
+
+	/**
+	 * Time spent loading the journal file in nanoseconds.
+	 */
+	private final long loadDuration;
+
 	public JournalOpenedModelEvent(Object source) {
+		this(source, 0, 0);
+	}
+
+	public JournalOpenedModelEvent(Object source, int loadedEntries, long loadDuration) {
 		super(source);
+		this.loadedEntries = loadedEntries;
+		this.loadDuration = loadDuration;
+	}
+
+	public int getLoadedEntries() {
+		return loadedEntries;
+	}
+
+	public long getLoadDuration() {
+		return loadDuration;
+	}
+
+	/**
+	 * Returns the load throughput.
+	 *
+	 * @return Number of entries loaded per second, 0 if unknown
+	 */
+	public double getEntriesPerSecond() {
+		if (loadDuration <= 0) {
+			return 0;
+		}
+
+		return loadedEntries * 1e9 / loadDuration;
 	}
 
 	/**
@@ -36,4 +73,14 @@ public class JournalOpenedModelEvent extends GenericModelEvent {
 	public void accept(GenericModelEventListener listener) {
 		listener.handleModelEvent(this);
 	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * An opened journal replaces the model, so pending updates are dropped.
+	 */
+	@Override
+	public GenericModelEvent coalesce(GenericModelEvent pendingEvent) {
+		return pendingEvent.isCoalescingBarrier() ? null : this;
+	}
 }
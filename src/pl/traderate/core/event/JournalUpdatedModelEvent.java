@@ -36,4 +36,24 @@ public class JournalUpdatedModelEvent extends GenericModelEvent {
 	public void accept(GenericModelEventListener listener) {
 		listener.handleModelEvent(this);
 	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Listeners reload the whole journal anyway, so earlier journal and quote
+	 * updates are redundant.
+	 */
+	@Override
+	public GenericModelEvent coalesce(GenericModelEvent pendingEvent) {
+		if (pendingEvent instanceof JournalUpdatedModelEvent || pendingEvent instanceof QuoteUpdatedModelEvent) {
+			return this;
+		}
+
+		return null;
+	}
+
+	@Override
+	public boolean isCoalescingBarrier() {
+		return false;
+	}
 }
@@ -36,4 +36,14 @@ public class NodesUpdatedModelEvent extends GenericModelEvent {
 	public void accept(GenericModelEventListener listener) {
 		listener.handleModelEvent(this);
 	}
+
+	@Override
+	public GenericModelEvent coalesce(GenericModelEvent pendingEvent) {
+		return pendingEvent instanceof NodesUpdatedModelEvent ? this : null;
+	}
+
+	@Override
+	public boolean isCoalescingBarrier() {
+		return false;
+	}
 }
@@ -20,13 +20,67 @@
 
 package pl.traderate.core.event;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * A model event fired when price quotes are updated.
  */
 public class QuoteUpdatedModelEvent extends GenericModelEvent {
 
+	/**
+	 * Tickers with updated prices, <tt>null</tt> if all prices were updated.
+	 */
+	private final Set<String> tickers;
+
+	/**
+	 * Creates an event reporting an update of all prices.
+	 *
+	 * @param source Event source
+	 */
 	public QuoteUpdatedModelEvent(Object source) {
 		super(source);
+		tickers = null;
+	}
+
+	/**
+	 * Creates an event reporting updated prices of selected instruments.
+	 *
+	 * @param source  Event source
+	 * @param tickers Tickers with updated prices
+	 */
+	public QuoteUpdatedModelEvent(Object source, Set<String> tickers) {
+		super(source);
+		this.tickers = Collections.unmodifiableSet(tickers);
+	}
+
+	/**
+	 * Checks if all prices were updated.
+	 *
+	 * @return True if every price may have changed
+	 */
+	public boolean isCompleteUpdate() {
+		return tickers == null;
+	}
+
+	/**
+	 * Returns tickers with updated prices.
+	 *
+	 * @return Updated tickers, <tt>null</tt> if all prices were updated
+	 */
+	public Set<String> getTickers() {
+		return tickers;
+	}
+
+	/**
+	 * Checks if a price of a given instrument was updated.
+	 *
+	 * @param ticker Instrument ticker
+	 * @return True if the price was updated
+	 */
+	public boolean isUpdated(String ticker) {
+		return tickers == null || tickers.contains(ticker);
 	}
 
 	/**
@@ -36,4 +90,36 @@ public class QuoteUpdatedModelEvent extends GenericModelEvent {
 	public void accept(GenericModelEventListener listener) {
 		listener.handleModelEvent(this);
 	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Quote updates are merged into a single update of all their tickers. A
+	 * pending journal update already covers all prices.
+	 */
+	@Override
+	public GenericModelEvent coalesce(GenericModelEvent pendingEvent) {
+		if (pendingEvent instanceof JournalUpdatedModelEvent) {
+			return pendingEvent;
+		}
+
+		if (pendingEvent instanceof QuoteUpdatedModelEvent) {
+			QuoteUpdatedModelEvent pendingQuoteEvent = (QuoteUpdatedModelEvent) pendingEvent;
+
+			if (isCompleteUpdate() || pendingQuoteEvent.isCompleteUpdate()) {
+				return new QuoteUpdatedModelEvent(getSource());
+			}
+
+			HashSet<String> mergedTickers = new HashSet<>(pendingQuoteEvent.tickers);
+			mergedTickers.addAll(tickers);
+			return new QuoteUpdatedModelEvent(getSource(), mergedTickers);
+		}
+
+		return null;
+	}
+
+	@Override
+	public boolean isCoalescingBarrier() {
+		return false;
+	}
 }
@@ -20,15 +20,48 @@
 
 package pl.traderate.data;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A generic implementation of a caching quote engine.
+ *
+ * <p>The engine may be used from multiple threads. Cached quotes are kept in
+ * a bounded map, the least recently used ones are evicted first. Concurrent
+ * requests for the same ticker share a single request to the {@link
+ * QuoteProvider}.</p>
+ *
+ * <p>Successful and failed requests are cached for different periods. When a
+ * cached quote expires, the last known price is still returned immediately
+ * and a new quote is requested in the background. A failed request never
+ * replaces the last known price.</p>
+ *
+ * <p>Received quotes may be kept in a {@link QuoteStore}. The cache is warmed
+ * with the stored quotes, which are treated as expired.</p>
+ *
+ * <p>Whenever a received price differs from the cached one, registered
+ * {@link QuoteListener}s are notified in the background. Changes received
+ * before a pending notification is delivered are merged into it.</p>
  */
 class CachingQuoteEngine implements QuoteEngineInterface {
 
@@ -37,10 +70,110 @@ class CachingQuoteEngine implements QuoteEngineInterface {
 	 */
 	private long cachingNanoTime = 1000000000L * 30;
 
-	private HashMap<String, Quote> quotes;
+	/**
+	 * Caching time of failed requests in nanoseconds.
+	 */
+	private long errorCachingNanoTime = 1000000000L * 5;
+
+	/**
+	 * Default maximum number of cached quotes.
+	 */
+	static final int DEFAULT_CACHE_SIZE = 1024;
+
+	/**
+	 * Maximum number of quote requests running at the same time.
+	 */
+	private static final int MAX_CONCURRENT_REQUESTS = 8;
+
+	/**
+	 * Time limit of a bulk request in milliseconds.
+	 */
+	private static final long BULK_REQUEST_TIMEOUT = 15000;
+
+	/**
+	 * Source of quotes.
+	 */
+	private volatile QuoteProvider provider = new HttpQuoteProvider();
+
+	/**
+	 * Cached quotes in access order.
+	 *
+	 * Also guards {@link #requests}, {@link #cacheSize} and all statistics.
+	 */
+	private final LinkedHashMap<String, CachedQuote> quotes;
+
+	/**
+	 * Quote requests in progress.
+	 */
+	private final HashMap<String, QuoteRequest> requests;
+
+	/**
+	 * Maximum number of cached quotes.
+	 */
+	private int cacheSize = DEFAULT_CACHE_SIZE;
+
+	/**
+	 * Listeners notified about price changes.
+	 */
+	private final CopyOnWriteArrayList<QuoteListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Tickers with changed prices, not yet reported to listeners.
+	 */
+	private final LinkedHashSet<String> changedTickers = new LinkedHashSet<>();
+
+	/**
+	 * True if a notification of listeners is already waiting for execution.
+	 */
+	private boolean notificationScheduled;
+
+	/**
+	 * Persistent store of received quotes, <tt>null</tt> if not used.
+	 */
+	private volatile QuoteStore quoteStore;
+
+	private long hits;
+
+	private long misses;
+
+	private long staleHits;
+
+	private long failures;
+
+	private long loads;
+
+	private long evictions;
+
+	private long totalLoadTime;
+
+	/**
+	 * Executor of bulk quote requests.
+	 */
+	private ThreadPoolExecutor executor;
 
 	CachingQuoteEngine() {
-		quotes = new HashMap<>();
+		quotes = new LinkedHashMap<String, CachedQuote>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedQuote> eldest) {
+				if (size() > cacheSize) {
+					evictions++;
+					return true;
+				}
+
+				return false;
+			}
+		};
+		requests = new HashMap<>();
+
+		executor = new ThreadPoolExecutor(MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Quote request");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
 	}
 
 	/**
@@ -48,51 +181,487 @@ class CachingQuoteEngine implements QuoteEngineInterface {
 	 */
 	@Override
 	public BigDecimal getLast(String ticker) {
-		Quote quote = quotes.get(ticker);
-		
-		if (quote == null || System.nanoTime() - quote.expirationTime > 0) {
-			quote = new Quote(fetchQuote(ticker), System.nanoTime() + cachingNanoTime);
-			quotes.put(ticker, quote);
+		return getQuote(ticker).lastPrice;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * A missing quote is requested in the calling thread, unless another
+	 * thread is already requesting it.
+	 */
+	@Override
+	public Quote getQuote(String ticker) {
+		QuoteRequest request;
+		boolean newRequest = false;
+
+		synchronized (quotes) {
+			Quote quote = getCachedQuote(ticker);
+
+			if (quote != null) {
+				return quote;
+			}
+
+			request = requests.get(ticker);
+
+			if (request == null) {
+				request = new QuoteRequest(ticker);
+				requests.put(ticker, request);
+				newRequest = true;
+			}
+		}
+
+		if (newRequest) {
+			request.run();
+		}
+
+		return awaitQuote(request, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BULK_REQUEST_TIMEOUT));
+	}
+
+	/**
+	 * Returns a cached quote without waiting for a request.
+	 *
+	 * A missing quote is requested in the background and reported to listeners
+	 * once received, so that callers holding locks never wait for the network.
+	 *
+	 * @param ticker Instrument ticker
+	 * @return Cached quote, an unavailable quote if there is none yet
+	 */
+	public Quote peekQuote(String ticker) {
+		synchronized (quotes) {
+			Quote quote = getCachedQuote(ticker);
+
+			if (quote != null) {
+				return quote;
+			}
+
+			if (!requests.containsKey(ticker)) {
+				QuoteRequest request = new QuoteRequest(ticker);
+				requests.put(ticker, request);
+				executor.execute(request);
+			}
+		}
+
+		return Quote.UNAVAILABLE;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Quotes missing from the cache are requested concurrently. Quotes which
+	 * are not received within the time limit are reported as unavailable,
+	 * their requests are completed in the background.
+	 */
+	@Override
+	public Map<String, BigDecimal> getLast(Collection<String> tickers) {
+		HashMap<String, BigDecimal> prices = new HashMap<>();
+		HashMap<String, QuoteRequest> pendingRequests = new HashMap<>();
+
+		synchronized (quotes) {
+			for (String ticker : tickers) {
+				if (prices.containsKey(ticker) || pendingRequests.containsKey(ticker)) {
+					continue;
+				}
+
+				Quote quote = getCachedQuote(ticker);
+
+				if (quote != null) {
+					prices.put(ticker, quote.lastPrice);
+					continue;
+				}
+
+				QuoteRequest request = requests.get(ticker);
+
+				if (request == null) {
+					request = new QuoteRequest(ticker);
+					requests.put(ticker, request);
+					executor.execute(request);
+				}
+
+				pendingRequests.put(ticker, request);
+			}
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BULK_REQUEST_TIMEOUT);
+
+		for (Map.Entry<String, QuoteRequest> request : pendingRequests.entrySet()) {
+			prices.put(request.getKey(), awaitQuote(request.getValue(), deadline).lastPrice);
+		}
+
+		return prices;
+	}
+
+	/**
+	 * Sets the maximum number of cached quotes.
+	 *
+	 * The least recently used quotes are evicted if the cache is too large.
+	 *
+	 * @param cacheSize Maximum number of cached quotes
+	 */
+	public void setCacheSize(int cacheSize) {
+		if (cacheSize < 1) {
+			throw new IllegalArgumentException();
+		}
+
+		synchronized (quotes) {
+			this.cacheSize = cacheSize;
+
+			while (quotes.size() > cacheSize) {
+				quotes.remove(quotes.keySet().iterator().next());
+				evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Registers a listener notified about price changes.
+	 *
+	 * @param listener Quote listener
+	 */
+	public void addQuoteListener(QuoteListener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	/**
+	 * Unregisters a listener.
+	 *
+	 * @param listener Quote listener
+	 */
+	public void removeQuoteListener(QuoteListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Sets the source of quotes.
+	 *
+	 * All cached quotes are removed, requests in progress are completed with
+	 * the previous provider.
+	 *
+	 * @param provider Quote provider
+	 */
+	public void setProvider(QuoteProvider provider) {
+		if (provider == null) {
+			throw new IllegalArgumentException();
+		}
+
+		this.provider = provider;
+		clearCache();
+	}
+
+	/**
+	 * Returns the source of quotes.
+	 *
+	 * @return Quote provider
+	 */
+	public QuoteProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * Starts keeping received quotes in a file and warms the cache with quotes
+	 * stored there before.
+	 *
+	 * Stored quotes are served immediately, new quotes are requested in the
+	 * background on first use.
+	 *
+	 * @param file Quote store file, <tt>null</tt> to stop storing quotes
+	 * @return True if the store was opened
+	 */
+	public boolean setQuoteStore(File file) {
+		QuoteStore previousStore = quoteStore;
+		quoteStore = null;
+
+		if (previousStore != null) {
+			previousStore.close();
+		}
+
+		if (file == null) {
+			return false;
+		}
+
+		LinkedHashMap<String, Quote> storedQuotes = new LinkedHashMap<>();
+
+		try {
+			File directory = file.getAbsoluteFile().getParentFile();
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				return false;
+			}
+
+			quoteStore = QuoteStore.open(file, storedQuotes);
+		} catch (IOException e) {
+			return false;
+		}
+
+		synchronized (quotes) {
+			long expirationTime = System.nanoTime() - 1;
+
+			for (Map.Entry<String, Quote> quote : storedQuotes.entrySet()) {
+				if (!quotes.containsKey(quote.getKey())) {
+					quotes.put(quote.getKey(), new CachedQuote(quote.getValue(), expirationTime));
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Waits for all quote requests in progress, including background ones.
+	 *
+	 * @return True if any requests were in progress
+	 */
+	public boolean awaitRequests() {
+		ArrayList<QuoteRequest> pendingRequests;
+
+		synchronized (quotes) {
+			pendingRequests = new ArrayList<>(requests.values());
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BULK_REQUEST_TIMEOUT);
+
+		for (QuoteRequest request : pendingRequests) {
+			awaitQuote(request, deadline);
+		}
+
+		return !pendingRequests.isEmpty();
+	}
+
+	/**
+	 * Removes all cached quotes.
+	 *
+	 * Requests in progress are not affected.
+	 */
+	public void clearCache() {
+		synchronized (quotes) {
+			quotes.clear();
+		}
+	}
+
+	/**
+	 * Returns cache usage statistics gathered since the engine was created.
+	 *
+	 * @return Statistics snapshot
+	 */
+	public QuoteCacheStatistics getStatistics() {
+		synchronized (quotes) {
+			return new QuoteCacheStatistics(quotes.size(), cacheSize, hits, staleHits, misses, loads, failures, evictions, totalLoadTime);
+		}
+	}
+
+	/**
+	 * Looks up a cached quote and updates statistics.
+	 *
+	 * An expired quote with a known price is returned as well, a new quote is
+	 * then requested in the background. Must be called with the cache lock
+	 * held.
+	 *
+	 * @param ticker Instrument ticker
+	 * @return Cached quote, <tt>null</tt> if it has to be awaited
+	 */
+	private Quote getCachedQuote(String ticker) {
+		CachedQuote cachedQuote = quotes.get(ticker);
+
+		if (cachedQuote == null) {
+			misses++;
+			return null;
+		}
+
+		if (System.nanoTime() - cachedQuote.expirationTime <= 0) {
+			hits++;
+			return cachedQuote.quote;
+		}
+
+		if (cachedQuote.quote.lastPrice == null) {
+			misses++;
+			return null;
+		}
+
+		staleHits++;
+
+		if (!requests.containsKey(ticker)) {
+			QuoteRequest request = new QuoteRequest(ticker);
+			requests.put(ticker, request);
+			executor.execute(request);
+		}
+
+		return cachedQuote.quote;
+	}
+
+	/**
+	 * Waits for a quote request to complete.
+	 *
+	 * @param request  Quote request
+	 * @param deadline Time limit as returned by {@link System#nanoTime()}
+	 * @return Received quote, or the last known one if the request failed
+	 */
+	private Quote awaitQuote(Future<Quote> request, long deadline) {
+		try {
+			return request.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Quote.UNAVAILABLE;
+		} catch (ExecutionException | TimeoutException e) {
+			return Quote.UNAVAILABLE;
 		}
-		
-		return quote.lastPrice;
 	}
 
 	/**
 	 * Gets a live quote for a given ticker.
 	 *
 	 * @param ticker Instrument ticker
-	 * @return Current price of instrument
+	 * @return Current price of instrument, <tt>null</tt> if unavailable
 	 */
 	private BigDecimal fetchQuote(String ticker) {
 		try {
-			URL feed;
-			feed = new URL("http://api.traderate.pl/get/equity/" + ticker + "/close");
+			return provider.fetchLast(ticker);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reports a price change to listeners, merging it with pending changes.
+	 *
+	 * Must be called with the cache lock held.
+	 *
+	 * @param ticker Instrument ticker
+	 * @return True if a notification has to be scheduled
+	 */
+	private boolean addChangedTicker(String ticker) {
+		if (listeners.isEmpty()) {
+			return false;
+		}
 
-			URLConnection connection;
-			connection = feed.openConnection();
+		changedTickers.add(ticker);
 
-			BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-			String line = in.readLine();
-			in.close();
+		if (notificationScheduled) {
+			return false;
+		}
+
+		notificationScheduled = true;
+		return true;
+	}
 
-			if (line == null) {
-				return null;
+	/**
+	 * Schedules delivery of pending price changes on the request executor.
+	 */
+	private void scheduleNotification() {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				notifyListeners();
 			}
+		});
+	}
 
-			return new BigDecimal(line);
-		} catch (Throwable e) {
-			return null;
+	/**
+	 * Delivers all pending price changes to listeners.
+	 */
+	private void notifyListeners() {
+		Set<String> tickers;
+
+		synchronized (quotes) {
+			tickers = Collections.unmodifiableSet(new LinkedHashSet<>(changedTickers));
+			changedTickers.clear();
+			notificationScheduled = false;
+		}
+
+		for (QuoteListener listener : listeners) {
+			try {
+				listener.quotesChanged(tickers);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 
-	private class Quote {
+	/**
+	 * A single quote request, shared by all threads waiting for its quote.
+	 *
+	 * The received quote is cached before the request completes.
+	 */
+	private class QuoteRequest extends FutureTask<Quote> {
+
+		final String ticker;
+
+		QuoteRequest(final String ticker) {
+			super(new Callable<Quote>() {
+				@Override
+				public Quote call() {
+					long start = System.nanoTime();
+					BigDecimal lastPrice = fetchQuote(ticker);
+					long end = System.nanoTime();
+
+					CachedQuote cachedQuote;
+					boolean notificationRequired = false;
+
+					synchronized (quotes) {
+						CachedQuote previousQuote = quotes.get(ticker);
+
+						if (lastPrice != null) {
+							cachedQuote = new CachedQuote(new Quote(lastPrice, new Date()), end + cachingNanoTime);
+
+							if (previousQuote == null || previousQuote.quote.lastPrice == null || previousQuote.quote.lastPrice.compareTo(lastPrice) != 0) {
+								notificationRequired = addChangedTicker(ticker);
+							}
+						} else {
+							cachedQuote = new CachedQuote(previousQuote == null ? Quote.UNAVAILABLE : previousQuote.quote, end + errorCachingNanoTime);
+							failures++;
+						}
+
+						quotes.put(ticker, cachedQuote);
+						loads++;
+						totalLoadTime += end - start;
+					}
+
+					QuoteStore store = quoteStore;
+					if (store != null && lastPrice != null) {
+						store.append(ticker, cachedQuote.quote);
+					}
+
+					if (notificationRequired) {
+						scheduleNotification();
+					}
+
+					return cachedQuote.quote;
+				}
+			});
+
+			this.ticker = ticker;
+		}
+
+		/**
+		 * Unregisters the request before waiting threads are released, so that
+		 * a stale quote is requested again as soon as the request is awaited.
+		 */
+		@Override
+		protected void set(Quote quote) {
+			unregister();
+			super.set(quote);
+		}
+
+		@Override
+		protected void done() {
+			unregister();
+		}
+
+		private void unregister() {
+			synchronized (quotes) {
+				if (requests.get(ticker) == this) {
+					requests.remove(ticker);
+				}
+			}
+		}
+	}
+
+	private class CachedQuote {
+
+		final Quote quote;
+
+		final long expirationTime;
 
-		long expirationTime;
-		BigDecimal lastPrice;
-		
-		Quote(BigDecimal lastPrice, long expirationTime) {
-			this.lastPrice = lastPrice;
+		CachedQuote(Quote quote, long expirationTime) {
+			this.quote = quote;
 			this.expirationTime = expirationTime;
 		}
 	}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package pl.traderate.data;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A provider asking a list of providers in order, until one of them knows the price.
+ *
+ * A failing provider is skipped. The last failure is reported only if no
+ * provider returned a price.
+ */
+public class CompositeQuoteProvider implements QuoteProvider {
+
+	private final List<QuoteProvider> providers;
+
+	/**
+	 * @param providers Providers in the order of preference
+	 */
+	public CompositeQuoteProvider(QuoteProvider... providers) {
+		this(Arrays.asList(providers));
+	}
+
+	/**
+	 * @param providers Providers in the order of preference
+	 */
+	public CompositeQuoteProvider(List<QuoteProvider> providers) {
+		this.providers = Collections.unmodifiableList(new ArrayList<>(providers));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public BigDecimal fetchLast(String ticker) throws IOException {
+		IOException failure = null;
+
+		for (QuoteProvider provider : providers) {
+			try {
+				BigDecimal lastPrice = provider.fetchLast(ticker);
+
+				if (lastPrice != null) {
+					return lastPrice;
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the providers in the order of preference.
+	 *
+	 * @return Unmodifiable list of providers
+	 */
+	public List<QuoteProvider> getProviders() {
+		return providers;
+	}
+}
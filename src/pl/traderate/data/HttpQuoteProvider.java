@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package pl.traderate.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+
+/**
+ * A provider requesting quotes from an HTTP feed.
+ *
+ * The feed answers with the price as the first line of the response body.
+ */
+public class HttpQuoteProvider implements QuoteProvider {
+
+	/**
+	 * Address of the default quote feed.
+	 */
+	public static final String DEFAULT_FEED_ADDRESS = "http://api.traderate.pl/get/equity/%s/close";
+
+	/**
+	 * Connection and read timeout of a single request in milliseconds.
+	 */
+	private static final int REQUEST_TIMEOUT = 5000;
+
+	/**
+	 * Address of the quote feed, <tt>%s</tt> is replaced with the ticker.
+	 */
+	private final String feedAddress;
+
+	public HttpQuoteProvider() {
+		this(DEFAULT_FEED_ADDRESS);
+	}
+
+	/**
+	 * @param feedAddress Address of the quote feed, <tt>%s</tt> is replaced with the ticker
+	 */
+	public HttpQuoteProvider(String feedAddress) {
+		this.feedAddress = feedAddress;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public BigDecimal fetchLast(String ticker) throws IOException {
+		URLConnection connection = new URL(String.format(feedAddress, ticker)).openConnection();
+		connection.setConnectTimeout(REQUEST_TIMEOUT);
+		connection.setReadTimeout(REQUEST_TIMEOUT);
+
+		if (connection instanceof HttpURLConnection && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+			return null;
+		}
+
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), Charset.forName("UTF-8")))) {
+			String line = in.readLine();
+
+			if (line == null) {
+				return null;
+			}
+
+			try {
+				return new BigDecimal(line.trim());
+			} catch (NumberFormatException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return feedAddress;
+	}
+}
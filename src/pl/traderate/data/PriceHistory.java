@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package pl.traderate.data;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Daily closing prices of multiple instruments.
+ *
+ * <p>Prices are stored in columns: for every ticker a sorted array of epoch
+ * days (days since 1970-01-01) and an array of unscaled closing prices sharing
+ * a single scale. Lookups are binary searches over the primitive arrays, no
+ * objects are created until a price is returned.</p>
+ *
+ * <p>A history is read from a text file or memory-mapped from a binary one.
+ * Each line of a text file holds a ticker, a date in <tt>yyyy-MM-dd</tt>
+ * format and a closing price, separated with commas. Empty lines and lines
+ * starting with <tt>#</tt> are skipped. A binary file, as written by {@link
+ * #write(File)}, starts with the {@link #MAGIC} signature followed by the
+ * format version and the number of tickers. A directory follows, holding the
+ * name, price scale, number of prices and data offset of every ticker. The
+ * data of a ticker is an array of epoch days followed by an array of unscaled
+ * closes. All values are big-endian.</p>
+ */
+public final class PriceHistory {
+
+	/**
+	 * File signature of binary price histories, "TRPH" in ASCII.
+	 */
+	public static final int MAGIC = 0x54525048;
+
+	private static final short VERSION = 1;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final long MILLISECONDS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private final HashMap<String, Series> series;
+
+	private PriceHistory(HashMap<String, Series> series) {
+		this.series = series;
+	}
+
+	/**
+	 * Reads a price history from a text or binary file.
+	 *
+	 * Binary files are memory-mapped.
+	 *
+	 * @param file Price history file
+	 * @return Price history
+	 * @throws IOException Thrown when the file cannot be read or is malformed.
+	 */
+	public static PriceHistory load(File file) throws IOException {
+		try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+			if (input.readInt() == MAGIC) {
+				return map(file);
+			}
+		} catch (EOFException ignored) {
+
+		}
+
+		return readText(file);
+	}
+
+	/**
+	 * Reads a price history from a text file.
+	 *
+	 * @param file Text file
+	 * @return Price history
+	 * @throws IOException Thrown when the file cannot be read or is malformed.
+	 */
+	public static PriceHistory readText(File file) throws IOException {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		dateFormat.setLenient(false);
+
+		HashMap<String, TreeMap<Integer, BigDecimal>> prices = new HashMap<>();
+
+		try (BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+			String line;
+			int lineNumber = 0;
+
+			while ((line = input.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] fields = line.split(",");
+				if (fields.length != 3) {
+					throw new IOException("Malformed line " + lineNumber);
+				}
+
+				try {
+					String ticker = fields[0].trim();
+					int epochDay = (int) (dateFormat.parse(fields[1].trim()).getTime() / MILLISECONDS_PER_DAY);
+
+					TreeMap<Integer, BigDecimal> tickerPrices = prices.get(ticker);
+					if (tickerPrices == null) {
+						tickerPrices = new TreeMap<>();
+						prices.put(ticker, tickerPrices);
+					}
+
+					tickerPrices.put(epochDay, new BigDecimal(fields[2].trim()));
+				} catch (ParseException | NumberFormatException e) {
+					throw new IOException("Malformed line " + lineNumber, e);
+				}
+			}
+		}
+
+		HashMap<String, Series> series = new HashMap<>();
+		for (Map.Entry<String, TreeMap<Integer, BigDecimal>> tickerPrices : prices.entrySet()) {
+			series.put(tickerPrices.getKey(), new Series(tickerPrices.getValue()));
+		}
+
+		return new PriceHistory(series);
+	}
+
+	/**
+	 * Maps a binary price history file into memory.
+	 *
+	 * The file must not be modified while the history is in use.
+	 *
+	 * @param file Binary file
+	 * @return Price history
+	 * @throws IOException Thrown when the file cannot be read or is malformed.
+	 */
+	public static PriceHistory map(File file) throws IOException {
+		MappedByteBuffer buffer;
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+				throw new IOException("Unsupported price history format");
+			}
+
+			int tickerCount = buffer.getInt();
+			HashMap<String, Series> series = new HashMap<>();
+
+			for (int i = 0; i < tickerCount; ++i) {
+				byte[] ticker = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(ticker);
+				int scale = buffer.get();
+				int count = buffer.getInt();
+				long offset = buffer.getLong();
+
+				if (count < 0 || offset < 0 || offset + 12L * count > buffer.capacity()) {
+					throw new IOException("Malformed price history");
+				}
+
+				ByteBuffer data = buffer.duplicate();
+				data.position((int) offset);
+				IntBuffer days = data.slice().asIntBuffer();
+				days.limit(count);
+
+				data.position((int) offset + 4 * count);
+				LongBuffer closes = data.slice().asLongBuffer();
+				closes.limit(count);
+
+				series.put(new String(ticker, CHARSET), new Series(days, closes, scale));
+			}
+
+			return new PriceHistory(series);
+		} catch (RuntimeException e) {
+			throw new IOException("Malformed price history", e);
+		}
+	}
+
+	/**
+	 * Writes this history to a binary file.
+	 *
+	 * @param file Destination file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		ArrayList<String> tickers = new ArrayList<>(series.keySet());
+		Collections.sort(tickers);
+
+		long offset = 4 + 2 + 4;
+		for (String ticker : tickers) {
+			offset += 2 + ticker.getBytes(CHARSET).length + 1 + 4 + 8;
+		}
+
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			output.writeInt(MAGIC);
+			output.writeShort(VERSION);
+			output.writeInt(tickers.size());
+
+			for (String ticker : tickers) {
+				Series tickerSeries = series.get(ticker);
+				byte[] tickerBytes = ticker.getBytes(CHARSET);
+
+				output.writeShort(tickerBytes.length);
+				output.write(tickerBytes);
+				output.writeByte(tickerSeries.scale);
+				output.writeInt(tickerSeries.size());
+				output.writeLong(offset);
+
+				offset += 12L * tickerSeries.size();
+			}
+
+			for (String ticker : tickers) {
+				Series tickerSeries = series.get(ticker);
+
+				for (int i = 0; i < tickerSeries.size(); ++i) {
+					output.writeInt(tickerSeries.days.get(i));
+				}
+
+				for (int i = 0; i < tickerSeries.size(); ++i) {
+					output.writeLong(tickerSeries.closes.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the latest close on or before a given day.
+	 *
+	 * @param ticker   Instrument ticker
+	 * @param epochDay Number of days since 1970-01-01
+	 * @return Closing price, <tt>null</tt> if not known
+	 */
+	public BigDecimal getClose(String ticker, int epochDay) {
+		Series tickerSeries = series.get(ticker);
+
+		if (tickerSeries == null) {
+			return null;
+		}
+
+		int index = tickerSeries.indexOf(epochDay);
+		return index < 0 ? null : BigDecimal.valueOf(tickerSeries.closes.get(index), tickerSeries.scale);
+	}
+
+	/**
+	 * Returns a cursor over the closes of a ticker, for sequential lookups.
+	 *
+	 * @param ticker Instrument ticker
+	 * @return New cursor, <tt>null</tt> if the ticker has no known prices
+	 */
+	public Cursor getCursor(String ticker) {
+		Series tickerSeries = series.get(ticker);
+		return tickerSeries == null ? null : new Cursor(tickerSeries);
+	}
+
+	/**
+	 * Returns all tickers with known prices.
+	 *
+	 * @return Unmodifiable set of tickers
+	 */
+	public Set<String> getTickers() {
+		return Collections.unmodifiableSet(series.keySet());
+	}
+
+	/**
+	 * Sequential access to the closes of a single ticker.
+	 *
+	 * Moving the cursor forward, day by day, takes constant time. Cursors are
+	 * not thread-safe.
+	 */
+	public static final class Cursor {
+
+		private final Series series;
+
+		private int index = -1;
+
+		private Cursor(Series series) {
+			this.series = series;
+		}
+
+		/**
+		 * Moves the cursor to the latest close on or before a given day.
+		 *
+		 * @param epochDay Number of days since 1970-01-01
+		 * @return True if a close is known on or before that day
+		 */
+		public boolean seek(int epochDay) {
+			if (index >= 0 && series.days.get(index) > epochDay) {
+				index = series.indexOf(epochDay);
+			} else {
+				while (index + 1 < series.size() && series.days.get(index + 1) <= epochDay) {
+					index++;
+				}
+			}
+
+			return index >= 0;
+		}
+
+		/**
+		 * Returns the close at the cursor position as an unscaled value.
+		 *
+		 * @return Unscaled close
+		 * @see #getScale()
+		 */
+		public long getUnscaledClose() {
+			return series.closes.get(index);
+		}
+
+		/**
+		 * Returns the scale of all closes of the ticker.
+		 *
+		 * @return Number of decimal places
+		 */
+		public int getScale() {
+			return series.scale;
+		}
+	}
+
+	/**
+	 * Closing prices of a single ticker.
+	 */
+	private static final class Series {
+
+		final IntBuffer days;
+
+		final LongBuffer closes;
+
+		final int scale;
+
+		Series(IntBuffer days, LongBuffer closes, int scale) {
+			this.days = days;
+			this.closes = closes;
+			this.scale = scale;
+		}
+
+		Series(TreeMap<Integer, BigDecimal> prices) throws IOException {
+			int maxScale = 0;
+			for (BigDecimal price : prices.values()) {
+				maxScale = Math.max(maxScale, price.scale());
+			}
+
+			if (maxScale > Byte.MAX_VALUE) {
+				throw new IOException("Price out of range");
+			}
+
+			int[] dayArray = new int[prices.size()];
+			long[] closeArray = new long[prices.size()];
+
+			int i = 0;
+			for (Map.Entry<Integer, BigDecimal> price : prices.entrySet()) {
+				BigInteger unscaledClose = price.getValue().setScale(maxScale).unscaledValue();
+
+				if (unscaledClose.bitLength() > 63) {
+					throw new IOException("Price out of range: " + price.getValue());
+				}
+
+				dayArray[i] = price.getKey();
+				closeArray[i] = unscaledClose.longValue();
+				i++;
+			}
+
+			this.days = IntBuffer.wrap(dayArray);
+			this.closes = LongBuffer.wrap(closeArray);
+			this.scale = maxScale;
+		}
+
+		int size() {
+			return days.limit();
+		}
+
+		/**
+		 * Finds the latest day on or before a given one.
+		 *
+		 * @return Index of the day, -1 if all days are later
+		 */
+		int indexOf(int epochDay) {
+			int low = 0;
+			int high = size();
+
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (days.get(middle) <= epochDay) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			return low - 1;
+		}
+	}
+}
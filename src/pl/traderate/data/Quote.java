@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.data;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * A price quote of an instrument.
+ */
+public class Quote {
+
+	/**
+	 * Quote of an instrument with no known price.
+	 */
+	static final Quote UNAVAILABLE = new Quote(null, null);
+
+	/**
+	 * Last price of the instrument, <tt>null</tt> if unavailable.
+	 */
+	public final BigDecimal lastPrice;
+
+	/**
+	 * Time the price was received, <tt>null</tt> if unavailable.
+	 */
+	public final Date time;
+
+	Quote(BigDecimal lastPrice, Date time) {
+		this.lastPrice = lastPrice;
+		this.time = time;
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.data;
+
+/**
+ * A snapshot of quote cache usage statistics.
+ */
+public class QuoteCacheStatistics {
+
+	/**
+	 * Number of cached quotes.
+	 */
+	public final int size;
+
+	/**
+	 * Maximum number of cached quotes.
+	 */
+	public final int maximumSize;
+
+	/**
+	 * Number of lookups answered with a fresh cached quote.
+	 */
+	public final long hits;
+
+	/**
+	 * Number of lookups answered with an expired quote while a new one was requested.
+	 */
+	public final long staleHits;
+
+	/**
+	 * Number of lookups which required a quote request.
+	 *
+	 * Lookups joining a request already in progress are counted as misses too.
+	 */
+	public final long misses;
+
+	/**
+	 * Number of completed quote requests.
+	 */
+	public final long loads;
+
+	/**
+	 * Number of failed quote requests.
+	 */
+	public final long failures;
+
+	/**
+	 * Number of quotes evicted to keep the cache size bound.
+	 */
+	public final long evictions;
+
+	/**
+	 * Total time spent on completed quote requests in nanoseconds.
+	 */
+	public final long totalLoadTime;
+
+	QuoteCacheStatistics(int size, int maximumSize, long hits, long staleHits, long misses, long loads, long failures, long evictions, long totalLoadTime) {
+		this.size = size;
+		this.maximumSize = maximumSize;
+		this.hits = hits;
+		this.staleHits = staleHits;
+		this.misses = misses;
+		this.loads = loads;
+		this.failures = failures;
+		this.evictions = evictions;
+		this.totalLoadTime = totalLoadTime;
+	}
+
+	/**
+	 * Returns the fraction of lookups answered with a fresh cached quote.
+	 *
+	 * @return Hit rate between 0 and 1, 0 if there were no lookups
+	 */
+	public double getHitRate() {
+		long lookups = hits + staleHits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * Returns the average time of a quote request.
+	 *
+	 * @return Average load time in nanoseconds, 0 if there were no requests
+	 */
+	public long getAverageLoadTime() {
+		return loads == 0 ? 0 : totalLoadTime / loads;
+	}
+}
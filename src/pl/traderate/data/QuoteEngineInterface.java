@@ -21,6 +21,8 @@
 package pl.traderate.data;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * A generic quote engine.
@@ -35,4 +37,20 @@ interface QuoteEngineInterface {
 	 */
 	public BigDecimal getLast(String ticker);
 
+	/**
+	 * Returns last price of the instrument along with the time it was received.
+	 *
+	 * @param ticker Instrument ticker
+	 * @return Last quote, with a <tt>null</tt> price if unavailable
+	 */
+	public Quote getQuote(String ticker);
+
+	/**
+	 * Returns last prices of multiple instruments.
+	 *
+	 * @param tickers Instrument tickers, duplicates are allowed
+	 * @return Last prices keyed by ticker, <tt>null</tt> for unavailable quotes
+	 */
+	public Map<String, BigDecimal> getLast(Collection<String> tickers);
+
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package pl.traderate.data;
+
+import java.util.Set;
+
+/**
+ * A listener notified when prices of instruments change.
+ *
+ * @see CachingQuoteEngine#addQuoteListener(QuoteListener)
+ */
+public interface QuoteListener {
+
+	/**
+	 * Called after new prices of instruments have been received and cached.
+	 *
+	 * Notifications are delivered on a quote engine thread. Prices changed in
+	 * quick succession are reported together.
+	 *
+	 * @param tickers Tickers of instruments with changed prices
+	 */
+	public void quotesChanged(Set<String> tickers);
+}
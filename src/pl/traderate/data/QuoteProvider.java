@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package pl.traderate.data;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * A source of instrument prices.
+ *
+ * Providers are used by the {@link QuoteEngine}, which caches received
+ * quotes. They may be called from multiple threads at the same time.
+ *
+ * @see QuoteEngine#setProvider(QuoteProvider)
+ */
+public interface QuoteProvider {
+
+	/**
+	 * Returns the current price of an instrument.
+	 *
+	 * @param ticker Instrument ticker
+	 * @return Last price, <tt>null</tt> if the instrument is unknown to this provider
+	 * @throws IOException Thrown when the price cannot be retrieved.
+	 */
+	public BigDecimal fetchLast(String ticker) throws IOException;
+
+}
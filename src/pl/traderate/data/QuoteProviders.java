@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package pl.traderate.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Creates quote providers from textual specifications.
+ */
+public final class QuoteProviders {
+
+	/**
+	 * Restricted constructor.
+	 *
+	 * Prevents direct instantiation.
+	 */
+	private QuoteProviders() {
+
+	}
+
+	/**
+	 * Creates a provider from its specification.
+	 *
+	 * <p>A specification is a comma separated list of providers in the order of
+	 * preference. Supported providers are:</p>
+	 *
+	 * <ul>
+	 *     <li><tt>http</tt> &ndash; the default quote feed,</li>
+	 *     <li><tt>http=</tt><em>address</em> &ndash; a quote feed at a given
+	 *     address, <tt>%s</tt> is replaced with the ticker,</li>
+	 *     <li><tt>replay=</tt><em>file</em> &ndash; prices replayed from a
+	 *     file.</li>
+	 * </ul>
+	 *
+	 * @param specification Provider specification, e.g. <tt>replay=prices.csv,http</tt>
+	 * @return Created provider
+	 * @throws IOException Thrown when a replay file cannot be read.
+	 * @throws IllegalArgumentException Thrown when the specification is not valid.
+	 */
+	public static QuoteProvider parse(String specification) throws IOException {
+		ArrayList<QuoteProvider> providers = new ArrayList<>();
+
+		for (String providerSpecification : specification.split(",")) {
+			String[] parts = providerSpecification.trim().split("=", 2);
+
+			switch (parts[0]) {
+				case "http":
+					providers.add(parts.length == 1 ? new HttpQuoteProvider() : new HttpQuoteProvider(parts[1]));
+					break;
+				case "replay":
+					if (parts.length == 1) {
+						throw new IllegalArgumentException("Missing replay file: " + providerSpecification);
+					}
+					providers.add(new ReplayQuoteProvider(new File(parts[1])));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown quote provider: " + providerSpecification);
+			}
+		}
+
+		return providers.size() == 1 ? providers.get(0) : new CompositeQuoteProvider(providers);
+	}
+}
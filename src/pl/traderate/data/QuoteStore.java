@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package pl.traderate.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of received quotes, used to warm the quote cache on startup.
+ *
+ * <p>Every successfully received quote is appended as a record holding the
+ * ticker, the time the price was received and the price itself. Each record
+ * is framed with its length and a CRC32 checksum. Records are not forced to
+ * the storage device, losing the most recent ones only means requesting them
+ * again.</p>
+ *
+ * <p>The file is memory-mapped and scanned when opened, the latest record of
+ * each ticker wins. A torn record at the end of the file is dropped. Once the
+ * file holds considerably more records than tickers, it is rewritten with the
+ * latest quotes only.</p>
+ */
+final class QuoteStore {
+
+	/**
+	 * File signature, "TRQS" in ASCII.
+	 */
+	private static final int MAGIC = 0x54525153;
+
+	private static final short VERSION = 1;
+
+	private static final int HEADER_SIZE = 4 + 2;
+
+	/**
+	 * Number of records below which the file is never compacted.
+	 */
+	private static final int MIN_COMPACTION_RECORDS = 4096;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private final FileChannel channel;
+
+	/**
+	 * Set when a record could not be written, no more records are written then.
+	 */
+	private boolean failed;
+
+	private QuoteStore(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Opens a quote store, creating it if necessary.
+	 *
+	 * @param file   Store file
+	 * @param quotes Receives the latest stored quote of each ticker, in the order of arrival
+	 * @return Opened store
+	 * @throws IOException
+	 */
+	static QuoteStore open(File file, LinkedHashMap<String, Quote> quotes) throws IOException {
+		int records = 0;
+		long validLength = 0;
+
+		if (file.exists()) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				if (channel.size() >= HEADER_SIZE && channel.size() <= Integer.MAX_VALUE) {
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+					if (buffer.getInt() == MAGIC && buffer.getShort() == VERSION) {
+						records = readRecords(buffer, quotes);
+						validLength = buffer.position();
+					}
+				}
+
+				if (validLength > 0 && validLength == channel.size() && records < Math.max(MIN_COMPACTION_RECORDS, 2 * quotes.size())) {
+					return new QuoteStore(FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+				}
+			}
+		}
+
+		rewrite(file, quotes);
+		return new QuoteStore(FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+	}
+
+	/**
+	 * Appends a quote to the store.
+	 *
+	 * @param ticker Instrument ticker
+	 * @param quote  Received quote
+	 */
+	synchronized void append(String ticker, Quote quote) {
+		if (failed) {
+			return;
+		}
+
+		try {
+			ByteBuffer record = encodeRecord(ticker, quote);
+
+			if (record != null) {
+				while (record.hasRemaining()) {
+					channel.write(record);
+				}
+			}
+		} catch (IOException e) {
+			failed = true;
+		}
+	}
+
+	synchronized void close() {
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+
+		}
+	}
+
+	/**
+	 * Reads all complete records.
+	 *
+	 * The buffer is left positioned after the last valid record.
+	 *
+	 * @return Number of records read
+	 */
+	private static int readRecords(ByteBuffer buffer, Map<String, Quote> quotes) {
+		int records = 0;
+
+		while (buffer.remaining() >= 8) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+
+			if (length <= 0 || length > buffer.remaining() - 4) {
+				buffer.position(start);
+				break;
+			}
+
+			byte[] payload = new byte[length];
+			buffer.get(payload);
+
+			CRC32 checksum = new CRC32();
+			checksum.update(payload);
+			if ((int) checksum.getValue() != buffer.getInt()) {
+				buffer.position(start);
+				break;
+			}
+
+			ByteBuffer record = ByteBuffer.wrap(payload);
+			byte[] ticker = new byte[record.getShort() & 0xFFFF];
+			record.get(ticker);
+			Date time = new Date(record.getLong());
+			long unscaledValue = record.getLong();
+			BigDecimal lastPrice = BigDecimal.valueOf(unscaledValue, record.get());
+
+			String tickerName = new String(ticker, CHARSET);
+			quotes.remove(tickerName);
+			quotes.put(tickerName, new Quote(lastPrice, time));
+			records++;
+		}
+
+		return records;
+	}
+
+	/**
+	 * Encodes a quote record, including its framing.
+	 *
+	 * @return Encoded record, <tt>null</tt> if the quote cannot be stored
+	 */
+	private static ByteBuffer encodeRecord(String ticker, Quote quote) {
+		byte[] tickerBytes = ticker.getBytes(CHARSET);
+		BigInteger unscaledValue = quote.lastPrice.unscaledValue();
+
+		if (tickerBytes.length > 0xFFFF || unscaledValue.bitLength() > 63 || quote.lastPrice.scale() < Byte.MIN_VALUE || quote.lastPrice.scale() > Byte.MAX_VALUE) {
+			return null;
+		}
+
+		int length = 2 + tickerBytes.length + 8 + 8 + 1;
+		ByteBuffer record = ByteBuffer.allocate(4 + length + 4);
+		record.putInt(length);
+		record.putShort((short) tickerBytes.length).put(tickerBytes);
+		record.putLong(quote.time.getTime());
+		record.putLong(unscaledValue.longValue()).put((byte) quote.lastPrice.scale());
+
+		CRC32 checksum = new CRC32();
+		checksum.update(record.array(), 4, length);
+		record.putInt((int) checksum.getValue());
+
+		record.flip();
+		return record;
+	}
+
+	/**
+	 * Replaces the store with a file holding only the given quotes.
+	 */
+	private static void rewrite(File file, Map<String, Quote> quotes) throws IOException {
+		File temporaryFile = File.createTempFile("." + file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+
+		try {
+			try (FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putShort(VERSION).flip();
+				channel.write(header);
+
+				for (Map.Entry<String, Quote> quote : quotes.entrySet()) {
+					ByteBuffer record = encodeRecord(quote.getKey(), quote.getValue());
+
+					while (record != null && record.hasRemaining()) {
+						channel.write(record);
+					}
+				}
+
+				channel.force(true);
+			}
+
+			try {
+				Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporaryFile.toPath());
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2012 Karol Piczak <karol@dvl.pl>
+ *
+ * This file is part of the TradeRate package.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package pl.traderate.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A provider replaying historical prices according to a simulated clock.
+ *
+ * <p>For every ticker the provider returns the latest price dated at or
+ * before the current simulated time. The clock initially points past all
+ * stored prices, so the most recent ones are served.</p>
+ *
+ * <p>Prices are read from a text or a binary file. Each line of a text file
+ * holds a ticker, a date in <tt>yyyy-MM-dd</tt> or <tt>yyyy-MM-dd HH:mm:ss</tt>
+ * format and a price, separated with commas. Empty lines and lines starting
+ * with <tt>#</tt> are skipped. A binary file, as written by {@link
+ * #writeBinary(File)}, starts with the {@link #MAGIC} signature and holds the
+ * same data in a compact form.</p>
+ */
+public class ReplayQuoteProvider implements QuoteProvider {
+
+	/**
+	 * File signature of binary price files, "TRQR" in ASCII.
+	 */
+	public static final int MAGIC = 0x54525152;
+
+	private static final short VERSION = 1;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Price history of each ticker.
+	 */
+	private final HashMap<String, PriceSeries> series;
+
+	/**
+	 * Current simulated time in milliseconds.
+	 */
+	private volatile long time = Long.MAX_VALUE;
+
+	/**
+	 * Reads prices from a file.
+	 *
+	 * @param file Text or binary price file
+	 * @throws IOException Thrown when the file cannot be read or is malformed.
+	 */
+	public ReplayQuoteProvider(File file) throws IOException {
+		HashMap<String, TreeMap<Long, BigDecimal>> prices = new HashMap<>();
+
+		if (isBinary(file)) {
+			readBinary(file, prices);
+		} else {
+			readText(file, prices);
+		}
+
+		series = new HashMap<>();
+		for (Map.Entry<String, TreeMap<Long, BigDecimal>> tickerPrices : prices.entrySet()) {
+			series.put(tickerPrices.getKey(), new PriceSeries(tickerPrices.getValue()));
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public BigDecimal fetchLast(String ticker) {
+		PriceSeries tickerSeries = series.get(ticker);
+
+		if (tickerSeries == null) {
+			return null;
+		}
+
+		return tickerSeries.getPrice(time);
+	}
+
+	/**
+	 * Sets the simulated clock.
+	 *
+	 * @param time Simulated time
+	 */
+	public void setTime(Date time) {
+		this.time = time.getTime();
+	}
+
+	/**
+	 * Moves the simulated clock.
+	 *
+	 * @param milliseconds Time span, may be negative
+	 */
+	public void advance(long milliseconds) {
+		time += milliseconds;
+	}
+
+	/**
+	 * Returns the simulated time.
+	 *
+	 * @return Simulated time
+	 */
+	public Date getTime() {
+		return new Date(time);
+	}
+
+	/**
+	 * Returns all tickers with known prices.
+	 *
+	 * @return Unmodifiable set of tickers
+	 */
+	public Set<String> getTickers() {
+		return Collections.unmodifiableSet(series.keySet());
+	}
+
+	/**
+	 * Writes all prices to a binary price file.
+	 *
+	 * @param file Destination file
+	 * @throws IOException
+	 */
+	public void writeBinary(File file) throws IOException {
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			output.writeInt(MAGIC);
+			output.writeShort(VERSION);
+			output.writeInt(series.size());
+
+			for (Map.Entry<String, PriceSeries> tickerSeries : series.entrySet()) {
+				PriceSeries prices = tickerSeries.getValue();
+
+				output.writeUTF(tickerSeries.getKey());
+				output.writeInt(prices.times.length);
+
+				for (int i = 0; i < prices.times.length; ++i) {
+					BigInteger unscaledValue = prices.prices[i].unscaledValue();
+					if (unscaledValue.bitLength() > 63 || prices.prices[i].scale() < Byte.MIN_VALUE || prices.prices[i].scale() > Byte.MAX_VALUE) {
+						throw new IOException("Price out of range: " + prices.prices[i]);
+					}
+
+					output.writeLong(prices.times[i]);
+					output.writeLong(unscaledValue.longValue());
+					output.writeByte(prices.prices[i].scale());
+				}
+			}
+		}
+	}
+
+	private static boolean isBinary(File file) throws IOException {
+		try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+			return input.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	private static void readBinary(File file, Map<String, TreeMap<Long, BigDecimal>> prices) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			input.readInt();
+			if (input.readShort() != VERSION) {
+				throw new IOException("Unsupported price file version");
+			}
+
+			int seriesCount = input.readInt();
+
+			for (int i = 0; i < seriesCount; ++i) {
+				TreeMap<Long, BigDecimal> tickerPrices = getTickerPrices(prices, input.readUTF());
+				int priceCount = input.readInt();
+
+				for (int j = 0; j < priceCount; ++j) {
+					long priceTime = input.readLong();
+					long unscaledValue = input.readLong();
+					tickerPrices.put(priceTime, BigDecimal.valueOf(unscaledValue, input.readByte()));
+				}
+			}
+		}
+	}
+
+	private static void readText(File file, Map<String, TreeMap<Long, BigDecimal>> prices) throws IOException {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		dateFormat.setLenient(false);
+		timeFormat.setLenient(false);
+
+		try (BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+			String line;
+			int lineNumber = 0;
+
+			while ((line = input.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] fields = line.split(",");
+				if (fields.length != 3) {
+					throw new IOException("Malformed line " + lineNumber);
+				}
+
+				try {
+					String date = fields[1].trim();
+					Date priceTime = (date.length() > 10 ? timeFormat : dateFormat).parse(date);
+					getTickerPrices(prices, fields[0].trim()).put(priceTime.getTime(), new BigDecimal(fields[2].trim()));
+				} catch (ParseException | NumberFormatException e) {
+					throw new IOException("Malformed line " + lineNumber, e);
+				}
+			}
+		}
+	}
+
+	private static TreeMap<Long, BigDecimal> getTickerPrices(Map<String, TreeMap<Long, BigDecimal>> prices, String ticker) {
+		TreeMap<Long, BigDecimal> tickerPrices = prices.get(ticker);
+
+		if (tickerPrices == null) {
+			tickerPrices = new TreeMap<>();
+			prices.put(ticker, tickerPrices);
+		}
+
+		return tickerPrices;
+	}
+
+	/**
+	 * Prices of a single ticker, ordered by time.
+	 */
+	private static class PriceSeries {
+
+		final long[] times;
+
+		final BigDecimal[] prices;
+
+		PriceSeries(TreeMap<Long, BigDecimal> tickerPrices) {
+			times = new long[tickerPrices.size()];
+			prices = new BigDecimal[tickerPrices.size()];
+
+			int i = 0;
+			for (Map.Entry<Long, BigDecimal> price : tickerPrices.entrySet()) {
+				times[i] = price.getKey();
+				prices[i] = price.getValue();
+				i++;
+			}
+		}
+
+		/**
+		 * Returns the latest price dated at or before a given time.
+		 *
+		 * @return Price, <tt>null</tt> if all prices are dated later
+		 */
+		BigDecimal getPrice(long time) {
+			int index = Arrays.binarySearch(times, time);
+
+			if (index < 0) {
+				index = -index - 2;
+			}
+
+			return index < 0 ? null : prices[index];
+		}
+	}
+}
@@ -20,6 +20,9 @@
 
 package pl.traderate.desktop;
 
+import pl.traderate.data.QuoteEngine;
+import pl.traderate.data.QuoteProviders;
+
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
@@ -82,6 +85,19 @@ public class Main {
 		UIManager.put("Viewport.font", defaultFont.deriveFont(12.0F));
 		UIManager.put("Label.font", defaultFont.deriveFont(12.0F));
 
+		// Quote providers may be chosen with e.g. -Dtraderate.quotes=replay=prices.csv,http
+		String quoteProvider = System.getProperty("traderate.quotes");
+		if (quoteProvider != null) {
+			try {
+				QuoteEngine.getInstance().setProvider(QuoteProviders.parse(quoteProvider));
+			} catch (IOException | IllegalArgumentException e) {
+				e.printStackTrace();
+			}
+		}
+
+		// Quotes received in previous sessions are shown until new ones arrive
+		QuoteEngine.getInstance().setQuoteStore(new File(System.getProperty("user.home"), ".traderate" + File.separator + "quotes.dat"));
+
 		Router.getInstance().goHome();
 	}
 }
@@ -26,11 +26,24 @@ import pl.traderate.desktop.event.GenericViewEvent;
 import pl.traderate.desktop.event.GenericViewEventListener;
 import pl.traderate.desktop.view.GenericViewModel;
 
+import javax.swing.*;
+import java.util.concurrent.Executor;
+
 /**
  * A generic presenter.
  */
 public abstract class GenericPresenter implements GenericViewEventListener {
 
+	/**
+	 * Delivers model events on the Swing event dispatch thread.
+	 */
+	protected static final Executor EVENT_DISPATCH_THREAD = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			SwingUtilities.invokeLater(command);
+		}
+	};
+
 	protected TradeRate model;
 
 	protected GenericModelEventHandler modelEventHandler;
@@ -41,7 +54,7 @@ public abstract class GenericPresenter implements GenericViewEventListener {
 		this.model = model;
 
 		modelEventHandler = new GenericModelEventHandler();
-		model.addEventListener(modelEventHandler);
+		model.addEventListener(modelEventHandler, EVENT_DISPATCH_THREAD);
 	}
 
 	protected abstract void initializeViewModel();
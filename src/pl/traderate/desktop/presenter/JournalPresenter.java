@@ -20,16 +20,20 @@
 
 package pl.traderate.desktop.presenter;
 
-import pl.traderate.core.JournalEntryDTO;
+import pl.traderate.core.EntryChangesDTO;
+import pl.traderate.core.EntryCommand;
+import pl.traderate.core.EntryPageDTO;
 import pl.traderate.core.TradeRate;
 import pl.traderate.core.event.*;
 import pl.traderate.core.exception.*;
 import pl.traderate.desktop.event.GenericViewEvent;
 import pl.traderate.desktop.view.GenericView;
+import pl.traderate.desktop.view.JournalTable;
 import pl.traderate.desktop.view.JournalViewModel;
 
 import javax.swing.*;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.concurrent.ExecutionException;
 
@@ -54,7 +58,7 @@ public class JournalPresenter extends GenericPresenter {
 
 		modelEventHandler = new JournalModelEventHandler();
 		model.removeEventListener(super.modelEventHandler);
-		model.addEventListener(modelEventHandler);
+		model.addEventListener(modelEventHandler, EVENT_DISPATCH_THREAD);
 
 		// Make sure that both viewModels reference the same object
 		super.viewModel = viewModel;
@@ -64,7 +68,7 @@ public class JournalPresenter extends GenericPresenter {
 	@Override
 	protected void initializeViewModel() {
 		try {
-			viewModel.setEntries(model.getEntries());
+			loadEntries();
 			viewModel.setAccounts(model.getAccounts());
 			viewModel.setPortfolios(model.getAllPortfolioNodes());
 		} catch (JournalNotLoadedException ignored) {
@@ -72,6 +76,24 @@ public class JournalPresenter extends GenericPresenter {
 		}
 	}
 
+	/**
+	 * Replaces all displayed entries.
+	 *
+	 * Entries are fetched by the table in pages, as rows become visible.
+	 */
+	protected void loadEntries() {
+		viewModel.setEntries(new JournalTable.EntrySource() {
+			@Override
+			public EntryPageDTO getEntryPage(int firstRow, int count) {
+				try {
+					return model.getEntryPage(firstRow, count);
+				} catch (JournalNotLoadedException e) {
+					return null;
+				}
+			}
+		});
+	}
+
 	@Override
 	protected void purgeViewModel() {
 		viewModel.purgeEntries();
@@ -109,7 +131,12 @@ public class JournalPresenter extends GenericPresenter {
 		@Override
 		public void handleModelEvent(JournalUpdatedModelEvent e) {
 			try {
-				viewModel.setEntries(model.getEntries());
+				EntryChangesDTO changes = model.getEntryChanges(viewModel.getEntriesVersion());
+				if (changes == null) {
+					loadEntries();
+				} else {
+					viewModel.updateEntries(changes);
+				}
 			} catch (JournalNotLoadedException ignored) {
 
 			}
@@ -507,13 +534,19 @@ public class JournalPresenter extends GenericPresenter {
 			}
 
 			public void handle(final JournalPresenter presenter) {
+				// Model events may update the table while entries are being removed
+				final ArrayList<Integer> entryIDsToDelete = presenter.viewModel.getJournalTable().getEntryIDsToDelete();
+
 				new SwingWorker<String, Object>() {
 
 					@Override
-					public String doInBackground() throws EntryInsertionException, ObjectNotFoundException, JournalNotLoadedException {
-						for (JournalEntryDTO entry : presenter.viewModel.getJournalTable().getEntriesToDelete()) {
-							presenter.model.removeEntry(entry.ID);
+					public String doInBackground() throws EntryInsertionException, ObjectNotFoundException, ObjectConstraintsException, InvalidInputException, JournalNotLoadedException {
+						ArrayList<EntryCommand> commands = new ArrayList<>(entryIDsToDelete.size());
+						for (int entryID : entryIDsToDelete) {
+							commands.add(EntryCommand.removeEntry(entryID));
 						}
+
+						presenter.model.applyBatch(commands);
 						return null;
 					}
 
@@ -532,7 +565,7 @@ public class JournalPresenter extends GenericPresenter {
 						} catch (ObjectNotFoundException e) {
 							JOptionPane.showMessageDialog(presenter.parentFrame, "Żądana operacja nie została znaleziona.", "Błąd operacji", JOptionPane.ERROR_MESSAGE);
 						} catch (EntryInsertionException e) {
-							JOptionPane.showMessageDialog(presenter.parentFrame, "Błąd rekonstrukcji historii.\nNajprawdopodobniej usunięcie jednej z wybranych operacji powoduje powstanie niespójnej historii konta/portfela.\nSpróbuj najpierw usunąć późniejsze operacje zależne.\n\nUsunięte zostały wszystkie zaznaczone operacje do momentu powstania niespójności.", "Błąd operacji", JOptionPane.ERROR_MESSAGE);
+							JOptionPane.showMessageDialog(presenter.parentFrame, "Błąd rekonstrukcji historii.\nNajprawdopodobniej usunięcie jednej z wybranych operacji powoduje powstanie niespójnej historii konta/portfela.\nSpróbuj najpierw usunąć późniejsze operacje zależne.\n\nŻadna z zaznaczonych operacji nie została usunięta.", "Błąd operacji", JOptionPane.ERROR_MESSAGE);
 						} catch (Throwable e) {
 							JOptionPane.showMessageDialog(presenter.parentFrame, "Błąd wewnętrzny.\nNie został wybrany odpowiedni obiekt lub żaden dziennik nie jest otwarty.", "Błąd operacji", JOptionPane.ERROR_MESSAGE);
 						}
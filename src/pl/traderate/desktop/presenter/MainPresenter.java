@@ -67,7 +67,7 @@ public class MainPresenter extends GenericPresenter {
 
 		modelEventHandler = new HomeModelEventHandler();
 		model.removeEventListener(super.modelEventHandler);
-		model.addEventListener(modelEventHandler);
+		model.addEventListener(modelEventHandler, EVENT_DISPATCH_THREAD);
 
 		// Make sure that both viewModels reference the same object
 		super.viewModel = viewModel;
@@ -49,7 +49,7 @@ public class SummaryPresenter extends GenericPresenter {
 
 		modelEventHandler = new SummaryModelEventHandler();
 		model.removeEventListener(super.modelEventHandler);
-		model.addEventListener(modelEventHandler);
+		model.addEventListener(modelEventHandler, EVENT_DISPATCH_THREAD);
 
 		// Make sure that both viewModels reference the same object
 		super.viewModel = viewModel;
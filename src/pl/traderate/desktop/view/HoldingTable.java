@@ -22,52 +22,326 @@ package pl.traderate.desktop.view;
 
 import org.netbeans.swing.outline.DefaultOutlineModel;
 import org.netbeans.swing.outline.Outline;
-import org.netbeans.swing.outline.RenderDataProvider;
 import org.netbeans.swing.outline.RowModel;
 import pl.traderate.core.HoldingsDTO;
 
 import javax.swing.*;
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
 import java.awt.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
- * A table model of equity holdings.
+ * A tree model of equity holdings.
+ *
+ * Positions and trades of a holding are only wrapped in tree nodes once the
+ * holding is expanded. Holdings set again for the same node update the
+ * existing tree nodes in place, so that expanded rows stay expanded.
  */
-public class HoldingTable {
+public class HoldingTable implements TreeModel {
 
 	boolean closedMode;
 
+	private final ParentType parentType;
+
+	private final int parentID;
+
+	private final Node root;
+
+	private final EventListenerList listenerList;
+
 	DefaultOutlineModel outlineModel;
 
 	public HoldingTable(String name, ArrayList<HoldingsDTO.EquityHoldingDTO> holdings, boolean closedMode, ParentType parentType, int parentID) {
 		this.closedMode = closedMode;
+		this.parentType = parentType;
+		this.parentID = parentID;
+		this.listenerList = new EventListenerList();
 
-		DefaultMutableTreeNode root = new DefaultMutableTreeNode(name);
+		root = new Node(name);
+		root.children = new ArrayList<>(holdings.size());
 
 		for (HoldingsDTO.EquityHoldingDTO holding : holdings) {
-			DefaultMutableTreeNode holdingNode = new DefaultMutableTreeNode(holding);
+			root.children.add(new Node(holding));
+		}
+
+		outlineModel = (DefaultOutlineModel) DefaultOutlineModel.createOutlineModel(this, new HoldingRowModel(), true, "Ticker");
+	}
+
+	public DefaultOutlineModel getOutlineModel() {
+		return outlineModel;
+	}
+
+	/**
+	 * Checks if the table shows holdings of a given node.
+	 *
+	 * @param parentType Type of the node
+	 * @param parentID   ID of the node
+	 * @return True if holdings of the node can be updated in place
+	 */
+	public boolean isShowing(ParentType parentType, int parentID) {
+		return this.parentType == parentType && this.parentID == parentID;
+	}
 
-			for (HoldingsDTO.EquityPositionDTO position: holding.positions) {
-				DefaultMutableTreeNode positionNode = new DefaultMutableTreeNode(position);
+	/**
+	 * Replaces displayed holdings, reusing tree nodes of the same tickers.
+	 *
+	 * @param holdings Current holdings of the node
+	 */
+	public void setHoldings(ArrayList<HoldingsDTO.EquityHoldingDTO> holdings) {
+		TreePath rootPath = new TreePath(root);
+
+		HashMap<String, ArrayDeque<Node>> nodesByTicker = new HashMap<>();
+		for (Node node : root.children) {
+			String ticker = ((HoldingsDTO.EquityHoldingDTO) node.data).ticker;
+			if (!nodesByTicker.containsKey(ticker)) {
+				nodesByTicker.put(ticker, new ArrayDeque<Node>());
+			}
+			nodesByTicker.get(ticker).add(node);
+		}
+
+		ArrayList<Node> children = new ArrayList<>(holdings.size());
+		ArrayList<Node> keptNodes = new ArrayList<>();
+		ArrayList<Integer> insertedIndices = new ArrayList<>();
+
+		for (HoldingsDTO.EquityHoldingDTO holding : holdings) {
+			ArrayDeque<Node> tickerNodes = nodesByTicker.get(holding.ticker);
+			Node node = tickerNodes == null ? null : tickerNodes.poll();
+
+			if (node == null) {
+				insertedIndices.add(children.size());
+				children.add(new Node(holding));
+			} else {
+				children.add(node);
+				keptNodes.add(node);
+			}
+		}
+
+		ArrayList<Node> previousChildren = root.children;
+		ArrayList<Node> previousKeptNodes = new ArrayList<>(keptNodes.size());
+		ArrayList<Integer> removedIndices = new ArrayList<>();
+
+		for (int i = 0; i < previousChildren.size(); ++i) {
+			Node node = previousChildren.get(i);
+			ArrayDeque<Node> tickerNodes = nodesByTicker.get(((HoldingsDTO.EquityHoldingDTO) node.data).ticker);
+			if (tickerNodes.contains(node)) {
+				removedIndices.add(i);
+			} else {
+				previousKeptNodes.add(node);
+			}
+		}
+
+		// Reordered holdings cannot be expressed as removals and insertions
+		if (!previousKeptNodes.equals(keptNodes)) {
+			root.children = children;
+			for (int i = 0; i < holdings.size(); ++i) {
+				children.get(i).data = holdings.get(i);
+				children.get(i).children = null;
+			}
+
+			fireTreeStructureChanged(rootPath);
+			return;
+		}
+
+		if (!removedIndices.isEmpty()) {
+			int[] indices = new int[removedIndices.size()];
+			Object[] removedNodes = new Object[removedIndices.size()];
+			for (int i = 0; i < indices.length; ++i) {
+				indices[i] = removedIndices.get(i);
+				removedNodes[i] = previousChildren.get(indices[i]);
+			}
+
+			root.children = new ArrayList<>(keptNodes);
+			fireTreeNodesRemoved(rootPath, indices, removedNodes);
+		}
+
+		root.children = children;
+
+		if (!insertedIndices.isEmpty()) {
+			int[] indices = new int[insertedIndices.size()];
+			Object[] insertedNodes = new Object[insertedIndices.size()];
+			for (int i = 0; i < indices.length; ++i) {
+				indices[i] = insertedIndices.get(i);
+				insertedNodes[i] = children.get(indices[i]);
+			}
+
+			fireTreeNodesInserted(rootPath, indices, insertedNodes);
+		}
+
+		// Holdings are the same objects when the model reuses a cached node DTO
+		for (int i = 0; i < children.size(); ++i) {
+			Node node = children.get(i);
+			if (node.data != holdings.get(i)) {
+				update(rootPath, i, node, holdings.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Replaces data of a tree node and of its loaded descendants.
+	 *
+	 * Descendants are discarded and loaded again on demand if their number
+	 * has changed or a position has been replaced by another one.
+	 *
+	 * @param parentPath Path of the parent node
+	 * @param index      Index of the node within its parent
+	 * @param node       Updated node
+	 * @param data       Current data of the node
+	 */
+	private void update(TreePath parentPath, int index, Node node, HoldingsDTO.PerformanceDataDTO data) {
+		node.data = data;
+		fireTreeNodesChanged(parentPath, new int[] {index}, new Object[] {node});
+
+		if (node.children == null) {
+			return;
+		}
+
+		TreePath path = parentPath.pathByAddingChild(node);
+		ArrayList<? extends HoldingsDTO.PerformanceDataDTO> childData = getChildData(data);
+
+		if (!isMatching(node.children, childData)) {
+			node.children = null;
+			fireTreeStructureChanged(path);
+			return;
+		}
+
+		for (int i = 0; i < childData.size(); ++i) {
+			update(path, i, node.children.get(i), childData.get(i));
+		}
+	}
+
+	/**
+	 * Checks if loaded child nodes still stand for the same children.
+	 *
+	 * Positions are matched by name. Trades have no identity of their own,
+	 * so they are only matched by number.
+	 *
+	 * @param children  Loaded child nodes
+	 * @param childData Current data of the children
+	 * @return True if child nodes can be updated in place
+	 */
+	private static boolean isMatching(ArrayList<Node> children, ArrayList<? extends HoldingsDTO.PerformanceDataDTO> childData) {
+		if (children.size() != childData.size()) {
+			return false;
+		}
 
-				for (HoldingsDTO.EquityTradeDTO trade: position.trades) {
-					positionNode.add(new DefaultMutableTreeNode(trade));
+		for (int i = 0; i < childData.size(); ++i) {
+			if (childData.get(i) instanceof HoldingsDTO.EquityPositionDTO) {
+				String name = ((HoldingsDTO.EquityPositionDTO) children.get(i).data).name;
+				if (!name.equals(((HoldingsDTO.EquityPositionDTO) childData.get(i)).name)) {
+					return false;
 				}
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public Object getRoot() {
+		return root;
+	}
+
+	@Override
+	public Object getChild(Object parent, int index) {
+		return getChildren((Node) parent).get(index);
+	}
+
+	@Override
+	public int getChildCount(Object parent) {
+		return getChildren((Node) parent).size();
+	}
+
+	@Override
+	public boolean isLeaf(Object node) {
+		Node treeNode = (Node) node;
+		return treeNode.children == null ? getChildData(treeNode.data).isEmpty() : treeNode.children.isEmpty();
+	}
 
-				holdingNode.add(positionNode);
+	@Override
+	public void valueForPathChanged(TreePath path, Object newValue) {
+
+	}
+
+	@Override
+	public int getIndexOfChild(Object parent, Object child) {
+		if (parent == null || child == null) return -1;
+		return getChildren((Node) parent).indexOf(child);
+	}
+
+	@Override
+	public void addTreeModelListener(TreeModelListener l) {
+		listenerList.add(TreeModelListener.class, l);
+	}
+
+	@Override
+	public void removeTreeModelListener(TreeModelListener l) {
+		listenerList.remove(TreeModelListener.class, l);
+	}
+
+	/**
+	 * Returns children of a tree node, wrapping them on first access.
+	 *
+	 * @param node Parent node
+	 * @return Child nodes
+	 */
+	private ArrayList<Node> getChildren(Node node) {
+		if (node.children == null) {
+			ArrayList<? extends HoldingsDTO.PerformanceDataDTO> childData = getChildData(node.data);
+			node.children = new ArrayList<>(childData.size());
+
+			for (HoldingsDTO.PerformanceDataDTO data : childData) {
+				node.children.add(new Node(data));
 			}
+		}
+
+		return node.children;
+	}
 
-			root.add(holdingNode);
+	private static ArrayList<? extends HoldingsDTO.PerformanceDataDTO> getChildData(HoldingsDTO.PerformanceDataDTO data) {
+		if (data instanceof HoldingsDTO.EquityHoldingDTO) {
+			return ((HoldingsDTO.EquityHoldingDTO) data).positions;
 		}
 
-		outlineModel = (DefaultOutlineModel) DefaultOutlineModel.createOutlineModel(new DefaultTreeModel(root), new HoldingRowModel(parentType, parentID), true, "Ticker");
+		if (data instanceof HoldingsDTO.EquityPositionDTO) {
+			return ((HoldingsDTO.EquityPositionDTO) data).trades;
+		}
+
+		return new ArrayList<>();
 	}
 
-	public DefaultOutlineModel getOutlineModel() {
-		return outlineModel;
+	private void fireTreeNodesChanged(TreePath parentPath, int[] indices, Object[] children) {
+		TreeModelEvent e = new TreeModelEvent(this, parentPath, indices, children);
+		for (TreeModelListener listener : listenerList.getListeners(TreeModelListener.class)) {
+			listener.treeNodesChanged(e);
+		}
+	}
+
+	private void fireTreeNodesInserted(TreePath parentPath, int[] indices, Object[] children) {
+		TreeModelEvent e = new TreeModelEvent(this, parentPath, indices, children);
+		for (TreeModelListener listener : listenerList.getListeners(TreeModelListener.class)) {
+			listener.treeNodesInserted(e);
+		}
+	}
+
+	private void fireTreeNodesRemoved(TreePath parentPath, int[] indices, Object[] children) {
+		TreeModelEvent e = new TreeModelEvent(this, parentPath, indices, children);
+		for (TreeModelListener listener : listenerList.getListeners(TreeModelListener.class)) {
+			listener.treeNodesRemoved(e);
+		}
+	}
+
+	private void fireTreeStructureChanged(TreePath path) {
+		TreeModelEvent e = new TreeModelEvent(this, path);
+		for (TreeModelListener listener : listenerList.getListeners(TreeModelListener.class)) {
+			listener.treeStructureChanged(e);
+		}
 	}
 
 	/**
@@ -95,15 +369,6 @@ public class HoldingTable {
 
 	public class HoldingRowModel implements RowModel {
 
-		private ParentType parentType;
-
-		private int parentID;
-
-		public HoldingRowModel(ParentType parentType, int parentID) {
-			this.parentType = parentType;
-			this.parentID = parentID;
-		}
-
 		@Override
 		public int getColumnCount() {
 			return 9;
@@ -143,7 +408,7 @@ public class HoldingTable {
 		
 		@Override
 		public Object getValueFor(Object o, int column) {
-			Object userObject = ((DefaultMutableTreeNode) o).getUserObject();
+			Object userObject = ((Node) o).data;
 
 			if (userObject instanceof HoldingsDTO.PerformanceDataDTO) {
 				HoldingsDTO.PerformanceDataDTO objectWithPerformance = (HoldingsDTO.PerformanceDataDTO) userObject;
@@ -188,6 +453,38 @@ public class HoldingTable {
 		}
 	}
 	
+	/**
+	 * A tree node wrapping holding, position or trade data.
+	 */
+	private static class Node {
+
+		/**
+		 * Displayed data, <tt>null</tt> for the root node.
+		 */
+		HoldingsDTO.PerformanceDataDTO data;
+
+		private final String name;
+
+		/**
+		 * Child nodes, <tt>null</tt> until first accessed.
+		 */
+		ArrayList<Node> children;
+
+		Node(String name) {
+			this.name = name;
+		}
+
+		Node(HoldingsDTO.PerformanceDataDTO data) {
+			this.name = null;
+			this.data = data;
+		}
+
+		@Override
+		public String toString() {
+			return data == null ? name : data.toString();
+		}
+	}
+
 	public enum ParentType {
 		ACCOUNT,
 		PORTFOLIO
@@ -20,30 +20,144 @@
 
 package pl.traderate.desktop.view;
 
+import pl.traderate.core.EntryChangesDTO;
+import pl.traderate.core.EntryPageDTO;
 import pl.traderate.core.JournalEntryDTO;
 
 import javax.swing.*;
-import javax.swing.event.TableModelListener;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.TableModel;
 import java.awt.*;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- * A table model of journal entries.
+ * A virtual table model of journal entries.
+ *
+ * Only the row count is kept permanently. Entries are fetched from the model
+ * in pages when rows become visible, together with the neighbouring pages,
+ * and only a bounded number of recently used pages is retained.
  */
-public class JournalTable implements TableModel {
+public class JournalTable extends AbstractTableModel {
 
-	private ArrayList<JournalEntryDTO> entries;
-	
-	public JournalTable(ArrayList<JournalEntryDTO> entries) {
-		this.entries = entries;
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Number of entries fetched at once.
+	 */
+	private static final int PAGE_SIZE = 128;
+
+	/**
+	 * Maximum number of pages retained.
+	 */
+	private static final int MAX_CACHED_PAGES = 32;
+
+	/**
+	 * Number of pages fetched on either side of a missing one.
+	 */
+	private static final int PREFETCHED_PAGES = 1;
+
+	private final EntrySource source;
+
+	/**
+	 * Recently used pages keyed by their index, the least recently used first.
+	 */
+	private final LinkedHashMap<Integer, ArrayList<JournalEntryDTO>> pages;
+
+	/**
+	 * Pages read at another version, keyed by their index.
+	 *
+	 * They are kept until the end of the current event, so that painting the
+	 * remaining cells does not fetch them again before the changes arrive.
+	 */
+	private final HashMap<Integer, ArrayList<JournalEntryDTO>> pendingPages;
+
+	/**
+	 * IDs of entries marked for removal.
+	 */
+	private final HashSet<Integer> entryIDsToDelete;
+
+	private final SimpleDateFormat dateFormat;
+
+	private int rowCount;
+
+	/**
+	 * Model version of the displayed entries.
+	 */
+	private long version;
+
+	/**
+	 * Creates a table model reading entries from a given source.
+	 *
+	 * @param source Source of entry pages
+	 */
+	public JournalTable(EntrySource source) {
+		this.source = source;
+		this.pages = new LinkedHashMap<Integer, ArrayList<JournalEntryDTO>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, ArrayList<JournalEntryDTO>> eldest) {
+				return size() > MAX_CACHED_PAGES;
+			}
+		};
+		this.pendingPages = new HashMap<>();
+		this.entryIDsToDelete = new HashSet<>();
+		this.dateFormat = new SimpleDateFormat("dd.MM.yyyy");
+
+		reload();
+	}
+
+	/**
+	 * Applies entry changes reported by the model.
+	 *
+	 * @param changes Entries added and removed since {@link #getVersion()}
+	 */
+	public void applyChanges(EntryChangesDTO changes) {
+		pages.clear();
+		pendingPages.clear();
+
+		for (int i = 0; i < changes.removedRows.length; ++i) {
+			int row = changes.removedRows[i];
+			if (row < 0 || row >= rowCount) {
+				reload();
+				fireTableDataChanged();
+				return;
+			}
+
+			entryIDsToDelete.remove(changes.removedEntries.get(i).ID);
+			rowCount--;
+			fireTableRowsDeleted(row, row);
+		}
+
+		for (int row : changes.addedRows) {
+			if (row < 0 || row > rowCount) {
+				reload();
+				fireTableDataChanged();
+				return;
+			}
+
+			rowCount++;
+			fireTableRowsInserted(row, row);
+		}
+
+		version = changes.version;
+	}
+
+	/**
+	 * Returns the model version of the displayed entries.
+	 *
+	 * @return Model version
+	 */
+	public long getVersion() {
+		return version;
 	}
 
 	@Override
 	public int getRowCount() {
-		return entries.size();
+		return rowCount;
 	}
 
 	@Override
@@ -121,12 +235,21 @@ public class JournalTable implements TableModel {
 
 	@Override
 	public Object getValueAt(int row, int column) {
-		JournalEntryDTO entry = entries.get(row);
+		if (column == 11) {
+			JournalEntryDTO entry = getEntry(row);
+			return entry != null && entryIDsToDelete.contains(entry.ID);
+		}
+
+		JournalEntryDTO entry = getEntry(row);
+		if (entry == null) {
+			return "";
+		}
+
 		switch (column) {
 			case 0:
 				return entry.ID;
 			case 1:
-				return new SimpleDateFormat("dd.MM.yyyy").format(entry.date);
+				return dateFormat.format(entry.date);
 			case 2:
 				return entry.accountName;
 			case 3:
@@ -145,8 +268,6 @@ public class JournalTable implements TableModel {
 				return entry.commission == null ? "---" : entry.commission;
 			case 10:
 				return entry.comment;
-			case 11:
-				return entry.deleteFlag;
 			default: return "";
 		}
 	}
@@ -154,8 +275,14 @@ public class JournalTable implements TableModel {
 	@Override
 	public void setValueAt(Object value, int row, int column) {
 		if (column == 11) {
-			JournalEntryDTO entry = entries.get(row);
-			entry.deleteFlag = (Boolean) value;
+			JournalEntryDTO entry = getEntry(row);
+			if (entry == null) return;
+
+			if ((Boolean) value) {
+				entryIDsToDelete.add(entry.ID);
+			} else {
+				entryIDsToDelete.remove(entry.ID);
+			}
 		}
 	}
 
@@ -165,27 +292,106 @@ public class JournalTable implements TableModel {
 		return false;
 	}
 
-	@Override
-	public void addTableModelListener(TableModelListener l) {
+	public ArrayList<Integer> getEntryIDsToDelete() {
+		return new ArrayList<>(entryIDsToDelete);
+	}
+
+	/**
+	 * Returns an entry displayed in a given row, fetching its page if needed.
+	 *
+	 * @param row Table row
+	 * @return Displayed entry, <tt>null</tt> if it could not be fetched
+	 */
+	private JournalEntryDTO getEntry(int row) {
+		int pageIndex = row / PAGE_SIZE;
+		ArrayList<JournalEntryDTO> page = pages.get(pageIndex);
+
+		if (page == null) {
+			page = pendingPages.get(pageIndex);
+		}
+
+		if (page == null) {
+			// Neighbouring pages are fetched along, as scrolling usually continues in one direction
+			int firstPageIndex = Math.max(pageIndex - PREFETCHED_PAGES, 0);
+			int lastPageIndex = pageIndex + PREFETCHED_PAGES;
+
+			EntryPageDTO entryPage = source.getEntryPage(firstPageIndex * PAGE_SIZE, (lastPageIndex - firstPageIndex + 1) * PAGE_SIZE);
+			if (entryPage == null) {
+				return null;
+			}
+
+			for (int i = firstPageIndex; i <= lastPageIndex; ++i) {
+				int firstOffset = (i - firstPageIndex) * PAGE_SIZE;
+				if (firstOffset >= entryPage.entries.size() && i != pageIndex) {
+					break;
+				}
 
+				ArrayList<JournalEntryDTO> fetchedPage = new ArrayList<>(entryPage.entries.subList(Math.min(firstOffset, entryPage.entries.size()), Math.min(firstOffset + PAGE_SIZE, entryPage.entries.size())));
+
+				// Pages read at another version are only valid until the pending changes arrive
+				if (entryPage.version == version) {
+					pages.put(i, fetchedPage);
+				} else {
+					putPendingPage(i, fetchedPage);
+				}
+
+				if (i == pageIndex) {
+					page = fetchedPage;
+				}
+			}
+		}
+
+		int offset = row - pageIndex * PAGE_SIZE;
+		return offset < page.size() ? page.get(offset) : null;
 	}
 
-	@Override
-	public void removeTableModelListener(TableModelListener l) {
+	private void putPendingPage(int pageIndex, ArrayList<JournalEntryDTO> page) {
+		if (pendingPages.isEmpty()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					pendingPages.clear();
+				}
+			});
+		}
 
+		pendingPages.put(pageIndex, page);
 	}
 
-	public ArrayList<JournalEntryDTO> getEntriesToDelete() {
-		ArrayList<JournalEntryDTO> entriesToDelete = new ArrayList<>();
-		for (JournalEntryDTO entry : entries) {
-			if (entry.deleteFlag) {
-				entriesToDelete.add(entry);
-			}
+	/**
+	 * Discards all pages and reads the row count and version anew.
+	 */
+	private void reload() {
+		pages.clear();
+		pendingPages.clear();
+
+		EntryPageDTO entryPage = source.getEntryPage(0, PAGE_SIZE);
+		if (entryPage == null) {
+			rowCount = 0;
+			version = 0;
+			return;
 		}
 
-		return entriesToDelete;
+		rowCount = entryPage.entryCount;
+		version = entryPage.version;
+		pages.put(0, entryPage.entries);
 	}
-	
+
+	/**
+	 * A source of journal entries in display order.
+	 */
+	public interface EntrySource {
+
+		/**
+		 * Returns a range of entries.
+		 *
+		 * @param firstRow Position of the first entry
+		 * @param count    Maximum number of entries
+		 * @return Page of entries, <tt>null</tt> if no entries are available
+		 */
+		EntryPageDTO getEntryPage(int firstRow, int count);
+	}
+
 	public class TypeCellRenderer extends DefaultTableCellRenderer {
 
 		public TypeCellRenderer() {
@@ -21,7 +21,8 @@
 package pl.traderate.desktop.view;
 
 import pl.traderate.core.AccountDTO;
-import pl.traderate.core.JournalEntryDTO;
+import pl.traderate.core.EntryChangesDTO;
+import pl.traderate.core.EntryPageDTO;
 import pl.traderate.core.PortfolioNodeDTO;
 import pl.traderate.desktop.presenter.JournalPresenter;
 
@@ -34,8 +35,6 @@ public class JournalViewModel extends GenericViewModel {
 
 	protected JournalView view;
 
-	protected ArrayList<JournalEntryDTO> entries;
-	
 	protected JournalTable journalTable;
 
 	protected ArrayList<AccountDTO> accounts;
@@ -114,13 +113,30 @@ public class JournalViewModel extends GenericViewModel {
 		return view;
 	}
 
-	public void setEntries(ArrayList<JournalEntryDTO> entries) {
-		this.entries = entries;
-		journalTable = new JournalTable(this.entries);
+	/**
+	 * Replaces the displayed entries with ones read from a given source.
+	 *
+	 * @param source Source of entry pages
+	 */
+	public void setEntries(JournalTable.EntrySource source) {
+		journalTable = new JournalTable(source);
 
 		notifyChange(SyncType.ENTRIES);
 	}
 
+	/**
+	 * Applies entry changes to the current table.
+	 *
+	 * @param changes Entries added and removed since {@link #getEntriesVersion()}
+	 */
+	public void updateEntries(EntryChangesDTO changes) {
+		journalTable.applyChanges(changes);
+	}
+
+	public long getEntriesVersion() {
+		return journalTable.getVersion();
+	}
+
 	public JournalTable getJournalTable() {
 		return journalTable;
 	}
@@ -150,8 +166,12 @@ public class JournalViewModel extends GenericViewModel {
 	}
 
 	public void purgeEntries() {
-		entries = new ArrayList<>();
-		journalTable = new JournalTable(entries);
+		journalTable = new JournalTable(new JournalTable.EntrySource() {
+			@Override
+			public EntryPageDTO getEntryPage(int firstRow, int count) {
+				return null;
+			}
+		});
 		notifyChange(SyncType.ENTRIES);
 	}
 
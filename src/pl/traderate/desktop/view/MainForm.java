@@ -119,6 +119,7 @@ public class MainForm extends GenericForm {
 		fileChooser = new JFileChooser();
 		FileFilter xmlFilter = new XMLFileFilter();
 		fileChooser.addChoosableFileFilter(xmlFilter);
+		fileChooser.addChoosableFileFilter(new BinaryFileFilter());
 		fileChooser.setFileFilter(xmlFilter);
 
 		manageTreeButton.addActionListener(this.view.new OnManageButtonClicked());
@@ -186,4 +187,21 @@ public class MainForm extends GenericForm {
 			return extension;
 		}
 	}
+
+	public static class BinaryFileFilter extends XMLFileFilter {
+
+		@Override
+		public boolean accept(File file) {
+			if (file.isDirectory()) {
+				return true;
+			}
+
+			return "trj".equals(getExtension(file));
+		}
+
+		@Override
+		public String getDescription() {
+			return "Binarne pliki dziennika (.trj)";
+		}
+	}
 }
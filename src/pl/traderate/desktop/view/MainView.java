@@ -246,7 +246,11 @@ public class MainView extends GenericView {
 						return;
 					}
 				} else {
-					if (form.fileChooser.getFileFilter() instanceof MainForm.XMLFileFilter) {
+					if (form.fileChooser.getFileFilter() instanceof MainForm.BinaryFileFilter) {
+						if (!file.getPath().toLowerCase().endsWith(".trj")) {
+							file = new File(file.getPath() + ".trj");
+						}
+					} else if (form.fileChooser.getFileFilter() instanceof MainForm.XMLFileFilter) {
 						if (!file.getPath().toLowerCase().endsWith(".xml")) {
 							file = new File(file.getPath() + ".xml");
 						}
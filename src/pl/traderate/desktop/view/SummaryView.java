@@ -75,10 +75,17 @@ public class SummaryView extends GenericView {
 							form.realizedIncome.setText(viewModel.getRealizedIncome() == null ? "---" : viewModel.getRealizedIncome().toPlainString());
 							form.realizedCost.setText(viewModel.getRealizedCost() == null ? "---" : viewModel.getRealizedCost().toPlainString());
 
-							form.openHoldingsTreeTable.setModel(viewModel.getOpenHoldingsTreeTable());
-							form.closedHoldingsTreeTable.setModel(viewModel.getClosedHoldingsTreeTable());
-							HoldingTable.install(form.openHoldingsTreeTable);
-							HoldingTable.install(form.closedHoldingsTreeTable);
+							// Holding tables of the same node are updated in place
+							if (form.openHoldingsTreeTable.getModel() != viewModel.getOpenHoldingsTreeTable()) {
+								form.openHoldingsTreeTable.setModel(viewModel.getOpenHoldingsTreeTable());
+								HoldingTable.install(form.openHoldingsTreeTable);
+							}
+
+							if (form.closedHoldingsTreeTable.getModel() != viewModel.getClosedHoldingsTreeTable()) {
+								form.closedHoldingsTreeTable.setModel(viewModel.getClosedHoldingsTreeTable());
+								HoldingTable.install(form.closedHoldingsTreeTable);
+							}
+
 							form.allocationTable.setModel(viewModel.getAllocationTable());
 							AllocationTable.install(form.allocationTable);
 							break;
@@ -71,9 +71,9 @@ public class SummaryViewModel extends GenericViewModel {
 	
 	protected HoldingsDTO holdings;
 
-	private OutlineModel openHoldingsTreeTable;
+	private HoldingTable openHoldingsTreeTable;
 
-	private OutlineModel closedHoldingsTreeTable;
+	private HoldingTable closedHoldingsTreeTable;
 
 	public SummaryViewModel(SummaryPresenter presenter) {
 		super(presenter);
@@ -146,15 +146,27 @@ public class SummaryViewModel extends GenericViewModel {
 		notifyChange(SyncType.NODE);
 	}
 
+	/**
+	 * Updates holding tables in place if they show the same node.
+	 *
+	 * Model updates of the displayed node then keep expanded rows expanded.
+	 */
 	private void updateHoldings() {
 		HoldingTable.ParentType parentType = nodeType == NodeType.PORTFOLIO ? HoldingTable.ParentType.PORTFOLIO : HoldingTable.ParentType.ACCOUNT;
-		openHoldingsTreeTable = new HoldingTable("Otwarte pozycje", holdings.equityHoldings, false, parentType, nodeID).getOutlineModel();
-		closedHoldingsTreeTable = new HoldingTable("Zamknięte pozycje", holdings.closedEquityHoldings, true, parentType, nodeID).getOutlineModel();
+
+		if (openHoldingsTreeTable != null && openHoldingsTreeTable.isShowing(parentType, nodeID)) {
+			openHoldingsTreeTable.setHoldings(holdings.equityHoldings);
+			closedHoldingsTreeTable.setHoldings(holdings.closedEquityHoldings);
+			return;
+		}
+
+		openHoldingsTreeTable = new HoldingTable("Otwarte pozycje", holdings.equityHoldings, false, parentType, nodeID);
+		closedHoldingsTreeTable = new HoldingTable("Zamknięte pozycje", holdings.closedEquityHoldings, true, parentType, nodeID);
 	}
 
 	private void purgeHoldings() {
-		openHoldingsTreeTable = new HoldingTable("Otwarte pozycje", new ArrayList<HoldingsDTO.EquityHoldingDTO>(), false, HoldingTable.ParentType.PORTFOLIO, 0).getOutlineModel();
-		closedHoldingsTreeTable = new HoldingTable("Zamknięte pozycje", new ArrayList<HoldingsDTO.EquityHoldingDTO>(), true, HoldingTable.ParentType.PORTFOLIO, 0).getOutlineModel();
+		openHoldingsTreeTable = new HoldingTable("Otwarte pozycje", new ArrayList<HoldingsDTO.EquityHoldingDTO>(), false, HoldingTable.ParentType.PORTFOLIO, 0);
+		closedHoldingsTreeTable = new HoldingTable("Zamknięte pozycje", new ArrayList<HoldingsDTO.EquityHoldingDTO>(), true, HoldingTable.ParentType.PORTFOLIO, 0);
 	}
 
 	public String getNodeName() {
@@ -210,11 +222,11 @@ public class SummaryViewModel extends GenericViewModel {
 	}
 
 	public OutlineModel getOpenHoldingsTreeTable() {
-		return openHoldingsTreeTable;
+		return openHoldingsTreeTable.getOutlineModel();
 	}
 
 	public OutlineModel getClosedHoldingsTreeTable() {
-		return closedHoldingsTreeTable;
+		return closedHoldingsTreeTable.getOutlineModel();
 	}
 
 	public TableModel getAllocationTable() {
@@ -20,39 +20,100 @@
 
 package pl.traderate.core;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import junit.extensions.PA;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import pl.traderate.core.event.GenericModelEvent;
+import pl.traderate.core.event.GenericModelEventListenerAdapter;
+import pl.traderate.core.event.GenericModelEventSource;
+import pl.traderate.core.event.JournalClosedModelEvent;
+import pl.traderate.core.event.JournalUpdatedModelEvent;
+import pl.traderate.core.event.NodesUpdatedModelEvent;
+import pl.traderate.core.event.QuoteUpdatedModelEvent;
 import pl.traderate.core.exception.EntryInsertionException;
+import pl.traderate.core.exception.GlobalPortfolioRemovalException;
 import pl.traderate.core.exception.InvalidInputException;
+import pl.traderate.core.exception.JournalLoadException;
+import pl.traderate.core.exception.JournalSaveException;
+import pl.traderate.core.exception.NodeNotEmptyException;
 import pl.traderate.core.exception.ObjectConstraintsException;
 import pl.traderate.core.exception.ObjectNotFoundException;
+import pl.traderate.data.CompositeQuoteProvider;
+import pl.traderate.data.HttpQuoteProvider;
+import pl.traderate.data.PriceHistory;
+import pl.traderate.data.Quote;
+import pl.traderate.data.QuoteCacheStatistics;
+import pl.traderate.data.QuoteEngine;
+import pl.traderate.data.QuoteListener;
+import pl.traderate.data.QuoteProvider;
+import pl.traderate.data.QuoteProviders;
+import pl.traderate.data.ReplayQuoteProvider;
+import pl.traderate.desktop.view.HoldingTable;
+import pl.traderate.desktop.view.JournalTable;
 import pl.traderate.test.TestNotImplementedError;
 
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.GregorianCalendar;
-
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class JournalFixture {
 
 	private Journal journal;
-	private ArrayList<Account> accounts;
-	private ArrayList<JournalEntry> entries;
-	private ArrayList<Portfolio> portfolios;
+	private IdentifiableRegistry<Account> accounts;
+	private IdentifiableRegistry<JournalEntry> entries;
+	private IdentifiableRegistry<Portfolio> portfolios;
 	private ArrayList<Tag> tags;
 
 	@Before
 	@SuppressWarnings("unchecked")
 	public void setUp() throws NoSuchFieldException {
 		journal = new Journal("Secret trade journal", "John Doe");
-		accounts = (ArrayList<Account>) PA.getValue(journal, "accounts");
-		portfolios = (ArrayList<Portfolio>) PA.getValue(journal, "portfolios");
-		entries = (ArrayList<JournalEntry>) PA.getValue(journal, "entries");
+		accounts = (IdentifiableRegistry<Account>) PA.getValue(journal, "accounts");
+		portfolios = (IdentifiableRegistry<Portfolio>) PA.getValue(journal, "portfolios");
+		entries = (IdentifiableRegistry<JournalEntry>) PA.getValue(journal, "entries");
 		tags = (ArrayList<Tag>) PA.getValue(journal, "tags");
 	}
 
@@ -310,6 +371,38 @@ public class JournalFixture {
 		journal.addCashDeallocationEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", new BigDecimal("-300.00"));
 	}
 
+	@Test
+	public void shouldRemoveEntriesPreservingOrder() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException {
+		journal.addAccount("Test account #1");
+
+		for (int i = 0; i < 3000; ++i) {
+			journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("100.00"));
+		}
+
+		ArrayList<JournalEntry> remainingEntries = new ArrayList<>();
+
+		for (int i = 0; i < entries.size(); ++i) {
+			if (i % 3 != 0) {
+				remainingEntries.add(entries.get(i));
+			}
+		}
+
+		for (int entryID = 2999; entryID >= 0; entryID -= 3) {
+			journal.removeEntry(entryID - 2);
+		}
+
+		assertEquals(remainingEntries, new ArrayList<>(entries));
+		assertEquals(remainingEntries, accounts.get(0).getEntries());
+		assertEquals(new BigDecimal("200000.00"), accounts.get(0).getCashBalance());
+
+		for (JournalEntry entry : remainingEntries) {
+			assertEquals(entry, entries.find(entry.getID()));
+		}
+
+		assertTrue(!entries.containsID(0));
+		assertTrue(!entries.containsID(2997));
+	}
+
 	@Test
 	public void shouldHandleEquityOperations() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException {
 		journal.addAccount("Test account #1");              // ID: 0
@@ -650,6 +743,33 @@ public class JournalFixture {
 		journal.addSellEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 6).getTime(), "Some comment", "TICKER-A", new BigDecimal("30"), new BigDecimal("10.00"), new BigDecimal("0.00"));
 	}
 
+	@Test
+	public void shouldCloseRemainderOfSplitTradeFirst() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException {
+		journal.addAccount("Test account #1");              // ID: 0
+		journal.addPortfolio("Test portfolio #1", 0);       // ID: 1
+
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("1000.00"));
+		journal.addCashAllocationEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("1000.00"));
+
+		// Two trades of the same day, the first one is split by the first sell
+		journal.addBuyEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", "TICKER-A", new BigDecimal("10"), new BigDecimal("1.00"), new BigDecimal("0.00"));
+		journal.addBuyEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", "TICKER-A", new BigDecimal("10"), new BigDecimal("2.00"), new BigDecimal("0.00"));
+		journal.addSellEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 3).getTime(), "Some comment", "TICKER-A", new BigDecimal("4"), new BigDecimal("3.00"), new BigDecimal("0.00"));
+		journal.addSellEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 4).getTime(), "Some comment", "TICKER-A", new BigDecimal("8"), new BigDecimal("3.00"), new BigDecimal("0.00"));
+
+		for (HoldingList holdings : Arrays.asList(accounts.get(0).getHoldings(), portfolios.get(1).getHoldings())) {
+			EquityHolding openHolding = holdings.getEquityHoldings().findByName("TICKER-A");
+			EquityHolding closedHolding = holdings.getClosedEquityHoldings().findByName("TICKER-A");
+
+			// The remaining 6 x 1.00 are closed by the second sell before 2 x 2.00
+			assertTrue(new BigDecimal("8").compareTo(openHolding.getQuantity()) == 0);
+			assertTrue(new BigDecimal("16").compareTo(openHolding.getOpenValue()) == 0);
+			assertTrue(new BigDecimal("12").compareTo(closedHolding.getQuantity()) == 0);
+			assertTrue(new BigDecimal("14").compareTo(closedHolding.getOpenValue()) == 0);
+			assertTrue(new BigDecimal("22").compareTo(closedHolding.getRealizedGain()) == 0);
+		}
+	}
+
 	@Test(expected=InvalidInputException.class)
 	public void shouldRejectEquityOperationsGivenNegativePrice() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException {
 		journal.addAccount("Test account #1");
@@ -678,6 +798,1906 @@ public class JournalFixture {
 		journal.addBuyEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", "TICKER", new BigDecimal("30"), new BigDecimal("1.50"), new BigDecimal("-2.00"));
 	}
 
+	@Test
+	public void shouldReplayBackdatedEntriesFromCheckpoints() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException, NoSuchFieldException {
+		journal.addAccount("Test account #1");
+		journal.addPortfolio("Test portfolio #1", 0);
+		populateOddDayHistory(journal, 1, 3200, 0);
+
+		Account account = accounts.get(0);
+
+		// Back-dated entries land on even days, so that their order is unambiguous
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", new BigDecimal("250.00"));
+		assertTrue(((CheckpointList<?>) PA.getValue(account, "checkpoints")).size() > 0);
+		journal.addBuyEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 1200).getTime(), "Some comment", "TICKER-B", new BigDecimal("3"), new BigDecimal("4.00"), new BigDecimal("1.00"));
+
+		// Changes close to the end of the history are replayed from a checkpoint
+		for (JournalEntry entry : new ArrayList<>(account.getEntries())) {
+			if (entry instanceof CashDepositEntry && entry.getDate().equals(new GregorianCalendar(2000, 0, 2901, 12, 0).getTime())) {
+				journal.removeEntry(entry.getID());
+			}
+		}
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 3000).getTime(), "Some comment", new BigDecimal("100.00"));
+
+		// Build the same history in chronological order
+		Journal referenceJournal = new Journal("Reference journal", "John Doe");
+		referenceJournal.addAccount("Test account #1");
+		referenceJournal.addPortfolio("Test portfolio #1", 0);
+		populateOddDayHistory(referenceJournal, 1, 2, 0);
+		referenceJournal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", new BigDecimal("250.00"));
+		populateOddDayHistory(referenceJournal, 3, 1200, 0);
+		referenceJournal.addBuyEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 1200).getTime(), "Some comment", "TICKER-B", new BigDecimal("3"), new BigDecimal("4.00"), new BigDecimal("1.00"));
+		populateOddDayHistory(referenceJournal, 1201, 3000, 2901);
+		referenceJournal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 3000).getTime(), "Some comment", new BigDecimal("100.00"));
+		populateOddDayHistory(referenceJournal, 3001, 3200, 0);
+
+		Account referenceAccount = referenceJournal.getAccount(0);
+
+		assertEquals(referenceAccount.getEntries().size(), account.getEntries().size());
+		assertEquals(referenceAccount.getCashBalance(), account.getCashBalance());
+		assertEquals(referenceAccount.getUnallocatedCash(), account.getUnallocatedCash());
+		assertEquals(referenceAccount.getCashAllocation(1), account.getCashAllocation(1));
+		assertEquals(referenceAccount.getHoldings().getOpenValue(), account.getHoldings().getOpenValue());
+		assertEquals(referenceAccount.getHoldings().getRealizedGain(), account.getHoldings().getRealizedGain());
+		assertEquals(referenceAccount.getHoldings().getRealizedCost(), account.getHoldings().getRealizedCost());
+		assertEquals(referenceAccount.getHoldings().getEquityHoldings().size(), account.getHoldings().getEquityHoldings().size());
+		assertEquals(referenceAccount.getHoldings().getClosedEquityHoldings().size(), account.getHoldings().getClosedEquityHoldings().size());
+	}
+
+	@Test
+	public void shouldAggregateBackdatedPortfolioEntries() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException {
+		journal.addAccount("Test account #1");
+		journal.addPortfolio("Test portfolio #1", 0);
+		journal.addPortfolio("Test portfolio #2", 1);
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("10000.00"));
+		journal.addCashAllocationEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 4).getTime(), "Some comment", new BigDecimal("2000.00"));
+		journal.addBuyEquityTransactionEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 5).getTime(), "Some comment", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), new BigDecimal("5.00"));
+
+		// Back-dated entries in the middle of the hierarchy
+		journal.addCashAllocationEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", new BigDecimal("1000.00"));
+		journal.addBuyEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 3).getTime(), "Some comment", "TICKER-B", new BigDecimal("5"), new BigDecimal("20.00"), new BigDecimal("0.00"));
+
+		ArrayList<Portfolio> backdatedPortfolios = new ArrayList<>(portfolios);
+
+		// Build the same history in chronological order
+		Journal referenceJournal = new Journal("Reference journal", "John Doe");
+		referenceJournal.addAccount("Test account #1");
+		referenceJournal.addPortfolio("Test portfolio #1", 0);
+		referenceJournal.addPortfolio("Test portfolio #2", 1);
+		referenceJournal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("10000.00"));
+		referenceJournal.addCashAllocationEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", new BigDecimal("1000.00"));
+		referenceJournal.addBuyEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 3).getTime(), "Some comment", "TICKER-B", new BigDecimal("5"), new BigDecimal("20.00"), new BigDecimal("0.00"));
+		referenceJournal.addCashAllocationEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 4).getTime(), "Some comment", new BigDecimal("2000.00"));
+		referenceJournal.addBuyEquityTransactionEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 5).getTime(), "Some comment", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), new BigDecimal("5.00"));
+
+		assertEquals(new BigDecimal("2795.00"), backdatedPortfolios.get(1).getAggregatedCashBalance());
+
+		for (int i = 0; i < backdatedPortfolios.size(); ++i) {
+			Portfolio portfolio = backdatedPortfolios.get(i);
+			Portfolio referencePortfolio = referenceJournal.getPortfolio(portfolio.getID());
+
+			assertEquals(referencePortfolio.getCashBalance(), portfolio.getCashBalance());
+			assertEquals(referencePortfolio.getAggregatedCashBalance(), portfolio.getAggregatedCashBalance());
+			assertEquals(referencePortfolio.getHoldings().getOpenValue(), portfolio.getHoldings().getOpenValue());
+			assertEquals(referencePortfolio.getAggregatedHoldings().getOpenValue(), portfolio.getAggregatedHoldings().getOpenValue());
+		}
+	}
+
+	@Test
+	public void shouldAggregateChildHoldingsWithoutCopyingTrades() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException {
+		journal.addAccount("Test account #1");
+		journal.addPortfolio("Test portfolio #1", 0);       // ID: 1
+		journal.addPortfolio("Test portfolio #1.1", 1);     // ID: 2
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("10000.00"));
+		journal.addCashAllocationEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("1000.00"));
+		journal.addCashAllocationEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("1000.00"));
+		journal.addBuyEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 3).getTime(), "Some comment", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), new BigDecimal("5.00"));
+		journal.addBuyEquityTransactionEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", "TICKER-A", new BigDecimal("5"), new BigDecimal("20.00"), new BigDecimal("1.00"));
+
+		EquityHolding holding = portfolios.get(1).getAggregatedHoldings().getEquityHoldings().findByName("TICKER-A");
+
+		assertEquals(0, holding.trades.size());
+		assertTrue(new BigDecimal("15").compareTo(holding.getQuantity()) == 0);
+		assertTrue(new BigDecimal("200").compareTo(holding.getOpenValue()) == 0);
+		assertTrue(new BigDecimal("6").compareTo(holding.getCommission()) == 0);
+
+		ArrayList<EquityTrade> trades = holding.getPositions().findByName("2000-01").getTrades();
+
+		assertEquals(2, trades.size());
+		assertTrue(new BigDecimal("5").compareTo(trades.get(0).getQuantity()) == 0);
+		assertTrue(new BigDecimal("10").compareTo(trades.get(1).getQuantity()) == 0);
+
+		journal.addSellEquityTransactionEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 4).getTime(), "Some comment", "TICKER-A", new BigDecimal("5"), new BigDecimal("30.00"), new BigDecimal("0.00"));
+
+		HoldingList holdings = portfolios.get(1).getAggregatedHoldings();
+
+		assertTrue(new BigDecimal("10").compareTo(holdings.getEquityHoldings().findByName("TICKER-A").getQuantity()) == 0);
+		assertTrue(new BigDecimal("49.00").compareTo(holdings.getRealizedGain()) == 0);
+	}
+
+	@Test
+	public void shouldLoadSavedJournal() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException, NoSuchFieldException, JournalSaveException, JournalLoadException, IOException {
+		journal.addAccount("Test account #1");
+		journal.addPortfolio("Test portfolio #1", 0);
+		journal.addPortfolio("Test portfolio #1.1", 1);
+		populateOddDayHistory(journal, 1, 400, 0);
+
+		// Back-dated entries are stored out of chronological order
+		journal.addCashAllocationEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", new BigDecimal("40.00"));
+		journal.addBuyEquityTransactionEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", "TICKER-C", new BigDecimal("3"), new BigDecimal("4.00"), new BigDecimal("1.00"));
+
+		ArrayList<Integer> entryIDs = new ArrayList<>();
+		for (JournalEntry entry : entries) {
+			entryIDs.add(entry.getID());
+		}
+
+		Account account = accounts.get(0);
+		Portfolio portfolio = portfolios.get(1);
+
+		File file = File.createTempFile("journal", ".xml");
+		file.deleteOnExit();
+		journal.saveToFile(file);
+
+		Journal loadedJournal = new Journal("", "");
+		loadedJournal.loadFromFile(file);
+
+		ArrayList<Integer> loadedEntryIDs = new ArrayList<>();
+		for (JournalEntry entry : loadedJournal.getEntries()) {
+			loadedEntryIDs.add(entry.getID());
+		}
+
+		Account loadedAccount = loadedJournal.getAccount(0);
+		Portfolio loadedPortfolio = loadedJournal.getPortfolio(1);
+
+		assertEquals(entryIDs, loadedEntryIDs);
+		assertEquals(account.getCashBalance(), loadedAccount.getCashBalance());
+		assertEquals(account.getUnallocatedCash(), loadedAccount.getUnallocatedCash());
+		assertEquals(account.getHoldings().getOpenValue(), loadedAccount.getHoldings().getOpenValue());
+		assertEquals(account.getHoldings().getRealizedGain(), loadedAccount.getHoldings().getRealizedGain());
+		assertEquals(portfolio.getAggregatedCashBalance(), loadedPortfolio.getAggregatedCashBalance());
+		assertEquals(portfolio.getAggregatedHoldings().getOpenValue(), loadedPortfolio.getAggregatedHoldings().getOpenValue());
+		assertEquals(portfolio.getAggregatedHoldings().getEquityHoldings().size(), loadedPortfolio.getAggregatedHoldings().getEquityHoldings().size());
+		assertTrue(loadedJournal.getLoadDuration() > 0);
+	}
+
+	@Test
+	public void shouldReplaceSavedJournalFile() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, JournalSaveException, JournalLoadException, IOException {
+		journal.addAccount("Test account #1");
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some <comment> & \"quotes\"", new BigDecimal("100.00"));
+
+		File directory = Files.createTempDirectory("journal").toFile();
+		File file = new File(directory, "journal.xml");
+		Files.write(file.toPath(), "Previous contents".getBytes("UTF-8"));
+
+		journal.saveToFile(file);
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", new BigDecimal("50.00"));
+		journal.saveToFile(file);
+
+		assertEquals(1, directory.list().length);
+
+		Journal loadedJournal = new Journal("", "");
+		loadedJournal.loadFromFile(file);
+
+		assertEquals(new BigDecimal("150.00"), loadedJournal.getAccount(0).getCashBalance());
+		assertEquals("Some <comment> & \"quotes\"", loadedJournal.getEntries().get(0).getComment());
+
+		file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void shouldConvertJournalBetweenXMLAndBinaryFormats() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException, NoSuchFieldException, JournalSaveException, JournalLoadException, IOException {
+		journal.addAccount("Test account #1");
+		journal.addPortfolio("Test portfolio #1", 0);
+		journal.addPortfolio("Test portfolio #1.1", 1);
+		populateOddDayHistory(journal, 1, 200, 0);
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(1969, 11, 31).getTime(), "Zażółć <gęślą> jaźń", new BigDecimal("12345678901234.56"));
+		journal.addCashAllocationEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "", new BigDecimal("0.01"));
+		journal.addCashDeallocationEntry(0, 2, "Example tag", new GregorianCalendar(2000, 0, 400).getTime(), "Some comment", new BigDecimal("0.01"));
+		journal.addCashWithdrawalEntry(0, "Example tag", new GregorianCalendar(2000, 0, 400).getTime(), "Some comment", new BigDecimal("1.00"));
+		journal.removeEntry(6);
+
+		File directory = Files.createTempDirectory("journal").toFile();
+		File xmlFile = new File(directory, "journal.xml");
+		File binaryFile = new File(directory, "journal." + JournalBinaryFormat.EXTENSION);
+		File convertedFile = new File(directory, "converted.xml");
+
+		journal.saveToFile(xmlFile);
+
+		Journal binaryJournal = new Journal("", "");
+		binaryJournal.loadFromFile(xmlFile);
+		binaryJournal.saveToFile(binaryFile);
+
+		Journal convertedJournal = new Journal("", "");
+		convertedJournal.loadFromFile(binaryFile);
+		convertedJournal.saveToFile(convertedFile);
+
+		assertTrue(JournalBinaryFormat.isBinaryJournal(binaryFile));
+		assertTrue(Arrays.equals(Files.readAllBytes(xmlFile.toPath()), Files.readAllBytes(convertedFile.toPath())));
+		assertEquals(binaryJournal.getAccount(0).getCashBalance(), convertedJournal.getAccount(0).getCashBalance());
+		assertEquals(binaryJournal.getPortfolio(1).getAggregatedHoldings().getOpenValue(), convertedJournal.getPortfolio(1).getAggregatedHoldings().getOpenValue());
+
+		xmlFile.delete();
+		binaryFile.delete();
+		convertedFile.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void shouldReplayMutationLogOnTopOfSnapshot() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException, NodeNotEmptyException, GlobalPortfolioRemovalException, JournalSaveException, JournalLoadException, IOException {
+		journal.addAccount("Test account #1");
+		journal.addPortfolio("Test portfolio #1", 0);
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("1000.00"));
+		journal.addCashAllocationEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", new BigDecimal("500.00"));
+
+		File directory = Files.createTempDirectory("journal").toFile();
+		File file = new File(directory, "journal.xml");
+		File logFile = JournalLog.getLogFile(file);
+
+		journal.setGeneration(1);
+		journal.saveToFile(file);
+		JournalLog log = JournalLog.create(logFile, 1);
+
+		// Changes after the snapshot only go to the log
+		journal.addAccount("Test account #2");
+		log.addAccount("Test account #2");
+		journal.addPortfolio("Test portfolio #2", 1);
+		log.addPortfolio("Test portfolio #2", 1);
+		journal.addPortfolio("Test portfolio #3", 0);
+		log.addPortfolio("Test portfolio #3", 0);
+		journal.removePortfolio(3);
+		log.removePortfolio(3);
+		journal.addCashDepositEntry(1, "Example tag", new GregorianCalendar(2000, 0, 3).getTime(), "Some comment", new BigDecimal("300.00"));
+		log.addCashDepositEntry(1, "Example tag", new GregorianCalendar(2000, 0, 3).getTime(), "Some comment", new BigDecimal("300.00"));
+		journal.addCashAllocationEntry(1, 2, "Example tag", new GregorianCalendar(2000, 0, 4).getTime(), "Some comment", new BigDecimal("200.00"));
+		log.addCashAllocationEntry(1, 2, "Example tag", new GregorianCalendar(2000, 0, 4).getTime(), "Some comment", new BigDecimal("200.00"));
+		journal.addBuyEquityTransactionEntry(1, 2, "Example tag", new GregorianCalendar(2000, 0, 5).getTime(), "Some comment", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), new BigDecimal("5.00"));
+		log.addBuyEquityTransactionEntry(1, 2, "Example tag", new GregorianCalendar(2000, 0, 5).getTime(), "Some comment", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), new BigDecimal("5.00"));
+		journal.addSellEquityTransactionEntry(1, 2, "Example tag", new GregorianCalendar(2000, 0, 6).getTime(), "Some comment", "TICKER-A", new BigDecimal("4"), new BigDecimal("12.00"), new BigDecimal("5.00"));
+		log.addSellEquityTransactionEntry(1, 2, "Example tag", new GregorianCalendar(2000, 0, 6).getTime(), "Some comment", "TICKER-A", new BigDecimal("4"), new BigDecimal("12.00"), new BigDecimal("5.00"));
+		journal.removeEntry(1);
+		log.removeEntry(1);
+
+		// Rejected entries are not logged and must not shift IDs of the following ones
+		try {
+			journal.addCashWithdrawalEntry(1, "Example tag", new GregorianCalendar(2000, 0, 7).getTime(), "Some comment", new BigDecimal("5000.00"));
+		} catch (EntryInsertionException ignored) {
+
+		}
+
+		journal.addCashDepositEntry(1, "Example tag", new GregorianCalendar(2000, 0, 7).getTime(), "Some comment", new BigDecimal("10.00"));
+		log.addCashDepositEntry(1, "Example tag", new GregorianCalendar(2000, 0, 7).getTime(), "Some comment", new BigDecimal("10.00"));
+		int depositID = entries.get(entries.size() - 1).getID();
+		journal.removeEntry(depositID);
+		log.removeEntry(depositID);
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("900.00"));
+		log.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("900.00"));
+		log.close();
+
+		int numberOfEntries = entries.size();
+		BigDecimal cashBalance = accounts.get(0).getCashBalance();
+		BigDecimal aggregatedCashBalance = portfolios.get(0).getAggregatedCashBalance();
+		BigDecimal openValue = portfolios.get(0).getAggregatedHoldings().getOpenValue();
+		long logLength = logFile.length();
+
+		// A torn record at the end of the log is dropped
+		Files.write(logFile.toPath(), new byte[] {0, 0, 0, 20, 1, 2, 3}, StandardOpenOption.APPEND);
+
+		Journal loadedJournal = new Journal("", "");
+		loadedJournal.loadFromFile(file);
+		JournalLog.open(logFile, loadedJournal).close();
+
+		assertEquals(logLength, logFile.length());
+		assertEquals(numberOfEntries, loadedJournal.getEntries().size());
+		assertEquals("Test portfolio #2", loadedJournal.getPortfolio(2).getName());
+		assertEquals(cashBalance, loadedJournal.getAccount(0).getCashBalance());
+		assertEquals(aggregatedCashBalance, loadedJournal.getPortfolio(0).getAggregatedCashBalance());
+		assertEquals(openValue, loadedJournal.getPortfolio(0).getAggregatedHoldings().getOpenValue());
+
+		// A log left from an older generation is discarded
+		loadedJournal.setGeneration(2);
+		loadedJournal.saveToFile(file);
+
+		Journal compactedJournal = new Journal("", "");
+		compactedJournal.loadFromFile(file);
+		JournalLog.open(logFile, compactedJournal).close();
+
+		assertEquals(numberOfEntries, compactedJournal.getEntries().size());
+		assertEquals(cashBalance, compactedJournal.getAccount(0).getCashBalance());
+
+		file.delete();
+		logFile.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void shouldReplayEntriesWithoutTagsOrComments() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException, JournalSaveException, JournalLoadException, IOException {
+		File directory = Files.createTempDirectory("journal").toFile();
+		File file = new File(directory, "journal." + JournalBinaryFormat.EXTENSION);
+		File logFile = JournalLog.getLogFile(file);
+
+		journal.setGeneration(1);
+		journal.saveToFile(file);
+		JournalLog log = JournalLog.create(logFile, 1);
+
+		journal.addAccount("Test account #1");
+		log.addAccount("Test account #1");
+		journal.addCashDepositEntry(0, null, new GregorianCalendar(2000, 0, 1).getTime(), null, new BigDecimal("1000.00"));
+		log.addCashDepositEntry(0, null, new GregorianCalendar(2000, 0, 1).getTime(), null, new BigDecimal("1000.00"));
+		journal.addCashAllocationEntry(0, 0, null, new GregorianCalendar(2000, 0, 1).getTime(), null, new BigDecimal("1000.00"));
+		log.addCashAllocationEntry(0, 0, null, new GregorianCalendar(2000, 0, 1).getTime(), null, new BigDecimal("1000.00"));
+		journal.addBuyEquityTransactionEntry(0, 0, null, new GregorianCalendar(2000, 0, 2).getTime(), null, "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), BigDecimal.ZERO);
+		log.addBuyEquityTransactionEntry(0, 0, null, new GregorianCalendar(2000, 0, 2).getTime(), null, "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), BigDecimal.ZERO);
+		log.close();
+
+		Journal loadedJournal = new Journal("", "");
+		loadedJournal.loadFromFile(file);
+		JournalLog.open(logFile, loadedJournal).close();
+
+		assertEquals(3, loadedJournal.getEntries().size());
+		assertNull(loadedJournal.getEntries().get(0).getComment());
+		assertEquals(new BigDecimal("900.00"), loadedJournal.getAccount(0).getCashBalance());
+
+		// Missing comments also survive a binary snapshot
+		loadedJournal.setGeneration(2);
+		loadedJournal.saveToFile(file);
+
+		Journal compactedJournal = new Journal("", "");
+		compactedJournal.loadFromFile(file);
+
+		assertEquals(3, compactedJournal.getEntries().size());
+		assertNull(compactedJournal.getEntries().get(1).getComment());
+
+		file.delete();
+		logFile.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void shouldSyncLogRecordsLeftOutOfBatch() throws Exception {
+		File directory = Files.createTempDirectory("journal").toFile();
+		File logFile = JournalLog.getLogFile(new File(directory, "journal.xml"));
+		JournalLog log = JournalLog.create(logFile, 1);
+
+		try {
+			log.addAccount("Test account #1");
+			assertEquals(1, PA.getValue(log, "unsyncedRecords"));
+
+			// No further changes arrive, the record is synced by the scheduled sync
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while ((Integer) PA.getValue(log, "unsyncedRecords") > 0 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+
+			assertEquals(0, PA.getValue(log, "unsyncedRecords"));
+		} finally {
+			log.close();
+			logFile.delete();
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void shouldApplyBatchAtomically() throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException {
+		journal.addAccount("Test account #1");
+		journal.addPortfolio("Test portfolio #1", 0);
+		journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, 1).getTime(), "Some comment", new BigDecimal("1000.00"));
+
+		ArrayList<EntryCommand> commands = new ArrayList<>();
+		commands.add(EntryCommand.allocateCash(0, 1, "Example tag", new GregorianCalendar(2000, 0, 3).getTime(), "Some comment", new BigDecimal("800.00")));
+		commands.add(EntryCommand.buyEquity(0, 1, "Example tag", new GregorianCalendar(2000, 0, 4).getTime(), "Some comment", "TICKER-A", new BigDecimal("10"), new BigDecimal("50.00"), new BigDecimal("5.00")));
+		commands.add(EntryCommand.sellEquity(0, 1, "Example tag", new GregorianCalendar(2000, 0, 5).getTime(), "Some comment", "TICKER-A", new BigDecimal("4"), new BigDecimal("60.00"), new BigDecimal("5.00")));
+		commands.add(EntryCommand.depositCash(0, "Example tag", new GregorianCalendar(2000, 0, 2).getTime(), "Some comment", new BigDecimal("500.00")));
+		commands.add(EntryCommand.deallocateCash(0, 1, "Example tag", new GregorianCalendar(2000, 0, 6).getTime(), "Some comment", new BigDecimal("100.00")));
+		commands.add(EntryCommand.withdrawCash(0, "Example tag", new GregorianCalendar(2000, 0, 6).getTime(), "Some comment", new BigDecimal("50.00")));
+		journal.applyBatch(commands);
+
+		Account account = accounts.get(0);
+		Portfolio portfolio = portfolios.get(1);
+
+		assertEquals(7, entries.size());
+		assertEquals(new BigDecimal("1180.00"), account.getCashBalance());
+		assertEquals(new BigDecimal("430.00"), portfolio.getCashBalance());
+		assertEquals(1, portfolio.getHoldings().getEquityHoldings().size());
+		assertEquals(false, TradeRateConfig.isDeferredComputationMode());
+
+		// A failing command reverts all preceding ones, including removals
+		int numberOfJournalEntriesCreated = JournalEntry.getNumberOfJournalEntriesCreated();
+		BigDecimal openValue = portfolio.getHoldings().getOpenValue();
+
+		commands.clear();
+		commands.add(EntryCommand.removeEntry(3));
+		commands.add(EntryCommand.depositCash(0, "Example tag", new GregorianCalendar(2000, 0, 7).getTime(), "Some comment", new BigDecimal("100.00")));
+		commands.add(EntryCommand.buyEquity(0, 1, "Example tag", new GregorianCalendar(2000, 0, 7).getTime(), "Some comment", "TICKER-B", new BigDecimal("1"), new BigDecimal("10.00"), new BigDecimal("0.00")));
+		commands.add(EntryCommand.withdrawCash(0, "Example tag", new GregorianCalendar(2000, 0, 8).getTime(), "Some comment", new BigDecimal("5000.00")));
+
+		try {
+			journal.applyBatch(commands);
+			assertTrue(false);
+		} catch (EntryInsertionException ignored) {
+
+		}
+
+		assertEquals(7, entries.size());
+		assertEquals(numberOfJournalEntriesCreated, JournalEntry.getNumberOfJournalEntriesCreated());
+		assertEquals(new BigDecimal("1180.00"), account.getCashBalance());
+		assertEquals(new BigDecimal("430.00"), portfolio.getCashBalance());
+		assertEquals(openValue, portfolio.getHoldings().getOpenValue());
+		assertEquals(1, portfolio.getHoldings().getEquityHoldings().size());
+		assertEquals(false, TradeRateConfig.isDeferredComputationMode());
+	}
+
+	@Test
+	public void shouldRequestQuotesConcurrentlyInSinglePass() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		AtomicInteger maxActiveRequests = new AtomicInteger();
+		HttpServer server = startQuoteServer(requests, maxActiveRequests, Collections.singleton("MISSING"));
+
+		QuoteEngine quoteEngine = QuoteEngine.getInstance();
+		QuoteProvider quoteProvider = quoteEngine.getProvider();
+
+		try {
+			quoteEngine.setProvider(new HttpQuoteProvider("http://127.0.0.1:" + server.getAddress().getPort() + "/%s"));
+
+			journal.addAccount("Test account #1");
+			journal.addPortfolio("Test portfolio #1", 0);
+
+			ArrayList<EntryCommand> commands = new ArrayList<>();
+			Date date = new GregorianCalendar(2000, 0, 1).getTime();
+			commands.add(EntryCommand.depositCash(0, "", date, "", new BigDecimal("10000.00")));
+			commands.add(EntryCommand.allocateCash(0, 1, "", date, "", new BigDecimal("10000.00")));
+			commands.add(EntryCommand.buyEquity(0, 1, "", date, "", "MISSING", new BigDecimal("1"), new BigDecimal("10.00"), new BigDecimal("0.00")));
+			for (int i = 0; i < 16; ++i) {
+				commands.add(EntryCommand.buyEquity(0, 1, "", date, "", "TICKER-" + i, new BigDecimal("1"), new BigDecimal("10.00"), new BigDecimal("0.00")));
+			}
+			journal.applyBatch(commands);
+
+			journal.updateQuotes();
+
+			// Every ticker is requested once, although held in an account and two portfolios
+			assertEquals(17, requests.get());
+			assertTrue(maxActiveRequests.get() > 1);
+			assertTrue(maxActiveRequests.get() <= 8);
+
+			HoldingList holdings = portfolios.get(1).getHoldings();
+			assertEquals(new BigDecimal("12.50"), holdings.getEquityHoldings().findByName("TICKER-15").lastMarketPrice);
+			assertNotNull(holdings.getEquityHoldings().findByName("TICKER-15").lastMarketPriceTime);
+			assertNull(holdings.getEquityHoldings().findByName("MISSING").lastMarketPrice);
+			assertNull(holdings.getEquityHoldings().findByName("MISSING").lastMarketPriceTime);
+
+			journal.updateQuotes();
+			assertEquals(17, requests.get());
+		} finally {
+			quoteEngine.setProvider(quoteProvider);
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void shouldShareQuoteRequestsAndEvictLeastRecentlyUsedQuotes() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = startQuoteServer(requests, new AtomicInteger(), Collections.<String>emptySet());
+
+		final QuoteEngine quoteEngine = QuoteEngine.getInstance();
+		QuoteProvider quoteProvider = quoteEngine.getProvider();
+		int cacheSize = quoteEngine.getStatistics().maximumSize;
+
+		try {
+			quoteEngine.setProvider(new HttpQuoteProvider("http://127.0.0.1:" + server.getAddress().getPort() + "/%s"));
+			QuoteCacheStatistics statistics = quoteEngine.getStatistics();
+
+			// Concurrent lookups of the same ticker share a single request
+			final CountDownLatch start = new CountDownLatch(1);
+			final ConcurrentHashMap<Integer, BigDecimal> prices = new ConcurrentHashMap<>();
+			Thread[] threads = new Thread[8];
+
+			for (int i = 0; i < threads.length; ++i) {
+				final int threadNumber = i;
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException ignored) {
+
+						}
+						prices.put(threadNumber, quoteEngine.getLast("TICKER-A"));
+					}
+				};
+				threads[i].start();
+			}
+
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			assertEquals(1, requests.get());
+			assertEquals(8, prices.size());
+			for (BigDecimal price : prices.values()) {
+				assertEquals(new BigDecimal("12.50"), price);
+			}
+
+			assertEquals(new BigDecimal("12.50"), quoteEngine.getLast("TICKER-A"));
+			QuoteCacheStatistics current = quoteEngine.getStatistics();
+			assertEquals(1, current.loads - statistics.loads);
+			assertEquals(9, (current.hits - statistics.hits) + (current.misses - statistics.misses));
+			assertTrue(current.hits - statistics.hits >= 1);
+
+			// The least recently used quote is evicted first
+			quoteEngine.setCacheSize(2);
+			quoteEngine.getLast(Arrays.asList("TICKER-B", "TICKER-C"));
+			quoteEngine.getLast("TICKER-B");
+			quoteEngine.getLast("TICKER-D");
+			assertEquals(4, requests.get());
+			assertEquals(2, quoteEngine.getStatistics().size);
+
+			quoteEngine.getLast("TICKER-B");
+			assertEquals(4, requests.get());
+			quoteEngine.getLast("TICKER-C");
+			assertEquals(5, requests.get());
+		} finally {
+			quoteEngine.setProvider(quoteProvider);
+			quoteEngine.setCacheSize(cacheSize);
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void shouldServeLastKnownQuoteWhileRequestingNewOne() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		Set<String> unavailableTickers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		HttpServer server = startQuoteServer(requests, new AtomicInteger(), unavailableTickers);
+
+		QuoteEngine quoteEngine = QuoteEngine.getInstance();
+		QuoteProvider quoteProvider = quoteEngine.getProvider();
+		Object cachingNanoTime = PA.getValue(quoteEngine, "cachingNanoTime");
+		Object errorCachingNanoTime = PA.getValue(quoteEngine, "errorCachingNanoTime");
+
+		try {
+			quoteEngine.setProvider(new HttpQuoteProvider("http://127.0.0.1:" + server.getAddress().getPort() + "/%s"));
+			PA.setValue(quoteEngine, "cachingNanoTime", 0L);
+			PA.setValue(quoteEngine, "errorCachingNanoTime", 60000000000L);
+
+			Quote quote = quoteEngine.getQuote("TICKER-A");
+			assertEquals(new BigDecimal("12.50"), quote.lastPrice);
+			assertNotNull(quote.time);
+			assertEquals(1, requests.get());
+
+			// An expired quote is served while a new one is requested in the background
+			unavailableTickers.add("TICKER-A");
+			long failures = quoteEngine.getStatistics().failures;
+			assertEquals(quote, quoteEngine.getQuote("TICKER-A"));
+
+			while (quoteEngine.getStatistics().failures == failures) {
+				Thread.sleep(10);
+			}
+
+			// A failed request keeps the last known price and is not repeated
+			assertEquals(quote, quoteEngine.getQuote("TICKER-A"));
+			assertEquals(2, requests.get());
+
+			// Unavailable quotes are cached as well
+			unavailableTickers.add("TICKER-B");
+			assertNull(quoteEngine.getQuote("TICKER-B").lastPrice);
+			assertNull(quoteEngine.getQuote("TICKER-B").time);
+			assertEquals(3, requests.get());
+		} finally {
+			quoteEngine.setProvider(quoteProvider);
+			PA.setValue(quoteEngine, "cachingNanoTime", cachingNanoTime);
+			PA.setValue(quoteEngine, "errorCachingNanoTime", errorCachingNanoTime);
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void shouldWarmQuoteCacheFromStore() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		Set<String> unavailableTickers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		HttpServer server = startQuoteServer(requests, new AtomicInteger(), unavailableTickers);
+
+		QuoteEngine quoteEngine = QuoteEngine.getInstance();
+		QuoteProvider quoteProvider = quoteEngine.getProvider();
+		File file = File.createTempFile("traderate", ".quotes");
+
+		try {
+			quoteEngine.setProvider(new HttpQuoteProvider("http://127.0.0.1:" + server.getAddress().getPort() + "/%s"));
+			assertTrue(file.delete());
+			assertTrue(quoteEngine.setQuoteStore(file));
+
+			Quote quote = quoteEngine.getQuote("TICKER-A");
+			quoteEngine.getLast(Arrays.asList("TICKER-B", "TICKER-C"));
+			assertEquals(3, requests.get());
+
+			// A torn record at the end of the store is dropped
+			long storeLength = file.length();
+			Files.write(file.toPath(), new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+			// Stored quotes are served when offline, while new ones are requested
+			quoteEngine.setQuoteStore(null);
+			quoteEngine.clearCache();
+			unavailableTickers.addAll(Arrays.asList("TICKER-A", "TICKER-B", "TICKER-C"));
+			assertTrue(quoteEngine.setQuoteStore(file));
+			assertEquals(storeLength, file.length());
+
+			assertEquals(quote.lastPrice, quoteEngine.getQuote("TICKER-A").lastPrice);
+			assertEquals(quote.time, quoteEngine.getQuote("TICKER-A").time);
+			assertEquals(new BigDecimal("12.50"), quoteEngine.getLast(Arrays.asList("TICKER-B", "TICKER-C")).get("TICKER-C"));
+			assertTrue(quoteEngine.awaitRequests());
+			assertEquals(6, requests.get());
+			assertEquals(quote.time, quoteEngine.getQuote("TICKER-A").time);
+		} finally {
+			quoteEngine.setQuoteStore(null);
+			quoteEngine.setProvider(quoteProvider);
+			server.stop(0);
+			assertTrue(file.delete());
+		}
+	}
+
+	@Test
+	public void shouldValueHoldingsWithReplayedQuotes() throws Exception {
+		File textFile = File.createTempFile("traderate", ".csv");
+		File binaryFile = File.createTempFile("traderate", ".trq");
+
+		QuoteEngine quoteEngine = QuoteEngine.getInstance();
+		QuoteProvider quoteProvider = quoteEngine.getProvider();
+
+		try {
+			Files.write(textFile.toPath(), Arrays.asList(
+					"# ticker, date, price",
+					"TICKER-A, 2012-01-02, 10.00",
+					"TICKER-A, 2012-01-04 15:30:00, 12.00",
+					"TICKER-A, 2012-01-03, 11.00",
+					"TICKER-B, 2012-01-03, 5.50"
+			), Charset.forName("UTF-8"));
+
+			ReplayQuoteProvider replayProvider = new ReplayQuoteProvider(textFile);
+			assertEquals(new BigDecimal("12.00"), replayProvider.fetchLast("TICKER-A"));
+
+			replayProvider.setTime(new GregorianCalendar(2012, 0, 3, 12, 0).getTime());
+			assertEquals(new BigDecimal("11.00"), replayProvider.fetchLast("TICKER-A"));
+			assertEquals(new BigDecimal("5.50"), replayProvider.fetchLast("TICKER-B"));
+			assertNull(replayProvider.fetchLast("TICKER-C"));
+
+			replayProvider.advance(-24 * 60 * 60 * 1000);
+			assertEquals(new BigDecimal("10.00"), replayProvider.fetchLast("TICKER-A"));
+			assertNull(replayProvider.fetchLast("TICKER-B"));
+
+			// Binary files hold the same prices
+			replayProvider.writeBinary(binaryFile);
+			ReplayQuoteProvider binaryProvider = new ReplayQuoteProvider(binaryFile);
+			binaryProvider.setTime(replayProvider.getTime());
+			assertEquals(new BigDecimal("10.00"), binaryProvider.fetchLast("TICKER-A"));
+			assertEquals(replayProvider.getTickers(), binaryProvider.getTickers());
+
+			// Failing and unaware providers are skipped
+			QuoteProvider failingProvider = new QuoteProvider() {
+				@Override
+				public BigDecimal fetchLast(String ticker) throws IOException {
+					throw new IOException();
+				}
+			};
+			QuoteProvider compositeProvider = new CompositeQuoteProvider(failingProvider, replayProvider, QuoteProviders.parse("replay=" + binaryFile.getPath()));
+			assertEquals(new BigDecimal("10.00"), compositeProvider.fetchLast("TICKER-A"));
+			assertEquals(new BigDecimal("5.50"), compositeProvider.fetchLast("TICKER-B"));
+			assertNull(new CompositeQuoteProvider(replayProvider).fetchLast("TICKER-C"));
+
+			try {
+				compositeProvider.fetchLast("TICKER-C");
+				assertTrue(false);
+			} catch (IOException ignored) {
+
+			}
+
+			// Holdings are valued offline
+			replayProvider.setTime(new GregorianCalendar(2012, 0, 5).getTime());
+			quoteEngine.setProvider(replayProvider);
+
+			journal.addAccount("Test account #1");
+			journal.addPortfolio("Test portfolio #1", 0);
+			journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("1000.00"));
+			journal.addCashAllocationEntry(0, 1, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("1000.00"));
+			journal.addBuyEquityTransactionEntry(0, 1, "", new GregorianCalendar(2012, 0, 2).getTime(), "", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), new BigDecimal("0.00"));
+			journal.update();
+			journal.updateQuotes();
+
+			EquityHolding holding = portfolios.get(1).getHoldings().getEquityHoldings().findByName("TICKER-A");
+			assertEquals(new BigDecimal("12.00"), holding.lastMarketPrice);
+			assertEquals(new BigDecimal("120.00"), holding.getMarketValue());
+		} finally {
+			quoteEngine.setProvider(quoteProvider);
+			assertTrue(textFile.delete());
+			assertTrue(binaryFile.delete());
+		}
+	}
+
+	@Test
+	public void shouldPushChangedQuotesToAffectedHoldingsOnly() throws Exception {
+		final ConcurrentHashMap<String, BigDecimal> prices = new ConcurrentHashMap<>();
+		final LinkedBlockingQueue<Set<String>> notifications = new LinkedBlockingQueue<>();
+
+		QuoteListener quoteListener = new QuoteListener() {
+			@Override
+			public void quotesChanged(Set<String> tickers) {
+				notifications.add(tickers);
+			}
+		};
+
+		QuoteEngine quoteEngine = QuoteEngine.getInstance();
+		QuoteProvider quoteProvider = quoteEngine.getProvider();
+		Object cachingNanoTime = PA.getValue(quoteEngine, "cachingNanoTime");
+
+		try {
+			prices.put("TICKER-A", new BigDecimal("10.00"));
+			prices.put("TICKER-B", new BigDecimal("20.00"));
+			quoteEngine.awaitRequests();
+			quoteEngine.setProvider(new QuoteProvider() {
+				@Override
+				public BigDecimal fetchLast(String ticker) {
+					return prices.get(ticker);
+				}
+			});
+			quoteEngine.addQuoteListener(quoteListener);
+			PA.setValue(quoteEngine, "cachingNanoTime", 0L);
+
+			journal.addAccount("Test account #1");
+			journal.addPortfolio("Test portfolio #1", 0);
+			journal.addPortfolio("Test portfolio #2", 1);
+			journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("1000.00"));
+			journal.addCashAllocationEntry(0, 2, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("1000.00"));
+			journal.addBuyEquityTransactionEntry(0, 2, "", new GregorianCalendar(2012, 0, 2).getTime(), "", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), new BigDecimal("0.00"));
+			journal.addBuyEquityTransactionEntry(0, 2, "", new GregorianCalendar(2012, 0, 2).getTime(), "", "TICKER-B", new BigDecimal("10"), new BigDecimal("20.00"), new BigDecimal("0.00"));
+			journal.update();
+			journal.updateQuotes();
+			quoteEngine.awaitRequests();
+
+			// First prices of both instruments are reported
+			Set<String> changedTickers = new HashSet<>();
+			while (changedTickers.size() < 2) {
+				changedTickers.addAll(notifications.poll(5, TimeUnit.SECONDS));
+			}
+			assertEquals(new HashSet<>(Arrays.asList("TICKER-A", "TICKER-B")), changedTickers);
+
+			// Only changed prices are reported after expired quotes are requested again,
+			// refreshes started by other listeners must not fetch the old price meanwhile
+			quoteEngine.awaitRequests();
+			prices.put("TICKER-A", new BigDecimal("11.00"));
+			quoteEngine.getLast(Arrays.asList("TICKER-A", "TICKER-B"));
+			quoteEngine.awaitRequests();
+			assertEquals(Collections.singleton("TICKER-A"), notifications.poll(5, TimeUnit.SECONDS));
+
+			// Unrelated tickers are ignored, affected holdings are updated up to the parent portfolio
+			assertEquals(Collections.singleton("TICKER-A"), journal.updateQuotes(Arrays.asList("TICKER-A", "TICKER-C")));
+			assertEquals(new BigDecimal("110.00"), accounts.get(0).getHoldings().getEquityHoldings().findByName("TICKER-A").getMarketValue());
+			assertEquals(new BigDecimal("110.00"), portfolios.get(2).getHoldings().getEquityHoldings().findByName("TICKER-A").getMarketValue());
+			assertEquals(new BigDecimal("110.00"), portfolios.get(1).getAggregatedHoldings().getEquityHoldings().findByName("TICKER-A").getMarketValue());
+			assertEquals(new BigDecimal("200.00"), portfolios.get(1).getAggregatedHoldings().getEquityHoldings().findByName("TICKER-B").getMarketValue());
+		} finally {
+			quoteEngine.removeQuoteListener(quoteListener);
+			quoteEngine.setProvider(quoteProvider);
+			PA.setValue(quoteEngine, "cachingNanoTime", cachingNanoTime);
+		}
+	}
+
+	@Test
+	public void shouldAddEntriesWhileQuotesArePushed() throws Exception {
+		QuoteEngine quoteEngine = QuoteEngine.getInstance();
+		QuoteProvider quoteProvider = quoteEngine.getProvider();
+
+		try {
+			quoteEngine.awaitRequests();
+			quoteEngine.setProvider(new QuoteProvider() {
+				@Override
+				public BigDecimal fetchLast(String ticker) {
+					return new BigDecimal("10.00");
+				}
+			});
+
+			journal.addAccount("Test account #1");
+			journal.addPortfolio("Test portfolio #1", 0);
+			journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("100000.00"));
+			journal.addCashAllocationEntry(0, 1, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("100000.00"));
+			journal.update();
+
+			final AtomicBoolean adding = new AtomicBoolean(true);
+			final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+			// Quote pushes and DTO reads race with entry additions on the test thread
+			Thread quoteThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (adding.get()) {
+							journal.updateQuotes(Arrays.asList("TICKER-A", "TICKER-B"));
+							journal.getPortfolioDetailsDTO(1);
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			});
+			quoteThread.start();
+
+			try {
+				for (int i = 0; i < 200; ++i) {
+					String ticker = i % 2 == 0 ? "TICKER-A" : "TICKER-B";
+					journal.addBuyEquityTransactionEntry(0, 1, "", new GregorianCalendar(2012, 0, 3 + i).getTime(), "", ticker, BigDecimal.ONE, new BigDecimal("10.00"), new BigDecimal("0.00"));
+					journal.update();
+				}
+			} finally {
+				adding.set(false);
+				quoteThread.join();
+			}
+
+			assertNull(failure.get());
+
+			journal.updateQuotes(Arrays.asList("TICKER-A", "TICKER-B"));
+			assertEquals(new BigDecimal("1000.00"), portfolios.get(1).getHoldings().getEquityHoldings().findByName("TICKER-A").getMarketValue());
+			assertEquals(new BigDecimal("100"), portfolios.get(1).getHoldings().getEquityHoldings().findByName("TICKER-B").getQuantity());
+		} finally {
+			quoteEngine.setProvider(quoteProvider);
+		}
+	}
+
+	@Test
+	public void shouldReadJournalWhileQuotesAreRequested() throws Exception {
+		QuoteEngine quoteEngine = QuoteEngine.getInstance();
+		QuoteProvider quoteProvider = quoteEngine.getProvider();
+		final CountDownLatch requested = new CountDownLatch(1);
+		final CountDownLatch released = new CountDownLatch(1);
+
+		try {
+			quoteEngine.awaitRequests();
+			quoteEngine.setProvider(new QuoteProvider() {
+				@Override
+				public BigDecimal fetchLast(String ticker) throws IOException {
+					requested.countDown();
+
+					try {
+						released.await();
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+
+					return new BigDecimal("10.00");
+				}
+			});
+
+			journal.addAccount("Test account #1");
+			journal.addPortfolio("Test portfolio #1", 0);
+			journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("100.00"));
+			journal.addCashAllocationEntry(0, 1, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("100.00"));
+			journal.addBuyEquityTransactionEntry(0, 1, "", new GregorianCalendar(2012, 0, 3).getTime(), "", "BLOCKED-QUOTE", BigDecimal.ONE, new BigDecimal("10.00"), new BigDecimal("0.00"));
+			journal.update();
+
+			Thread quoteThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					journal.updateQuotes();
+				}
+			});
+			quoteThread.start();
+
+			try {
+				assertTrue(requested.await(5, TimeUnit.SECONDS));
+
+				// The journal must stay readable while the provider blocks
+				long start = System.nanoTime();
+				journal.getPortfolioDetailsDTO(1);
+				assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+			} finally {
+				released.countDown();
+				quoteThread.join();
+			}
+
+			assertEquals(new BigDecimal("10.00"), portfolios.get(1).getHoldings().getEquityHoldings().findByName("BLOCKED-QUOTE").getMarketValue());
+		} finally {
+			quoteEngine.setProvider(quoteProvider);
+		}
+	}
+
+	@Test
+	public void shouldValueHoldingsLikeBigDecimalFormulas() throws Exception {
+		final HashMap<String, BigDecimal> prices = new HashMap<>();
+		prices.put("FP-ODD", new BigDecimal("12.345"));
+		prices.put("FP-LONG", new BigDecimal("10.123456789"));
+		prices.put("FP-TIE", new BigDecimal("100.005"));
+
+		QuoteEngine quoteEngine = QuoteEngine.getInstance();
+		QuoteProvider quoteProvider = quoteEngine.getProvider();
+
+		try {
+			quoteEngine.awaitRequests();
+			quoteEngine.setProvider(new QuoteProvider() {
+				@Override
+				public BigDecimal fetchLast(String ticker) {
+					return prices.get(ticker);
+				}
+			});
+
+			journal.addAccount("Test account #1");
+			journal.addPortfolio("Test portfolio #1", 0);
+			journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("10000.00"));
+			journal.addCashAllocationEntry(0, 1, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("10000.00"));
+
+			// Odd quote scale, a partial sell and commissions split between trades
+			ReferenceHolding odd = new ReferenceHolding();
+			buy(odd, "FP-ODD", 3, "33.33", "1.99");
+			buy(odd, "FP-ODD", 7, "10.01", "0.01");
+			sell(odd, "FP-ODD", 5, "35.55", "2.03");
+
+			// Quote scale above the cap, rounded half to even
+			ReferenceHolding capped = new ReferenceHolding();
+			buy(capped, "FP-LONG", 10, "10.00", "0.00");
+
+			// Paper gain ratio of 0.00005 and a fully closed holding with a realized ratio of 0.00005
+			ReferenceHolding tie = new ReferenceHolding();
+			buy(tie, "FP-TIE", 2, "100.00", "0.00");
+			ReferenceHolding closedTie = new ReferenceHolding();
+			buy(closedTie, "FP-TIEC", 1, "200.00", "0.00");
+			sell(closedTie, "FP-TIEC", 1, "200.01", "0.00");
+
+			journal.update();
+			journal.updateQuotes();
+
+			HoldingList holdings = portfolios.get(1).getHoldings();
+			odd.assertMatches(holdings, "FP-ODD", new BigDecimal("12.345"));
+			capped.assertMatches(holdings, "FP-LONG", new BigDecimal("10.123457"));
+			tie.assertMatches(holdings, "FP-TIE", new BigDecimal("100.005"));
+			closedTie.assertMatches(holdings, "FP-TIEC", null);
+
+			assertEquals(new BigDecimal("0.00"), holdings.getEquityHoldings().findByName("FP-TIE").getPaperGainPercentage());
+			assertEquals(new BigDecimal("0.00"), holdings.getClosedEquityHoldings().findByName("FP-TIEC").getRealizedGainPercentage());
+		} finally {
+			quoteEngine.setProvider(quoteProvider);
+		}
+	}
+
+	private void buy(ReferenceHolding reference, String ticker, int quantity, String price, String commission) throws Exception {
+		journal.addBuyEquityTransactionEntry(0, 1, "", new GregorianCalendar(2012, 0, 3).getTime(), "", ticker, new BigDecimal(quantity), new BigDecimal(price), new BigDecimal(commission));
+		reference.buy(new BigDecimal(quantity), new BigDecimal(price), new BigDecimal(commission));
+	}
+
+	private void sell(ReferenceHolding reference, String ticker, int quantity, String price, String commission) throws Exception {
+		journal.addSellEquityTransactionEntry(0, 1, "", new GregorianCalendar(2012, 0, 4).getTime(), "", ticker, new BigDecimal(quantity), new BigDecimal(price), new BigDecimal(commission));
+		reference.sell(new BigDecimal(quantity), new BigDecimal(price), new BigDecimal(commission));
+	}
+
+	/**
+	 * Trades of a single-position holding valued with the BigDecimal formulas
+	 * used before performance data was kept as scaled longs.
+	 */
+	private static class ReferenceHolding {
+
+		private final ArrayList<BigDecimal[]> openTrades = new ArrayList<>();
+
+		private final ArrayList<BigDecimal[]> closedTrades = new ArrayList<>();
+
+		/**
+		 * Trades are kept as {quantity, open price, commission, close price}.
+		 */
+		void buy(BigDecimal quantity, BigDecimal price, BigDecimal commission) {
+			openTrades.add(new BigDecimal[] {quantity, price, commission, null});
+		}
+
+		void sell(BigDecimal quantity, BigDecimal price, BigDecimal commission) {
+			BigDecimal sharesLeftToClose = quantity;
+			BigDecimal unallocatedCommission = commission;
+
+			while (sharesLeftToClose.signum() > 0) {
+				BigDecimal[] trade = openTrades.get(0);
+				BigDecimal partialCommission = trade[0].divide(quantity, 10, RoundingMode.HALF_EVEN).multiply(commission).setScale(2, RoundingMode.HALF_EVEN);
+
+				if (unallocatedCommission.compareTo(partialCommission) > 0) {
+					unallocatedCommission = unallocatedCommission.subtract(partialCommission);
+				} else {
+					partialCommission = unallocatedCommission;
+					unallocatedCommission = BigDecimal.ZERO;
+				}
+
+				if (sharesLeftToClose.compareTo(trade[0]) >= 0) {
+					openTrades.remove(0);
+					closedTrades.add(new BigDecimal[] {trade[0], trade[1], trade[2].add(partialCommission), price});
+					sharesLeftToClose = sharesLeftToClose.subtract(trade[0]);
+				} else {
+					BigDecimal splitCommission = sharesLeftToClose.divide(trade[0], 10, RoundingMode.HALF_EVEN).multiply(trade[2]).setScale(2, RoundingMode.HALF_EVEN);
+					openTrades.set(0, new BigDecimal[] {trade[0].subtract(sharesLeftToClose), trade[1], trade[2].subtract(splitCommission), null});
+					closedTrades.add(new BigDecimal[] {sharesLeftToClose, trade[1], splitCommission.add(partialCommission), price});
+					sharesLeftToClose = BigDecimal.ZERO;
+				}
+			}
+		}
+
+		void assertMatches(HoldingList holdings, String ticker, BigDecimal marketPrice) throws ObjectNotFoundException {
+			if (!openTrades.isEmpty()) {
+				BigDecimal quantity = BigDecimal.ZERO;
+				BigDecimal openValue = BigDecimal.ZERO;
+				BigDecimal commission = BigDecimal.ZERO;
+				BigDecimal marketValue = BigDecimal.ZERO;
+
+				for (BigDecimal[] trade : openTrades) {
+					quantity = quantity.add(trade[0]);
+					openValue = openValue.add(trade[1].multiply(trade[0]));
+					commission = commission.add(trade[2]);
+					marketValue = marketValue.add(marketPrice.multiply(trade[0]));
+				}
+
+				BigDecimal paperGain = marketValue.subtract(openValue).subtract(commission);
+				EquityHolding holding = holdings.getEquityHoldings().findByName(ticker);
+
+				assertEquals(quantity, holding.getQuantity());
+				assertEquals(openValue, holding.getOpenValue());
+				assertEquals(commission, holding.getCommission());
+				assertEquals(openValue.divide(quantity, 2, RoundingMode.HALF_EVEN), holding.getOpenPrice());
+				assertEquals(marketValue, holding.getMarketValue());
+				assertEquals(paperGain, holding.getPaperGain());
+				assertEquals(percentage(paperGain, openValue), holding.getPaperGainPercentage());
+			}
+
+			if (!closedTrades.isEmpty()) {
+				BigDecimal quantity = BigDecimal.ZERO;
+				BigDecimal openValue = BigDecimal.ZERO;
+				BigDecimal commission = BigDecimal.ZERO;
+				BigDecimal closeValue = BigDecimal.ZERO;
+
+				for (BigDecimal[] trade : closedTrades) {
+					quantity = quantity.add(trade[0]);
+					openValue = openValue.add(trade[1].multiply(trade[0]));
+					commission = commission.add(trade[2]);
+					closeValue = closeValue.add(trade[3].multiply(trade[0]));
+				}
+
+				BigDecimal realizedGain = closeValue.subtract(openValue).subtract(commission);
+				EquityHolding holding = holdings.getClosedEquityHoldings().findByName(ticker);
+
+				assertEquals(quantity, holding.getQuantity());
+				assertEquals(openValue, holding.getOpenValue());
+				assertEquals(commission, holding.getCommission());
+				assertEquals(closeValue, holding.getCloseValue());
+				assertEquals(closeValue.divide(quantity, 2, RoundingMode.HALF_EVEN), holding.getClosePrice());
+				assertEquals(realizedGain, holding.getRealizedGain());
+				assertEquals(percentage(realizedGain, openValue), holding.getRealizedGainPercentage());
+			}
+		}
+
+		private static BigDecimal percentage(BigDecimal gain, BigDecimal base) {
+			return gain.divide(base, 4, RoundingMode.HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, RoundingMode.HALF_EVEN);
+		}
+	}
+
+	/**
+	 * Checks that recalculating and revaluing holdings does not allocate per trade.
+	 *
+	 * Skipped on virtual machines which do not report allocated bytes.
+	 */
+	@Test
+	public void shouldUpdateHoldingsWithoutAllocatingPerTrade() throws Exception {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+			return;
+		}
+
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+		QuoteEngine quoteEngine = QuoteEngine.getInstance();
+		QuoteProvider quoteProvider = quoteEngine.getProvider();
+
+		try {
+			quoteEngine.awaitRequests();
+			quoteEngine.setProvider(new QuoteProvider() {
+				@Override
+				public BigDecimal fetchLast(String ticker) {
+					return new BigDecimal("12.34");
+				}
+			});
+
+			// 20000 trades in 50 tickers
+			Account account = new Account("Benchmark account");
+			Portfolio portfolio = new Portfolio(journal, "Benchmark portfolio");
+			HoldingList holdings = new HoldingList();
+
+			for (int i = 0; i < 20000; ++i) {
+				Date date = new GregorianCalendar(2000, 0, 1 + i / 50).getTime();
+				holdings.open(new BuyEquityTransactionEntry(account, portfolio, null, date, "", "BENCHMARK-" + i % 50, new BigDecimal("2"), new BigDecimal("10.00"), new BigDecimal("1.00"), "Position"));
+			}
+
+			// Warm up, also caches the quotes
+			for (int i = 0; i < 20; ++i) {
+				holdings.update();
+				holdings.updateQuotes();
+			}
+
+			long threadID = Thread.currentThread().getId();
+
+			long start = allocationBean.getThreadAllocatedBytes(threadID);
+			for (int i = 0; i < 10; ++i) {
+				holdings.update();
+			}
+			long updateBytes = (allocationBean.getThreadAllocatedBytes(threadID) - start) / 10;
+
+			start = allocationBean.getThreadAllocatedBytes(threadID);
+			for (int i = 0; i < 10; ++i) {
+				holdings.updateQuotes();
+			}
+			long updateQuotesBytes = (allocationBean.getThreadAllocatedBytes(threadID) - start) / 10;
+
+			// BigDecimal arithmetic took megabytes per call
+			assertTrue("update() allocated " + updateBytes + " bytes", updateBytes < 64 * 1024);
+			assertTrue("updateQuotes() allocated " + updateQuotesBytes + " bytes", updateQuotesBytes < 64 * 1024);
+		} finally {
+			quoteEngine.setProvider(quoteProvider);
+		}
+	}
+
+	@Test
+	public void shouldReuseDTOsOfUnchangedNodes() throws Exception {
+		journal.addAccount("Test account #1");
+		journal.addAccount("Test account #2");
+		journal.addPortfolio("Test portfolio #1", 0);
+		journal.addPortfolio("Test portfolio #2", 0);
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("1000.00"));
+		journal.addCashDepositEntry(1, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("1000.00"));
+		journal.addCashAllocationEntry(0, 1, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("1000.00"));
+		journal.addCashAllocationEntry(1, 2, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("1000.00"));
+		journal.addBuyEquityTransactionEntry(0, 1, "", new GregorianCalendar(2012, 0, 3).getTime(), "", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), new BigDecimal("0.00"));
+		journal.addBuyEquityTransactionEntry(1, 2, "", new GregorianCalendar(2012, 0, 3).getTime(), "", "TICKER-B", new BigDecimal("10"), new BigDecimal("20.00"), new BigDecimal("0.00"));
+		journal.update();
+
+		ArrayList<AccountDTO> accountDTOs = journal.getAccountDTOs();
+		PortfolioDetailsDTO globalDTO = journal.getPortfolioDetailsDTO(0);
+		PortfolioDetailsDTO firstDTO = journal.getPortfolioDetailsDTO(1);
+		PortfolioDetailsDTO secondDTO = journal.getPortfolioDetailsDTO(2);
+		PortfolioNodeDTO nodeDTO = portfolios.get(0).getNodeDTO();
+
+		// Unchanged nodes are served from the cache
+		assertSame(accountDTOs.get(0), journal.getAccountDTOs().get(0));
+		assertSame(accountDTOs.get(1), journal.getAccountDTO(1));
+		assertSame(firstDTO, journal.getPortfolioDetailsDTO(1));
+		assertSame(nodeDTO, portfolios.get(0).getNodeDTO());
+		assertSame(nodeDTO.children.get(0), portfolios.get(1).getNodeDTO());
+		assertEquals(6, journal.getSnapshotStatistics().hits);
+		assertEquals(8, journal.getSnapshotStatistics().misses);
+		assertEquals(new BigDecimal("100.00"), accountDTOs.get(0).openValue);
+
+		// A quote change only affects nodes holding the instrument, including aggregates
+		journal.updateQuotes(Collections.singleton("TICKER-A"));
+		assertNotSame(accountDTOs.get(0), journal.getAccountDTO(0));
+		assertSame(accountDTOs.get(1), journal.getAccountDTO(1));
+		assertNotSame(globalDTO, journal.getPortfolioDetailsDTO(0));
+		assertNotSame(firstDTO, journal.getPortfolioDetailsDTO(1));
+		assertSame(secondDTO, journal.getPortfolioDetailsDTO(2));
+		assertSame(nodeDTO, portfolios.get(0).getNodeDTO());
+
+		// Any other change invalidates all nodes
+		journal.addCashDepositEntry(1, "", new GregorianCalendar(2012, 0, 4).getTime(), "", new BigDecimal("500.00"));
+		journal.update();
+		assertNotSame(accountDTOs.get(1), journal.getAccountDTO(1));
+		assertEquals(new BigDecimal("1300.00"), journal.getAccountDTO(1).cashBalance);
+		assertNotSame(secondDTO, journal.getPortfolioDetailsDTO(2));
+		assertNotSame(nodeDTO, portfolios.get(0).getNodeDTO());
+	}
+
+	@Test
+	public void shouldReportNetEntryChangesSinceVersion() throws Exception {
+		journal.addAccount("Test account #1");
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("1000.00"));
+		long initialVersion = journal.getVersion();
+
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 3).getTime(), "", new BigDecimal("100.00"));
+		long intermediateVersion = journal.getVersion();
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 4).getTime(), "", new BigDecimal("200.00"));
+		journal.removeEntry(1);
+		journal.removeEntry(0);
+
+		// An entry added and removed again is left out
+		EntryChangesDTO changes = journal.getEntryChanges(initialVersion);
+		assertEquals(journal.getVersion(), changes.version);
+		assertEquals(1, changes.addedEntries.size());
+		assertEquals(2, changes.addedEntries.get(0).ID);
+		assertEquals(1, changes.removedEntries.size());
+		assertEquals(0, changes.removedEntries.get(0).ID);
+		assertArrayEquals(new int[] {0}, changes.addedRows);
+		assertArrayEquals(new int[] {0}, changes.removedRows);
+
+		// Removed rows are reported from the bottom, the most recent entry first
+		changes = journal.getEntryChanges(intermediateVersion);
+		assertEquals(1, changes.addedEntries.size());
+		assertEquals(2, changes.removedEntries.size());
+		assertEquals(0, changes.removedEntries.get(0).ID);
+		assertArrayEquals(new int[] {1, 0}, changes.removedRows);
+		assertArrayEquals(new int[] {0}, changes.addedRows);
+
+		assertEquals(0, journal.getEntryChanges(journal.getVersion()).addedEntries.size());
+
+		// Changes are only logged up to a limit
+		for (int i = 0; i < 4093; ++i) {
+			journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 5).getTime(), "", new BigDecimal("1.00"));
+		}
+
+		assertNull(journal.getEntryChanges(initialVersion));
+		changes = journal.getEntryChanges(intermediateVersion);
+		assertEquals(4094, changes.addedEntries.size());
+		assertEquals(2, changes.removedEntries.size());
+
+		EntryPageDTO page = journal.getEntryPage(4090, 10);
+		assertEquals(journal.getVersion(), page.version);
+		assertEquals(4094, page.entryCount);
+		assertEquals(4, page.entries.size());
+		assertEquals(2, page.entries.get(3).ID);
+	}
+
+	@Test
+	public void shouldApplyEntryChangesToJournalTable() throws Exception {
+		journal.addAccount("Test account #1");
+		for (int i = 0; i < 5; ++i) {
+			journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 1 + i).getTime(), "", new BigDecimal("100.00"));
+		}
+
+		CountingEntrySource source = new CountingEntrySource();
+		JournalTable table = new JournalTable(source);
+		final ArrayList<String> events = new ArrayList<>();
+		table.addTableModelListener(new TableModelListener() {
+			@Override
+			public void tableChanged(TableModelEvent e) {
+				events.add(e.getType() + " " + e.getFirstRow() + " " + e.getLastRow());
+			}
+		});
+
+		assertEquals(5, table.getRowCount());
+		assertEquals(journal.getVersion(), table.getVersion());
+		assertJournalTableRows(table);
+
+		// Rows below a removed one move up, rows below an added one move down
+		int removedEntryID = (Integer) table.getValueAt(3, 0);
+		int markedEntryID = (Integer) table.getValueAt(4, 0);
+		table.setValueAt(true, 3, 11);
+		table.setValueAt(true, 4, 11);
+		journal.removeEntry(removedEntryID);
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 4).getTime(), "", new BigDecimal("100.00"));
+
+		EntryChangesDTO changes = journal.getEntryChanges(table.getVersion());
+		table.applyChanges(changes);
+
+		assertEquals(Arrays.asList(TableModelEvent.DELETE + " 3 3", TableModelEvent.INSERT + " " + changes.addedRows[0] + " " + changes.addedRows[0]), events);
+		assertEquals(5, table.getRowCount());
+		assertEquals(journal.getVersion(), table.getVersion());
+		assertEquals(Arrays.asList(markedEntryID), table.getEntryIDsToDelete());
+		assertJournalTableRows(table);
+
+		// Rows out of range reload the table
+		events.clear();
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 6).getTime(), "", new BigDecimal("100.00"));
+		table.applyChanges(new EntryChangesDTO(journal.getVersion(), new ArrayList<JournalEntryDTO>(), new int[0], new ArrayList<JournalEntryDTO>(), new int[] {5}));
+
+		assertEquals(Arrays.asList(TableModelEvent.UPDATE + " 0 " + Integer.MAX_VALUE), events);
+		assertEquals(6, table.getRowCount());
+		assertEquals(journal.getVersion(), table.getVersion());
+		assertJournalTableRows(table);
+	}
+
+	@Test
+	public void shouldPageJournalTableEntries() throws Exception {
+		journal.addAccount("Test account #1");
+
+		ArrayList<EntryCommand> commands = new ArrayList<>();
+		for (int i = 0; i < 6000; ++i) {
+			commands.add(EntryCommand.depositCash(0, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("1.00")));
+		}
+		journal.applyBatch(commands);
+
+		int pageSize = (Integer) PA.getValue(JournalTable.class, "PAGE_SIZE");
+		final CountingEntrySource source = new CountingEntrySource();
+		final JournalTable table = new JournalTable(source);
+		assertEquals(1, source.fetches.get());
+
+		// Neighbouring pages are fetched along
+		table.getValueAt(0, 0);
+		table.getValueAt(pageSize * 10, 0);
+		table.getValueAt(pageSize * 9, 0);
+		table.getValueAt(pageSize * 11 + pageSize - 1, 0);
+		assertEquals(2, source.fetches.get());
+
+		// The least recently used pages are evicted
+		for (int page = 13; page <= 43; page += 3) {
+			table.getValueAt(pageSize * page, 0);
+		}
+		assertEquals(13, source.fetches.get());
+
+		table.getValueAt(pageSize * 44, 0);
+		table.getValueAt(pageSize * 13, 0);
+		assertEquals(13, source.fetches.get());
+
+		table.getValueAt(pageSize * 10, 0);
+		assertEquals(14, source.fetches.get());
+		table.getValueAt(0, 0);
+		assertEquals(15, source.fetches.get());
+
+		// Pages read ahead of pending changes are only kept for the current event
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", new BigDecimal("1.00"));
+		table.applyChanges(journal.getEntryChanges(table.getVersion()));
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 3).getTime(), "", new BigDecimal("1.00"));
+		final int[] fetches = new int[2];
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				for (int column = 0; column < table.getColumnCount(); ++column) {
+					table.getValueAt(0, column);
+				}
+				fetches[0] = source.fetches.get();
+			}
+		});
+
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				table.getValueAt(0, 0);
+				fetches[1] = source.fetches.get();
+			}
+		});
+
+		assertEquals(16, fetches[0]);
+		assertEquals(17, fetches[1]);
+
+		table.applyChanges(journal.getEntryChanges(table.getVersion()));
+		assertJournalTableRows(table);
+	}
+
+	private void assertJournalTableRows(JournalTable table) {
+		EntryPageDTO page = journal.getEntryPage(0, table.getRowCount());
+		assertEquals(page.entryCount, table.getRowCount());
+
+		for (int row = 0; row < table.getRowCount(); ++row) {
+			assertEquals(page.entries.get(row).ID, table.getValueAt(row, 0));
+		}
+	}
+
+	/**
+	 * Reads journal entry pages, counting the reads.
+	 */
+	private class CountingEntrySource implements JournalTable.EntrySource {
+
+		final AtomicInteger fetches = new AtomicInteger();
+
+		@Override
+		public EntryPageDTO getEntryPage(int firstRow, int count) {
+			fetches.incrementAndGet();
+			return journal.getEntryPage(firstRow, count);
+		}
+	}
+
+	@Test
+	public void shouldLoadHoldingTreeNodesLazily() throws Exception {
+		journal.addAccount("Test account #1");
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("10000.00"));
+		journal.addCashAllocationEntry(0, 0, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("10000.00"));
+		journal.addBuyEquityTransactionEntry(0, 0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), BigDecimal.ZERO);
+		journal.addBuyEquityTransactionEntry(0, 0, "", new GregorianCalendar(2012, 1, 2).getTime(), "", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), BigDecimal.ZERO);
+
+		HoldingTable table = new HoldingTable("Holdings", journal.getAccountDTO(0).holdings.equityHoldings, false, HoldingTable.ParentType.ACCOUNT, 0);
+		Object root = table.getRoot();
+		Object holding = table.getChild(root, 0);
+
+		// Checking for children does not wrap them in nodes
+		assertEquals(1, table.getChildCount(root));
+		assertTrue(!table.isLeaf(holding));
+		assertNull(PA.getValue(holding, "children"));
+
+		assertEquals(2, table.getChildCount(holding));
+		assertNotNull(PA.getValue(holding, "children"));
+		assertSame(table.getChild(holding, 1), table.getChild(holding, 1));
+
+		Object position = table.getChild(holding, 0);
+		assertNull(PA.getValue(position, "children"));
+		assertTrue(table.isLeaf(table.getChild(position, 0)));
+	}
+
+	@Test
+	public void shouldUpdateHoldingTreeNodesInPlace() throws Exception {
+		journal.addAccount("Test account #1");
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("10000.00"));
+		journal.addCashAllocationEntry(0, 0, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("10000.00"));
+		journal.addBuyEquityTransactionEntry(0, 0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), BigDecimal.ZERO);
+		journal.addBuyEquityTransactionEntry(0, 0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", "TICKER-B", new BigDecimal("10"), new BigDecimal("10.00"), BigDecimal.ZERO);
+
+		ArrayList<HoldingsDTO.EquityHoldingDTO> holdings = journal.getAccountDTO(0).holdings.equityHoldings;
+		HoldingTable table = new HoldingTable("Holdings", holdings, false, HoldingTable.ParentType.ACCOUNT, 0);
+		TreeEventRecorder events = new TreeEventRecorder();
+		table.addTreeModelListener(events);
+
+		Object root = table.getRoot();
+		Object firstHolding = table.getChild(root, 0);
+		Object secondHolding = table.getChild(root, 1);
+		String firstTicker = holdings.get(0).ticker;
+		String secondTicker = holdings.get(1).ticker;
+
+		// Unchanged holdings fire nothing
+		table.setHoldings(holdings);
+		assertEquals(0, events.events.size());
+
+		// A removed holding is reported at its previous index
+		ArrayList<HoldingsDTO.EquityHoldingDTO> changedHoldings = new ArrayList<>(holdings.subList(1, 2));
+		table.setHoldings(changedHoldings);
+		assertEquals(Arrays.asList("removed [] [0]"), events.take());
+		assertSame(secondHolding, table.getChild(root, 0));
+
+		// An inserted holding is reported at its new index, the kept one as changed
+		journal.addBuyEquityTransactionEntry(0, 0, "", new GregorianCalendar(2012, 0, 3).getTime(), "", secondTicker, new BigDecimal("10"), new BigDecimal("10.00"), BigDecimal.ZERO);
+		holdings = journal.getAccountDTO(0).holdings.equityHoldings;
+		table.setHoldings(holdings);
+		assertEquals(Arrays.asList("inserted [] [0]", "changed [] [1]"), events.take());
+		assertSame(secondHolding, table.getChild(root, 1));
+		assertNotSame(firstHolding, table.getChild(root, 0));
+		assertEquals(firstTicker, holdings.get(0).ticker);
+		assertSame(holdings.get(0), PA.getValue(table.getChild(root, 0), "data"));
+
+		// Reordered holdings fall back to a structure change, keeping the nodes
+		firstHolding = table.getChild(root, 0);
+		changedHoldings = new ArrayList<>(holdings);
+		Collections.reverse(changedHoldings);
+		table.setHoldings(changedHoldings);
+		assertEquals(Arrays.asList("structure []"), events.take());
+		assertSame(secondHolding, table.getChild(root, 0));
+		assertSame(firstHolding, table.getChild(root, 1));
+		table.setHoldings(holdings);
+		events.take();
+
+		// Holdings read again are all changed, loaded positions are updated in place
+		assertEquals(1, table.getChildCount(secondHolding));
+		journal.addBuyEquityTransactionEntry(0, 0, "", new GregorianCalendar(2012, 0, 4).getTime(), "", secondTicker, new BigDecimal("10"), new BigDecimal("10.00"), BigDecimal.ZERO);
+		table.setHoldings(journal.getAccountDTO(0).holdings.equityHoldings);
+		assertEquals(Arrays.asList("changed [] [0]", "changed [] [1]", "changed [" + secondTicker + "] [0]"), events.take());
+
+		// A new position is loaded again
+		Object position = table.getChild(secondHolding, 0);
+		journal.addBuyEquityTransactionEntry(0, 0, "", new GregorianCalendar(2012, 1, 4).getTime(), "", secondTicker, new BigDecimal("10"), new BigDecimal("10.00"), BigDecimal.ZERO);
+		table.setHoldings(journal.getAccountDTO(0).holdings.equityHoldings);
+		assertEquals(Arrays.asList("changed [] [0]", "changed [] [1]", "structure [" + secondTicker + "]"), events.take());
+		assertEquals(2, table.getChildCount(secondHolding));
+		assertNotSame(position, table.getChild(secondHolding, 0));
+	}
+
+	@Test
+	public void shouldMatchHoldingTreePositionsByName() throws Exception {
+		journal.addAccount("Test account #1");
+		journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("10000.00"));
+		journal.addCashAllocationEntry(0, 0, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("10000.00"));
+		journal.addBuyEquityTransactionEntry(0, 0, "", new GregorianCalendar(2012, 0, 2).getTime(), "", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), BigDecimal.ZERO);
+
+		HoldingTable table = new HoldingTable("Holdings", journal.getAccountDTO(0).holdings.equityHoldings, false, HoldingTable.ParentType.ACCOUNT, 0);
+		TreeEventRecorder events = new TreeEventRecorder();
+		table.addTreeModelListener(events);
+
+		Object root = table.getRoot();
+		Object holding = table.getChild(root, 0);
+		Object position = table.getChild(holding, 0);
+		assertEquals(1, table.getChildCount(position));
+
+		// The only position is closed and another one opened in a later month
+		journal.addSellEquityTransactionEntry(0, 0, "", new GregorianCalendar(2012, 1, 2).getTime(), "", "TICKER-A", new BigDecimal("10"), new BigDecimal("11.00"), BigDecimal.ZERO);
+		journal.addBuyEquityTransactionEntry(0, 0, "", new GregorianCalendar(2012, 1, 3).getTime(), "", "TICKER-A", new BigDecimal("5"), new BigDecimal("12.00"), BigDecimal.ZERO);
+		ArrayList<HoldingsDTO.EquityHoldingDTO> holdings = journal.getAccountDTO(0).holdings.equityHoldings;
+		table.setHoldings(holdings);
+
+		assertEquals(Arrays.asList("changed [] [0]", "structure [TICKER-A]"), events.take());
+		assertSame(holding, table.getChild(root, 0));
+		assertNotSame(position, table.getChild(holding, 0));
+		assertSame(holdings.get(0).positions.get(0), PA.getValue(table.getChild(holding, 0), "data"));
+	}
+
+	/**
+	 * Records tree model events as strings of their type, path below the root
+	 * and child indices.
+	 */
+	private static class TreeEventRecorder implements TreeModelListener {
+
+		final ArrayList<String> events = new ArrayList<>();
+
+		ArrayList<String> take() {
+			ArrayList<String> takenEvents = new ArrayList<>(events);
+			events.clear();
+			return takenEvents;
+		}
+
+		private void record(String type, TreeModelEvent e) {
+			StringBuilder path = new StringBuilder();
+			Object[] nodes = e.getPath();
+			for (int i = 1; i < nodes.length; ++i) {
+				Object data;
+				try {
+					data = PA.getValue(nodes[i], "data");
+				} catch (NoSuchFieldException ex) {
+					throw new AssertionError(ex);
+				}
+				path.append(i > 1 ? "/" : "").append(data instanceof HoldingsDTO.EquityHoldingDTO ? ((HoldingsDTO.EquityHoldingDTO) data).ticker : ((HoldingsDTO.EquityPositionDTO) data).name);
+			}
+
+			events.add(type + " [" + path + "]" + (e.getChildIndices() == null || e.getChildIndices().length == 0 ? "" : " " + Arrays.toString(e.getChildIndices())));
+		}
+
+		@Override
+		public void treeNodesChanged(TreeModelEvent e) {
+			record("changed", e);
+		}
+
+		@Override
+		public void treeNodesInserted(TreeModelEvent e) {
+			record("inserted", e);
+		}
+
+		@Override
+		public void treeNodesRemoved(TreeModelEvent e) {
+			record("removed", e);
+		}
+
+		@Override
+		public void treeStructureChanged(TreeModelEvent e) {
+			record("structure", e);
+		}
+	}
+
+	@Test
+	public void shouldCoalesceModelEventBursts() throws Exception {
+		class TestEventSource extends GenericModelEventSource {
+			void publish(GenericModelEvent event) {
+				fireEvent(event);
+			}
+		}
+
+		final ArrayList<GenericModelEvent> deliveredEvents = new ArrayList<>();
+		final LinkedBlockingQueue<Runnable> deliveries = new LinkedBlockingQueue<>();
+		TestEventSource source = new TestEventSource();
+
+		source.addEventListener(new GenericModelEventListenerAdapter() {
+			@Override
+			public void visitModelEvent(GenericModelEvent e) {
+				deliveredEvents.add(e);
+			}
+		}, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				deliveries.add(command);
+			}
+		});
+
+		// A journal update covers quote updates, a closed journal drops all pending updates
+		source.publish(new QuoteUpdatedModelEvent(source, Collections.singleton("TICKER-A")));
+		source.publish(new JournalUpdatedModelEvent(source));
+		source.publish(new NodesUpdatedModelEvent(source));
+		source.publish(new QuoteUpdatedModelEvent(source));
+		source.publish(new JournalUpdatedModelEvent(source));
+		source.publish(new JournalClosedModelEvent(source));
+		source.publish(new JournalUpdatedModelEvent(source));
+		deliveries.poll(5, TimeUnit.SECONDS).run();
+
+		assertEquals(2, deliveredEvents.size());
+		assertTrue(deliveredEvents.get(0) instanceof JournalClosedModelEvent);
+		assertTrue(deliveredEvents.get(1) instanceof JournalUpdatedModelEvent);
+		assertNull(deliveries.poll());
+
+		// Tickers of quote updates are merged
+		deliveredEvents.clear();
+		source.publish(new QuoteUpdatedModelEvent(source, Collections.singleton("TICKER-A")));
+		source.publish(new NodesUpdatedModelEvent(source));
+		source.publish(new QuoteUpdatedModelEvent(source, Collections.singleton("TICKER-B")));
+		deliveries.poll(5, TimeUnit.SECONDS).run();
+
+		assertEquals(2, deliveredEvents.size());
+		assertTrue(deliveredEvents.get(0) instanceof NodesUpdatedModelEvent);
+		assertEquals(new HashSet<>(Arrays.asList("TICKER-A", "TICKER-B")), ((QuoteUpdatedModelEvent) deliveredEvents.get(1)).getTickers());
+	}
+
+	@Test
+	public void shouldComputeMarketValueAsOfDate() throws Exception {
+		File textFile = File.createTempFile("traderate", ".csv");
+		File binaryFile = File.createTempFile("traderate", ".trh");
+
+		try {
+			Files.write(textFile.toPath(), Arrays.asList(
+					"# ticker, date, close",
+					"TICKER-A, 2012-01-04, 12.00",
+					"TICKER-A, 2012-01-02, 10.00",
+					"TICKER-B, 2012-01-03, 5.50"
+			), Charset.forName("UTF-8"));
+
+			journal.addAccount("Test account #1");
+			journal.addPortfolio("Test portfolio #1", 0);
+			journal.addPortfolio("Test portfolio #2", 1);
+			journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("1000.00"));
+			journal.addCashAllocationEntry(0, 1, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("500.00"));
+			journal.addCashAllocationEntry(0, 2, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("500.00"));
+			journal.addBuyEquityTransactionEntry(0, 1, "", new GregorianCalendar(2012, 0, 2).getTime(), "", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), new BigDecimal("0.00"));
+			journal.addBuyEquityTransactionEntry(0, 2, "", new GregorianCalendar(2012, 0, 3).getTime(), "", "TICKER-B", new BigDecimal("20"), new BigDecimal("5.00"), new BigDecimal("0.00"));
+			journal.addSellEquityTransactionEntry(0, 1, "", new GregorianCalendar(2012, 0, 5).getTime(), "", "TICKER-A", new BigDecimal("4"), new BigDecimal("12.00"), new BigDecimal("0.00"));
+
+			PriceHistory priceHistory = PriceHistory.load(textFile);
+			priceHistory.write(binaryFile);
+
+			for (PriceHistory history : Arrays.asList(priceHistory, PriceHistory.load(binaryFile))) {
+				assertEquals(0, journal.getAccountMarketValue(0, new GregorianCalendar(2012, 0, 1).getTime(), history).signum());
+				assertEquals(new BigDecimal("100.00"), journal.getAccountMarketValue(0, new GregorianCalendar(2012, 0, 2).getTime(), history));
+				assertEquals(new BigDecimal("210.00"), journal.getAccountMarketValue(0, new GregorianCalendar(2012, 0, 3, 9, 0).getTime(), history));
+				assertEquals(new BigDecimal("230.00"), journal.getAccountMarketValue(0, new GregorianCalendar(2012, 0, 4).getTime(), history));
+				assertEquals(new BigDecimal("182.00"), journal.getAccountMarketValue(0, new GregorianCalendar(2012, 0, 5).getTime(), history));
+				assertEquals(new BigDecimal("182.00"), journal.getPortfolioMarketValue(1, new GregorianCalendar(2012, 0, 5).getTime(), history));
+				assertEquals(new BigDecimal("110.00"), journal.getPortfolioMarketValue(2, new GregorianCalendar(2012, 0, 5).getTime(), history));
+				assertEquals(history.getTickers(), priceHistory.getTickers());
+			}
+
+			// Holdings without known closes are valued at the latest transaction price, like in value series
+			journal.addBuyEquityTransactionEntry(0, 2, "", new GregorianCalendar(2012, 0, 2).getTime(), "", "TICKER-C", new BigDecimal("2"), new BigDecimal("5.00"), new BigDecimal("0.00"));
+			journal.addSellEquityTransactionEntry(0, 2, "", new GregorianCalendar(2012, 0, 4).getTime(), "", "TICKER-C", new BigDecimal("1"), new BigDecimal("6.00"), new BigDecimal("0.00"));
+			assertEquals(new BigDecimal("10.00"), journal.getPortfolioMarketValue(2, new GregorianCalendar(2012, 0, 2).getTime(), priceHistory));
+			assertEquals(new BigDecimal("110.00"), journal.getAccountMarketValue(0, new GregorianCalendar(2012, 0, 2).getTime(), priceHistory));
+			assertEquals(new BigDecimal("236.00"), journal.getAccountMarketValue(0, new GregorianCalendar(2012, 0, 4).getTime(), priceHistory));
+			assertEquals(new BigDecimal("106.00"), journal.getPortfolioMarketValue(2, new GregorianCalendar(2012, 0, 4).getTime(), null));
+
+			ValueSeriesDTO valueSeries = journal.getValueSeries(new GregorianCalendar(2012, 0, 4).getTime(), new GregorianCalendar(2012, 0, 4).getTime(), priceHistory);
+			ValueSeriesDTO.Series accountSeries = valueSeries.accounts.get(0);
+			assertEquals(new BigDecimal("236.00"), accountSeries.getValue(0).subtract(accountSeries.getCash(0)));
+		} finally {
+			assertTrue(textFile.delete());
+			assertTrue(binaryFile.delete());
+		}
+	}
+
+	@Test
+	public void shouldComputeDailyValueSeries() throws Exception {
+		File textFile = File.createTempFile("traderate", ".csv");
+
+		try {
+			Files.write(textFile.toPath(), Arrays.asList(
+					"TICKER-A, 2012-01-04, 12.00",
+					"TICKER-A, 2012-01-02, 10.00",
+					"TICKER-B, 2012-01-03, 5.50"
+			), Charset.forName("UTF-8"));
+
+			journal.addAccount("Test account #1");
+			journal.addPortfolio("Test portfolio #1", 0);
+			journal.addPortfolio("Test portfolio #2", 1);
+			journal.addCashDepositEntry(0, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("1000.00"));
+			journal.addCashAllocationEntry(0, 1, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("500.00"));
+			journal.addCashAllocationEntry(0, 2, "", new GregorianCalendar(2012, 0, 1).getTime(), "", new BigDecimal("500.00"));
+			journal.addBuyEquityTransactionEntry(0, 1, "", new GregorianCalendar(2012, 0, 2).getTime(), "", "TICKER-A", new BigDecimal("10"), new BigDecimal("10.00"), new BigDecimal("0.00"));
+			journal.addBuyEquityTransactionEntry(0, 2, "", new GregorianCalendar(2012, 0, 3).getTime(), "", "TICKER-B", new BigDecimal("20"), new BigDecimal("5.00"), new BigDecimal("0.00"));
+			journal.addSellEquityTransactionEntry(0, 1, "", new GregorianCalendar(2012, 0, 5).getTime(), "", "TICKER-A", new BigDecimal("4"), new BigDecimal("12.00"), new BigDecimal("0.00"));
+			journal.addCashDeallocationEntry(0, 2, "", new GregorianCalendar(2012, 0, 6).getTime(), "", new BigDecimal("100.00"));
+			journal.addCashWithdrawalEntry(0, "", new GregorianCalendar(2012, 0, 6).getTime(), "", new BigDecimal("100.00"));
+
+			PriceHistory priceHistory = PriceHistory.load(textFile);
+			ValueSeriesDTO valueSeries = journal.getValueSeries(new GregorianCalendar(2012, 0, 1).getTime(), new GregorianCalendar(2012, 0, 6).getTime(), priceHistory);
+
+			assertEquals(6, valueSeries.days);
+			assertEquals(new GregorianCalendar(2012, 0, 6, 12, 0).getTime(), valueSeries.getDate(5));
+
+			ValueSeriesDTO.Series account = valueSeries.accounts.get(0);
+			String[] accountValues = {"1000.00", "1000.00", "1010.00", "1030.00", "1030.00", "930.00"};
+			for (int day = 0; day < accountValues.length; ++day) {
+				assertEquals(new BigDecimal(accountValues[day]), account.getValue(day));
+			}
+			assertEquals(new BigDecimal("848.00"), account.getCash(4));
+			assertEquals(new BigDecimal("1000.00"), account.getFlow(0));
+			assertEquals(new BigDecimal("-100.00"), account.getFlow(5));
+			assertEquals(0.01, account.getTimeWeightedReturn(2), 1e-9);
+			assertEquals(0.03, account.getTimeWeightedReturn(5), 1e-9);
+			assertEquals(0.03, account.getMoneyWeightedReturn(5), 1e-9);
+
+			// Parent portfolios aggregate their children
+			assertEquals(new BigDecimal("930.00"), valueSeries.portfolios.get(0).getValue(5));
+			assertEquals(new BigDecimal("930.00"), valueSeries.portfolios.get(1).getValue(5));
+			assertEquals(new BigDecimal("1000.00"), valueSeries.portfolios.get(1).getFlow(0));
+
+			ValueSeriesDTO.Series portfolio = valueSeries.portfolios.get(2);
+			assertEquals(new BigDecimal("510.00"), portfolio.getValue(2));
+			assertEquals(new BigDecimal("300.00"), portfolio.getCash(5));
+			assertEquals(new BigDecimal("-100.00"), portfolio.getFlow(5));
+			assertEquals(0.02, portfolio.getTimeWeightedReturn(5), 1e-9);
+			assertEquals(0.02, portfolio.getMoneyWeightedReturn(5), 1e-9);
+
+			// Entries before the first day only set up the initial state
+			valueSeries = journal.getValueSeries(new GregorianCalendar(2012, 0, 3).getTime(), new GregorianCalendar(2012, 0, 4).getTime(), null);
+			account = valueSeries.accounts.get(0);
+			assertEquals(new BigDecimal("1000.00"), account.getValue(0));
+			assertEquals(0, account.getFlow(0).signum());
+			assertEquals(0.0, account.getTimeWeightedReturn(1), 1e-9);
+		} finally {
+			assertTrue(textFile.delete());
+		}
+	}
+
+	@Test
+	public void shouldComputeValueSeriesOfLargeJournalQuickly() throws Exception {
+		File textFile = File.createTempFile("traderate", ".csv");
+
+		try {
+			// 10 years of 300000 entries in 100 tickers, with daily closes of every ticker
+			int days = 3650;
+			GregorianCalendar firstDay = new GregorianCalendar(2000, 0, 1);
+			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+			ArrayList<String> closes = new ArrayList<>();
+
+			for (int day = 0; day < days; ++day) {
+				GregorianCalendar date = (GregorianCalendar) firstDay.clone();
+				date.add(Calendar.DAY_OF_MONTH, day);
+				for (int ticker = 0; ticker < 100; ++ticker) {
+					closes.add("TICKER-" + ticker + ", " + dateFormat.format(date.getTime()) + ", " + (10 + ticker % 7) + "." + (day % 100));
+				}
+			}
+			Files.write(textFile.toPath(), closes, Charset.forName("UTF-8"));
+
+			journal.addAccount("Test account #1");
+			journal.addPortfolio("Test portfolio #1", 0);
+			journal.addCashDepositEntry(0, "", firstDay.getTime(), "", new BigDecimal("10000000.00"));
+			journal.addCashAllocationEntry(0, 1, "", firstDay.getTime(), "", new BigDecimal("10000000.00"));
+
+			ArrayList<EntryCommand> commands = new ArrayList<>();
+			for (int i = 0; i < 300000; ++i) {
+				GregorianCalendar date = (GregorianCalendar) firstDay.clone();
+				date.add(Calendar.DAY_OF_MONTH, (int) ((long) i * days / 300000));
+				String ticker = "TICKER-" + (i / 2) % 100;
+
+				if (i % 2 == 0) {
+					commands.add(EntryCommand.buyEquity(0, 1, "", date.getTime(), "", ticker, new BigDecimal("2"), new BigDecimal("10.00"), new BigDecimal("1.00")));
+				} else {
+					commands.add(EntryCommand.sellEquity(0, 1, "", date.getTime(), "", ticker, new BigDecimal("1"), new BigDecimal("11.00"), new BigDecimal("1.00")));
+				}
+			}
+			journal.applyBatch(commands);
+
+			PriceHistory priceHistory = PriceHistory.load(textFile);
+			GregorianCalendar lastDay = (GregorianCalendar) firstDay.clone();
+			lastDay.add(Calendar.DAY_OF_MONTH, days - 1);
+
+			// Warm up
+			journal.getValueSeries(firstDay.getTime(), lastDay.getTime(), priceHistory);
+
+			long startTime = System.nanoTime();
+			ValueSeriesDTO valueSeries = journal.getValueSeries(firstDay.getTime(), lastDay.getTime(), priceHistory);
+			long duration = System.nanoTime() - startTime;
+
+			assertEquals(days, valueSeries.days);
+			assertEquals(journal.getAccountMarketValue(0, lastDay.getTime(), priceHistory), valueSeries.accounts.get(0).getValue(days - 1).subtract(valueSeries.accounts.get(0).getCash(days - 1)));
+			assertTrue("Value series took " + duration / 1000000 + " ms", duration < 1000L * 1000 * 1000);
+		} finally {
+			assertTrue(textFile.delete());
+		}
+	}
+
+	@Test(expected=InvalidInputException.class)
+	public void shouldRejectEmptyValueSeriesRange() throws Exception {
+		journal.getValueSeries(new GregorianCalendar(2012, 0, 2).getTime(), new GregorianCalendar(2012, 0, 1).getTime(), null);
+	}
+
+	/**
+	 * Starts a local quote feed which serves a fixed price after a short delay.
+	 *
+	 * @param requests           Counter of received requests
+	 * @param maxActiveRequests  Maximum number of requests served at the same time
+	 * @param unavailableTickers Tickers answered with an error
+	 * @return Running server
+	 */
+	private HttpServer startQuoteServer(final AtomicInteger requests, final AtomicInteger maxActiveRequests, final Set<String> unavailableTickers) throws IOException {
+		final AtomicInteger activeRequests = new AtomicInteger();
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				int active = activeRequests.incrementAndGet();
+				int maxActive = maxActiveRequests.get();
+
+				while (active > maxActive && !maxActiveRequests.compareAndSet(maxActive, active)) {
+					maxActive = maxActiveRequests.get();
+				}
+
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException ignored) {
+
+				}
+
+				activeRequests.decrementAndGet();
+
+				if (unavailableTickers.contains(exchange.getRequestURI().getPath().substring(1))) {
+					exchange.sendResponseHeaders(404, -1);
+				} else {
+					byte[] response = "12.50".getBytes("UTF-8");
+					exchange.sendResponseHeaders(200, response.length);
+					exchange.getResponseBody().write(response);
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+
+		return server;
+	}
+
+	/**
+	 * Benchmarks holding list operations, the cost of a single trade should not depend on the number of tickers.
+	 *
+	 * @throws EntryInsertionException
+	 * @throws ObjectConstraintsException
+	 */
+	@Test
+	public void shouldKeepPerTradeCostFlatGivenManyTickers() throws EntryInsertionException, ObjectConstraintsException {
+		// Warm up
+		measureHoldingListOperations(2000);
+
+		long smallListTime = Long.MAX_VALUE;
+		long largeListTime = Long.MAX_VALUE;
+
+		for (int i = 0; i < 3; ++i) {
+			smallListTime = Math.min(smallListTime, measureHoldingListOperations(500) / 500);
+			largeListTime = Math.min(largeListTime, measureHoldingListOperations(8000) / 8000);
+		}
+
+		assertTrue(largeListTime < 6 * smallListTime);
+	}
+
+	/**
+	 * Opens, closes and merges trades in a given number of tickers.
+	 *
+	 * @return Time taken in nanoseconds
+	 */
+	private long measureHoldingListOperations(int numberOfTickers) throws EntryInsertionException, ObjectConstraintsException {
+		Account account = new Account("Benchmark account");
+		Portfolio portfolio = new Portfolio(journal, "Benchmark portfolio");
+		Date date = new GregorianCalendar(2000, 0, 1).getTime();
+
+		ArrayList<BuyEquityTransactionEntry> buyEntries = new ArrayList<>();
+		ArrayList<SellEquityTransactionEntry> sellEntries = new ArrayList<>();
+
+		for (int i = 0; i < numberOfTickers; ++i) {
+			String ticker = "TICKER-" + i;
+			buyEntries.add(new BuyEquityTransactionEntry(account, portfolio, null, date, "", ticker, new BigDecimal("2"), new BigDecimal("10.00"), new BigDecimal("1.00"), "Position"));
+			sellEntries.add(new SellEquityTransactionEntry(account, portfolio, null, date, "", ticker, new BigDecimal("1"), new BigDecimal("11.00"), new BigDecimal("1.00"), "Position"));
+		}
+
+		HoldingList holdings = new HoldingList();
+		HoldingList aggregatedHoldings = new HoldingList();
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < numberOfTickers; ++i) {
+			holdings.open(buyEntries.get(i));
+		}
+
+		for (int i = 0; i < numberOfTickers; ++i) {
+			holdings.close(sellEntries.get(i));
+		}
+
+		aggregatedHoldings.merge(holdings);
+		aggregatedHoldings.merge(holdings);
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Fills a journal with a trading history on every odd day (counted from 2000-01-01) of a given range.
+	 */
+	private void populateOddDayHistory(Journal journal, int fromDay, int toDay, int skippedDepositDay) throws ObjectNotFoundException, InvalidInputException, EntryInsertionException, ObjectConstraintsException, NoSuchFieldException {
+		PA.setValue(TradeRateConfig.class, "deferredComputationMode", true);
+
+		for (int d = fromDay; d < toDay; d += 2) {
+			String ticker = (d % 4 == 1) ? "TICKER-A" : "TICKER-B";
+			if (d != skippedDepositDay) {
+				journal.addCashDepositEntry(0, "Example tag", new GregorianCalendar(2000, 0, d).getTime(), "Some comment", new BigDecimal("100.00"));
+			}
+			journal.addCashAllocationEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, d).getTime(), "Some comment", new BigDecimal("50.00"));
+			journal.addBuyEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, d).getTime(), "Some comment", ticker, new BigDecimal("2"), new BigDecimal("10.00"), new BigDecimal("1.00"));
+			if (d % 3 == 0) {
+				journal.addSellEquityTransactionEntry(0, 1, "Example tag", new GregorianCalendar(2000, 0, d).getTime(), "Some comment", ticker, new BigDecimal("1"), new BigDecimal("11.00"), new BigDecimal("1.00"));
+			}
+		}
+
+		PA.setValue(TradeRateConfig.class, "deferredComputationMode", false);
+		journal.update();
+	}
+
 	/**
 	 * Warning: This test is designed to take a long time to execute (around 20 seconds for a passing test).
 	 *